@@ -0,0 +1,141 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the writes made by ID through a {@link StatementCache} with the same writes compiled
+ * on every call, as {@link SQLiteDatabase#update} does. Run on a device, the timings are logged
+ * under the {@link #LOG_TAG} tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StatementCacheBenchmark {
+
+    private static final String LOG_TAG = StatementCacheBenchmark.class.getSimpleName();
+
+    /** Number of tools written to */
+    private static final int TOOL_COUNT = 100;
+
+    /** Number of writes timed by each run */
+    private static final int ITERATIONS = 5000;
+
+    private static final String SQL_UPDATE_PRICE = "UPDATE tools SET price=?, "
+            + "version=version+1 WHERE _id=?";
+
+    private SQLiteOpenHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+
+        // The database is kept in memory, so that the timings are not dominated by the storage
+        mDbHelper = new SQLiteOpenHelper(context, null, null, 1) {
+            @Override
+            public void onCreate(SQLiteDatabase db) {
+                db.execSQL("CREATE TABLE tools (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                        + "name TEXT NOT NULL, price REAL NOT NULL, "
+                        + "version INTEGER NOT NULL DEFAULT 0)");
+                for (int i = 0; i < TOOL_COUNT; i++) {
+                    db.execSQL("INSERT INTO tools (name, price) VALUES (?, ?)",
+                            new Object[] { "Tool " + i, i });
+                }
+            }
+
+            @Override
+            public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void updateById_compiledEveryCall() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        ContentValues values = new ContentValues();
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < ITERATIONS; i++) {
+                values.put("price", i);
+                database.update("tools", values, "_id=?",
+                        new String[] { String.valueOf(i % TOOL_COUNT + 1) });
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        report("compiled every call", SystemClock.elapsedRealtimeNanos() - start);
+    }
+
+    @Test
+    public void updateById_cached() {
+        StatementCache statements = new StatementCache(mDbHelper);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < ITERATIONS; i++) {
+                assertEquals(1, statements.executeUpdateDelete(SQL_UPDATE_PRICE,
+                        i, i % TOOL_COUNT + 1));
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        report("cached", SystemClock.elapsedRealtimeNanos() - start);
+        statements.clear();
+    }
+
+    @Test
+    public void updateById_cachedConcurrently() throws InterruptedException {
+        final StatementCache statements = new StatementCache(mDbHelper);
+        final int threadCount = 4;
+        Thread[] threads = new Thread[threadCount];
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int t = 0; t < threadCount; t++) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = offset; i < ITERATIONS; i += threadCount) {
+                        statements.executeUpdateDelete(SQL_UPDATE_PRICE, i, i % TOOL_COUNT + 1);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        report("cached, " + threadCount + " threads", SystemClock.elapsedRealtimeNanos() - start);
+
+        // Every write was applied exactly once
+        assertEquals(ITERATIONS, statements.queryForLong(0, "SELECT SUM(version) FROM tools"));
+        statements.clear();
+    }
+
+    private static void report(String name, long elapsedNanos) {
+        Log.i(LOG_TAG, String.format("%s: %.2f us/op, %.0f ops/s", name,
+                elapsedNanos / 1000.0 / ITERATIONS, ITERATIONS * 1e9 / elapsedNanos));
+    }
+}
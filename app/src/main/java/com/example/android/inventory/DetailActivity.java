@@ -1,25 +1,26 @@
 package com.example.android.inventory;
 
-import android.app.LoaderManager;
-import android.content.CursorLoader;
+import android.content.ContentUris;
 import android.content.Intent;
-import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
+import android.text.TextUtils;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.View;
+import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.example.android.inventory.data.ToolContract.ToolEntry;
+import com.example.android.inventory.data.InvalidationTracker;
+import com.example.android.inventory.data.ObservableQuery;
+import com.example.android.inventory.data.Tool;
+import com.example.android.inventory.data.ToolContract.DetailsEntry;
+import com.example.android.inventory.image.ToolImageLoader;
 
-public class DetailActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor>  {
-
-    /** Identifier for the tool data loader */
-    private static final int EXISTING_TOOL_LOADER = 0;
+public class DetailActivity extends AppCompatActivity implements ObservableQuery.Callback {
 
     /** Content URI for the existing tool (null if it's a new tool) */
     private Uri mCurrentToolUri;
@@ -27,6 +28,9 @@ public class DetailActivity extends AppCompatActivity implements
     /** EditText field to enter the tool's name */
     private TextView mNameEditText;
 
+    /** TextView field showing the tool's SKU */
+    private TextView mSkuTextView;
+
     /** EditText field to enter the tool's price */
     private TextView mPriceEditText;
 
@@ -39,6 +43,41 @@ public class DetailActivity extends AppCompatActivity implements
     /** EditText field to enter the supplier's phone number */
     private TextView mSupplierNumberEditText;
 
+    /** ImageView showing the tool's photo */
+    private ImageView mPhotoImageView;
+
+    /** Tool currently shown (null until it has been loaded) */
+    private Tool mTool;
+
+    /** Query of the tool, re-run whenever it changes */
+    private ObservableQuery mToolQuery;
+
+    /** Query of the details of the tool, which are not part of the tool itself */
+    private ObservableQuery mDetailsQuery;
+
+    /** Labels and TextViews showing the details of the tool, hidden while they are empty */
+    private TextView[] mDetailsLabels;
+    private TextView[] mDetailsTextViews;
+
+    /** Columns of the details shown, in the order of their views */
+    private static final String[] DETAILS_PROJECTION = { DetailsEntry.COLUMN_DESCRIPTION,
+            DetailsEntry.COLUMN_NOTES, DetailsEntry.COLUMN_SPECS };
+
+    /** Shows the details of the tool once they are read */
+    private final ObservableQuery.Callback mDetailsCallback = new ObservableQuery.Callback() {
+        @Override
+        public void onQueryResult(Cursor cursor) {
+            boolean found = cursor != null && cursor.moveToFirst();
+            for (int i = 0; i < DETAILS_PROJECTION.length; i++) {
+                String text = found ? cursor.getString(i) : null;
+                int visibility = TextUtils.isEmpty(text) ? View.GONE : View.VISIBLE;
+                mDetailsTextViews[i].setText(text);
+                mDetailsTextViews[i].setVisibility(visibility);
+                mDetailsLabels[i].setVisibility(visibility);
+            }
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -50,16 +89,38 @@ public class DetailActivity extends AppCompatActivity implements
         // Otherwise this is an existing tool, so change app bar to say "Edit Tool"
         setTitle(getString(R.string.detail_activity_title_tool));
 
-        // Initialize a loader to read the tool data from the database
-        // and display the current values in the editor
-        getLoaderManager().initLoader(EXISTING_TOOL_LOADER, null, this);
+        // Since the details show all tool attributes, the whole tool is read, which can then
+        // be handed over to the editor. The query only depends on this tool, so the changes
+        // made to other tools do not re-run it.
+        mToolQuery = InvalidationTracker.getInstance(this).query(
+                mCurrentToolUri,         // Query the content URI for the current tool
+                Tool.PROJECTION,         // Columns to include in the resulting Cursor
+                null,           // No selection clause
+                null,       // No selection arguments
+                null);         // Default sort order
+
+        // The details are only read here, with their own query, so that the catalog never
+        // reads them along with the tools
+        mDetailsQuery = InvalidationTracker.getInstance(this).query(
+                DetailsEntry.buildToolDetailsUri(ContentUris.parseId(mCurrentToolUri)),
+                DETAILS_PROJECTION, null, null, null);
 
         // Find all relevant views that we will need to read user input from
         mNameEditText = (TextView) findViewById(R.id.detail_tool_filed_name);
+        mSkuTextView = (TextView) findViewById(R.id.detail_tool_filed_sku);
         mPriceEditText = (TextView) findViewById(R.id.detail_tool_filed_price);
         mQuantityEditText = (TextView) findViewById(R.id.detail_tool_filed_quantity);
         mSupplierEditText = (TextView) findViewById(R.id.detail_tool_filed_supplier_name);
         mSupplierNumberEditText = (TextView) findViewById(R.id.detail_tool_filed_supplier_number);
+        mPhotoImageView = (ImageView) findViewById(R.id.detail_tool_photo);
+        mDetailsLabels = new TextView[] {
+                (TextView) findViewById(R.id.detail_tool_label_description),
+                (TextView) findViewById(R.id.detail_tool_label_notes),
+                (TextView) findViewById(R.id.detail_tool_label_specs) };
+        mDetailsTextViews = new TextView[] {
+                (TextView) findViewById(R.id.detail_tool_field_description),
+                (TextView) findViewById(R.id.detail_tool_field_notes),
+                (TextView) findViewById(R.id.detail_tool_field_specs) };
     }
 
     @Override
@@ -89,6 +150,11 @@ public class DetailActivity extends AppCompatActivity implements
                 // Set the URI on the data field of the intent
                 intent.setData(mCurrentToolUri);
 
+                // Hand over the tool already loaded, so the editor does not query it again
+                if (mTool != null) {
+                    intent.putExtra(EditorActivity.EXTRA_TOOL, mTool);
+                }
+
                 // Launch the {@link EditorActivity} to display the data for the current tool.
                 startActivity(intent);
                 return true;
@@ -102,6 +168,28 @@ public class DetailActivity extends AppCompatActivity implements
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        mToolQuery.start(this);
+        mDetailsQuery.start(mDetailsCallback);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mToolQuery.stop();
+        mDetailsQuery.stop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        ToolImageLoader.getInstance(this).cancel(mPhotoImageView);
+        mToolQuery.close();
+        mDetailsQuery.close();
+    }
+
     /**
      * This method is called when the back button is pressed.
      */
@@ -113,28 +201,7 @@ public class DetailActivity extends AppCompatActivity implements
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Since the editor shows all tool attributes, define a projection that contains
-        // all columns from the tool table
-        String[] projection = {
-                ToolEntry._ID,
-                ToolEntry.COLUMN_TOOL_NAME,
-                ToolEntry.COLUMN_TOOL_PRICE,
-                ToolEntry.COLUMN_TOOL_QUANTITY,
-                ToolEntry.COLUMN_SUPPLIER_NAME,
-                ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER };
-
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                mCurrentToolUri,         // Query the content URI for the current tool
-                projection,              // Columns to include in the resulting Cursor
-                null,           // No selection clause
-                null,       // No selection arguments
-                null);         // Default sort order
-    }
-
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+    public void onQueryResult(Cursor cursor) {
         // Bail early if the cursor is null or there is less than 1 row in the cursor
         if (cursor == null || cursor.getCount() < 1) {
             return;
@@ -143,36 +210,20 @@ public class DetailActivity extends AppCompatActivity implements
         // Proceed with moving to the first row of the cursor and reading data from it
         // (This should be the only row in the cursor)
         if (cursor.moveToFirst()) {
-            // Find the columns of tool attributes that we're interested in
-            int nameColumnIndex = cursor.getColumnIndex(ToolEntry.COLUMN_TOOL_NAME);
-            int priceColumnIndex = cursor.getColumnIndex(ToolEntry.COLUMN_TOOL_PRICE);
-            int quantityColumnIndex = cursor.getColumnIndex(ToolEntry.COLUMN_TOOL_QUANTITY);
-            int supplierNameColumnIndex = cursor.getColumnIndex(ToolEntry.COLUMN_SUPPLIER_NAME);
-            int supplierNumberColumnIndex = cursor.getColumnIndex(ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
-
-            // Extract out the value from the Cursor for the given column index
-            String name = cursor.getString(nameColumnIndex);
-            float price = cursor.getFloat(priceColumnIndex);
-            int quantity = cursor.getInt(quantityColumnIndex);
-            String supplierName = cursor.getString(supplierNameColumnIndex);
-            String supplieNumber = cursor.getString(supplierNumberColumnIndex);
+            // Extract out the tool from the Cursor
+            mTool = Tool.fromCursor(cursor);
 
             // Update the views on the screen with the values from the database
-            mNameEditText.setText(name);
-            mPriceEditText.setText(String.valueOf(price));
-            mQuantityEditText.setText(String.valueOf(quantity));
-            mSupplierEditText.setText(supplierName);
-            mSupplierNumberEditText.setText(supplieNumber);
+            mNameEditText.setText(mTool.getName());
+            mSkuTextView.setText(mTool.getSku());
+            mPriceEditText.setText(String.valueOf(mTool.getPrice()));
+            mQuantityEditText.setText(String.valueOf(mTool.getQuantity()));
+            mSupplierEditText.setText(mTool.getSupplierName());
+            mSupplierNumberEditText.setText(mTool.getSupplierPhoneNumber());
+
+            // The photo fills the width of the screen
+            ToolImageLoader.getInstance(this).loadToolPhoto(mTool.getId(), mTool.getPhoto(),
+                    mPhotoImageView, getResources().getDisplayMetrics().widthPixels);
         }
     }
-
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // If the loader is invalidated, clear out all the data from the input fields.
-        mNameEditText.setText("");
-        mPriceEditText.setText("");
-        mQuantityEditText.setText("");
-        mSupplierEditText.setText("");
-        mSupplierNumberEditText.setText("");
-    }
 }
@@ -1,15 +1,16 @@
 package com.example.android.inventory;
 
 import android.app.AlertDialog;
-import android.app.LoaderManager;
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
 import android.text.TextUtils;
@@ -18,18 +19,60 @@ import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.View;
 import android.widget.EditText;
+import android.widget.ImageView;
 import android.widget.Toast;
 
+import com.example.android.inventory.data.InvalidationTracker;
+import com.example.android.inventory.data.ObservableQuery;
+import com.example.android.inventory.data.Tool;
+import com.example.android.inventory.data.ToolContract;
+import com.example.android.inventory.data.ToolContract.DetailsEntry;
 import com.example.android.inventory.data.ToolContract.ToolEntry;
+import com.example.android.inventory.image.ToolImageLoader;
+
+import java.io.FileNotFoundException;
 
 /**
  * Allows user to create a new tool or edit an existing one.
  */
-public class EditorActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor>  {
+public class EditorActivity extends AppCompatActivity implements ObservableQuery.Callback {
+
+    /**
+     * Intent extra holding the {@link Tool} to edit, as already loaded by the caller. The editor
+     * shows it right away instead of querying it again.
+     */
+    public static final String EXTRA_TOOL = "com.example.android.inventory.extra.TOOL";
+
+    /** Request code of the photo picker */
+    private static final int PICK_PHOTO_REQUEST = 1;
+
+    /** Key of the chosen photo in the saved instance state */
+    private static final String STATE_PICKED_PHOTO_URI = "picked_photo_uri";
+
+    /** Key of the flag telling that the tool is read from the database, in the saved state */
+    private static final String STATE_TOOL_LOADED = "tool_loaded";
 
-    /** Identifier for the tool data loader */
-    private static final int EXISTING_TOOL_LOADER = 0;
+    /** Key of the details shown in their fields, in the saved state */
+    private static final String STATE_SHOWN_DETAILS = "shown_details";
+
+    /** Key of the flag telling that the details have been edited, in the saved state */
+    private static final String STATE_DETAILS_CHANGED = "details_changed";
+
+    /** Columns of the details edited, in the order of their fields */
+    private static final String[] DETAILS_PROJECTION = { DetailsEntry.COLUMN_DESCRIPTION,
+            DetailsEntry.COLUMN_NOTES, DetailsEntry.COLUMN_SPECS };
+
+    /** Key of the tool the edits started from, in the saved state */
+    private static final String STATE_BASE_TOOL = "base_tool";
+
+    /** Key of the flag telling that the tool has been edited, in the saved state */
+    private static final String STATE_TOOL_CHANGED = "tool_changed";
+
+    /**
+     * Number of times a save is retried once merged with the changes made meanwhile, before
+     * the user is asked
+     */
+    private static final int MAX_UPDATE_ATTEMPTS = 3;
 
     /** Content URI for the existing tool (null if it's a new tool) */
     private Uri mCurrentToolUri;
@@ -37,6 +80,9 @@ public class EditorActivity extends AppCompatActivity implements
     /** EditText field to enter the tool's name */
     private EditText mNameEditText;
 
+    /** EditText field to enter the tool's SKU */
+    private EditText mSkuEditText;
+
     /** EditText field to enter the tool's price */
     private EditText mPriceEditText;
 
@@ -49,6 +95,40 @@ public class EditorActivity extends AppCompatActivity implements
     /** EditText field to enter the supplier's phone number */
     private EditText mSupplierNumberEditText;
 
+    /** EditText fields to enter the details of the tool, in the order of DETAILS_PROJECTION */
+    private EditText[] mDetailsEditTexts;
+
+    /**
+     * Details of the tool as shown in their fields, or null until they are read. Only the
+     * details changed since are written, so a field the details were never shown in does not
+     * erase them.
+     */
+    private String[] mShownDetails;
+
+    /** Whether the user has touched a field of the details, which are then no longer filled */
+    private boolean mDetailsHaveChanged = false;
+
+    /** ImageView showing the tool's photo, tap it to choose another one */
+    private ImageView mPhotoImageView;
+
+    /** URI of the photo chosen by the user (null if the photo has not been changed) */
+    private Uri mPickedPhotoUri;
+
+    /**
+     * Tool handed over by the caller, or null if the tool is read from the database because
+     * none was handed over or it was out of date
+     */
+    private Tool mToolSnapshot;
+
+    /** Query of the tool, or null if the tool is new or the snapshot is used */
+    private ObservableQuery mToolQuery;
+
+    /**
+     * Tool as it was when the user started editing it, which is only updated if it has not
+     * changed since, or null if it has not been read yet
+     */
+    private Tool mBaseTool;
+
     /** Boolean flag that keeps track of whether the tool has been edited (true) or not (false) */
     private boolean mToolHasChanged = false;
 
@@ -64,6 +144,19 @@ public class EditorActivity extends AppCompatActivity implements
         }
     };
 
+    /**
+     * OnTouchListener of the details fields, which also keeps the details read meanwhile from
+     * replacing what the user types.
+     */
+    private View.OnTouchListener mDetailsTouchListener = new View.OnTouchListener() {
+        @Override
+        public boolean onTouch(View view, MotionEvent motionEvent) {
+            mToolHasChanged = true;
+            mDetailsHaveChanged = true;
+            return false;
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -87,35 +180,348 @@ public class EditorActivity extends AppCompatActivity implements
             // Otherwise this is an existing tool, so change app bar to say "Edit Tool"
             setTitle(getString(R.string.editor_activity_title_edit_tool));
 
-            // Initialize a loader to read the tool data from the database
-            // and display the current values in the editor
-            getLoaderManager().initLoader(EXISTING_TOOL_LOADER, null, this);
+            // Use the tool handed over by the caller, unless it turned out to be out of date
+            mToolSnapshot = intent.getParcelableExtra(EXTRA_TOOL);
+            boolean loadedBefore = savedInstanceState != null
+                    && savedInstanceState.getBoolean(STATE_TOOL_LOADED);
+            if (mToolSnapshot != null && (loadedBefore
+                    || mToolSnapshot.getId() != ContentUris.parseId(mCurrentToolUri))) {
+                mToolSnapshot = null;
+            }
+
+            if (savedInstanceState != null) {
+                mBaseTool = savedInstanceState.getParcelable(STATE_BASE_TOOL);
+                mToolHasChanged = savedInstanceState.getBoolean(STATE_TOOL_CHANGED);
+            }
+            if (mBaseTool == null) {
+                mBaseTool = mToolSnapshot;
+            }
+
+            if (mToolSnapshot == null) {
+                // Read the tool data from the database and display the current values
+                // in the editor, once the activity is started
+                createToolQuery();
+            }
         }
 
         // Find all relevant views that we will need to read user input from
         mNameEditText = (EditText) findViewById(R.id.edit_tool_name);
+        mSkuEditText = (EditText) findViewById(R.id.edit_tool_sku);
         mPriceEditText = (EditText) findViewById(R.id.edit_tool_price);
         mQuantityEditText = (EditText) findViewById(R.id.edit_tool_quantity);
         mSupplierEditText = (EditText) findViewById(R.id.edit_tool_supplier_name);
         mSupplierNumberEditText = (EditText) findViewById(R.id.edit_tool_supplier_number);
+        mPhotoImageView = (ImageView) findViewById(R.id.edit_tool_photo);
+        mDetailsEditTexts = new EditText[] {
+                (EditText) findViewById(R.id.edit_tool_description),
+                (EditText) findViewById(R.id.edit_tool_notes),
+                (EditText) findViewById(R.id.edit_tool_specs) };
+
+        // Tapping the photo opens a picker to choose another one
+        mPhotoImageView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                Intent pickIntent = new Intent(Intent.ACTION_GET_CONTENT);
+                pickIntent.setType("image/*");
+                startActivityForResult(
+                        Intent.createChooser(pickIntent, getString(R.string.choose_photo_title)),
+                        PICK_PHOTO_REQUEST);
+            }
+        });
+
+        // The details are not part of the tool, so they are read separately. The input fields
+        // restore their own text after a configuration change.
+        if (savedInstanceState != null) {
+            mShownDetails = savedInstanceState.getStringArray(STATE_SHOWN_DETAILS);
+            mDetailsHaveChanged = savedInstanceState.getBoolean(STATE_DETAILS_CHANGED);
+        }
+        if (mCurrentToolUri != null && mShownDetails == null) {
+            loadDetails();
+        }
+
+        // Restore the photo chosen before a configuration change
+        if (savedInstanceState != null) {
+            mPickedPhotoUri = savedInstanceState.getParcelable(STATE_PICKED_PHOTO_URI);
+            if (mPickedPhotoUri != null) {
+                showPickedPhoto();
+            }
+        }
+
+        if (mToolSnapshot != null) {
+            // The input fields restore their own text after a configuration change
+            if (savedInstanceState == null) {
+                showTool(mToolSnapshot);
+            } else if (mPickedPhotoUri == null) {
+                showToolPhoto(mToolSnapshot);
+            }
+            checkToolSnapshot();
+        }
 
         // Setup OnTouchListeners on all the input fields, so we can determine if the user
         // has touched or modified them. This will let us know if there are unsaved changes
         // or not, if the user tries to leave the editor without saving.
         mNameEditText.setOnTouchListener(mTouchListener);
+        mSkuEditText.setOnTouchListener(mTouchListener);
         mPriceEditText.setOnTouchListener(mTouchListener);
         mQuantityEditText.setOnTouchListener(mTouchListener);
         mSupplierEditText.setOnTouchListener(mTouchListener);
         mSupplierNumberEditText.setOnTouchListener(mTouchListener);
+        for (EditText editText : mDetailsEditTexts) {
+            editText.setOnTouchListener(mDetailsTouchListener);
+        }
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (mToolQuery != null) {
+            mToolQuery.start(this);
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (mToolQuery != null) {
+            mToolQuery.stop();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mToolQuery != null) {
+            mToolQuery.close();
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putParcelable(STATE_PICKED_PHOTO_URI, mPickedPhotoUri);
+        outState.putBoolean(STATE_TOOL_LOADED, mToolSnapshot == null);
+        outState.putParcelable(STATE_BASE_TOOL, mBaseTool);
+        outState.putBoolean(STATE_TOOL_CHANGED, mToolHasChanged);
+        outState.putStringArray(STATE_SHOWN_DETAILS, mShownDetails);
+        outState.putBoolean(STATE_DETAILS_CHANGED, mDetailsHaveChanged);
+    }
+
+    /**
+     * Check in the background that the tool handed over by the caller is still current, by
+     * reading its version only. If it has changed in the meantime, the whole tool is read from
+     * the database and replaces it.
+     */
+    private void checkToolSnapshot() {
+        final ContentResolver resolver = getContentResolver();
+        final Uri toolUri = mCurrentToolUri;
+        final long version = mToolSnapshot.getVersion();
+        new AsyncTask<Void, Void, Boolean>() {
+            @Override
+            protected Boolean doInBackground(Void... params) {
+                Cursor cursor = resolver.query(toolUri,
+                        new String[] { ToolEntry.COLUMN_TOOL_VERSION }, null, null, null);
+                if (cursor == null) {
+                    return false;
+                }
+                try {
+                    return cursor.moveToFirst() && cursor.getLong(0) == version;
+                } finally {
+                    cursor.close();
+                }
+            }
+
+            @Override
+            protected void onPostExecute(Boolean current) {
+                if (!current && !isFinishing() && mToolSnapshot != null) {
+                    mToolSnapshot = null;
+                    createToolQuery();
+                    mToolQuery.start(EditorActivity.this);
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Read the details of the tool in the background, and fill their fields unless the user
+     * has started editing them. The user then typed over empty fields, which is what they are
+     * compared with when saved.
+     */
+    private void loadDetails() {
+        final ContentResolver resolver = getContentResolver();
+        final Uri detailsUri =
+                DetailsEntry.buildToolDetailsUri(ContentUris.parseId(mCurrentToolUri));
+        new AsyncTask<Void, Void, String[]>() {
+            @Override
+            protected String[] doInBackground(Void... params) {
+                String[] details = new String[DETAILS_PROJECTION.length];
+                Cursor cursor = resolver.query(detailsUri, DETAILS_PROJECTION, null, null, null);
+                if (cursor != null) {
+                    try {
+                        if (cursor.moveToFirst()) {
+                            for (int i = 0; i < details.length; i++) {
+                                details[i] = cursor.getString(i);
+                            }
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                }
+                return details;
+            }
+
+            @Override
+            protected void onPostExecute(String[] details) {
+                if (isFinishing()) {
+                    return;
+                }
+                if (mDetailsHaveChanged) {
+                    mShownDetails = new String[details.length];
+                    return;
+                }
+                for (int i = 0; i < details.length; i++) {
+                    mDetailsEditTexts[i].setText(details[i]);
+                }
+                mShownDetails = details;
+            }
+        }.execute();
+    }
+
+    /**
+     * Write the details entered by the user to the tool with the given ID, if they differ from
+     * what their fields showed, or from empty fields if nothing was shown in them.
+     */
+    private void saveDetails(long toolId) {
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < DETAILS_PROJECTION.length; i++) {
+            String text = mDetailsEditTexts[i].getText().toString().trim();
+            String shown = mShownDetails != null ? mShownDetails[i] : null;
+            if (!text.equals(shown != null ? shown : "")) {
+                values.put(DETAILS_PROJECTION[i], text.isEmpty() ? null : text);
+            }
+        }
+        if (values.size() > 0) {
+            getContentResolver().update(DetailsEntry.buildToolDetailsUri(toolId), values,
+                    null, null);
+        }
+    }
+
+    /**
+     * Create the query reading the current tool. Since the editor shows all tool attributes,
+     * the whole tool is read.
+     */
+    private void createToolQuery() {
+        mToolQuery = InvalidationTracker.getInstance(this).query(
+                mCurrentToolUri,         // Query the content URI for the current tool
+                Tool.PROJECTION,         // Columns to include in the resulting Cursor
+                null,           // No selection clause
+                null,       // No selection arguments
+                null);         // Default sort order
+    }
+
+    /**
+     * Fill the input fields with the values of the given tool.
+     */
+    private void showTool(Tool tool) {
+        mNameEditText.setText(tool.getName());
+        mSkuEditText.setText(tool.getSku());
+        mPriceEditText.setText(String.valueOf(tool.getPrice()));
+        mQuantityEditText.setText(String.valueOf(tool.getQuantity()));
+        mSupplierEditText.setText(tool.getSupplierName());
+        mSupplierNumberEditText.setText(tool.getSupplierPhoneNumber());
+
+        // Keep showing the photo chosen by the user, if any
+        if (mPickedPhotoUri == null) {
+            showToolPhoto(tool);
+        }
+    }
+
+    /**
+     * Show the stored photo of the given tool.
+     */
+    private void showToolPhoto(Tool tool) {
+        ToolImageLoader.getInstance(this).loadToolPhoto(tool.getId(), tool.getPhoto(),
+                mPhotoImageView, getResources().getDisplayMetrics().widthPixels);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == PICK_PHOTO_REQUEST && resultCode == RESULT_OK
+                && data != null && data.getData() != null) {
+            mPickedPhotoUri = data.getData();
+            mToolHasChanged = true;
+            showPickedPhoto();
+        }
+    }
+
+    /**
+     * Show the photo chosen by the user, instead of the stored one.
+     */
+    private void showPickedPhoto() {
+        ToolImageLoader.getInstance(this).loadImage(mPickedPhotoUri, mPhotoImageView,
+                getResources().getDisplayMetrics().widthPixels);
+    }
+
+    /**
+     * Store the photo chosen by the user as the photo of the tool with the given ID.
+     * The photo is stored in the background, since it may have to be downsampled first.
+     */
+    private void savePickedPhoto(long toolId) {
+        if (mPickedPhotoUri == null) {
+            return;
+        }
+
+        // Open the photo now, while this activity is still allowed to read it
+        try {
+            ParcelFileDescriptor source =
+                    getContentResolver().openFileDescriptor(mPickedPhotoUri, "r");
+            if (source != null) {
+                ToolImageLoader.getInstance(this).storePhoto(toolId, source);
+            }
+        } catch (FileNotFoundException | SecurityException e) {
+            Toast.makeText(this, getString(R.string.editor_photo_failed),
+                    Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * Return true if any of the details fields holds text.
+     */
+    private boolean hasDetails() {
+        for (EditText editText : mDetailsEditTexts) {
+            if (!TextUtils.isEmpty(editText.getText().toString().trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return true if a tool other than the one being edited has the given SKU.
+     */
+    private boolean isSkuUsedByAnotherTool(String sku) {
+        Cursor cursor = getContentResolver().query(ToolEntry.buildSkuUri(sku),
+                new String[] { ToolEntry._ID }, null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst() && (mCurrentToolUri == null
+                    || cursor.getLong(0) != ContentUris.parseId(mCurrentToolUri));
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
      * Get user input from editor and save tool into database.
+     * Return false if the tool could not be saved and the editor should stay open.
      */
-    private void saveTool() {
+    private boolean saveTool() {
         // Read from input fields
         // Use trim to eliminate leading or trailing white space
         String nameString = mNameEditText.getText().toString().trim();
+        String skuString = mSkuEditText.getText().toString().trim();
         String priceString = mPriceEditText.getText().toString().trim();
         String quantityString = mQuantityEditText.getText().toString().trim();
         String supplierNameString = mSupplierEditText.getText().toString().trim();
@@ -124,18 +530,28 @@ public class EditorActivity extends AppCompatActivity implements
         // Check if this is supposed to be a new tool
         // and check if all the fields in the editor are blank
         if (mCurrentToolUri == null &&
-                TextUtils.isEmpty(nameString) && TextUtils.isEmpty(priceString) &&
+                TextUtils.isEmpty(nameString) && TextUtils.isEmpty(skuString) &&
+                TextUtils.isEmpty(priceString) &&
                 TextUtils.isEmpty(quantityString) && TextUtils.isEmpty(supplierNameString)
-                && TextUtils.isEmpty(supplierNumberString)) {
+                && TextUtils.isEmpty(supplierNumberString) && !hasDetails()) {
             // Since no fields were modified, we can return early without creating a new tool.
             // No need to create ContentValues and no need to do any ContentProvider operations.
-            return;
+            return true;
+        }
+
+        // The provider rejects an SKU used by another tool, so check it first and let the user
+        // fix it instead of losing the input
+        if (!TextUtils.isEmpty(skuString) && isSkuUsedByAnotherTool(skuString)) {
+            Toast.makeText(this, getString(R.string.editor_sku_already_used),
+                    Toast.LENGTH_SHORT).show();
+            return false;
         }
 
         // Create a ContentValues object where column names are the keys,
         // and tool attributes from the editor are the values.
         ContentValues values = new ContentValues();
         values.put(ToolEntry.COLUMN_TOOL_NAME, nameString);
+        values.put(ToolEntry.COLUMN_TOOL_SKU, skuString);
         values.put(ToolEntry.COLUMN_SUPPLIER_NAME, supplierNameString);
         values.put(ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER, supplierNumberString);
 
@@ -170,9 +586,16 @@ public class EditorActivity extends AppCompatActivity implements
                 // Otherwise, the insertion was successful and we can display a toast.
                 Toast.makeText(this, getString(R.string.editor_insert_tool_successful),
                         Toast.LENGTH_SHORT).show();
+                savePickedPhoto(ContentUris.parseId(newUri));
+                saveDetails(ContentUris.parseId(newUri));
             }
+        } else if (mBaseTool != null) {
+            // Otherwise this is an EXISTING tool, which is only updated if nobody else changed
+            // it since it was read
+            return updateCurrentTool(values);
         } else {
-            // Otherwise this is an EXISTING tool, so update the tool with content URI: mCurrentToolUri
+            // The tool has not been read yet, so there is nothing to check the update against.
+            // Update the tool with content URI: mCurrentToolUri
             // and pass in the new ContentValues. Pass in null for the selection and selection args
             // because mCurrentToolUri will already identify the correct row in the database that
             // we want to modify.
@@ -187,8 +610,142 @@ public class EditorActivity extends AppCompatActivity implements
                 // Otherwise, the update was successful and we can display a toast.
                 Toast.makeText(this, getString(R.string.editor_update_tool_successful),
                         Toast.LENGTH_SHORT).show();
+                savePickedPhoto(ContentUris.parseId(mCurrentToolUri));
+                saveDetails(ContentUris.parseId(mCurrentToolUri));
             }
         }
+        return true;
+    }
+
+    /**
+     * Update the tool being edited with the given values, provided that it has not changed
+     * since the edits started. Otherwise the values are merged with its current ones, as long
+     * as the user and the other change edited different fields, and the update is tried again.
+     * If they edited the same fields, the user is asked what to keep.
+     * Return false if the user is asked and the editor should stay open.
+     */
+    private boolean updateCurrentTool(ContentValues values) {
+        long id = ContentUris.parseId(mCurrentToolUri);
+        for (int attempt = 1; ; attempt++) {
+            Bundle extras = new Bundle();
+            extras.putParcelable(ToolContract.EXTRA_VALUES, values);
+            extras.putLong(ToolContract.EXTRA_VERSION, mBaseTool.getVersion());
+            Bundle result = getContentResolver().call(ToolContract.BASE_CONTENT_URI,
+                    ToolContract.METHOD_UPDATE_TOOL, String.valueOf(id), extras);
+
+            if (result.getBoolean(ToolContract.EXTRA_UPDATED)) {
+                Toast.makeText(this, getString(R.string.editor_update_tool_successful),
+                        Toast.LENGTH_SHORT).show();
+                savePickedPhoto(id);
+                saveDetails(id);
+                return true;
+            }
+
+            ContentValues current = result.getParcelable(ToolContract.EXTRA_TOOL);
+            if (current == null) {
+                // There is nothing left to save the values to
+                Toast.makeText(this, getString(R.string.editor_tool_deleted),
+                        Toast.LENGTH_SHORT).show();
+                return true;
+            }
+
+            Tool currentTool = Tool.fromValues(current);
+            ContentValues merged = mergeEdits(values, currentTool);
+            if (merged == null || attempt == MAX_UPDATE_ATTEMPTS) {
+                showEditConflictDialog(values, currentTool);
+                return false;
+            }
+            values = merged;
+            mBaseTool = currentTool;
+        }
+    }
+
+    /**
+     * Merge the values entered by the user with the given current values of the tool: the
+     * fields left as they were when the edits started take their current value. Return null
+     * if a field was changed both by the user and meanwhile, to different values.
+     */
+    private ContentValues mergeEdits(ContentValues values, Tool current) {
+        ContentValues base = getEditableValues(mBaseTool);
+        ContentValues theirs = getEditableValues(current);
+        ContentValues merged = new ContentValues(values);
+        for (String key : values.keySet()) {
+            Object mine = values.get(key);
+            Object original = base.get(key);
+            Object other = theirs.get(key);
+            if (sameValue(mine, original)) {
+                putValue(merged, key, other);
+            } else if (!sameValue(other, original) && !sameValue(other, mine)) {
+                return null;
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Return the values of the given tool that the editor writes, as the editor writes them.
+     */
+    private static ContentValues getEditableValues(Tool tool) {
+        ContentValues values = new ContentValues();
+        values.put(ToolEntry.COLUMN_TOOL_NAME, emptyIfNull(tool.getName()));
+        values.put(ToolEntry.COLUMN_TOOL_SKU, emptyIfNull(tool.getSku()));
+        values.put(ToolEntry.COLUMN_SUPPLIER_NAME, emptyIfNull(tool.getSupplierName()));
+        values.put(ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER,
+                emptyIfNull(tool.getSupplierPhoneNumber()));
+        values.put(ToolEntry.COLUMN_TOOL_PRICE, tool.getPrice());
+        values.put(ToolEntry.COLUMN_TOOL_QUANTITY, tool.getQuantity());
+        return values;
+    }
+
+    /**
+     * Put one of the values returned by {@link #getEditableValues(Tool)}, keeping its type.
+     */
+    private static void putValue(ContentValues values, String key, Object value) {
+        if (value instanceof Float) {
+            values.put(key, (Float) value);
+        } else if (value instanceof Integer) {
+            values.put(key, (Integer) value);
+        } else {
+            values.put(key, (String) value);
+        }
+    }
+
+    private static String emptyIfNull(String value) {
+        return value != null ? value : "";
+    }
+
+    private static boolean sameValue(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Show a dialog telling the user that the tool was changed in the same fields while they
+     * were editing it, and let them save their values anyway or reload the tool.
+     */
+    private void showEditConflictDialog(final ContentValues values, final Tool current) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(R.string.edit_conflict_dialog_msg);
+        builder.setPositiveButton(R.string.overwrite, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                // Save the values over the current version of the tool
+                mBaseTool = current;
+                if (updateCurrentTool(values)) {
+                    finish();
+                }
+            }
+        });
+        builder.setNegativeButton(R.string.reload, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                // Drop the edits and start again from the current tool
+                mBaseTool = current;
+                mToolHasChanged = false;
+                showTool(current);
+            }
+        });
+
+        // Create and show the AlertDialog
+        AlertDialog alertDialog = builder.create();
+        alertDialog.show();
     }
 
     @Override
@@ -220,10 +777,10 @@ public class EditorActivity extends AppCompatActivity implements
         switch (item.getItemId()) {
             // Respond to a click on the "Save" menu option
             case R.id.action_save:
-                // Save tool to database
-                saveTool();
-                // Exit activity
-                finish();
+                // Save tool to database, and exit activity unless the tool was rejected
+                if (saveTool()) {
+                    finish();
+                }
                 return true;
             // Respond to a click on the "Delete" menu option
             case R.id.action_delete:
@@ -285,28 +842,7 @@ public class EditorActivity extends AppCompatActivity implements
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Since the editor shows all tool attributes, define a projection that contains
-        // all columns from the tool table
-        String[] projection = {
-                ToolEntry._ID,
-                ToolEntry.COLUMN_TOOL_NAME,
-                ToolEntry.COLUMN_TOOL_PRICE,
-                ToolEntry.COLUMN_TOOL_QUANTITY,
-                ToolEntry.COLUMN_SUPPLIER_NAME,
-                ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER };
-
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                mCurrentToolUri,         // Query the content URI for the current tool
-                projection,              // Columns to include in the resulting Cursor
-                null,           // No selection clause
-                null,       // No selection arguments
-                null);         // Default sort order
-    }
-
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+    public void onQueryResult(Cursor cursor) {
         // Bail early if the cursor is null or there is less than 1 row in the cursor
         if (cursor == null || cursor.getCount() < 1) {
             return;
@@ -315,39 +851,16 @@ public class EditorActivity extends AppCompatActivity implements
         // Proceed with moving to the first row of the cursor and reading data from it
         // (This should be the only row in the cursor)
         if (cursor.moveToFirst()) {
-            // Find the columns of tool attributes that we're interested in
-            int nameColumnIndex = cursor.getColumnIndex(ToolEntry.COLUMN_TOOL_NAME);
-            int priceColumnIndex = cursor.getColumnIndex(ToolEntry.COLUMN_TOOL_PRICE);
-            int quantityColumnIndex = cursor.getColumnIndex(ToolEntry.COLUMN_TOOL_QUANTITY);
-            int supplierNameColumnIndex = cursor.getColumnIndex(ToolEntry.COLUMN_SUPPLIER_NAME);
-            int supplierNumberColumnIndex = cursor.getColumnIndex(ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
-
-            // Extract out the value from the Cursor for the given column index
-            String name = cursor.getString(nameColumnIndex);
-            float price = cursor.getFloat(priceColumnIndex);
-            int quantity = cursor.getInt(quantityColumnIndex);
-            String supplierName = cursor.getString(supplierNameColumnIndex);
-            String supplieNumber = cursor.getString(supplierNumberColumnIndex);
-
-            // Update the views on the screen with the values from the database
-            mNameEditText.setText(name);
-            mPriceEditText.setText(String.valueOf(price));
-            mQuantityEditText.setText(String.valueOf(quantity));
-            mSupplierEditText.setText(supplierName);
-            mSupplierNumberEditText.setText(supplieNumber);
+            // Update the views on the screen with the values from the database, unless the user
+            // has started editing them. The changes made since are merged when the tool is saved.
+            Tool tool = Tool.fromCursor(cursor);
+            if (mBaseTool == null || !mToolHasChanged) {
+                mBaseTool = tool;
+                showTool(tool);
+            }
         }
     }
 
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // If the loader is invalidated, clear out all the data from the input fields.
-        mNameEditText.setText("");
-        mPriceEditText.setText("");
-        mQuantityEditText.setText("");
-        mSupplierEditText.setText("");
-        mSupplierNumberEditText.setText("");
-    }
-
     /**
      * Show a dialog that warns the user there are unsaved changes that will be lost
      * if they continue leaving the editor.
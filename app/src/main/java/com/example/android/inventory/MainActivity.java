@@ -1,40 +1,200 @@
 package com.example.android.inventory;
 
-import android.app.LoaderManager;
+import android.app.AlertDialog;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
+import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.text.InputType;
+import android.text.TextUtils;
+import android.text.format.Formatter;
+import android.util.Log;
+import android.support.design.widget.Snackbar;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.SearchView;
 import android.support.design.widget.FloatingActionButton;
 import android.os.Bundle;
+import android.view.ActionMode;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
+import android.widget.EditText;
+import android.widget.LinearLayout;
 import android.widget.ListView;
+import android.widget.TextView;
+import android.widget.Toast;
 
+import com.example.android.inventory.data.InvalidationTracker;
+import com.example.android.inventory.data.ObservableQuery;
+import com.example.android.inventory.data.ToolContract;
+import com.example.android.inventory.data.ToolContract.CategoryEntry;
+import com.example.android.inventory.data.ToolContract.IndexEntry;
 import com.example.android.inventory.data.ToolContract.ToolEntry;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
 /**
  * Displays list of tools that were entered and stored in the app.
  */
-public class MainActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor> {
+public class MainActivity extends AppCompatActivity implements ObservableQuery.Callback {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = MainActivity.class.getSimpleName();
+
+    /** Time without typing after which the search is run, in milliseconds */
+    private static final long SEARCH_DELAY_MILLIS = 300;
+
+    /** Selection of the tools whose name or SKU contains the search text */
+    private static final String SEARCH_SELECTION = ToolEntry.COLUMN_TOOL_NAME
+            + " LIKE ? ESCAPE '\\' OR " + ToolEntry.COLUMN_TOOL_SKU + " LIKE ? ESCAPE '\\'";
+
+    /** Columns of the tools shown in the list */
+    private static final String[] TOOL_PROJECTION = {
+            ToolEntry._ID,
+            ToolEntry.COLUMN_TOOL_NAME,
+            ToolEntry.COLUMN_TOOL_PRICE,
+            ToolEntry.COLUMN_TOOL_QUANTITY,
+            ToolEntry.COLUMN_SUPPLIER_NAME,
+            ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER,
+            ToolEntry.COLUMN_TOOL_PHOTO };
+
+    /** Columns of the subcategories shown above the list */
+    private static final String[] CATEGORY_PROJECTION = {
+            CategoryEntry._ID,
+            CategoryEntry.COLUMN_CATEGORY_NAME,
+            CategoryEntry.COLUMN_TOOL_COUNT };
+
+    /** Key of the IDs of the categories opened, from the top level down, in the saved state */
+    private static final String STATE_CATEGORY_IDS = "category_ids";
+
+    /** Key of the names of the categories opened, in the saved state */
+    private static final String STATE_CATEGORY_NAMES = "category_names";
+
+    /**
+     * Query of the tools, re-run whenever they change
+     */
+    private ObservableQuery mToolQuery;
+
+    /**
+     * Query of the alphabetical index of the tools, feeding the fast scroller
+     */
+    private ObservableQuery mIndexQuery;
+
+    /**
+     * Query of the subcategories of the category shown, with their number of tools, which
+     * change with the tools as well
+     */
+    private ObservableQuery mCategoryQuery;
+
+    /**
+     * IDs of the categories opened, from the top level down to the category shown. The list
+     * shows every tool while it is empty.
+     */
+    private final ArrayList<Long> mCategoryIds = new ArrayList<>();
+
+    /** Names of the categories opened, in the same order */
+    private ArrayList<String> mCategoryNames = new ArrayList<>();
+
+    /** Handler delaying the search until the user stops typing */
+    private final Handler mSearchHandler = new Handler();
+
+    /** Text to search for once the user stops typing */
+    private String mSearchText = "";
+
+    /** Search of {@link #mSearchText}, applied to the list and its index */
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            applyToolSelection();
+        }
+    };
 
     /**
-     * Identifier for the tool data loader
+     * Receives the alphabetical index of the tools
      */
-    private static final int TOOL_LOADER = 0;
+    private final ObservableQuery.Callback mIndexCallback = new ObservableQuery.Callback() {
+        @Override
+        public void onQueryResult(Cursor index) {
+            mCursorAdapter.swapIndex(index);
+        }
+    };
+
+    /**
+     * Receives the subcategories of the category shown
+     */
+    private final ObservableQuery.Callback mCategoryCallback = new ObservableQuery.Callback() {
+        @Override
+        public void onQueryResult(Cursor categories) {
+            bindCategories(categories);
+        }
+    };
 
     /**
      * Adapter for the ListView
      */
     ToolCursorAdapter mCursorAdapter;
 
+    /**
+     * Shows the number of tools selected and runs the bulk actions on them. Each action is a
+     * single write of the provider, however many tools are selected.
+     */
+    private final AbsListView.MultiChoiceModeListener mSelectionListener =
+            new AbsListView.MultiChoiceModeListener() {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.menu_catalog_selection, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public void onItemCheckedStateChanged(ActionMode mode, int position, long id,
+                                              boolean checked) {
+            int count = ((ListView) findViewById(R.id.list)).getCheckedItemCount();
+            mode.setTitle(getResources().getQuantityString(R.plurals.tools_selected, count,
+                    count));
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            long[] ids = ((ListView) findViewById(R.id.list)).getCheckedItemIds();
+            switch (item.getItemId()) {
+                case R.id.action_adjust_quantity:
+                    showAdjustQuantityDialog(ids);
+                    break;
+                case R.id.action_set_price:
+                    showSetPriceDialog(ids);
+                    break;
+                case R.id.action_change_supplier:
+                    showChangeSupplierDialog(ids);
+                    break;
+                case R.id.action_delete_selected:
+                    deleteTools(ToolEntry.buildIdSelection(ids));
+                    break;
+                default:
+                    return false;
+            }
+            mode.finish();
+            return true;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+        }
+    };
+
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
@@ -57,10 +217,26 @@ public class MainActivity extends AppCompatActivity implements
         toolListView.setEmptyView(emptyView);
 
         // Setup an Adapter to create a list item for each row of tool data in the Cursor.
-        // There is no tool data yet (until the loader finishes) so pass in null for the Cursor.
+        // There is no tool data yet (until the query finishes) so pass in null for the Cursor.
         mCursorAdapter = new ToolCursorAdapter(this, null);
         toolListView.setAdapter(mCursorAdapter);
 
+        // The tools are listed by name, so the fast scroller can jump to the first tool of
+        // each letter. The positions of the letters are computed by the provider.
+        toolListView.setFastScrollEnabled(true);
+
+        // Stop loading the photo of a row as soon as it is scrolled off screen
+        toolListView.setRecyclerListener(new AbsListView.RecyclerListener() {
+            @Override
+            public void onMovedToScrapHeap(View view) {
+                mCursorAdapter.onViewRecycled(view);
+            }
+        });
+
+        // A long click selects tools for the bulk actions
+        toolListView.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE_MODAL);
+        toolListView.setMultiChoiceModeListener(mSelectionListener);
+
         // Setup the item click listener
         toolListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
@@ -83,8 +259,74 @@ public class MainActivity extends AppCompatActivity implements
             }
         });
 
-        // Kick off the loader
-        getLoaderManager().initLoader(TOOL_LOADER, null, this);
+        // The query runs on a background thread once the activity is started
+        mToolQuery = InvalidationTracker.getInstance(this).query(
+                ToolEntry.CONTENT_URI,   // Provider content URI to query
+                TOOL_PROJECTION,        // Columns to include in the resulting Cursor
+                null,                   // No selection clause
+                null,                   // No selection arguments
+                ToolEntry.SORT_BY_NAME); // Alphabetical order, which the index follows
+
+        // The index depends on every tool, not only on its own URI. Both depend on the
+        // categories as well, since moving a category moves its tools.
+        mIndexQuery = InvalidationTracker.getInstance(this)
+                .query(IndexEntry.CONTENT_URI, null, null, null, null)
+                .dependOn(ToolEntry.CONTENT_URI)
+                .dependOn(CategoryEntry.CONTENT_URI);
+        mToolQuery.dependOn(CategoryEntry.CONTENT_URI);
+
+        // The number of tools of each subcategory changes with the tools
+        mCategoryQuery = InvalidationTracker.getInstance(this)
+                .query(CategoryEntry.CONTENT_URI, CATEGORY_PROJECTION,
+                        CategoryEntry.TOP_LEVEL_SELECTION, null, null)
+                .dependOn(ToolEntry.CONTENT_URI);
+
+        if (savedInstanceState != null
+                && savedInstanceState.containsKey(STATE_CATEGORY_IDS)) {
+            for (long id : savedInstanceState.getLongArray(STATE_CATEGORY_IDS)) {
+                mCategoryIds.add(id);
+            }
+            mCategoryNames = savedInstanceState.getStringArrayList(STATE_CATEGORY_NAMES);
+            showCategory();
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        long[] ids = new long[mCategoryIds.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = mCategoryIds.get(i);
+        }
+        outState.putLongArray(STATE_CATEGORY_IDS, ids);
+        outState.putStringArrayList(STATE_CATEGORY_NAMES, mCategoryNames);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        mToolQuery.start(this);
+        mIndexQuery.start(mIndexCallback);
+        mCategoryQuery.start(mCategoryCallback);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mToolQuery.stop();
+        mIndexQuery.stop();
+        mCategoryQuery.stop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+        // The query closes its cursor, so the adapter must not use it anymore
+        mCursorAdapter.swapCursor(null);
+        mToolQuery.close();
+        mIndexQuery.close();
+        mCategoryQuery.close();
     }
 
     /**
@@ -112,6 +354,23 @@ public class MainActivity extends AppCompatActivity implements
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        // Filter the list as the user types, once they pause, so that every keystroke does
+        // not run a query of its own
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                search(query, 0);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                search(newText, SEARCH_DELAY_MILLIS);
+                return true;
+            }
+        });
         return true;
     }
 
@@ -125,49 +384,428 @@ public class MainActivity extends AppCompatActivity implements
                 return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
-                deleteAllTools();
+                deleteTools(null);
+                return true;
+            // Respond to a click on the "Back Up" menu option
+            case R.id.action_backup:
+                runBackup(ToolContract.METHOD_BACKUP, R.string.backup_successful,
+                        R.string.backup_failed);
+                return true;
+            // Respond to a click on the "Restore Backup" menu option
+            case R.id.action_restore_backup:
+                showRestoreConfirmationDialog();
+                return true;
+            // Respond to a click on the "Up" arrow button in the app bar, shown in a category
+            case android.R.id.home:
+                closeCategory();
                 return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Go back to the parent of the category shown, if any, before leaving the list.
+     */
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                ToolEntry._ID,
-                ToolEntry.COLUMN_TOOL_NAME,
-                ToolEntry.COLUMN_TOOL_PRICE,
-                ToolEntry.COLUMN_TOOL_QUANTITY,
-                ToolEntry.COLUMN_SUPPLIER_NAME,
-                ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER };
-
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                ToolEntry.CONTENT_URI,   // Provider content URI to query
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+    public void onBackPressed() {
+        if (!mCategoryIds.isEmpty()) {
+            closeCategory();
+            return;
+        }
+        super.onBackPressed();
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update {@link ToolCursorAdapter} with this new cursor containing updated tool data
+    public void onQueryResult(Cursor data) {
+        // Update {@link ToolCursorAdapter} with this new cursor containing updated tool data.
+        // Only a result that differs from the one shown is delivered.
         mCursorAdapter.swapCursor(data);
+        StartupMetrics.markFirstListBound();
     }
 
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // Callback called when the data needs to be deleted
-        mCursorAdapter.swapCursor(null);
+    /**
+     * Show the subcategories of the category shown above the list, each with the number of
+     * tools it holds at any depth. The bar is hidden if there are none.
+     */
+    private void bindCategories(Cursor categories) {
+        LinearLayout categoryList = (LinearLayout) findViewById(R.id.category_list);
+        categoryList.removeAllViews();
+
+        int idColumn = categories.getColumnIndexOrThrow(CategoryEntry._ID);
+        int nameColumn = categories.getColumnIndexOrThrow(CategoryEntry.COLUMN_CATEGORY_NAME);
+        int countColumn = categories.getColumnIndexOrThrow(CategoryEntry.COLUMN_TOOL_COUNT);
+        categories.moveToPosition(-1);
+        while (categories.moveToNext()) {
+            final long id = categories.getLong(idColumn);
+            final String name = categories.getString(nameColumn);
+            TextView view = (TextView) getLayoutInflater().inflate(R.layout.category_item,
+                    categoryList, false);
+            view.setText(getString(R.string.category_item, name,
+                    categories.getInt(countColumn)));
+            view.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    openCategory(id, name);
+                }
+            });
+            categoryList.addView(view);
+        }
+
+        findViewById(R.id.category_bar).setVisibility(
+                categoryList.getChildCount() > 0 ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Show the subcategory with the given ID and name of the category shown.
+     */
+    private void openCategory(long id, String name) {
+        mCategoryIds.add(id);
+        mCategoryNames.add(name);
+        showCategory();
+    }
+
+    /**
+     * Show the parent of the category shown, or every tool from a category at the top level.
+     */
+    private void closeCategory() {
+        mCategoryIds.remove(mCategoryIds.size() - 1);
+        mCategoryNames.remove(mCategoryNames.size() - 1);
+        showCategory();
+    }
+
+    /**
+     * Show the subcategories and the tools of the last category opened, or the categories at
+     * the top level and every tool if there is none. Each is a single indexed query, however
+     * deep the category is.
+     */
+    private void showCategory() {
+        boolean inCategory = !mCategoryIds.isEmpty();
+        if (inCategory) {
+            mCategoryQuery.setSelection(CategoryEntry.COLUMN_PARENT_ID + "="
+                    + mCategoryIds.get(mCategoryIds.size() - 1), null);
+        } else {
+            mCategoryQuery.setSelection(CategoryEntry.TOP_LEVEL_SELECTION, null);
+        }
+        applyToolSelection();
+
+        setTitle(inCategory ? mCategoryNames.get(mCategoryNames.size() - 1)
+                : getString(R.string.app_name));
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setDisplayHomeAsUpEnabled(inCategory);
+        }
+    }
+
+    /**
+     * Apply the category shown and the search text to the list and its index. Any query still
+     * running for the previous selection is canceled.
+     */
+    private void applyToolSelection() {
+        String selection = null;
+        String[] selectionArgs = null;
+        if (!mCategoryIds.isEmpty()) {
+            selection = CategoryEntry.buildSubtreeSelection(
+                    mCategoryIds.get(mCategoryIds.size() - 1));
+        }
+        if (!mSearchText.isEmpty()) {
+            // The wildcards of LIKE are escaped, so they are searched literally
+            String pattern = "%" + mSearchText.replace("\\", "\\\\").replace("%", "\\%")
+                    .replace("_", "\\_") + "%";
+            selection = selection == null ? SEARCH_SELECTION
+                    : selection + " AND (" + SEARCH_SELECTION + ")";
+            selectionArgs = new String[] { pattern, pattern };
+        }
+        mToolQuery.setSelection(selection, selectionArgs);
+        mIndexQuery.setSelection(selection, selectionArgs);
+    }
+
+    /**
+     * Search the tools for the given text after the given delay, replacing the search that was
+     * still waiting, if any.
+     */
+    private void search(String text, long delayMillis) {
+        String searchText = text.trim();
+        if (searchText.equals(mSearchText) && delayMillis > 0) {
+            // The search for this text is already applied or waiting
+            return;
+        }
+        mSearchText = searchText;
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+        mSearchHandler.postDelayed(mSearchRunnable, delayMillis);
+    }
+
+    /**
+     * Delete the tools matching the selection, or every tool if it is null. The deletion runs
+     * in the background, then the user is offered to undo it.
+     */
+    private void deleteTools(final String selection) {
+        final ContentResolver resolver = getContentResolver();
+        final long deletedSince = System.currentTimeMillis();
+        new AsyncTask<Void, Void, Integer>() {
+            @Override
+            protected Integer doInBackground(Void... params) {
+                return resolver.delete(ToolEntry.CONTENT_URI, selection, null);
+            }
+
+            @Override
+            protected void onPostExecute(Integer rowsDeleted) {
+                if (rowsDeleted > 0 && !isFinishing()) {
+                    showUndoDelete(rowsDeleted, deletedSince);
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Ask for a quantity to add to each of the given tools, negative to take it away. The
+     * tools that do not have enough stock to take it away, or that were deleted meanwhile, are
+     * left as is, and the user is told how many.
+     */
+    private void showAdjustQuantityDialog(final long[] ids) {
+        final EditText input = inflateBulkInput(R.string.hint_quantity_delta,
+                InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_SIGNED);
+        showBulkDialog(R.string.action_adjust_quantity, (View) input.getParent(),
+                new Runnable() {
+            @Override
+            public void run() {
+                int delta;
+                try {
+                    delta = Integer.parseInt(input.getText().toString().trim());
+                } catch (NumberFormatException e) {
+                    Toast.makeText(MainActivity.this, R.string.bulk_invalid_quantity,
+                            Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                final int[] deltas = new int[ids.length];
+                Arrays.fill(deltas, delta);
+
+                // Only taking stock away can fail for lack of stock
+                int notAdjustedMessage = delta < 0 ? R.plurals.tools_not_adjusted
+                        : R.plurals.tools_not_found;
+                runBulkEdit(notAdjustedMessage, new BulkEdit() {
+                    @Override
+                    public int run(ContentResolver resolver) {
+                        Bundle extras = new Bundle();
+                        extras.putLongArray(ToolContract.EXTRA_IDS, ids);
+                        extras.putIntArray(ToolContract.EXTRA_QUANTITY_DELTAS, deltas);
+                        int[] quantities = resolver.call(ToolEntry.CONTENT_URI,
+                                ToolContract.METHOD_ADJUST_QUANTITIES, null, extras)
+                                .getIntArray(ToolContract.EXTRA_QUANTITIES);
+                        int notAdjusted = 0;
+                        for (int quantity : quantities) {
+                            if (quantity < 0) {
+                                notAdjusted++;
+                            }
+                        }
+                        return notAdjusted;
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Ask for a price and give it to each of the given tools.
+     */
+    private void showSetPriceDialog(final long[] ids) {
+        final EditText input = inflateBulkInput(R.string.hint_tool_price,
+                InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_DECIMAL);
+        showBulkDialog(R.string.action_set_price, (View) input.getParent(), new Runnable() {
+            @Override
+            public void run() {
+                final ContentValues values = new ContentValues();
+                try {
+                    values.put(ToolEntry.COLUMN_TOOL_PRICE,
+                            Float.parseFloat(input.getText().toString().trim()));
+                } catch (NumberFormatException e) {
+                    Toast.makeText(MainActivity.this, R.string.bulk_invalid_price,
+                            Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                updateTools(ids, values);
+            }
+        });
+    }
+
+    /**
+     * Ask for a supplier and give it to each of the given tools.
+     */
+    private void showChangeSupplierDialog(final long[] ids) {
+        final View view = getLayoutInflater().inflate(R.layout.dialog_bulk_supplier, null);
+        showBulkDialog(R.string.action_change_supplier, view, new Runnable() {
+            @Override
+            public void run() {
+                String name = ((EditText) view.findViewById(R.id.bulk_supplier_name))
+                        .getText().toString().trim();
+                String number = ((EditText) view.findViewById(R.id.bulk_supplier_number))
+                        .getText().toString().trim();
+                if (TextUtils.isEmpty(name) || TextUtils.isEmpty(number)) {
+                    Toast.makeText(MainActivity.this, R.string.bulk_invalid_supplier,
+                            Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                ContentValues values = new ContentValues();
+                values.put(ToolEntry.COLUMN_SUPPLIER_NAME, name);
+                values.put(ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER, number);
+                updateTools(ids, values);
+            }
+        });
+    }
+
+    /**
+     * Inflate the single field of a bulk edit dialog, with the given hint and input type.
+     */
+    private EditText inflateBulkInput(int hint, int inputType) {
+        View view = getLayoutInflater().inflate(R.layout.dialog_bulk_input, null);
+        EditText input = (EditText) view.findViewById(R.id.bulk_input);
+        input.setHint(hint);
+        input.setInputType(inputType);
+        return input;
+    }
+
+    /**
+     * Show a dialog holding the given view, which runs the given action once applied.
+     */
+    private void showBulkDialog(int title, View view, final Runnable action) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(title);
+        builder.setView(view);
+        builder.setPositiveButton(R.string.apply, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                action.run();
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.create().show();
+    }
+
+    /**
+     * Write the given values to each of the given tools, in a single update.
+     */
+    private void updateTools(final long[] ids, final ContentValues values) {
+        runBulkEdit(R.plurals.tools_not_found, new BulkEdit() {
+            @Override
+            public int run(ContentResolver resolver) {
+                // The tools deleted meanwhile are not updated
+                return ids.length - resolver.update(ToolEntry.CONTENT_URI, values,
+                        ToolEntry.buildIdSelection(ids), null);
+            }
+        });
+    }
+
+    /** Bulk edit of the selected tools, run in the background */
+    private interface BulkEdit {
+
+        /**
+         * Run the edit, and return the number of tools it left as is.
+         */
+        int run(ContentResolver resolver);
+    }
+
+    /**
+     * Run a bulk edit in the background, then tell the user if it failed or left tools as is,
+     * with the given plurals message. The list is refreshed by the provider.
+     */
+    private void runBulkEdit(final int notUpdatedMessage, final BulkEdit edit) {
+        final ContentResolver resolver = getContentResolver();
+        new AsyncTask<Void, Void, Integer>() {
+            @Override
+            protected Integer doInBackground(Void... params) {
+                try {
+                    return edit.run(resolver);
+                } catch (IllegalArgumentException e) {
+                    Log.e(LOG_TAG, "Could not update the tools", e);
+                    return -1;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(Integer notUpdated) {
+                if (notUpdated < 0) {
+                    Toast.makeText(MainActivity.this, R.string.bulk_update_failed,
+                            Toast.LENGTH_SHORT).show();
+                } else if (notUpdated > 0) {
+                    Toast.makeText(MainActivity.this, getResources().getQuantityString(
+                            notUpdatedMessage, notUpdated, notUpdated),
+                            Toast.LENGTH_SHORT).show();
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Prompt the user to confirm that they want to replace every tool with the last backup.
+     */
+    private void showRestoreConfirmationDialog() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(R.string.restore_dialog_msg);
+        builder.setPositiveButton(R.string.restore, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                runBackup(ToolContract.METHOD_RESTORE_BACKUP, R.string.restore_successful,
+                        R.string.restore_failed);
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.create().show();
+    }
+
+    /**
+     * Run a backup or a restore in the background, then show its size and the time it took.
+     * Backups are incremental, the provider makes a full backup when there is none yet.
+     */
+    private void runBackup(final String method, final int successMessage,
+                           final int failureMessage) {
+        final ContentResolver resolver = getContentResolver();
+        new AsyncTask<Void, Void, Bundle>() {
+            @Override
+            protected Bundle doInBackground(Void... params) {
+                Bundle extras = new Bundle();
+                extras.putBoolean(ToolContract.EXTRA_INCREMENTAL, true);
+                try {
+                    return resolver.call(ToolEntry.CONTENT_URI, method, null, extras);
+                } catch (IllegalStateException e) {
+                    Log.e(LOG_TAG, "Could not run " + method, e);
+                    return null;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(Bundle result) {
+                if (result == null) {
+                    Toast.makeText(MainActivity.this, failureMessage, Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                String size = Formatter.formatShortFileSize(MainActivity.this,
+                        result.getLong(ToolContract.EXTRA_BACKUP_SIZE));
+                Toast.makeText(MainActivity.this, getString(successMessage, size,
+                        result.getLong(ToolContract.EXTRA_BACKUP_MILLIS)),
+                        Toast.LENGTH_SHORT).show();
+            }
+        }.execute();
     }
 
     /**
-     * Helper method to delete all tool in the database.
+     * Show how many tools were deleted, with an action restoring every tool deleted since the
+     * given time. The deleted tools are kept long enough for the action to be used.
      */
-    private void deleteAllTools() {
-        int rowsDeleted = getContentResolver().delete(ToolEntry.CONTENT_URI, null, null);
+    private void showUndoDelete(int rowsDeleted, final long deletedSince) {
+        final ContentResolver resolver = getContentResolver();
+        String message = getResources().getQuantityString(R.plurals.tools_deleted, rowsDeleted,
+                rowsDeleted);
+        Snackbar.make(findViewById(R.id.list), message, Snackbar.LENGTH_LONG)
+                .setAction(R.string.undo, new View.OnClickListener() {
+                    @Override
+                    public void onClick(View view) {
+                        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                resolver.call(ToolEntry.CONTENT_URI,
+                                        ToolContract.METHOD_RESTORE_DELETED,
+                                        String.valueOf(deletedSince), null);
+                            }
+                        });
+                    }
+                })
+                .show();
     }
 }
 
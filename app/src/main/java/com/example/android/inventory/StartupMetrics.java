@@ -0,0 +1,87 @@
+package com.example.android.inventory;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Records how long the app takes to show the list of tools after the process starts, with the
+ * milestones on the way: the provider being created, the database being opened and the first
+ * list being bound. Each milestone is recorded once per process, and logged under the
+ * {@link #LOG_TAG} tag, so that the time to first list can be tracked across changes.
+ *
+ * Times are in milliseconds since the process started, or -1 if the milestone has not been
+ * reached yet.
+ */
+public final class StartupMetrics {
+
+    private static final String LOG_TAG = StartupMetrics.class.getSimpleName();
+
+    /** Elapsed realtime at which the process started */
+    private static final long sProcessStart = getProcessStart();
+
+    private static long sProviderCreated = -1;
+    private static long sDatabaseOpened = -1;
+    private static long sFirstListBound = -1;
+
+    private StartupMetrics() {}
+
+    /**
+     * Record that the provider was created. It is created before any activity, so on versions
+     * that do not tell when the process started, this is the start of the measures.
+     */
+    public static synchronized void markProviderCreated() {
+        if (sProviderCreated < 0) {
+            sProviderCreated = sinceProcessStart();
+            Log.i(LOG_TAG, "Provider created after " + sProviderCreated + " ms");
+        }
+    }
+
+    /**
+     * Record that the database was opened, including its creation or upgrade.
+     */
+    public static synchronized void markDatabaseOpened() {
+        if (sDatabaseOpened < 0) {
+            sDatabaseOpened = sinceProcessStart();
+            Log.i(LOG_TAG, "Database opened after " + sDatabaseOpened + " ms");
+        }
+    }
+
+    /**
+     * Record that the list of tools was bound for the first time.
+     */
+    public static synchronized void markFirstListBound() {
+        if (sFirstListBound < 0) {
+            sFirstListBound = sinceProcessStart();
+            Log.i(LOG_TAG, "First list bound after " + sFirstListBound + " ms");
+        }
+    }
+
+    public static synchronized long getProviderCreatedMillis() {
+        return sProviderCreated;
+    }
+
+    public static synchronized long getDatabaseOpenedMillis() {
+        return sDatabaseOpened;
+    }
+
+    public static synchronized long getFirstListBoundMillis() {
+        return sFirstListBound;
+    }
+
+    private static long sinceProcessStart() {
+        return SystemClock.elapsedRealtime() - sProcessStart;
+    }
+
+    /**
+     * Return the elapsed realtime at which the process started. Before Android N, the time at
+     * which this class is loaded is used instead, which happens when the provider is created.
+     */
+    private static long getProcessStart() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return Process.getStartElapsedRealtime();
+        }
+        return SystemClock.elapsedRealtime();
+    }
+}
@@ -1,16 +1,26 @@
 package com.example.android.inventory;
 
+import android.content.ContentResolver;
+import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.CursorAdapter;
+import android.widget.ImageView;
+import android.widget.SectionIndexer;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.inventory.data.ToolContract.IndexEntry;
 import com.example.android.inventory.data.ToolContract.ToolEntry;
+import com.example.android.inventory.image.ToolImageLoader;
+
+import java.util.Arrays;
 
 /**
  * {@link ToolCursorAdapter} is an adapter for a list or grid view
@@ -18,7 +28,17 @@ import com.example.android.inventory.data.ToolContract.ToolEntry;
  * how to create list items for each row of tool data in the {@link Cursor}.
  */
 
-public class ToolCursorAdapter extends CursorAdapter {
+public class ToolCursorAdapter extends CursorAdapter implements SectionIndexer {
+
+    /** Loader of the tool photos */
+    private final ToolImageLoader mImageLoader;
+
+    /** Size of the photo in a list item, in pixels */
+    private final int mPhotoSize;
+
+    /** Sections of the alphabetical index, and the position of the first tool of each */
+    private String[] mSections = new String[0];
+    private int[] mSectionOffsets = new int[0];
 
     /**
      * Constructs a new {@link ToolCursorAdapter}.
@@ -28,6 +48,86 @@ public class ToolCursorAdapter extends CursorAdapter {
      */
     public ToolCursorAdapter(Context context, Cursor c) {
         super(context, c, 0 /* flags */);
+        mImageLoader = ToolImageLoader.getInstance(context);
+        mPhotoSize = context.getResources().getDimensionPixelSize(R.dimen.list_item_photo_size);
+    }
+
+    /**
+     * Replace the alphabetical index of the tools, read from {@link IndexEntry#CONTENT_URI}.
+     * The cursor is read at once and can be closed afterwards.
+     */
+    public void swapIndex(Cursor index) {
+        int count = index == null ? 0 : index.getCount();
+        mSections = new String[count];
+        mSectionOffsets = new int[count];
+        if (index != null) {
+            int sectionColumnIndex = index.getColumnIndex(IndexEntry.COLUMN_SECTION);
+            int offsetColumnIndex = index.getColumnIndex(IndexEntry.COLUMN_OFFSET);
+            for (int i = 0; index.moveToPosition(i); i++) {
+                mSections[i] = index.getString(sectionColumnIndex);
+                mSectionOffsets[i] = index.getInt(offsetColumnIndex);
+            }
+        }
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public Object[] getSections() {
+        return mSections;
+    }
+
+    @Override
+    public int getPositionForSection(int sectionIndex) {
+        if (mSectionOffsets.length == 0) {
+            return 0;
+        }
+        int section = Math.max(0, Math.min(sectionIndex, mSectionOffsets.length - 1));
+        // The list may briefly be shorter than the index, while one of them is reloaded
+        return Math.min(mSectionOffsets[section], Math.max(0, getCount() - 1));
+    }
+
+    @Override
+    public int getSectionForPosition(int position) {
+        int section = Arrays.binarySearch(mSectionOffsets, position);
+        // Between two offsets, the position belongs to the section starting before it
+        return section >= 0 ? section : Math.max(0, -section - 2);
+    }
+
+    /**
+     * Cancel the loading of the photo of a list item, when it is scrolled off screen.
+     *
+     * @param view list item view, returned earlier by newView() method
+     */
+    public void onViewRecycled(View view) {
+        ImageView photoImageView = (ImageView) view.findViewById(R.id.photo);
+        if (photoImageView != null) {
+            mImageLoader.cancel(photoImageView);
+        }
+    }
+
+    /**
+     * Sell one unit of the tool with the given ID in the background. The list is refreshed by
+     * the provider once the tool is sold, otherwise the user is told that it is out of stock.
+     */
+    private static void sellTool(final Context context, long id) {
+        final ContentResolver resolver = context.getContentResolver();
+        final Uri saleUri = ToolEntry.buildSaleUri(id);
+        new AsyncTask<Void, Void, Integer>() {
+            @Override
+            protected Integer doInBackground(Void... params) {
+                ContentValues values = new ContentValues();
+                values.put(ToolEntry.COLUMN_TOOL_QUANTITY, 1);
+                return resolver.update(saleUri, values, null, null);
+            }
+
+            @Override
+            protected void onPostExecute(Integer rowsUpdated) {
+                if (rowsUpdated == 0) {
+                    Toast.makeText(context, R.string.tool_out_of_stock,
+                            Toast.LENGTH_SHORT).show();
+                }
+            }
+        }.execute();
     }
 
     /**
@@ -61,11 +161,14 @@ public class ToolCursorAdapter extends CursorAdapter {
         TextView nameTextView = (TextView) view.findViewById(R.id.name);
         TextView priceTextView = (TextView) view.findViewById(R.id.price);
         TextView quantityTextView = (TextView) view.findViewById(R.id.quantity);
+        ImageView photoImageView = (ImageView) view.findViewById(R.id.photo);
 
         // Find the columns of tool attributes that we're interested in
+        int idColumnIndex = cursor.getColumnIndex(ToolEntry._ID);
         int nameColumnIndex = cursor.getColumnIndex(ToolEntry.COLUMN_TOOL_NAME);
         int priceColumnIndex = cursor.getColumnIndex(ToolEntry.COLUMN_TOOL_PRICE);
         int quantityColumnIndex = cursor.getColumnIndex(ToolEntry.COLUMN_TOOL_QUANTITY);
+        int photoColumnIndex = cursor.getColumnIndex(ToolEntry.COLUMN_TOOL_PHOTO);
 
         // Read the tool attributes from the Cursor for the current tool
         String toolName = cursor.getString(nameColumnIndex);
@@ -77,20 +180,18 @@ public class ToolCursorAdapter extends CursorAdapter {
         priceTextView.setText(toolPrice);
         quantityTextView.setText(toolQuantity);
 
-        Button saleButton = (Button) view.findViewById(R.id.sale_btn);
+        // Load the photo in the background, the row shows a placeholder until then
+        mImageLoader.loadToolPhoto(cursor.getLong(idColumnIndex),
+                cursor.getString(photoColumnIndex), photoImageView, mPhotoSize);
 
-        int pos = cursor.getPosition();
+        Button saleButton = (Button) view.findViewById(R.id.sale_btn);
 
-        saleButton.setTag(pos);
+        saleButton.setTag(cursor.getLong(idColumnIndex));
 
         saleButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                int position = (Integer) view.getTag();
-
-                //Message to test if get the right position
-                String val = "Message " + position;
-                Toast.makeText(context, val, Toast.LENGTH_SHORT).show();
+                sellTool(context, (Long) view.getTag());
             }
         });
     }
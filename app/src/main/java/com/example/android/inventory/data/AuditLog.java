@@ -0,0 +1,232 @@
+package com.example.android.inventory.data;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.example.android.inventory.data.ToolContract.AuditEntry;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Audit trail of the changes made to the tools. The provider collects the entries of a change
+ * during its transaction, and hands them to the trail once the transaction commits, so that a
+ * change rolled back leaves no entry. That costs a write nothing but adding them to a queue,
+ * and they are written to the database in the background, a batch per transaction.
+ *
+ * The queue holds at most {@link #MAX_PENDING} entries, so a burst of changes cannot take the
+ * memory of the app: the entries recorded beyond are dropped, and their number logged. The
+ * entries still in memory when the process is killed are lost, so the provider flushes the
+ * queue whenever the app leaves the screen.
+ */
+class AuditLog {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = AuditLog.class.getSimpleName();
+
+    /** Maximum number of entries waiting to be written */
+    static final int MAX_PENDING = 10000;
+
+    /** Number of entries written per transaction, and that are written without delay */
+    static final int BATCH_SIZE = 200;
+
+    /** Delay before the first entries recorded are written, so that they are written together */
+    static final long FLUSH_DELAY_MILLIS = 2000;
+
+    /** Statement writing a single entry */
+    private static final String SQL_INSERT_ENTRY = "INSERT INTO " + AuditEntry.TABLE_NAME + " ("
+            + AuditEntry.COLUMN_TOOL_ID + ", " + AuditEntry.COLUMN_OPERATION + ", "
+            + AuditEntry.COLUMN_FIELD + ", " + AuditEntry.COLUMN_OLD_VALUE + ", "
+            + AuditEntry.COLUMN_NEW_VALUE + ", " + AuditEntry.COLUMN_CALLER + ", "
+            + AuditEntry.COLUMN_TIME + ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    /** Change of a single tool, waiting to be written */
+    static class Entry {
+        final long toolId;
+        final String operation;
+        final String field;
+        final Object oldValue;
+        final Object newValue;
+        final int callerUid;
+        final long time;
+
+        Entry(long toolId, String operation, String field, Object oldValue, Object newValue,
+              int callerUid, long time) {
+            this.toolId = toolId;
+            this.operation = operation;
+            this.field = field;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+            this.callerUid = callerUid;
+            this.time = time;
+        }
+    }
+
+    private final Context mContext;
+    private final ToolDbHelper mDbHelper;
+    private final Handler mHandler;
+
+    /** Lock held while writing, so that the database is not replaced meanwhile */
+    private final Lock mDatabaseLock;
+
+    private final ConcurrentLinkedQueue<Entry> mQueue = new ConcurrentLinkedQueue<>();
+
+    /** Number of entries in the queue, which the queue itself can only count by walking it */
+    private final AtomicInteger mPending = new AtomicInteger();
+
+    /** Number of entries dropped since the last flush */
+    private final AtomicInteger mDropped = new AtomicInteger();
+
+    /** Package names of the callers, by user ID. Only used while flushing. */
+    private final SparseArray<String> mCallers = new SparseArray<>();
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    AuditLog(Context context, ToolDbHelper dbHelper, Handler handler, Lock databaseLock) {
+        mContext = context;
+        mDbHelper = dbHelper;
+        mHandler = handler;
+        mDatabaseLock = databaseLock;
+    }
+
+    /**
+     * Add the entries of a committed change to the queue, and schedule the queue to be written.
+     * This never blocks. The entries beyond the capacity of the queue are dropped.
+     */
+    void record(List<Entry> entries) {
+        for (Entry entry : entries) {
+            record(entry);
+        }
+    }
+
+    private void record(Entry entry) {
+        int pending = mPending.incrementAndGet();
+        if (pending > MAX_PENDING) {
+            mPending.decrementAndGet();
+            mDropped.incrementAndGet();
+            return;
+        }
+        mQueue.add(entry);
+
+        if (pending == 1) {
+            mHandler.postDelayed(mFlushRunnable, FLUSH_DELAY_MILLIS);
+        } else if (pending % BATCH_SIZE == 0) {
+            mHandler.post(mFlushRunnable);
+        }
+    }
+
+    /**
+     * Write every entry in the queue, {@link #BATCH_SIZE} per transaction, and return their
+     * number. The entries recorded meanwhile are written as well. The entries of a batch that
+     * cannot be written stay in the queue, and the flush is tried again later.
+     */
+    int flush() {
+        // The database lock is taken first, since a restore holding it flushes the queue
+        mDatabaseLock.lock();
+        try {
+            return writeQueue();
+        } finally {
+            mDatabaseLock.unlock();
+        }
+    }
+
+    private synchronized int writeQueue() {
+        int dropped = mDropped.getAndSet(0);
+        if (dropped > 0) {
+            Log.w(LOG_TAG, "Audit queue full, dropped " + dropped + " entries");
+        }
+        if (mQueue.isEmpty()) {
+            return 0;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        SQLiteStatement insert = null;
+        int count = 0;
+        try {
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            insert = database.compileStatement(SQL_INSERT_ENTRY);
+            while (true) {
+                // Only the flush takes entries out of the queue, so the first ones stay in place
+                // while they are written, and are only taken out once they are committed
+                batch.clear();
+                Iterator<Entry> queued = mQueue.iterator();
+                while (batch.size() < BATCH_SIZE && queued.hasNext()) {
+                    batch.add(queued.next());
+                }
+                if (batch.isEmpty()) {
+                    break;
+                }
+
+                database.beginTransaction();
+                try {
+                    for (Entry entry : batch) {
+                        insert.bindLong(1, entry.toolId);
+                        insert.bindString(2, entry.operation);
+                        DatabaseUtils.bindObjectToProgram(insert, 3, entry.field);
+                        DatabaseUtils.bindObjectToProgram(insert, 4, entry.oldValue);
+                        DatabaseUtils.bindObjectToProgram(insert, 5, entry.newValue);
+                        insert.bindString(6, getCaller(entry.callerUid));
+                        insert.bindLong(7, entry.time);
+                        insert.executeInsert();
+                    }
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+
+                for (int i = 0; i < batch.size(); i++) {
+                    mQueue.poll();
+                }
+                mPending.addAndGet(-batch.size());
+                count += batch.size();
+            }
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Cannot write audit entries, " + mPending.get() + " left", e);
+            mHandler.postDelayed(mFlushRunnable, FLUSH_DELAY_MILLIS);
+        } finally {
+            if (insert != null) {
+                insert.close();
+            }
+        }
+
+        if (count > 0) {
+            mContext.getContentResolver().notifyChange(AuditEntry.CONTENT_URI, null);
+            Log.i(LOG_TAG, "Wrote " + count + " audit entries in "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
+        }
+        return count;
+    }
+
+    /**
+     * Return the package name of the app with the given user ID, or the ID itself if it has
+     * none.
+     */
+    private String getCaller(int uid) {
+        String caller = mCallers.get(uid);
+        if (caller == null) {
+            caller = mContext.getPackageManager().getNameForUid(uid);
+            if (caller == null) {
+                caller = String.valueOf(uid);
+            }
+            mCallers.put(uid, caller);
+        }
+        return caller;
+    }
+}
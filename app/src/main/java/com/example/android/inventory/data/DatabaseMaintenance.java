@@ -0,0 +1,151 @@
+package com.example.android.inventory.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+
+/**
+ * Keeps the inventory database healthy over time: gathers the statistics of the query planner,
+ * gives the pages freed by deletions back to the file system, and checkpoints the write-ahead
+ * log so that it does not keep growing. It is meant to run in the background, about once a day,
+ * while the device is not in use.
+ *
+ * The database only frees pages incrementally once its auto-vacuum mode is incremental. That
+ * mode can only be changed by rebuilding the whole file, so the first maintenance of a database
+ * does a full VACUUM, and the following ones an incremental vacuum.
+ */
+class DatabaseMaintenance {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = DatabaseMaintenance.class.getSimpleName();
+
+    /** Time between two maintenances, in milliseconds */
+    static final long INTERVAL_MILLIS = 24 * 60 * 60 * 1000;
+
+    /** Name of the preferences holding the time of the last maintenance */
+    private static final String PREFS_NAME = "database_maintenance";
+
+    /** Preference holding the time of the last maintenance, in milliseconds */
+    private static final String PREF_LAST_RUN = "last_run";
+
+    /** Value of PRAGMA auto_vacuum for the incremental mode */
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /** Result of a maintenance */
+    static class Result {
+
+        /** Size of the database files before and after the maintenance, in bytes */
+        final long sizeBefore;
+        final long sizeAfter;
+
+        /** Time taken, in milliseconds */
+        final long millis;
+
+        /** True if every step completed, false if one failed and the next ones were skipped */
+        final boolean completed;
+
+        Result(long sizeBefore, long sizeAfter, long millis, boolean completed) {
+            this.sizeBefore = sizeBefore;
+            this.sizeAfter = sizeAfter;
+            this.millis = millis;
+            this.completed = completed;
+        }
+
+        /** Bytes given back to the file system, which is negative if the files grew */
+        long getBytesReclaimed() {
+            return sizeBefore - sizeAfter;
+        }
+    }
+
+    private final Context mContext;
+    private final ToolDbHelper mDbHelper;
+    private final SharedPreferences mPreferences;
+
+    DatabaseMaintenance(Context context, ToolDbHelper dbHelper) {
+        mContext = context;
+        mDbHelper = dbHelper;
+        mPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Return true if the last maintenance is older than {@link #INTERVAL_MILLIS}.
+     */
+    boolean isDue() {
+        long lastRun = mPreferences.getLong(PREF_LAST_RUN, 0);
+        return System.currentTimeMillis() - lastRun >= INTERVAL_MILLIS;
+    }
+
+    /**
+     * Run the maintenance, and log the time it took and the bytes it reclaimed. None of its
+     * steps runs in a transaction, so writers only wait while each one runs.
+     *
+     * A step that fails, for instance a VACUUM without the disk space to rebuild the file, is
+     * logged and the remaining steps are skipped. The maintenance is then still due, so that it
+     * runs again.
+     */
+    synchronized Result run() {
+        long start = SystemClock.elapsedRealtime();
+        long sizeBefore = getDatabaseSize();
+        long freePages = 0;
+        boolean completed = false;
+        try {
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+            // The statistics let the planner choose between the indexes of a table
+            database.execSQL("ANALYZE");
+
+            freePages = DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null);
+            if (DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null)
+                    != AUTO_VACUUM_INCREMENTAL) {
+                database.execSQL("PRAGMA auto_vacuum=" + AUTO_VACUUM_INCREMENTAL);
+                database.execSQL("VACUUM");
+            } else if (freePages > 0) {
+                runPragma(database, "PRAGMA incremental_vacuum");
+            }
+
+            // Truncating the log gives its space back too. SQLite versions that do not know
+            // this mode, before Android 6.0, run a passive checkpoint instead.
+            runPragma(database, "PRAGMA wal_checkpoint(TRUNCATE)");
+            completed = true;
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Maintenance failed", e);
+        }
+
+        if (completed) {
+            mPreferences.edit().putLong(PREF_LAST_RUN, System.currentTimeMillis()).apply();
+        }
+        Result result = new Result(sizeBefore, getDatabaseSize(),
+                SystemClock.elapsedRealtime() - start, completed);
+        Log.i(LOG_TAG, "Maintenance " + (completed ? "took " : "failed after ") + result.millis
+                + " ms, reclaimed " + result.getBytesReclaimed() + " bytes (" + freePages
+                + " free pages), " + result.sizeAfter + " bytes left");
+        return result;
+    }
+
+    /**
+     * Run a pragma that returns rows, which execSQL does not allow.
+     */
+    private static void runPragma(SQLiteDatabase database, String pragma) {
+        Cursor cursor = database.rawQuery(pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the size of the database file and of its write-ahead log, in bytes.
+     */
+    private long getDatabaseSize() {
+        File database = mContext.getDatabasePath(ToolDbHelper.DATABASE_NAME);
+        return database.length() + new File(database.getPath() + "-wal").length();
+    }
+}
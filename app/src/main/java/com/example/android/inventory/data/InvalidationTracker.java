@@ -0,0 +1,148 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Tracks the changes notified by {@link ToolProvider} and re-runs the {@link ObservableQuery}s
+ * they invalidate.
+ *
+ * The provider notifies the URI of the table or of the single row it wrote to. A query depends
+ * on the URI it reads, and on any other URI given to it, so a change invalidates it when the
+ * changed URI is the same as one of these, or is an ancestor or a descendant of it. Changing
+ * a tool therefore re-runs the catalog and the details of that tool, but not the details of the
+ * other tools. A single observer is registered for the whole provider, whatever the number of
+ * queries, and the queries run on a small pool of background threads shared by all of them.
+ *
+ * All the public methods must be called on the main thread.
+ */
+public class InvalidationTracker {
+
+    /** Name of the threads running the queries */
+    private static final String THREAD_NAME = ObservableQuery.class.getSimpleName();
+
+    /** Number of threads running the queries */
+    private static final int THREAD_COUNT = 2;
+
+    /** Shared instance, created on first use */
+    private static InvalidationTracker sInstance;
+
+    private final ContentResolver mResolver;
+    private final ExecutorService mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Queries that are not closed yet */
+    private final List<ObservableQuery> mQueries = new ArrayList<>();
+
+    /** Observer of every change made to the provider, registered while queries are open */
+    private final ContentObserver mObserver = new ContentObserver(mMainHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            invalidate(uri);
+        }
+    };
+
+    /**
+     * Return the shared {@link InvalidationTracker}.
+     */
+    public static InvalidationTracker getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new InvalidationTracker(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private InvalidationTracker(Context context) {
+        mResolver = context.getContentResolver();
+        mExecutor = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, THREAD_NAME);
+            }
+        });
+    }
+
+    /**
+     * Create a query of the provider, which depends on the given URI. It does not run until
+     * it is started.
+     */
+    public ObservableQuery query(Uri uri, String[] projection, String selection,
+                                 String[] selectionArgs, String sortOrder) {
+        ObservableQuery query = new ObservableQuery(this, uri, projection, selection,
+                selectionArgs, sortOrder);
+        if (mQueries.isEmpty()) {
+            mResolver.registerContentObserver(ToolContract.BASE_CONTENT_URI, true, mObserver);
+        }
+        mQueries.add(query);
+        return query;
+    }
+
+    /**
+     * Return true if a change notified for the given URI affects data read from the other URI.
+     * That is the case if one URI is the same as the other or one of its ancestors.
+     */
+    static boolean affects(Uri changed, Uri dependency) {
+        if (!changed.getAuthority().equals(dependency.getAuthority())) {
+            return false;
+        }
+        List<String> changedSegments = changed.getPathSegments();
+        List<String> dependencySegments = dependency.getPathSegments();
+        int length = Math.min(changedSegments.size(), dependencySegments.size());
+        return changedSegments.subList(0, length).equals(dependencySegments.subList(0, length));
+    }
+
+    /**
+     * Invalidate the queries depending on the given URI, or every query if it is null.
+     */
+    private void invalidate(Uri changed) {
+        // Invalidating a query may close it, so the list is copied first
+        for (ObservableQuery query : new ArrayList<>(mQueries)) {
+            if (changed == null || query.dependsOn(changed)) {
+                query.invalidate();
+            }
+        }
+    }
+
+    /**
+     * Stop tracking a closed query.
+     */
+    void remove(ObservableQuery query) {
+        if (mQueries.remove(query) && mQueries.isEmpty()) {
+            mResolver.unregisterContentObserver(mObserver);
+        }
+    }
+
+    ContentResolver getContentResolver() {
+        return mResolver;
+    }
+
+    ExecutorService getExecutor() {
+        return mExecutor;
+    }
+
+    Handler getMainHandler() {
+        return mMainHandler;
+    }
+}
@@ -0,0 +1,590 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.inventory.data.ToolContract.ChangeEntry;
+import com.example.android.inventory.data.ToolContract.ToolEntry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Backs up the inventory database to compressed files, and restores it from them.
+ *
+ * A full backup holds every row of the backed up tables. An incremental backup only holds the
+ * rows written since the previous backup, as recorded by the triggers of the database, and the
+ * IDs of the rows deleted since. Restoring applies the last full backup, then every incremental
+ * backup made after it, in order.
+ *
+ * The rows are copied in a single transaction, so a backup is a consistent snapshot. Writers
+ * only wait while the rows are copied to memory: they are compressed and written to storage
+ * once the transaction is over, and readers never wait since the database uses write-ahead
+ * logging. Photos are not backed up.
+ */
+class InventoryBackup {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = InventoryBackup.class.getSimpleName();
+
+    /** Name of the directory, in the app's files directory, where backups are stored */
+    private static final String BACKUP_DIRECTORY = "backups";
+
+    private static final String FILE_PREFIX = "inventory-";
+    private static final String FULL_SUFFIX = ".full.gz";
+    private static final String INCREMENTAL_SUFFIX = ".incremental.gz";
+
+    /** Suffix of the database built by a restore, before it replaces the current one */
+    private static final String RESTORE_SUFFIX = ".restore";
+
+    /** First bytes of every backup */
+    private static final int MAGIC = 0x494e5642;
+
+    /** Version of the format of the backups */
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte RECORD_END = 0;
+    private static final byte RECORD_ROW = 1;
+    private static final byte RECORD_DELETED = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Query returning the sequence number of the last write recorded */
+    private static final String SQL_LAST_CHANGE = "SELECT IFNULL(MAX(_id), 0) FROM "
+            + ToolDbHelper.BACKUP_CHANGES_TABLE;
+
+    /** Selection matching the writes recorded for a table */
+    private static final String CHANGES_SELECTION = "SELECT "
+            + ToolDbHelper.BACKUP_CHANGES_ROW_ID + " FROM " + ToolDbHelper.BACKUP_CHANGES_TABLE
+            + " WHERE " + ToolDbHelper.BACKUP_CHANGES_TABLE_NAME + "=?";
+
+    /** Query returning the ID of the last row backed up of an append-only table */
+    private static final String SQL_LAST_BACKED_UP_ROW = "SELECT IFNULL((SELECT "
+            + ToolDbHelper.BACKUP_MARKS_LAST_ROW_ID + " FROM " + ToolDbHelper.BACKUP_MARKS_TABLE
+            + " WHERE " + ToolDbHelper.BACKUP_MARKS_TABLE_NAME + "=?), 0)";
+
+    /** Selection matching the rows of an append-only table within a range of IDs */
+    private static final String APPENDED_ROWS_SELECTION = ToolEntry._ID + ">? AND "
+            + ToolEntry._ID + "<=?";
+
+    /** Result of a backup or a restore */
+    static class Result {
+
+        /** Last backup written or applied */
+        final File file;
+
+        /** Size of the backups written or applied, in bytes */
+        final long size;
+
+        /** Number of rows written or applied */
+        final int rows;
+
+        /** Time taken, in milliseconds */
+        final long millis;
+
+        /** True if the backup written or the last one applied is incremental */
+        final boolean incremental;
+
+        Result(File file, long size, int rows, long millis, boolean incremental) {
+            this.file = file;
+            this.size = size;
+            this.rows = rows;
+            this.millis = millis;
+            this.incremental = incremental;
+        }
+    }
+
+    /** Backup file, with its ID, which is also the time it was made at */
+    private static class BackupFile {
+        final File file;
+        final long id;
+        final boolean incremental;
+
+        BackupFile(File file, long id, boolean incremental) {
+            this.file = file;
+            this.id = id;
+            this.incremental = incremental;
+        }
+    }
+
+    private final Context mContext;
+    private final ToolDbHelper mDbHelper;
+    private final File mDirectory;
+
+    InventoryBackup(Context context, ToolDbHelper dbHelper) {
+        mContext = context;
+        mDbHelper = dbHelper;
+        mDirectory = new File(context.getFilesDir(), BACKUP_DIRECTORY);
+    }
+
+    /**
+     * Back up the database. The backup is incremental if requested and if there is a previous
+     * backup to build on, full otherwise. Once a full backup is written, the backups older than
+     * the previous full backup are deleted, so that the last two can be restored.
+     *
+     * The rows are copied in a single transaction, so that the tables are consistent with each
+     * other. Android cannot begin a read transaction on its own connection, so this one holds
+     * the reserved lock of the database: the writes wait for the copy, which is why the rows
+     * are only copied to memory then, and written to the file once the transaction is over.
+     * The queries do not wait, since the database uses write-ahead logging.
+     */
+    synchronized Result backup(boolean incremental) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        List<BackupFile> backups = listBackups();
+        BackupFile parent = backups.isEmpty() ? null : backups.get(backups.size() - 1);
+        incremental &= parent != null;
+        long id = Math.max(System.currentTimeMillis(), parent == null ? 0 : parent.id + 1);
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(snapshot);
+        long lastChange;
+        int rows = 0;
+        Map<String, Long> lastRows = new HashMap<>();
+        database.beginTransactionNonExclusive();
+        try {
+            lastChange = DatabaseUtils.longForQuery(database, SQL_LAST_CHANGE, null);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(ToolDbHelper.DATABASE_VERSION);
+            out.writeLong(id);
+            out.writeLong(incremental ? parent.id : 0);
+            for (String table : ToolDbHelper.BACKED_UP_TABLES) {
+                out.writeUTF(table);
+                if (ToolDbHelper.isAppended(table)) {
+                    long lastRow = DatabaseUtils.longForQuery(database,
+                            "SELECT IFNULL(MAX(" + ToolEntry._ID + "), 0) FROM " + table, null);
+                    long lastBackedUpRow = incremental ? DatabaseUtils.longForQuery(database,
+                            SQL_LAST_BACKED_UP_ROW, new String[] { table }) : 0;
+                    rows += writeRows(database, table, APPENDED_ROWS_SELECTION, new String[] {
+                            String.valueOf(lastBackedUpRow), String.valueOf(lastRow) }, out);
+                    lastRows.put(table, lastRow);
+                } else if (incremental) {
+                    rows += writeDeletedRows(database, table, out);
+                    rows += writeRows(database, table, ToolEntry._ID + " IN ("
+                            + CHANGES_SELECTION + ")", new String[] { table }, out);
+                } else {
+                    rows += writeRows(database, table, null, null, out);
+                }
+                out.writeByte(RECORD_END);
+            }
+            out.writeUTF("");
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        long copyMillis = SystemClock.elapsedRealtime() - start;
+
+        File file = new File(mDirectory, FILE_PREFIX + id
+                + (incremental ? INCREMENTAL_SUFFIX : FULL_SUFFIX));
+        writeFile(snapshot, file);
+
+        // The writes made since the copy have a higher sequence number, so they are kept
+        database.delete(ToolDbHelper.BACKUP_CHANGES_TABLE, "_id<=?",
+                new String[] { String.valueOf(lastChange) });
+        for (Map.Entry<String, Long> lastRow : lastRows.entrySet()) {
+            ContentValues values = new ContentValues();
+            values.put(ToolDbHelper.BACKUP_MARKS_TABLE_NAME, lastRow.getKey());
+            values.put(ToolDbHelper.BACKUP_MARKS_LAST_ROW_ID, lastRow.getValue());
+            database.insertWithOnConflict(ToolDbHelper.BACKUP_MARKS_TABLE, null, values,
+                    SQLiteDatabase.CONFLICT_REPLACE);
+        }
+
+        if (!incremental) {
+            deleteBackupsBeforeLastFull(backups);
+        }
+
+        Result result = new Result(file, file.length(), rows,
+                SystemClock.elapsedRealtime() - start, incremental);
+        Log.i(LOG_TAG, (incremental ? "Incremental" : "Full") + " backup of " + rows + " rows, "
+                + result.size + " bytes, in " + result.millis + " ms, writes blocked for "
+                + copyMillis + " ms: " + file);
+        return result;
+    }
+
+    /**
+     * Restore the database from the last full backup and the incremental backups made after
+     * it. The restored database is built next to the current one, which it then replaces
+     * atomically, so the current database is left as is if the restore fails.
+     *
+     * The change log is not backed up. Every restored tool is logged as inserted instead, so
+     * that the next sync pushes the restored state.
+     */
+    synchronized Result restore() throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        List<BackupFile> chain = listBackups();
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            if (!chain.get(i).incremental) {
+                chain = chain.subList(i, chain.size());
+                break;
+            }
+        }
+        if (chain.isEmpty() || chain.get(0).incremental) {
+            throw new IOException("No full backup in " + mDirectory);
+        }
+
+        File restored = mContext.getDatabasePath(ToolDbHelper.DATABASE_NAME + RESTORE_SUFFIX);
+        SQLiteDatabase.deleteDatabase(restored);
+        long size = 0;
+        int rows = 0;
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(restored, null);
+        try {
+            database.beginTransaction();
+            try {
+                // The triggers would record the restored rows as written, and the indexes are
+                // faster to build once the rows are in
+                mDbHelper.createTables(database);
+                long parentId = 0;
+                for (BackupFile backup : chain) {
+                    rows += applyBackup(database, backup, parentId);
+                    size += backup.file.length();
+                    parentId = backup.id;
+                }
+                mDbHelper.createTriggers(database);
+                mDbHelper.createDeferredIndexes(database);
+
+                // The append-only tables hold every row of the last backup
+                for (String table : ToolDbHelper.APPENDED_TABLES) {
+                    database.execSQL("INSERT INTO " + ToolDbHelper.BACKUP_MARKS_TABLE + " ("
+                            + ToolDbHelper.BACKUP_MARKS_TABLE_NAME + ", "
+                            + ToolDbHelper.BACKUP_MARKS_LAST_ROW_ID + ") SELECT '" + table
+                            + "', IFNULL(MAX(" + ToolEntry._ID + "), 0) FROM " + table);
+                }
+
+                database.execSQL("INSERT INTO " + ChangeEntry.TABLE_NAME + " ("
+                        + ChangeEntry.COLUMN_SYNC_ID + ", " + ChangeEntry.COLUMN_OPERATION
+                        + ") SELECT " + ToolEntry.COLUMN_SYNC_ID + ", '"
+                        + ChangeEntry.OPERATION_INSERT + "' FROM " + ToolEntry.TABLE_NAME
+                        + " WHERE " + ToolEntry.COLUMN_TOOL_DELETED + "=0 ORDER BY "
+                        + ToolEntry._ID);
+                database.setVersion(ToolDbHelper.DATABASE_VERSION);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        } finally {
+            database.close();
+        }
+
+        try {
+            mDbHelper.replaceDatabase(restored);
+        } finally {
+            SQLiteDatabase.deleteDatabase(restored);
+        }
+
+        BackupFile last = chain.get(chain.size() - 1);
+        Result result = new Result(last.file, size, rows, SystemClock.elapsedRealtime() - start,
+                last.incremental);
+        Log.i(LOG_TAG, "Restored " + chain.size() + " backups, " + rows + " rows, " + size
+                + " bytes, in " + result.millis + " ms");
+        return result;
+    }
+
+    /**
+     * Write the rows of the table matching the given selection, and return their number.
+     */
+    private static int writeRows(SQLiteDatabase database, String table, String selection,
+                                 String[] selectionArgs, DataOutputStream out) throws IOException {
+        Cursor cursor = database.query(table, null, selection, selectionArgs, null, null,
+                ToolEntry._ID);
+        try {
+            int columnCount = cursor.getColumnCount();
+            while (cursor.moveToNext()) {
+                out.writeByte(RECORD_ROW);
+                if (cursor.isFirst()) {
+                    // The columns are written with the first row only
+                    out.writeInt(columnCount);
+                    for (String column : cursor.getColumnNames()) {
+                        out.writeUTF(column);
+                    }
+                }
+                for (int i = 0; i < columnCount; i++) {
+                    writeValue(cursor, i, out);
+                }
+            }
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Write the IDs of the rows of the table deleted since the last backup, and return their
+     * number.
+     */
+    private static int writeDeletedRows(SQLiteDatabase database, String table,
+                                        DataOutputStream out) throws IOException {
+        Cursor cursor = database.rawQuery(CHANGES_SELECTION + " AND "
+                + ToolDbHelper.BACKUP_CHANGES_ROW_ID + " NOT IN (SELECT " + ToolEntry._ID
+                + " FROM " + table + ")", new String[] { table });
+        try {
+            while (cursor.moveToNext()) {
+                out.writeByte(RECORD_DELETED);
+                out.writeLong(cursor.getLong(0));
+            }
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Write a value with its type. Strings and blobs are written with their length.
+     */
+    private static void writeValue(Cursor cursor, int column, DataOutputStream out)
+            throws IOException {
+        int type = cursor.getType(column);
+        out.writeByte(type);
+        switch (type) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                out.writeLong(cursor.getLong(column));
+                break;
+            case Cursor.FIELD_TYPE_FLOAT:
+                out.writeDouble(cursor.getDouble(column));
+                break;
+            case Cursor.FIELD_TYPE_STRING:
+                writeBytes(cursor.getString(column).getBytes(UTF_8), out);
+                break;
+            case Cursor.FIELD_TYPE_BLOB:
+                writeBytes(cursor.getBlob(column), out);
+                break;
+        }
+    }
+
+    private static void writeBytes(byte[] bytes, DataOutputStream out) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Compress the snapshot to the given file. It is written to a temporary file first and
+     * synced, then renamed, so the file is either complete or missing.
+     */
+    private void writeFile(ByteArrayOutputStream snapshot, File file) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Could not create " + mDirectory);
+        }
+        File temporary = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temporary);
+        try {
+            GZIPOutputStream out = new GZIPOutputStream(new BufferedOutputStream(stream));
+            snapshot.writeTo(out);
+            out.finish();
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("Could not write " + file);
+        }
+    }
+
+    /**
+     * Apply a backup to the database being restored, and return the number of rows applied.
+     * The backup must be of the current schema, and must build on the given parent backup, or
+     * be a full backup if the parent ID is 0.
+     */
+    private static int applyBackup(SQLiteDatabase database, BackupFile backup, long parentId)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(backup.file))));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Not a backup: " + backup.file);
+            }
+            int schemaVersion = in.readInt();
+            if (schemaVersion != ToolDbHelper.DATABASE_VERSION) {
+                throw new IOException("Backup of schema version " + schemaVersion
+                        + " cannot be restored: " + backup.file);
+            }
+            if (in.readLong() != backup.id || in.readLong() != parentId) {
+                throw new IOException("Backup does not follow the previous one: " + backup.file);
+            }
+
+            int rows = 0;
+            for (String table = in.readUTF(); !table.isEmpty(); table = in.readUTF()) {
+                rows += applyTable(database, table, in);
+            }
+            return rows;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Apply the rows of a table, and return their number.
+     */
+    private static int applyTable(SQLiteDatabase database, String table, DataInputStream in)
+            throws IOException {
+        boolean backedUp = false;
+        for (String name : ToolDbHelper.BACKED_UP_TABLES) {
+            backedUp |= name.equals(table);
+        }
+        if (!backedUp) {
+            throw new IOException("Unknown table in backup: " + table);
+        }
+
+        SQLiteStatement insert = null;
+        int columnCount = 0;
+        SQLiteStatement delete = database.compileStatement("DELETE FROM " + table + " WHERE "
+                + ToolEntry._ID + "=?");
+        int rows = 0;
+        try {
+            for (byte record = in.readByte(); record != RECORD_END; record = in.readByte()) {
+                if (record == RECORD_DELETED) {
+                    delete.bindLong(1, in.readLong());
+                    delete.executeUpdateDelete();
+                } else if (record == RECORD_ROW) {
+                    if (insert == null) {
+                        String[] columns = readColumns(in);
+                        columnCount = columns.length;
+                        insert = compileInsert(database, table, columns);
+                    }
+                    insert.clearBindings();
+                    for (int i = 1; i <= columnCount; i++) {
+                        readValue(insert, i, in);
+                    }
+                    insert.executeInsert();
+                } else {
+                    throw new IOException("Corrupt backup of table " + table);
+                }
+                rows++;
+            }
+        } finally {
+            delete.close();
+            if (insert != null) {
+                insert.close();
+            }
+        }
+        return rows;
+    }
+
+    private static String[] readColumns(DataInputStream in) throws IOException {
+        String[] columns = new String[in.readInt()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = in.readUTF();
+        }
+        return columns;
+    }
+
+    /**
+     * Compile the statement inserting or replacing the rows of a table.
+     */
+    private static SQLiteStatement compileInsert(SQLiteDatabase database, String table,
+                                                 String[] columns) {
+        String[] parameters = new String[columns.length];
+        Arrays.fill(parameters, "?");
+        return database.compileStatement("INSERT OR REPLACE INTO " + table + " ("
+                + TextUtils.join(", ", columns) + ") VALUES ("
+                + TextUtils.join(", ", parameters) + ")");
+    }
+
+    /**
+     * Read a value written by {@link #writeValue} and bind it to the statement.
+     */
+    private static void readValue(SQLiteStatement statement, int index, DataInputStream in)
+            throws IOException {
+        byte[] bytes;
+        switch (in.readByte()) {
+            case Cursor.FIELD_TYPE_NULL:
+                statement.bindNull(index);
+                break;
+            case Cursor.FIELD_TYPE_INTEGER:
+                statement.bindLong(index, in.readLong());
+                break;
+            case Cursor.FIELD_TYPE_FLOAT:
+                statement.bindDouble(index, in.readDouble());
+                break;
+            case Cursor.FIELD_TYPE_STRING:
+                bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                statement.bindString(index, new String(bytes, UTF_8));
+                break;
+            case Cursor.FIELD_TYPE_BLOB:
+                bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                statement.bindBlob(index, bytes);
+                break;
+            default:
+                throw new IOException("Corrupt backup value");
+        }
+    }
+
+    /**
+     * Return the backups in the order they were made.
+     */
+    private List<BackupFile> listBackups() {
+        List<BackupFile> backups = new ArrayList<>();
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return backups;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(FILE_PREFIX)) {
+                continue;
+            }
+            boolean incremental = name.endsWith(INCREMENTAL_SUFFIX);
+            if (!incremental && !name.endsWith(FULL_SUFFIX)) {
+                continue;
+            }
+            String id = name.substring(FILE_PREFIX.length(), name.length()
+                    - (incremental ? INCREMENTAL_SUFFIX : FULL_SUFFIX).length());
+            try {
+                backups.add(new BackupFile(file, Long.parseLong(id), incremental));
+            } catch (NumberFormatException e) {
+                Log.w(LOG_TAG, "Ignoring unexpected file " + file);
+            }
+        }
+        Collections.sort(backups, new Comparator<BackupFile>() {
+            @Override
+            public int compare(BackupFile a, BackupFile b) {
+                return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+            }
+        });
+        return backups;
+    }
+
+    /**
+     * Delete the backups made before the last full backup of the given ones.
+     */
+    private static void deleteBackupsBeforeLastFull(List<BackupFile> backups) {
+        long lastFullId = 0;
+        for (BackupFile backup : backups) {
+            if (!backup.incremental) {
+                lastFullId = backup.id;
+            }
+        }
+        for (BackupFile backup : backups) {
+            if (backup.id < lastFullId && !backup.file.delete()) {
+                Log.w(LOG_TAG, "Could not delete " + backup.file);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.android.inventory.data;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Bundle;
+
+/**
+ * Job running the {@link DatabaseMaintenance} about once a day, while the device is idle and
+ * charging. The maintenance itself runs in {@link ToolProvider}, which owns the database.
+ * Before Android 5.0, which has no job scheduler, the provider runs it itself when it is due.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class MaintenanceJobService extends JobService {
+
+    /** ID of the maintenance job, unique within the app */
+    private static final int JOB_ID = 1;
+
+    /**
+     * Schedule the maintenance job, unless it is already scheduled. The job does not survive a
+     * reboot, it is scheduled again once the provider is created.
+     */
+    static void schedule(Context context) {
+        JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, MaintenanceJobService.class))
+                .setPeriodic(DatabaseMaintenance.INTERVAL_MILLIS)
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                // The job is always finished, or it would hold its wake lock until it times
+                // out. A maintenance that did not complete is retried with a back-off.
+                boolean reschedule = true;
+                try {
+                    Bundle result = getContentResolver().call(ToolContract.BASE_CONTENT_URI,
+                            ToolContract.METHOD_RUN_MAINTENANCE, null, null);
+                    reschedule = result == null
+                            || !result.getBoolean(ToolContract.EXTRA_MAINTENANCE_COMPLETED);
+                } finally {
+                    jobFinished(params, reschedule);
+                }
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The maintenance cannot be interrupted, and the next one runs a day later anyway
+        return false;
+    }
+}
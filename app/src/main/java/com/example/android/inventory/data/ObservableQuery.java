@@ -0,0 +1,348 @@
+package com.example.android.inventory.data;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Query of the provider that is re-run in the background whenever the data it depends on
+ * changes, as tracked by an {@link InvalidationTracker}.
+ *
+ * A small result is only delivered if its content differs from the last one delivered, so the
+ * screen is not refreshed when a change does not affect the rows it shows. A larger result is
+ * always delivered, since comparing it would read every row of it again. Results are delivered
+ * while the query is started; the changes made while it is stopped re-run it once it is
+ * started again. The query never runs twice at the same time: a change notified while it is
+ * running re-runs it once it is done. Changing its selection cancels the run in progress, whose
+ * result would be stale, before running it again.
+ *
+ * The query owns the cursors it delivers. Each one stays open until the next one is delivered
+ * or the query is closed, so a cursor must not be used after either. All the methods must be
+ * called on the main thread.
+ */
+public class ObservableQuery {
+
+    /** Receives the results of a query */
+    public interface Callback {
+
+        /**
+         * Called on the main thread with the new result of the query, which may be null if
+         * the provider could not run it.
+         */
+        void onQueryResult(Cursor cursor);
+    }
+
+    private static final String LOG_TAG = ObservableQuery.class.getSimpleName();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Maximum number of rows of a result compared with the last one. A result this small fits
+     * in the window filled when counting it, so it is compared without querying it again.
+     */
+    private static final int MAX_DIGEST_ROWS = 200;
+
+    private final InvalidationTracker mTracker;
+    private final Uri mUri;
+    private final String[] mProjection;
+    private final String mSortOrder;
+    private String mSelection;
+    private String[] mSelectionArgs;
+
+    /** Incremented whenever the selection changes, so that stale results can be told apart */
+    private int mSelectionVersion;
+
+    /** Signal canceling the run in progress, or null if the query is not running */
+    private CancellationSignal mCancellationSignal;
+
+    /** URIs whose changes invalidate the query */
+    private final List<Uri> mDependencies = new ArrayList<>();
+
+    private Callback mCallback;
+    private boolean mStarted;
+    private boolean mClosed;
+
+    /** True while the query is running in the background */
+    private boolean mRunning;
+
+    /** True if the data changed since the query last ran */
+    private boolean mInvalidated = true;
+
+    /** Cursor last delivered to the callback */
+    private Cursor mCursor;
+
+    /** Cursor loaded while the query was stopped, delivered once it is started again */
+    private Cursor mPendingCursor;
+    private boolean mHasPendingCursor;
+
+    /**
+     * Digest of the content of the last cursor loaded, or null if none was loaded yet or if it
+     * was too large to be compared
+     */
+    private byte[] mDigest;
+
+    ObservableQuery(InvalidationTracker tracker, Uri uri, String[] projection, String selection,
+                    String[] selectionArgs, String sortOrder) {
+        mTracker = tracker;
+        mUri = uri;
+        mProjection = projection;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mSortOrder = sortOrder;
+        mDependencies.add(uri);
+    }
+
+    /**
+     * Re-run the query as well when the data at the given URI changes. Return this query.
+     */
+    public ObservableQuery dependOn(Uri uri) {
+        mDependencies.add(uri);
+        return this;
+    }
+
+    /**
+     * Replace the selection of the query, and run it again if it is started. The run still in
+     * progress for the previous selection is canceled, and its result dropped.
+     */
+    public void setSelection(String selection, String[] selectionArgs) {
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mSelectionVersion++;
+        if (mCancellationSignal != null) {
+            mCancellationSignal.cancel();
+        }
+        invalidate();
+    }
+
+    /**
+     * Start delivering the results of the query to the given callback, running it if it has
+     * never run or if its data changed since.
+     */
+    public void start(Callback callback) {
+        if (mClosed) {
+            throw new IllegalStateException("Query is closed");
+        }
+        mCallback = callback;
+        mStarted = true;
+        if (mHasPendingCursor) {
+            deliver(mPendingCursor);
+            mPendingCursor = null;
+            mHasPendingCursor = false;
+        }
+        if (mInvalidated) {
+            run();
+        }
+    }
+
+    /**
+     * Stop delivering the results of the query. The changes made meanwhile are still tracked.
+     */
+    public void stop() {
+        mStarted = false;
+    }
+
+    /**
+     * Stop tracking the changes and close the cursors of the query. It cannot be started again.
+     */
+    public void close() {
+        if (mClosed) {
+            return;
+        }
+        if (mCancellationSignal != null) {
+            mCancellationSignal.cancel();
+        }
+        mClosed = true;
+        mStarted = false;
+        mCallback = null;
+        mTracker.remove(this);
+        closeQuietly(mCursor);
+        closeQuietly(mPendingCursor);
+        mCursor = null;
+        mPendingCursor = null;
+    }
+
+    /**
+     * Return true if the change notified for the given URI invalidates the query.
+     */
+    boolean dependsOn(Uri changed) {
+        for (Uri dependency : mDependencies) {
+            if (InvalidationTracker.affects(changed, dependency)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Mark the data of the query as changed, and re-run it if it is started.
+     */
+    void invalidate() {
+        mInvalidated = true;
+        if (mStarted) {
+            run();
+        }
+    }
+
+    /**
+     * Run the query in the background, unless it is already running.
+     */
+    private void run() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mInvalidated = false;
+
+        // The selection is read on the main thread, where it changes
+        final String selection = mSelection;
+        final String[] selectionArgs = mSelectionArgs;
+        final int selectionVersion = mSelectionVersion;
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+        mCancellationSignal = cancellationSignal;
+        mTracker.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                Cursor cursor = null;
+                byte[] digest = null;
+                boolean canceled = false;
+                try {
+                    cursor = mTracker.getContentResolver().query(mUri, mProjection, selection,
+                            selectionArgs, mSortOrder, cancellationSignal);
+
+                    // Counting the rows fills the first window of the cursor, so it is not
+                    // filled on the main thread later. The signal is checked while filling it.
+                    if (cursor != null && cursor.getCount() <= MAX_DIGEST_ROWS) {
+                        digest = digest(cursor);
+                    }
+                } catch (OperationCanceledException e) {
+                    closeQuietly(cursor);
+                    cursor = null;
+                    canceled = true;
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Cannot query " + mUri, e);
+                    closeQuietly(cursor);
+                    cursor = null;
+                } finally {
+                    // The query always reports back, or it would never run again
+                    final Cursor result = cursor;
+                    final byte[] resultDigest = digest;
+                    final boolean resultCanceled = canceled;
+                    mTracker.getMainHandler().post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onLoaded(result, resultDigest, resultCanceled, selectionVersion);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Deliver the cursor loaded in the background, unless the run was canceled, its content is
+     * the same as the last one or its selection was replaced meanwhile, and run the query again
+     * if its data changed meanwhile. The digest is null if the result was too large to be
+     * compared, or if the query failed, in which case the cursor is null as well.
+     */
+    private void onLoaded(Cursor cursor, byte[] digest, boolean canceled,
+                          int selectionVersion) {
+        mRunning = false;
+        mCancellationSignal = null;
+        if (mClosed) {
+            closeQuietly(cursor);
+            return;
+        }
+
+        if (canceled || selectionVersion != mSelectionVersion) {
+            closeQuietly(cursor);
+        } else if (digest != null && mDigest != null && Arrays.equals(digest, mDigest)) {
+            closeQuietly(cursor);
+        } else {
+            mDigest = digest;
+            if (mStarted) {
+                deliver(cursor);
+            } else {
+                closeQuietly(mPendingCursor);
+                mPendingCursor = cursor;
+                mHasPendingCursor = true;
+            }
+        }
+
+        if (mInvalidated && mStarted) {
+            run();
+        }
+    }
+
+    /**
+     * Hand the cursor to the callback, then close the one it replaces.
+     */
+    private void deliver(Cursor cursor) {
+        Cursor oldCursor = mCursor;
+        mCursor = cursor;
+        mCallback.onQueryResult(cursor);
+        if (oldCursor != cursor) {
+            closeQuietly(oldCursor);
+        }
+    }
+
+    /**
+     * Return a digest of the content of the cursor, which differs from one content to another.
+     * The values are hashed with their type and length, so that different rows never hash the
+     * same bytes.
+     */
+    private static byte[] digest(Cursor cursor) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer number = ByteBuffer.allocate(8);
+        int columnCount = cursor.getColumnCount();
+        digest.update(number.putInt(0, columnCount).array(), 0, 4);
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            for (int i = 0; i < columnCount; i++) {
+                int type = cursor.getType(i);
+                digest.update((byte) type);
+                byte[] bytes;
+                switch (type) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        digest.update(number.putLong(0, cursor.getLong(i)).array());
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        digest.update(number.putDouble(0, cursor.getDouble(i)).array());
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        bytes = cursor.getString(i).getBytes(UTF_8);
+                        digest.update(number.putInt(0, bytes.length).array(), 0, 4);
+                        digest.update(bytes);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        bytes = cursor.getBlob(i);
+                        digest.update(number.putInt(0, bytes.length).array(), 0, 4);
+                        digest.update(bytes);
+                        break;
+                }
+            }
+        }
+        cursor.moveToPosition(-1);
+        return digest.digest();
+    }
+
+    private static void closeQuietly(Cursor cursor) {
+        if (cursor != null) {
+            cursor.close();
+        }
+    }
+}
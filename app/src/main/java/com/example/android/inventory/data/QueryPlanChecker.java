@@ -0,0 +1,218 @@
+package com.example.android.inventory.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteQuery;
+import android.util.Log;
+
+import com.example.android.inventory.data.ToolContract.AuditEntry;
+import com.example.android.inventory.data.ToolContract.ChangeEntry;
+import com.example.android.inventory.data.ToolContract.LotEntry;
+import com.example.android.inventory.data.ToolContract.SaleEntry;
+import com.example.android.inventory.data.ToolContract.StockEntry;
+import com.example.android.inventory.data.ToolContract.ToolEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Debug check of the query plans of the provider. It runs EXPLAIN QUERY PLAN once for every
+ * shape of statement, records the plan, and warns about the plans that read a whole table
+ * that grows with the inventory, or that also sort its rows in a temporary B-tree instead of
+ * reading them in the order of an index. A search through the deleted flag alone counts as
+ * reading the whole table, since nearly every row is live. Tests read the problems found to
+ * catch a query that stopped using its index.
+ *
+ * It sees every query as the cursor factory of the database, and the statements compiled by
+ * {@link StatementCache}. Statements differing only in their literal numbers, such as the
+ * lists of IDs of a batch, have the same shape.
+ */
+class QueryPlanChecker implements SQLiteDatabase.CursorFactory {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = QueryPlanChecker.class.getSimpleName();
+
+    /** Tables that grow with the inventory, which should only be read through an index */
+    static final Set<String> LARGE_TABLES = new HashSet<>(Arrays.asList(ToolEntry.TABLE_NAME,
+            StockEntry.TABLE_NAME, SaleEntry.TABLE_NAME, ChangeEntry.TABLE_NAME,
+            AuditEntry.TABLE_NAME, LotEntry.TABLE_NAME));
+
+    /** Step of a plan reading a table, as "SCAN TABLE tools" before SQLite 3.24, or "SCAN tools" */
+    private static final Pattern TABLE_STEP = Pattern.compile(
+            "^(SCAN|SEARCH)( TABLE)? (\\w+)");
+
+    /** Constraint of a search step matching the rows that are not deleted, and nothing else */
+    private static final Pattern LIVE_ROWS_SEARCH = Pattern.compile("\\(deleted=\\?\\)$");
+
+    /**
+     * Statement reading a single table whose only condition is that the rows are not deleted,
+     * which is meant to list all the live rows
+     */
+    private static final Pattern LISTS_LIVE_ROWS = Pattern.compile(
+            "\\bFROM \\w+ WHERE \\(?(\\w+\\.)?deleted=0\\)?"
+                    + "(?=\\s+(GROUP BY|ORDER BY|LIMIT)\\b|\\s*$)", Pattern.CASE_INSENSITIVE);
+
+    /** Step of a plan sorting the rows itself */
+    private static final String TEMP_SORT_STEP = "USE TEMP B-TREE FOR ORDER BY";
+
+    /** Statements the planner can explain */
+    private static final Pattern EXPLAINABLE = Pattern.compile(
+            "^\\s*(SELECT|INSERT|UPDATE|DELETE|REPLACE|WITH)\\b", Pattern.CASE_INSENSITIVE);
+
+    /** Literal numbers, and lists of them once replaced, which do not change a shape */
+    private static final Pattern NUMBER = Pattern.compile("\\b\\d+\\b");
+    private static final Pattern NUMBER_LIST = Pattern.compile("\\?(\\s*,\\s*\\?)+");
+
+    /** Factory of the cursors of the plans themselves, which are not checked again */
+    private static final SQLiteDatabase.CursorFactory PLAN_CURSOR_FACTORY =
+            new SQLiteDatabase.CursorFactory() {
+                @Override
+                public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery,
+                                        String editTable, SQLiteQuery query) {
+                    return new SQLiteCursor(masterQuery, editTable, query);
+                }
+            };
+
+    /** Plan of a statement shape */
+    static class Plan {
+
+        /** SQL of the first statement of the shape */
+        final String sql;
+
+        /** Steps of the plan, as given by the detail column */
+        final List<String> steps;
+
+        /** Problems found in the plan, empty if none */
+        final List<String> problems;
+
+        Plan(String sql, List<String> steps, List<String> problems) {
+            this.sql = sql;
+            this.steps = steps;
+            this.problems = problems;
+        }
+    }
+
+    /** Plans by statement shape */
+    private final ConcurrentHashMap<String, Plan> mPlans = new ConcurrentHashMap<>();
+
+    @Override
+    public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery, String editTable,
+                            SQLiteQuery query) {
+        // The SQL of a query is only exposed through its description
+        String sql = query.toString();
+        int start = sql.indexOf(": ");
+        check(db, start >= 0 ? sql.substring(start + 2) : sql);
+        return new SQLiteCursor(masterQuery, editTable, query);
+    }
+
+    /**
+     * Explain the given statement, unless a statement of the same shape already was, and log
+     * its plan with the problems found.
+     */
+    void check(SQLiteDatabase db, String sql) {
+        if (!EXPLAINABLE.matcher(sql).find()) {
+            return;
+        }
+        String shape = NUMBER_LIST.matcher(NUMBER.matcher(sql).replaceAll("?")).replaceAll("?");
+        if (mPlans.containsKey(shape)) {
+            return;
+        }
+
+        List<String> steps = new ArrayList<>();
+        try {
+            // The arguments are left unbound, which the planner does not look at anyway
+            Cursor cursor = db.rawQueryWithFactory(PLAN_CURSOR_FACTORY,
+                    "EXPLAIN QUERY PLAN " + sql, null, null);
+            try {
+                int detail = cursor.getColumnIndexOrThrow("detail");
+                while (cursor.moveToNext()) {
+                    steps.add(cursor.getString(detail));
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLiteException e) {
+            Log.w(LOG_TAG, "Cannot explain " + sql, e);
+            return;
+        }
+
+        Plan plan = new Plan(sql, steps, findProblems(sql, steps));
+        if (mPlans.putIfAbsent(shape, plan) == null) {
+            if (plan.problems.isEmpty()) {
+                Log.d(LOG_TAG, sql + " -> " + steps);
+            } else {
+                Log.w(LOG_TAG, sql + " -> " + steps + ": " + plan.problems);
+            }
+        }
+    }
+
+    /**
+     * Return the problems of the plan of the given statement: the full scans of the large
+     * tables, their searches through the deleted flag alone unless the statement lists every
+     * live row, and the sorts in a temporary B-tree of the rows read from them whole. Rows
+     * found through a key, such as the tools of a category, may be sorted: the sort grows with
+     * the rows found, not with the table.
+     */
+    static List<String> findProblems(String sql, List<String> steps) {
+        List<String> problems = new ArrayList<>();
+        boolean readsWholeTable = false;
+        for (String step : steps) {
+            Matcher matcher = TABLE_STEP.matcher(step);
+            if (!matcher.find() || !LARGE_TABLES.contains(matcher.group(3))) {
+                continue;
+            }
+            if (matcher.group(1).equals("SCAN")) {
+                readsWholeTable = true;
+                problems.add("Full scan of " + matcher.group(3));
+            } else if (LIVE_ROWS_SEARCH.matcher(step).find()) {
+                readsWholeTable = true;
+                if (!LISTS_LIVE_ROWS.matcher(sql).find()) {
+                    problems.add("Search of every live row of " + matcher.group(3));
+                }
+            }
+        }
+        if (readsWholeTable && steps.contains(TEMP_SORT_STEP)) {
+            problems.add("Sort without index");
+        }
+        return problems;
+    }
+
+    /**
+     * Return the plans recorded so far.
+     */
+    List<Plan> getPlans() {
+        return new ArrayList<>(mPlans.values());
+    }
+
+    /**
+     * Return the problems of the plans recorded so far, each prefixed with the SQL of its
+     * statement.
+     */
+    List<String> getProblems() {
+        List<String> problems = new ArrayList<>();
+        for (Plan plan : mPlans.values()) {
+            for (String problem : plan.problems) {
+                problems.add(problem + ": " + plan.sql);
+            }
+        }
+        Collections.sort(problems);
+        return problems;
+    }
+
+    /**
+     * Forget the plans recorded so far, so that the next statements are explained again.
+     */
+    void clear() {
+        mPlans.clear();
+    }
+}
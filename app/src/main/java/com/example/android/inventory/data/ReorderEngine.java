@@ -0,0 +1,132 @@
+package com.example.android.inventory.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.inventory.data.ToolContract.ReorderEntry;
+import com.example.android.inventory.data.ToolContract.SaleEntry;
+
+/**
+ * Computes the reorder suggestions of the tools from their sales.
+ *
+ * The sales velocity of a tool is its average quantity sold per day over the last
+ * {@link #VELOCITY_WINDOW_DAYS} days. The reorder point covers the sales expected while an
+ * order is delivered, plus a safety stock, and an order brings the stock back to the reorder
+ * point plus {@link #COVER_DAYS} days of sales.
+ *
+ * The computation is incremental: it only visits the tools sold since the last one, whose
+ * sequence number is kept with the suggestions, and the tools with a velocity computed more
+ * than a day ago, which drops as their sales leave the window.
+ */
+class ReorderEngine {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = ReorderEngine.class.getSimpleName();
+
+    /** Number of days the sales velocity is averaged over */
+    static final int VELOCITY_WINDOW_DAYS = 28;
+
+    /** Number of days an order takes to be delivered */
+    static final int LEAD_TIME_DAYS = 7;
+
+    /** Number of days of sales kept in stock in case sales pick up */
+    static final int SAFETY_DAYS = 7;
+
+    /** Number of days of sales an order covers */
+    static final int COVER_DAYS = 30;
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+
+    /** Query returning the sequence number of the last sale the suggestions were computed with */
+    private static final String SQL_LAST_SALE_COMPUTED = "SELECT IFNULL(MAX("
+            + ToolDbHelper.REORDERS_LAST_SALE_ID + "), 0) FROM " + ReorderEntry.TABLE_NAME;
+
+    /** Query returning the sequence number of the last sale */
+    private static final String SQL_LAST_SALE = "SELECT IFNULL(MAX(" + SaleEntry._ID
+            + "), 0) FROM " + SaleEntry.TABLE_NAME;
+
+    /**
+     * Query returning the tools sold since a given sale or whose suggestion is stale, with
+     * their quantity sold since a given time. The arguments are the sale, the current time,
+     * and the start of the window.
+     */
+    private static final String SQL_QUERY_SOLD = "SELECT tool." + SaleEntry.COLUMN_TOOL_ID
+            + ", IFNULL(SUM(" + SaleEntry.TABLE_NAME + "." + SaleEntry.COLUMN_QUANTITY
+            + "), 0) FROM (SELECT " + SaleEntry.COLUMN_TOOL_ID + " FROM " + SaleEntry.TABLE_NAME
+            + " WHERE " + SaleEntry._ID + ">? UNION SELECT " + ReorderEntry._ID + " FROM "
+            + ReorderEntry.TABLE_NAME + " WHERE " + ToolDbHelper.REORDERS_EXPIRES + "<?) AS tool"
+            + " LEFT OUTER JOIN " + SaleEntry.TABLE_NAME + " ON " + SaleEntry.TABLE_NAME + "."
+            + SaleEntry.COLUMN_TOOL_ID + "=tool." + SaleEntry.COLUMN_TOOL_ID + " AND "
+            + SaleEntry.TABLE_NAME + "." + SaleEntry.COLUMN_TIME + ">=? GROUP BY tool."
+            + SaleEntry.COLUMN_TOOL_ID;
+
+    /** Statement replacing the suggestion of a tool */
+    private static final String SQL_REPLACE_SUGGESTION = "INSERT OR REPLACE INTO "
+            + ReorderEntry.TABLE_NAME + " (" + ReorderEntry._ID + ", "
+            + ReorderEntry.COLUMN_VELOCITY + ", " + ReorderEntry.COLUMN_REORDER_POINT + ", "
+            + ReorderEntry.COLUMN_ORDER_UP_TO + ", " + ToolDbHelper.REORDERS_LAST_SALE_ID + ", "
+            + ToolDbHelper.REORDERS_EXPIRES + ") VALUES (?, ?, ?, ?, ?, ?)";
+
+    private final ToolDbHelper mDbHelper;
+
+    ReorderEngine(ToolDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Compute the suggestions of the tools sold since the last computation, and of those
+     * whose suggestion is stale, in a single transaction. Return the number of tools visited.
+     */
+    synchronized int update() {
+        long start = SystemClock.elapsedRealtime();
+        long now = System.currentTimeMillis();
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        int count = 0;
+        database.beginTransaction();
+        try {
+            long lastSaleComputed = DatabaseUtils.longForQuery(database, SQL_LAST_SALE_COMPUTED,
+                    null);
+            long lastSale = DatabaseUtils.longForQuery(database, SQL_LAST_SALE, null);
+            Cursor cursor = database.rawQuery(SQL_QUERY_SOLD, new String[] {
+                    String.valueOf(lastSaleComputed), String.valueOf(now),
+                    String.valueOf(now - VELOCITY_WINDOW_DAYS * DAY_MILLIS) });
+            SQLiteStatement replace = database.compileStatement(SQL_REPLACE_SUGGESTION);
+            try {
+                while (cursor.moveToNext()) {
+                    double velocity = (double) cursor.getLong(1) / VELOCITY_WINDOW_DAYS;
+                    long reorderPoint = (long) Math.ceil(velocity * (LEAD_TIME_DAYS
+                            + SAFETY_DAYS));
+                    long orderUpTo = reorderPoint + (long) Math.ceil(velocity * COVER_DAYS);
+
+                    replace.bindLong(1, cursor.getLong(0));
+                    replace.bindDouble(2, velocity);
+                    replace.bindLong(3, reorderPoint);
+                    replace.bindLong(4, orderUpTo);
+                    replace.bindLong(5, lastSale);
+                    if (velocity > 0) {
+                        replace.bindLong(6, now + DAY_MILLIS);
+                    } else {
+                        replace.bindNull(6);
+                    }
+                    replace.executeInsert();
+                    count++;
+                }
+            } finally {
+                replace.close();
+                cursor.close();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        Log.i(LOG_TAG, "Computed " + count + " reorder suggestions in "
+                + (SystemClock.elapsedRealtime() - start) + " ms");
+        return count;
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.android.inventory.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of compiled statements, keyed by their SQL.
+ *
+ * The provider repeats the same few statement shapes for every write to a single tool. Compiling
+ * a statement prepares it on a database connection and allocates its program, so reusing the
+ * compiled statement saves that work on every call. The least recently used statements are
+ * released once the cache is full.
+ *
+ * Only fixed statements belong in the cache. A statement built around the selection of a
+ * caller, such as one with a list of IDs, is rarely repeated and would evict the statements
+ * that are, so those are run directly on the database instead.
+ *
+ * A statement holds its bound arguments, so each one is bound and executed while holding its
+ * lock, which makes the cache safe to use from several threads. A statement evicted while
+ * another thread is executing it is only released after that execution, since every user holds
+ * a reference to it. The statements are compiled again if the helper opens another database,
+ * for instance after a restore.
+ */
+class StatementCache {
+
+    /** Maximum number of statements kept compiled */
+    private static final int MAX_SIZE = 32;
+
+    private final SQLiteOpenHelper mDbHelper;
+
+    /** Checker of the plans of the statements compiled, or null */
+    private final QueryPlanChecker mPlanChecker;
+
+    /** Database the cached statements were compiled for */
+    private SQLiteDatabase mDatabase;
+
+    private final LinkedHashMap<String, SQLiteStatement> mStatements =
+            new LinkedHashMap<String, SQLiteStatement>(MAX_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+                    if (size() <= MAX_SIZE) {
+                        return false;
+                    }
+                    eldest.getValue().releaseReference();
+                    return true;
+                }
+            };
+
+    /**
+     * Constructs a new {@link StatementCache}.
+     *
+     * @param dbHelper giving access to the database the statements are compiled for
+     */
+    StatementCache(SQLiteOpenHelper dbHelper) {
+        this(dbHelper, null);
+    }
+
+    /**
+     * Create a cache whose statements are checked by the given checker as they are compiled.
+     */
+    StatementCache(SQLiteOpenHelper dbHelper, QueryPlanChecker planChecker) {
+        mDbHelper = dbHelper;
+        mPlanChecker = planChecker;
+    }
+
+    /**
+     * Execute a statement that does not return anything.
+     */
+    void execute(String sql, Object... bindArgs) {
+        SQLiteStatement statement = acquire(sql);
+        try {
+            synchronized (statement) {
+                bind(statement, bindArgs);
+                statement.execute();
+            }
+        } finally {
+            statement.releaseReference();
+        }
+    }
+
+    /**
+     * Execute an INSERT statement. Return the ID of the inserted row, or -1 on failure.
+     */
+    long executeInsert(String sql, Object... bindArgs) {
+        SQLiteStatement statement = acquire(sql);
+        try {
+            synchronized (statement) {
+                bind(statement, bindArgs);
+                return statement.executeInsert();
+            }
+        } finally {
+            statement.releaseReference();
+        }
+    }
+
+    /**
+     * Execute an UPDATE or DELETE statement. Return the number of rows affected.
+     */
+    int executeUpdateDelete(String sql, Object... bindArgs) {
+        SQLiteStatement statement = acquire(sql);
+        try {
+            synchronized (statement) {
+                bind(statement, bindArgs);
+                return statement.executeUpdateDelete();
+            }
+        } finally {
+            statement.releaseReference();
+        }
+    }
+
+    /**
+     * Execute a query returning a single number. Return the value of the first row, or the
+     * given default value if there is no row.
+     */
+    long queryForLong(long defaultValue, String sql, Object... bindArgs) {
+        SQLiteStatement statement = acquire(sql);
+        try {
+            synchronized (statement) {
+                bind(statement, bindArgs);
+                return statement.simpleQueryForLong();
+            }
+        } catch (SQLiteDoneException e) {
+            return defaultValue;
+        } finally {
+            statement.releaseReference();
+        }
+    }
+
+    /**
+     * Execute a query returning a single string. Return the value of the first row, or null
+     * if there is no row.
+     */
+    String queryForString(String sql, Object... bindArgs) {
+        SQLiteStatement statement = acquire(sql);
+        try {
+            synchronized (statement) {
+                bind(statement, bindArgs);
+                return statement.simpleQueryForString();
+            }
+        } catch (SQLiteDoneException e) {
+            return null;
+        } finally {
+            statement.releaseReference();
+        }
+    }
+
+    /**
+     * Release every statement, for instance because the database is about to be closed.
+     */
+    synchronized void clear() {
+        for (SQLiteStatement statement : mStatements.values()) {
+            statement.releaseReference();
+        }
+        mStatements.clear();
+        mDatabase = null;
+    }
+
+    /**
+     * Return the compiled statement for the given SQL, compiling it if needed. The caller owns
+     * a reference to the statement, which it must release once done with it.
+     */
+    private synchronized SQLiteStatement acquire(String sql) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        if (database != mDatabase) {
+            clear();
+            mDatabase = database;
+        }
+        SQLiteStatement statement = mStatements.get(sql);
+        if (statement == null) {
+            if (mPlanChecker != null) {
+                mPlanChecker.check(database, sql);
+            }
+            statement = database.compileStatement(sql);
+            mStatements.put(sql, statement);
+        }
+        statement.acquireReference();
+        return statement;
+    }
+
+    /**
+     * Replace the arguments bound to the statement.
+     */
+    private static void bind(SQLiteStatement statement, Object[] bindArgs) {
+        statement.clearBindings();
+        for (int i = 0; i < bindArgs.length; i++) {
+            DatabaseUtils.bindObjectToProgram(statement, i + 1, bindArgs[i]);
+        }
+    }
+}
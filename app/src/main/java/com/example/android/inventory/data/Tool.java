@@ -0,0 +1,158 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.example.android.inventory.data.ToolContract.ToolEntry;
+
+/**
+ * Snapshot of a tool as it was read from the provider. It can be handed to another activity
+ * so that it does not have to query the same tool again. Its version tells whether the tool
+ * has changed since.
+ */
+public class Tool implements Parcelable {
+
+    /** Columns needed to read a tool with {@link #fromCursor} */
+    public static final String[] PROJECTION = {
+            ToolEntry._ID,
+            ToolEntry.COLUMN_TOOL_VERSION,
+            ToolEntry.COLUMN_TOOL_NAME,
+            ToolEntry.COLUMN_TOOL_SKU,
+            ToolEntry.COLUMN_TOOL_PRICE,
+            ToolEntry.COLUMN_TOOL_QUANTITY,
+            ToolEntry.COLUMN_SUPPLIER_NAME,
+            ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER,
+            ToolEntry.COLUMN_TOOL_PHOTO };
+
+    private final long mId;
+    private final long mVersion;
+    private final String mName;
+    private final String mSku;
+    private final float mPrice;
+    private final int mQuantity;
+    private final String mSupplierName;
+    private final String mSupplierPhoneNumber;
+    private final String mPhoto;
+
+    private Tool(long id, long version, String name, String sku, float price, int quantity,
+                 String supplierName, String supplierPhoneNumber, String photo) {
+        mId = id;
+        mVersion = version;
+        mName = name;
+        mSku = sku;
+        mPrice = price;
+        mQuantity = quantity;
+        mSupplierName = supplierName;
+        mSupplierPhoneNumber = supplierPhoneNumber;
+        mPhoto = photo;
+    }
+
+    /**
+     * Read the tool at the current position of a cursor queried with {@link #PROJECTION}.
+     */
+    public static Tool fromCursor(Cursor cursor) {
+        return new Tool(
+                cursor.getLong(cursor.getColumnIndexOrThrow(ToolEntry._ID)),
+                cursor.getLong(cursor.getColumnIndexOrThrow(ToolEntry.COLUMN_TOOL_VERSION)),
+                cursor.getString(cursor.getColumnIndexOrThrow(ToolEntry.COLUMN_TOOL_NAME)),
+                cursor.getString(cursor.getColumnIndexOrThrow(ToolEntry.COLUMN_TOOL_SKU)),
+                cursor.getFloat(cursor.getColumnIndexOrThrow(ToolEntry.COLUMN_TOOL_PRICE)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(ToolEntry.COLUMN_TOOL_QUANTITY)),
+                cursor.getString(cursor.getColumnIndexOrThrow(ToolEntry.COLUMN_SUPPLIER_NAME)),
+                cursor.getString(
+                        cursor.getColumnIndexOrThrow(ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER)),
+                cursor.getString(cursor.getColumnIndexOrThrow(ToolEntry.COLUMN_TOOL_PHOTO)));
+    }
+
+    /**
+     * Read the tool from values holding the columns of {@link #PROJECTION}, such as those
+     * returned by {@link ToolContract#METHOD_UPDATE_TOOL}.
+     */
+    public static Tool fromValues(ContentValues values) {
+        Float price = values.getAsFloat(ToolEntry.COLUMN_TOOL_PRICE);
+        Integer quantity = values.getAsInteger(ToolEntry.COLUMN_TOOL_QUANTITY);
+        return new Tool(
+                values.getAsLong(ToolEntry._ID),
+                values.getAsLong(ToolEntry.COLUMN_TOOL_VERSION),
+                values.getAsString(ToolEntry.COLUMN_TOOL_NAME),
+                values.getAsString(ToolEntry.COLUMN_TOOL_SKU),
+                price != null ? price : 0,
+                quantity != null ? quantity : 0,
+                values.getAsString(ToolEntry.COLUMN_SUPPLIER_NAME),
+                values.getAsString(ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER),
+                values.getAsString(ToolEntry.COLUMN_TOOL_PHOTO));
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public String getSku() {
+        return mSku;
+    }
+
+    public float getPrice() {
+        return mPrice;
+    }
+
+    public int getQuantity() {
+        return mQuantity;
+    }
+
+    public String getSupplierName() {
+        return mSupplierName;
+    }
+
+    public String getSupplierPhoneNumber() {
+        return mSupplierPhoneNumber;
+    }
+
+    /**
+     * Return the file name of the photo of the tool, or null if it has none.
+     */
+    public String getPhoto() {
+        return mPhoto;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeLong(mId);
+        dest.writeLong(mVersion);
+        dest.writeString(mName);
+        dest.writeString(mSku);
+        dest.writeFloat(mPrice);
+        dest.writeInt(mQuantity);
+        dest.writeString(mSupplierName);
+        dest.writeString(mSupplierPhoneNumber);
+        dest.writeString(mPhoto);
+    }
+
+    public static final Parcelable.Creator<Tool> CREATOR = new Parcelable.Creator<Tool>() {
+        @Override
+        public Tool createFromParcel(Parcel source) {
+            return new Tool(source.readLong(), source.readLong(), source.readString(),
+                    source.readString(), source.readFloat(), source.readInt(),
+                    source.readString(), source.readString(), source.readString());
+        }
+
+        @Override
+        public Tool[] newArray(int size) {
+            return new Tool[size];
+        }
+    };
+}
@@ -1,9 +1,12 @@
 package com.example.android.inventory.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
+import java.util.TimeZone;
+
 /**
 * API Contract for the Inventory app.
 */
@@ -27,6 +30,13 @@ public final class ToolContract {
      */
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
 
+    /**
+     * Permission another app must hold to use the provider. It is only granted to the apps
+     * signed with the same key as this one, such as the point of sale.
+     */
+    public static final String PERMISSION_ACCESS_TOOLS =
+            "com.example.android.inventory.permission.ACCESS_TOOLS";
+
     /**
      * Possible path (appended to base content URI for possible URI's)
      * For instance, content://com.example.android.inventory/tool/ is a valid path for
@@ -35,6 +45,239 @@ public final class ToolContract {
      */
     public static final String PATH_TOOLS = "tools";
 
+    /**
+     * Path for the change log, which records every write made to the tools table.
+     * For instance, content://com.example.android.inventory/changes/ lists the pending changes
+     * that have not been pushed to the sync backend yet.
+     */
+    public static final String PATH_CHANGES = "changes";
+
+    /**
+     * Path appended to the URI of a single tool to access its photo, for instance
+     * content://com.example.android.inventory/tools/2/photo. The photo is read and written
+     * as a file through {@link ContentResolver#openFileDescriptor}.
+     */
+    public static final String PATH_PHOTO = "photo";
+
+    /**
+     * Path appended to the tools URI to look up a tool by its SKU, for instance
+     * content://com.example.android.inventory/tools/sku/4006381333931.
+     */
+    public static final String PATH_SKU = "sku";
+
+    /**
+     * Path appended to the URI of a single tool to sell it, for instance
+     * content://com.example.android.inventory/tools/2/sale. Updating it with the quantity sold
+     * takes that quantity from the stock held at the default location, if there is enough.
+     */
+    public static final String PATH_SALE = "sale";
+
+    /**
+     * Path appended to the tools URI to list the sections of the alphabetical index of the
+     * tools, for instance content://com.example.android.inventory/tools/index.
+     */
+    public static final String PATH_INDEX = "index";
+
+    /**
+     * Path for the locations where tools are stocked, for instance
+     * content://com.example.android.inventory/locations/.
+     */
+    public static final String PATH_LOCATIONS = "locations";
+
+    /**
+     * Path for the quantities of tools held at each location. It is also appended to the URI
+     * of a single tool or location to list its stock, for instance
+     * content://com.example.android.inventory/tools/2/stock.
+     */
+    public static final String PATH_STOCK = "stock";
+
+    /**
+     * Path for the sales reports, for instance
+     * content://com.example.android.inventory/reports/daily. The sales of each tool are rolled
+     * up per day and per week as they are made, so a report reads one row per bucket.
+     */
+    public static final String PATH_REPORTS = "reports";
+
+    /** Path appended to the reports URI for the sales per day */
+    public static final String PATH_DAILY = "daily";
+
+    /** Path appended to the reports URI for the sales per week */
+    public static final String PATH_WEEKLY = "weekly";
+
+    /**
+     * Path for the tools to reorder, for instance
+     * content://com.example.android.inventory/reorders/.
+     */
+    public static final String PATH_REORDERS = "reorders";
+
+    /**
+     * Path for the audit trail of the tools, for instance
+     * content://com.example.android.inventory/audit/.
+     */
+    public static final String PATH_AUDIT = "audit";
+
+    /**
+     * Path appended to the URI of a single tool to access its details, for instance
+     * content://com.example.android.inventory/tools/2/details.
+     */
+    public static final String PATH_DETAILS = "details";
+
+    /**
+     * Path for the lots of the tools, for instance content://com.example.android.inventory/lots/.
+     * It is also appended to the URI of a single tool to list its lots, for instance
+     * content://com.example.android.inventory/tools/2/lots.
+     */
+    public static final String PATH_LOTS = "lots";
+
+    /**
+     * Path appended to the tools URI to list the lots expiring soon, for instance
+     * content://com.example.android.inventory/tools/expiring?days=30.
+     */
+    public static final String PATH_EXPIRING = "expiring";
+
+    /**
+     * Path for the categories of the tools, for instance
+     * content://com.example.android.inventory/categories/. The URI of a single category is
+     * appended with {@link #PATH_CHILDREN} to list its subcategories, or with
+     * {@link #PATH_TOOLS} to list the tools of its whole subtree, for instance
+     * content://com.example.android.inventory/categories/2/tools.
+     */
+    public static final String PATH_CATEGORIES = "categories";
+
+    /** Path appended to the URI of a single category to list its subcategories */
+    public static final String PATH_CHILDREN = "children";
+
+    /**
+     * Provider method restoring the tools deleted since a given time, while they are still
+     * within the undo window. The argument is the time in milliseconds, as returned by
+     * {@link System#currentTimeMillis()}, taken before deleting. It is called through
+     * {@link ContentResolver#call(Uri, String, String, android.os.Bundle)}.
+     */
+    public static final String METHOD_RESTORE_DELETED = "restore_deleted";
+
+    /**
+     * Provider method backing up the database to the app's files. The backup only holds the
+     * rows written since the previous backup if {@link #EXTRA_INCREMENTAL} is true and there is
+     * a previous backup, and every row otherwise. The result holds {@link #EXTRA_BACKUP_FILE},
+     * {@link #EXTRA_BACKUP_SIZE}, {@link #EXTRA_BACKUP_ROWS}, {@link #EXTRA_BACKUP_MILLIS} and
+     * {@link #EXTRA_INCREMENTAL}.
+     */
+    public static final String METHOD_BACKUP = "backup";
+
+    /**
+     * Provider method replacing the database with the state of the last backup. The result
+     * holds the same extras as {@link #METHOD_BACKUP}, for the backups applied.
+     */
+    public static final String METHOD_RESTORE_BACKUP = "restore_backup";
+
+    /**
+     * Provider method running the maintenance of the database: gathering the statistics of
+     * the query planner, reclaiming the free pages and checkpointing the write-ahead log. It is
+     * scheduled by the app, and should only be called while the device is not in use. The
+     * result holds {@link #EXTRA_MAINTENANCE_COMPLETED}, {@link #EXTRA_BYTES_RECLAIMED} and
+     * {@link #EXTRA_MAINTENANCE_MILLIS}.
+     */
+    public static final String METHOD_RUN_MAINTENANCE = "run_maintenance";
+
+    /**
+     * Provider method returning many tools in a single call, so that another app does not pay
+     * for one call per tool. The extras hold the IDs of the tools in {@link #EXTRA_IDS}. The
+     * result holds {@link #EXTRA_TOOLS}, with the tools found in the order of their IDs.
+     * Unknown and deleted tools are left out.
+     */
+    public static final String METHOD_GET_TOOLS = "get_tools";
+
+    /**
+     * Provider method adjusting the stock of many tools held at the default location, in a
+     * single transaction. The extras hold the IDs of the tools in {@link #EXTRA_IDS} and the
+     * quantity to add to each, negative to take it away, in {@link #EXTRA_QUANTITY_DELTAS}.
+     * An adjustment that would leave a negative stock is not applied. The result holds
+     * {@link #EXTRA_QUANTITIES}. Adjustments are not recorded as sales.
+     */
+    public static final String METHOD_ADJUST_QUANTITIES = "adjust_quantities";
+
+    /**
+     * Provider method updating a single tool, provided that it has not changed since it was
+     * read, which is checked in the transaction of the update. The argument is the ID of the
+     * tool. The extras hold the values to write in {@link #EXTRA_VALUES} and the version of
+     * the tool they were edited from in {@link #EXTRA_VERSION}. The result holds
+     * {@link #EXTRA_UPDATED}, and the current values of the tool in {@link #EXTRA_TOOL}: once
+     * updated, or as changed meanwhile, for the caller to merge its values with. They are
+     * missing if the tool was deleted.
+     */
+    public static final String METHOD_UPDATE_TOOL = "update_tool";
+
+    /** Parcelable extra holding the values to write to a tool, as ContentValues */
+    public static final String EXTRA_VALUES = "values";
+
+    /** Long extra holding the version of a tool, as read from {@link ToolEntry#COLUMN_TOOL_VERSION} */
+    public static final String EXTRA_VERSION = "version";
+
+    /** Boolean extra telling whether a tool was updated */
+    public static final String EXTRA_UPDATED = "updated";
+
+    /**
+     * Parcelable extra holding a single tool, as {@link android.content.ContentValues} with
+     * every column of {@link ToolEntry}
+     */
+    public static final String EXTRA_TOOL = "tool";
+
+    /** Long array extra holding the IDs of the tools of a batch */
+    public static final String EXTRA_IDS = "ids";
+
+    /**
+     * Parcelable array list extra holding tools, as {@link android.content.ContentValues}
+     * with every column of {@link ToolEntry}
+     */
+    public static final String EXTRA_TOOLS = "tools";
+
+    /** Integer array extra holding the quantity added to each tool of a batch */
+    public static final String EXTRA_QUANTITY_DELTAS = "quantity_deltas";
+
+    /**
+     * Integer array extra holding the total quantity of each tool of a batch once adjusted,
+     * or -1 if the tool does not exist or its adjustment was not applied
+     */
+    public static final String EXTRA_QUANTITIES = "quantities";
+
+    /**
+     * Boolean extra telling whether every step of the maintenance completed. A maintenance that
+     * failed is due again right away.
+     */
+    public static final String EXTRA_MAINTENANCE_COMPLETED = "maintenance_completed";
+
+    /** Long extra holding the bytes reclaimed by the maintenance, negative if the files grew */
+    public static final String EXTRA_BYTES_RECLAIMED = "bytes_reclaimed";
+
+    /** Long extra holding the time taken by the maintenance, in milliseconds */
+    public static final String EXTRA_MAINTENANCE_MILLIS = "maintenance_millis";
+
+    /** Boolean extra telling whether a backup is incremental */
+    public static final String EXTRA_INCREMENTAL = "incremental";
+
+    /** String extra holding the path of the last backup written or applied */
+    public static final String EXTRA_BACKUP_FILE = "backup_file";
+
+    /** Long extra holding the size of the backups written or applied, in bytes */
+    public static final String EXTRA_BACKUP_SIZE = "backup_size";
+
+    /** Integer extra holding the number of rows written or applied */
+    public static final String EXTRA_BACKUP_ROWS = "backup_rows";
+
+    /** Long extra holding the time taken by a backup or a restore, in milliseconds */
+    public static final String EXTRA_BACKUP_MILLIS = "backup_millis";
+
+    /**
+     * Query parameter flagging a write that comes from the sync engine. Such writes are applied
+     * to the tools table but are not recorded in the change log, so they are not pushed back.
+     */
+    public static final String CALLER_IS_SYNC_ADAPTER = "caller_is_sync_adapter";
+
+    /**
+     * Query parameter that limits the number of rows returned by a query.
+     */
+    public static final String PARAM_LIMIT = "limit";
+
     /**
      * Inner class that defines constant values for the tool database table.
      * Each entry in the table represents a single tool.
@@ -56,6 +299,77 @@ public final class ToolContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_TOOLS;
 
+        /**
+         * The MIME type of the photo of a tool.
+         */
+        public static final String PHOTO_TYPE = "image/jpeg";
+
+        /**
+         * Return the URI of the photo of the tool with the given ID.
+         */
+        public static Uri buildPhotoUri(long id) {
+            return Uri.withAppendedPath(ContentUris.withAppendedId(CONTENT_URI, id), PATH_PHOTO);
+        }
+
+        /**
+         * Return the URI of the tool with the given SKU.
+         */
+        public static Uri buildSkuUri(String sku) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SKU).appendPath(sku).build();
+        }
+
+        /**
+         * Return the URI selling the tool with the given ID.
+         */
+        public static Uri buildSaleUri(long id) {
+            return Uri.withAppendedPath(ContentUris.withAppendedId(CONTENT_URI, id), PATH_SALE);
+        }
+
+        /**
+         * Return a selection matching the tools with the given IDs. The IDs are written in the
+         * selection itself rather than as arguments, so that it can match more tools than the
+         * arguments a statement can take.
+         */
+        public static String buildIdSelection(long... ids) {
+            StringBuilder selection = new StringBuilder(_ID + " IN (");
+            for (int i = 0; i < ids.length; i++) {
+                if (i > 0) {
+                    selection.append(',');
+                }
+                selection.append(ids[i]);
+            }
+            return selection.append(')').toString();
+        }
+
+        /**
+         * Largest number of tools in a chunk read with {@link #buildChunkUri}, which bounds the
+         * size of each chunk sent to another process.
+         */
+        public static final int MAX_CHUNK_SIZE = 256;
+
+        /**
+         * Query parameters reading the tools in chunks, by increasing ID. A chunk holds the
+         * tools whose ID is greater than {@link #PARAM_AFTER}, the last ID of the previous
+         * chunk, and at most {@link #PARAM_UNTIL} if given. The chunk size is given by
+         * {@link ToolContract#PARAM_LIMIT}, up to {@link #MAX_CHUNK_SIZE}, and the sort order is
+         * ignored.
+         */
+        public static final String PARAM_AFTER = "after";
+        public static final String PARAM_UNTIL = "until";
+
+        /**
+         * Return the URI of the chunk of tools following the tool with the given ID, 0 for the
+         * first chunk, up to the tool with the given ID. Fixing the last ID when the reading
+         * starts leaves out the tools inserted meanwhile, so that a reader does not chase them.
+         */
+        public static Uri buildChunkUri(long afterId, long untilId, int size) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_AFTER, String.valueOf(afterId))
+                    .appendQueryParameter(PARAM_UNTIL, String.valueOf(untilId))
+                    .appendQueryParameter(PARAM_LIMIT, String.valueOf(size))
+                    .build();
+        }
+
         /** Name of database table for tools */
         public final static String TABLE_NAME = "tools";
 
@@ -81,7 +395,9 @@ public final class ToolContract {
         public final static String COLUMN_TOOL_PRICE = "price";
 
         /**
-         * Quantity of the tool.
+         * Total quantity of the tool over every location. It is maintained by the database
+         * whenever the stock of the tool changes, so it is never summed when reading tools.
+         * Writing it adjusts the stock held at the default location by the difference.
          *
          * Type: INTEGER
          */
@@ -100,5 +416,849 @@ public final class ToolContract {
          * Type: TEXT
          */
         public final static String COLUMN_SUPPLIER_PHONE_NUMBER = "phone_number";
+
+        /**
+         * Globally unique identifier of the tool, shared by every device synced with the backend.
+         * It is generated on insertion when it is not provided.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SYNC_ID = "sync_id";
+
+        /**
+         * File name of the photo of the tool in the provider's photo store, or null if the tool
+         * has no photo. A new name is given to every photo written, so it can be used as a
+         * cache key.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_TOOL_PHOTO = "photo";
+
+        /**
+         * Stock keeping unit of the tool, usually the number encoded in its barcode.
+         * It is unique among tools, or null if the tool has none.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_TOOL_SKU = "sku";
+
+        /**
+         * Time the tool was deleted at, in milliseconds, or 0 if it is not deleted. Deleting a
+         * tool only sets this time, so the tool disappears from every query right away, and it
+         * can be restored with {@link ToolContract#METHOD_RESTORE_DELETED} for
+         * {@link #DELETE_UNDO_WINDOW_MILLIS}. Deleted tools are purged in the background
+         * afterwards.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOOL_DELETED = "deleted";
+
+        /**
+         * Version of the tool, incremented by every write made to it, including the changes
+         * of its stock. A copy of the tool is still current as long as its version is.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOOL_VERSION = "version";
+
+        /**
+         * ID of the category of the tool, or null if the tool is not in any category.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_CATEGORY_ID = "category_id";
+
+        /** Time during which a deleted tool can still be restored */
+        public static final long DELETE_UNDO_WINDOW_MILLIS = 60 * 1000;
+
+        /**
+         * Sort order listing the tools alphabetically, ignoring case. It is answered by an
+         * index, and the sections of {@link IndexEntry} follow it.
+         */
+        public static final String SORT_BY_NAME = COLUMN_TOOL_NAME + " COLLATE NOCASE";
+    }
+
+    /**
+     * Inner class that defines constant values for the alphabetical index of the tools.
+     * Each entry represents the tools whose name starts with the same letter, listed in the
+     * order of {@link ToolEntry#SORT_BY_NAME}. The index is computed from the tools, it has
+     * no table of its own.
+     */
+    public static final class IndexEntry {
+
+        /**
+         * The content URI to access the index in the provider. A selection on the tools
+         * columns limits the index to the tools it matches.
+         */
+        public static final Uri CONTENT_URI = ToolEntry.CONTENT_URI.buildUpon()
+                .appendPath(PATH_INDEX).build();
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of sections.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_INDEX;
+
+        /**
+         * First letter of the names of the tools of the section, in upper case.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SECTION = "section";
+
+        /**
+         * Position of the first tool of the section in the list of tools.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_OFFSET = "offset";
+
+        /**
+         * Number of tools in the section.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_COUNT = "count";
+    }
+
+    /**
+     * Inner class that defines constant values for the change log database table.
+     * Each entry in the table represents a single write made to a tool.
+     */
+    public static final class ChangeEntry implements BaseColumns {
+
+        /** The content URI to access the change log in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_CHANGES);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of changes.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHANGES;
+
+        /** Name of database table for changes */
+        public final static String TABLE_NAME = "changes";
+
+        /**
+         * Sequence number of the change. It increases monotonically, so it can be used
+         * to fetch every change made after the last one acknowledged by the backend.
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * Sync ID of the tool that was changed.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SYNC_ID = "sync_id";
+
+        /**
+         * Kind of write that was made to the tool.
+         * The only possible values are {@link #OPERATION_INSERT}, {@link #OPERATION_UPDATE}
+         * or {@link #OPERATION_DELETE}.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_OPERATION = "operation";
+
+        /**
+         * Possible values for the operation of the change.
+         */
+        public static final String OPERATION_INSERT = "insert";
+        public static final String OPERATION_UPDATE = "update";
+        public static final String OPERATION_DELETE = "delete";
+    }
+
+    /**
+     * Inner class that defines constant values for the locations database table.
+     * Each entry in the table represents a single place where tools are stocked.
+     */
+    public static final class LocationEntry implements BaseColumns {
+
+        /** The content URI to access the location data in the provider */
+        public static final Uri CONTENT_URI =
+                Uri.withAppendedPath(BASE_CONTENT_URI, PATH_LOCATIONS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of locations.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATIONS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single location.
+         */
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATIONS;
+
+        /**
+         * ID of the location that always exists. Quantities written to a tool directly,
+         * rather than to one of its locations, are held there.
+         */
+        public static final long DEFAULT_LOCATION_ID = 1;
+
+        /**
+         * Return the URI of the stock held at the location with the given ID.
+         */
+        public static Uri buildStockUri(long id) {
+            return Uri.withAppendedPath(ContentUris.withAppendedId(CONTENT_URI, id), PATH_STOCK);
+        }
+
+        /** Name of database table for locations */
+        public final static String TABLE_NAME = "locations";
+
+        /**
+         * Unique ID number for the location (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * Name of the location, unique among locations.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_LOCATION_NAME = "location_name";
+    }
+
+    /**
+     * Inner class that defines constant values for the stock database table.
+     * Each entry in the table represents the quantity of a tool held at a location.
+     */
+    public static final class StockEntry implements BaseColumns {
+
+        /** The content URI to access the stock data in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_STOCK);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of stock entries.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STOCK;
+
+        /**
+         * Return the URI of the stock of the tool with the given ID, per location.
+         */
+        public static Uri buildToolStockUri(long toolId) {
+            return Uri.withAppendedPath(ContentUris.withAppendedId(ToolEntry.CONTENT_URI, toolId),
+                    PATH_STOCK);
+        }
+
+        /** Name of database table for stock */
+        public final static String TABLE_NAME = "stock";
+
+        /**
+         * Unique ID number for the stock entry (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * ID of the tool held.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOOL_ID = "tool_id";
+
+        /**
+         * ID of the location where the tool is held.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_LOCATION_ID = "location_id";
+
+        /**
+         * Quantity of the tool held at the location, never negative.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_QUANTITY = "quantity";
+    }
+
+    /**
+     * Inner class that defines constant values for the sales reports, and the database tables
+     * rolling up the sales. Each entry in the daily table holds the sales of a tool on a day,
+     * and each entry in the weekly table its sales in a week, which the database derives from
+     * the daily table.
+     *
+     * The reports are queried with a range of days, and return one row per bucket with sales
+     * in that range. A selection on {@link #COLUMN_TOOL_ID} limits them to some tools.
+     */
+    public static final class ReportEntry implements BaseColumns {
+
+        /** The content URI to access the reports in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI,
+                PATH_REPORTS);
+
+        /** The content URI of the sales per day, over every tool or the selected ones */
+        public static final Uri DAILY_URI = Uri.withAppendedPath(CONTENT_URI, PATH_DAILY);
+
+        /** The content URI of the sales per week, over every tool or the selected ones */
+        public static final Uri WEEKLY_URI = Uri.withAppendedPath(CONTENT_URI, PATH_WEEKLY);
+
+        /**
+         * The content URI of the sales per tool over the whole range, with the name of each
+         * tool, by decreasing revenue.
+         */
+        public static final Uri TOOLS_URI = Uri.withAppendedPath(CONTENT_URI, PATH_TOOLS);
+
+        /**
+         * The MIME type of the report URIs.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_REPORTS;
+
+        /**
+         * Query parameters giving the first and the last day of a report, inclusive. Both are
+         * required.
+         */
+        public static final String PARAM_FROM = "from";
+        public static final String PARAM_TO = "to";
+
+        /** Length of a day, in milliseconds */
+        private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+
+        /**
+         * Return the URI of the given report over the given range of days, inclusive.
+         */
+        public static Uri buildReportUri(Uri reportUri, long fromDay, long toDay) {
+            return reportUri.buildUpon()
+                    .appendQueryParameter(PARAM_FROM, String.valueOf(fromDay))
+                    .appendQueryParameter(PARAM_TO, String.valueOf(toDay))
+                    .build();
+        }
+
+        /**
+         * Return the day of the given time in the local time zone, as a number of days since
+         * January 1, 1970.
+         */
+        public static long getDay(long millis) {
+            return (millis + TimeZone.getDefault().getOffset(millis)) / DAY_MILLIS;
+        }
+
+        /**
+         * Return the first day of the week of the given day, which is a Monday.
+         */
+        public static long getWeek(long day) {
+            // January 1, 1970 is a Thursday, three days after a Monday
+            return day - (day + 3) % 7;
+        }
+
+        /** Name of database table for the sales per day */
+        public final static String DAILY_TABLE_NAME = "sales_daily";
+
+        /** Name of database table for the sales per week */
+        public final static String WEEKLY_TABLE_NAME = "sales_weekly";
+
+        /**
+         * Unique ID number for the entry (only for use in the database tables).
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * ID of the tool sold.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOOL_ID = "tool_id";
+
+        /**
+         * Day of the sales, see {@link #getDay}. Only in the daily report.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_DAY = "day";
+
+        /**
+         * First day of the week of the sales, see {@link #getWeek}. Only in the weekly report.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_WEEK = "week";
+
+        /**
+         * Quantity sold.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_QUANTITY = "quantity";
+
+        /**
+         * Revenue of the sales, at the price of each tool when it was sold.
+         *
+         * Type: REAL
+         */
+        public final static String COLUMN_REVENUE = "revenue";
+    }
+
+    /**
+     * Inner class that defines constant values for the sales database table. Each entry in
+     * the table is a single sale, which the reorder suggestions are computed from. The table
+     * is only written by the provider.
+     */
+    public static final class SaleEntry implements BaseColumns {
+
+        /** Name of database table for sales */
+        public final static String TABLE_NAME = "sales";
+
+        /**
+         * Sequence number of the sale.
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * ID of the tool sold.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOOL_ID = "tool_id";
+
+        /**
+         * Quantity sold.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_QUANTITY = "quantity";
+
+        /**
+         * Time of the sale, in milliseconds.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TIME = "time";
+    }
+
+    /**
+     * Inner class that defines constant values for the reorder suggestions. Each entry in the
+     * table holds the sales velocity of a tool, and the stock levels derived from it, which are
+     * computed in the background as tools are sold.
+     *
+     * The content URI lists the live tools whose quantity is at or below their reorder point,
+     * with the quantity to order and the supplier to order it from, ordered by supplier.
+     */
+    public static final class ReorderEntry implements BaseColumns {
+
+        /** The content URI to access the reorder suggestions in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI,
+                PATH_REORDERS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of reorder suggestions.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_REORDERS;
+
+        /** Name of database table for the reorder suggestions */
+        public final static String TABLE_NAME = "reorders";
+
+        /**
+         * ID of the tool, which is also the ID of the suggestion.
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * Average quantity of the tool sold per day, over the last weeks.
+         *
+         * Type: REAL
+         */
+        public final static String COLUMN_VELOCITY = "velocity";
+
+        /**
+         * Quantity at or below which the tool should be reordered, so that the order arrives
+         * before the stock runs out.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_REORDER_POINT = "reorder_point";
+
+        /**
+         * Quantity the stock of the tool should be brought back to by an order.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_ORDER_UP_TO = "order_up_to";
+
+        /**
+         * Quantity of the tool to order now. Only in the content URI.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SUGGESTED_QUANTITY = "suggested_quantity";
+    }
+
+    /**
+     * Inner class that defines constant values for the audit trail of the tools. Each entry
+     * records a change made to a tool: a column written with its value before and after, or
+     * the insertion or deletion of the tool. The entries are written in the background, a few
+     * seconds after the change, so the most recent changes may not be there yet. They can only
+     * be queried.
+     */
+    public static final class AuditEntry implements BaseColumns {
+
+        /** The content URI to access the audit trail in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_AUDIT);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of audit entries.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_AUDIT;
+
+        /** Name of database table for the audit trail */
+        public final static String TABLE_NAME = "audit_log";
+
+        /**
+         * Unique ID number for the entry, which increases with every entry.
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * ID of the tool changed.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOOL_ID = "tool_id";
+
+        /**
+         * Operation made on the tool, one of {@link ChangeEntry#OPERATION_INSERT},
+         * {@link ChangeEntry#OPERATION_UPDATE} or {@link ChangeEntry#OPERATION_DELETE}.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_OPERATION = "operation";
+
+        /**
+         * Column of the tool written, such as {@link ToolEntry#COLUMN_TOOL_PRICE}, or null for
+         * a deletion.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_FIELD = "field";
+
+        /**
+         * Value of the column before the change, or null for an insertion.
+         *
+         * Type: any
+         */
+        public final static String COLUMN_OLD_VALUE = "old_value";
+
+        /**
+         * Value of the column after the change, or null for a deletion.
+         *
+         * Type: any
+         */
+        public final static String COLUMN_NEW_VALUE = "new_value";
+
+        /**
+         * Package name of the app that made the change, or its user ID if it has none.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_CALLER = "caller";
+
+        /**
+         * Time of the change, in milliseconds since January 1, 1970.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TIME = "time";
+    }
+
+    /**
+     * Inner class that defines constant values for the details of the tools: the long texts
+     * that only the details of a single tool show. They are kept out of the tools table, so
+     * that the catalog does not read them with every tool, and are only accessed through the
+     * URI of a single tool, as returned by {@link #buildToolDetailsUri(long)}.
+     *
+     * A tool has at most one row of details, which may be missing if none was ever written.
+     * Updating the URI writes the columns given, and creates the row if needed. The details
+     * are deleted with the tool.
+     */
+    public static final class DetailsEntry implements BaseColumns {
+
+        /**
+         * The MIME type of the URI of the details of a single tool.
+         */
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_DETAILS;
+
+        /**
+         * Return the URI of the details of the tool with the given ID.
+         */
+        public static Uri buildToolDetailsUri(long toolId) {
+            return Uri.withAppendedPath(ContentUris.withAppendedId(ToolEntry.CONTENT_URI, toolId),
+                    PATH_DETAILS);
+        }
+
+        /** Name of database table for the details */
+        public final static String TABLE_NAME = "tool_details";
+
+        /**
+         * ID of the tool, which is also the ID of its details.
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * Description of the tool, which may span several paragraphs, or null.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_DESCRIPTION = "description";
+
+        /**
+         * Notes kept about the tool, or null.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_NOTES = "notes";
+
+        /**
+         * Technical specifications of the tool, or null.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SPECS = "specs";
+    }
+
+    /**
+     * Inner class that defines constant values for the lots of the tools. Consumables such as
+     * blades come in lots, each with its own expiry date. The lots of a tool are part of the
+     * stock it holds at the default location, whose remaining stock is not tracked by lot.
+     *
+     * Inserting a lot receives its quantity into the stock of its tool. Selling a tool takes
+     * the quantity sold from its lots first, the first to expire first, in the transaction of
+     * the sale, and a lot is deleted once used up. Deleting a lot writes its remaining quantity
+     * off the stock. Lots cannot be updated.
+     */
+    public static final class LotEntry implements BaseColumns {
+
+        /** The content URI to access the lots in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_LOTS);
+
+        /**
+         * The content URI listing the lots of the live tools that expire within a number of
+         * days, given by {@link #PARAM_DAYS}, the first to expire first. Each lot comes with the
+         * name of its tool.
+         */
+        public static final Uri EXPIRING_URI = Uri.withAppendedPath(ToolEntry.CONTENT_URI,
+                PATH_EXPIRING);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of lots.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LOTS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single lot.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LOTS;
+
+        /**
+         * Query parameter of {@link #EXPIRING_URI} giving the number of days from now within
+         * which the lots expire. It defaults to {@link #DEFAULT_EXPIRING_DAYS}.
+         */
+        public static final String PARAM_DAYS = "days";
+
+        /** Number of days within which the lots listed by {@link #EXPIRING_URI} expire */
+        public static final int DEFAULT_EXPIRING_DAYS = 30;
+
+        /**
+         * Return the URI of the lots of the tool with the given ID, the first to expire first.
+         */
+        public static Uri buildToolLotsUri(long toolId) {
+            return Uri.withAppendedPath(ContentUris.withAppendedId(ToolEntry.CONTENT_URI, toolId),
+                    PATH_LOTS);
+        }
+
+        /**
+         * Return the URI of the lots expiring within the given number of days.
+         */
+        public static Uri buildExpiringUri(int days) {
+            return EXPIRING_URI.buildUpon()
+                    .appendQueryParameter(PARAM_DAYS, String.valueOf(days))
+                    .build();
+        }
+
+        /** Name of database table for the lots */
+        public final static String TABLE_NAME = "lots";
+
+        /**
+         * Unique ID number for the lot (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * ID of the tool of the lot.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOOL_ID = "tool_id";
+
+        /**
+         * Number of the lot given by its manufacturer, or null.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_LOT_NUMBER = "lot_number";
+
+        /**
+         * Time at which the lot expires, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_EXPIRY = "expiry";
+
+        /**
+         * Quantity left in the lot, always positive.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_QUANTITY = "quantity";
+    }
+
+    /**
+     * Inner class that defines constant values for the categories of the tools. Categories
+     * form a tree: each category is either at the top level or under a parent category, and
+     * the subtree of a category holds the category itself and every category under it.
+     *
+     * Every ancestor of every category is recorded in the paths table, maintained by the
+     * database as the categories are written, so the subtree of a category is a single
+     * indexed lookup at any depth rather than a walk down the tree.
+     */
+    public static final class CategoryEntry implements BaseColumns {
+
+        /**
+         * The content URI to access the categories in the provider. Each category comes with
+         * the number of live tools in its subtree.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI,
+                PATH_CATEGORIES);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of categories.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/"
+                        + PATH_CATEGORIES;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single category.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/"
+                        + PATH_CATEGORIES;
+
+        /**
+         * Return the URI of the subcategories of the category with the given ID.
+         */
+        public static Uri buildChildrenUri(long id) {
+            return Uri.withAppendedPath(ContentUris.withAppendedId(CONTENT_URI, id),
+                    PATH_CHILDREN);
+        }
+
+        /**
+         * Return the URI of the live tools in the subtree of the category with the given ID.
+         */
+        public static Uri buildToolsUri(long id) {
+            return Uri.withAppendedPath(ContentUris.withAppendedId(CONTENT_URI, id), PATH_TOOLS);
+        }
+
+        /**
+         * Return a selection matching the tools in the subtree of the category with the given
+         * ID. The ID is written in the selection itself, so that it can be combined with other
+         * selections and their arguments.
+         */
+        public static String buildSubtreeSelection(long id) {
+            return ToolEntry.COLUMN_CATEGORY_ID + " IN (SELECT " + COLUMN_DESCENDANT_ID
+                    + " FROM " + PATHS_TABLE_NAME + " WHERE " + COLUMN_ANCESTOR_ID + "=" + id
+                    + ")";
+        }
+
+        /** Name of database table for the categories */
+        public final static String TABLE_NAME = "categories";
+
+        /**
+         * Unique ID number for the category (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * Name of the category.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_CATEGORY_NAME = "name";
+
+        /**
+         * ID of the parent category, or null for a category at the top level. Changing it
+         * moves the category with its whole subtree.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PARENT_ID = "parent_id";
+
+        /**
+         * Number of live tools in the subtree of the category, computed by the provider. It
+         * cannot be written.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOOL_COUNT = "tool_count";
+
+        /** Selection of the categories at the top level, which have no parent */
+        public static final String TOP_LEVEL_SELECTION = COLUMN_PARENT_ID + " IS NULL";
+
+        /**
+         * Sort order listing the categories alphabetically, ignoring case. It is answered by
+         * an index for the subcategories of a same parent.
+         */
+        public static final String SORT_BY_NAME = COLUMN_CATEGORY_NAME + " COLLATE NOCASE";
+
+        /**
+         * Name of database table for the paths of the tree, which holds a row for every
+         * category and each of its ancestors, including the category itself.
+         */
+        public final static String PATHS_TABLE_NAME = "category_paths";
+
+        /**
+         * ID of the ancestor of the path.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_ANCESTOR_ID = "ancestor_id";
+
+        /**
+         * ID of the category under the ancestor.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_DESCENDANT_ID = "descendant_id";
+
+        /**
+         * Number of levels between the ancestor and the category, 0 for the category itself.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_DEPTH = "depth";
     }
 }
@@ -1,23 +1,93 @@
 package com.example.android.inventory.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.example.android.inventory.StartupMetrics;
+import com.example.android.inventory.data.ToolContract.AuditEntry;
+import com.example.android.inventory.data.ToolContract.CategoryEntry;
+import com.example.android.inventory.data.ToolContract.ChangeEntry;
+import com.example.android.inventory.data.ToolContract.DetailsEntry;
+import com.example.android.inventory.data.ToolContract.LocationEntry;
+import com.example.android.inventory.data.ToolContract.LotEntry;
+import com.example.android.inventory.data.ToolContract.ReorderEntry;
+import com.example.android.inventory.data.ToolContract.ReportEntry;
+import com.example.android.inventory.data.ToolContract.SaleEntry;
+import com.example.android.inventory.data.ToolContract.StockEntry;
 import com.example.android.inventory.data.ToolContract.ToolEntry;
 
+import java.io.File;
+import java.io.IOException;
+
 /**
  * Database helper for Inventory app. Manages database creation and version management.
  */
 public class ToolDbHelper extends SQLiteOpenHelper {
 
+    /** Names of the triggers created by {@link #createStockTriggers} */
+    private static final String[] STOCK_TRIGGERS = { "stock_insert_total", "stock_update_total",
+            "stock_delete_total", "tools_delete_stock", "locations_delete_stock" };
+
+    /**
+     * Name of the table recording the rows written since the last backup, so that the next
+     * backup can be incremental. A row written again moves to the end of the table.
+     */
+    static final String BACKUP_CHANGES_TABLE = "backup_changes";
+
+    /** Column of {@link #BACKUP_CHANGES_TABLE} holding the name of the table written to */
+    static final String BACKUP_CHANGES_TABLE_NAME = "table_name";
+
+    /** Column of {@link #BACKUP_CHANGES_TABLE} holding the ID of the row written */
+    static final String BACKUP_CHANGES_ROW_ID = "row_id";
+
+    /**
+     * Tables copied by the backups. The writes to each of them are recorded in
+     * {@link #BACKUP_CHANGES_TABLE}, except for the {@link #APPENDED_TABLES}.
+     */
+    static final String[] BACKED_UP_TABLES = { LocationEntry.TABLE_NAME, ToolEntry.TABLE_NAME,
+            StockEntry.TABLE_NAME, ReportEntry.DAILY_TABLE_NAME, ReportEntry.WEEKLY_TABLE_NAME,
+            SaleEntry.TABLE_NAME, AuditEntry.TABLE_NAME, DetailsEntry.TABLE_NAME,
+            LotEntry.TABLE_NAME, CategoryEntry.TABLE_NAME, CategoryEntry.PATHS_TABLE_NAME };
+
+    /**
+     * Backed up tables whose rows are only ever inserted. Recording their writes would double
+     * the cost of every sale and audit entry, so an incremental backup copies the rows past the
+     * last one backed up instead, as held by {@link #BACKUP_MARKS_TABLE}.
+     */
+    static final String[] APPENDED_TABLES = { SaleEntry.TABLE_NAME, AuditEntry.TABLE_NAME };
+
+    /** Table holding the ID of the last row backed up of each of the {@link #APPENDED_TABLES} */
+    static final String BACKUP_MARKS_TABLE = "backup_marks";
+
+    /** Column of {@link #BACKUP_MARKS_TABLE} holding the name of the table */
+    static final String BACKUP_MARKS_TABLE_NAME = "table_name";
+
+    /** Column of {@link #BACKUP_MARKS_TABLE} holding the ID of the last row backed up */
+    static final String BACKUP_MARKS_LAST_ROW_ID = "last_row_id";
+
+    /**
+     * Column of the reorder suggestions holding the sequence number of the last sale they
+     * were computed with.
+     */
+    static final String REORDERS_LAST_SALE_ID = "last_sale_id";
+
+    /**
+     * Column of the reorder suggestions holding the time after which they are stale, as their
+     * sales leave the window of the velocity, or null if they cannot change without a sale.
+     */
+    static final String REORDERS_EXPIRES = "expires";
+
     /** Name of the database file */
-    private static final String DATABASE_NAME = "inventory.db";
+    static final String DATABASE_NAME = "inventory.db";
 
     /**
      * Database version. If you change the database schema, you must increment the database version.
      */
-    private static final int DATABASE_VERSION = 1;
+    static final int DATABASE_VERSION = 15;
+
+    private final Context mContext;
 
     /**
      * Constructs a new instance of {@link ToolDbHelper}.
@@ -25,7 +95,20 @@ public class ToolDbHelper extends SQLiteOpenHelper {
      * @param context of the app
      */
     public ToolDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, null);
+    }
+
+    /**
+     * Constructs a new instance of {@link ToolDbHelper} whose queries create their cursors
+     * with the given factory, such as a {@link QueryPlanChecker}.
+     */
+    ToolDbHelper(Context context, SQLiteDatabase.CursorFactory factory) {
+        super(context, DATABASE_NAME, factory, DATABASE_VERSION);
+        mContext = context;
+
+        // With write-ahead logging, readers keep reading the last committed state while a
+        // write is in progress, instead of waiting for it
+        setWriteAheadLoggingEnabled(true);
     }
 
 
@@ -34,6 +117,17 @@ public class ToolDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
+        createTables(db);
+        createTriggers(db);
+
+        // The tables are empty, so nothing needs to be deferred
+        createDeferredIndexes(db);
+    }
+
+    /**
+     * Create every table of the current schema with its constraints, without the triggers.
+     */
+    void createTables(SQLiteDatabase db) {
         // Create a String that contains the SQL statement to create the products table
         String SQL_CREATE_PRODUCT_TABLE =  "CREATE TABLE " + ToolEntry.TABLE_NAME + " ("
                 + ToolEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
@@ -41,17 +135,628 @@ public class ToolDbHelper extends SQLiteOpenHelper {
                 + ToolEntry.COLUMN_TOOL_PRICE + " REAL NOT NULL, "
                 + ToolEntry.COLUMN_TOOL_QUANTITY + " INTEGER, "
                 + ToolEntry.COLUMN_SUPPLIER_NAME + " TEXT NOT NULL, "
-                + ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " TEXT NOT NULL);";
+                + ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " TEXT NOT NULL, "
+                + ToolEntry.COLUMN_SYNC_ID + " TEXT, "
+                + ToolEntry.COLUMN_TOOL_PHOTO + " TEXT, "
+                + ToolEntry.COLUMN_TOOL_SKU + " TEXT, "
+                + ToolEntry.COLUMN_TOOL_DELETED + " INTEGER NOT NULL DEFAULT 0, "
+                + ToolEntry.COLUMN_TOOL_VERSION + " INTEGER NOT NULL DEFAULT 1, "
+                + ToolEntry.COLUMN_CATEGORY_ID + " INTEGER);";
 
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_PRODUCT_TABLE);
+
+        createSyncIdIndex(db);
+        createSkuIndex(db);
+        createChangesTable(db);
+        createStockTables(db);
+        createBackupChangesTable(db);
+        createBackupMarksTable(db);
+        createSalesTables(db);
+        createReorderTables(db);
+        createAuditTable(db);
+        createDetailsTable(db);
+        createLotsTable(db);
+        createCategoryTables(db);
+    }
+
+    /**
+     * Create every trigger of the current schema.
+     */
+    void createTriggers(SQLiteDatabase db) {
+        createStockTriggers(db);
+        createSalesTriggers(db);
+        createReorderTriggers(db);
+        createDetailsTriggers(db);
+        createLotsTriggers(db);
+        createCategoryTriggers(db);
+        for (String table : BACKED_UP_TABLES) {
+            if (!isAppended(table)) {
+                createBackupTriggers(db, table);
+            }
+        }
     }
 
     /**
-     * This is called when the database needs to be upgraded.
+     * Return true if the given table is one of the {@link #APPENDED_TABLES}.
+     */
+    static boolean isAppended(String table) {
+        for (String appended : APPENDED_TABLES) {
+            if (appended.equals(table)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        StartupMetrics.markDatabaseOpened();
+    }
+
+    /**
+     * Complete the upgrade steps that were left out of {@link #onUpgrade}, because they are
+     * expensive and nothing needs them to be correct. This should be called in the background,
+     * once the app has started. It does nothing if they are already complete.
+     */
+    public void runDeferredUpgrades() {
+        createDeferredIndexes(getWritableDatabase());
+    }
+
+    /**
+     * This is called when the database needs to be upgraded. It blocks the first access to the
+     * database, so the steps that are only needed for speed, such as building indexes that do
+     * not enforce a constraint, are left to {@link #runDeferredUpgrades}.
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        if (oldVersion < 2) {
+            // Version 2 adds the sync ID column and the change log.
+            db.execSQL("ALTER TABLE " + ToolEntry.TABLE_NAME
+                    + " ADD COLUMN " + ToolEntry.COLUMN_SYNC_ID + " TEXT");
+
+            // Give every existing tool its own sync ID
+            db.execSQL("UPDATE " + ToolEntry.TABLE_NAME + " SET " + ToolEntry.COLUMN_SYNC_ID
+                    + " = lower(hex(randomblob(16)))");
+
+            createSyncIdIndex(db);
+            createChangesTable(db);
+
+            // Existing tools have never been pushed, so record them as inserted.
+            db.execSQL("INSERT INTO " + ChangeEntry.TABLE_NAME + " ("
+                    + ChangeEntry.COLUMN_SYNC_ID + ", " + ChangeEntry.COLUMN_OPERATION + ") "
+                    + "SELECT " + ToolEntry.COLUMN_SYNC_ID + ", '" + ChangeEntry.OPERATION_INSERT
+                    + "' FROM " + ToolEntry.TABLE_NAME + " ORDER BY " + ToolEntry._ID);
+        }
+        if (oldVersion < 3) {
+            // Version 3 adds the photo column.
+            db.execSQL("ALTER TABLE " + ToolEntry.TABLE_NAME
+                    + " ADD COLUMN " + ToolEntry.COLUMN_TOOL_PHOTO + " TEXT");
+        }
+        if (oldVersion < 4) {
+            // Version 4 adds the SKU column, every existing tool starts without SKU.
+            db.execSQL("ALTER TABLE " + ToolEntry.TABLE_NAME
+                    + " ADD COLUMN " + ToolEntry.COLUMN_TOOL_SKU + " TEXT");
+            createSkuIndex(db);
+        }
+        if (oldVersion < 5) {
+            // Version 5 adds the locations and the stock held at each of them. The quantity of
+            // every existing tool is moved to the default location, before the triggers exist,
+            // so the totals stay unchanged.
+            createStockTables(db);
+            db.execSQL("INSERT INTO " + StockEntry.TABLE_NAME + " ("
+                    + StockEntry.COLUMN_TOOL_ID + ", " + StockEntry.COLUMN_LOCATION_ID + ", "
+                    + StockEntry.COLUMN_QUANTITY + ") "
+                    + "SELECT " + ToolEntry._ID + ", " + LocationEntry.DEFAULT_LOCATION_ID + ", "
+                    + ToolEntry.COLUMN_TOOL_QUANTITY + " FROM " + ToolEntry.TABLE_NAME
+                    + " WHERE " + ToolEntry.COLUMN_TOOL_QUANTITY + " > 0");
+            db.execSQL("UPDATE " + ToolEntry.TABLE_NAME + " SET " + ToolEntry.COLUMN_TOOL_QUANTITY
+                    + " = 0 WHERE " + ToolEntry.COLUMN_TOOL_QUANTITY + " IS NULL");
+            createStockTriggers(db);
+        }
+        if (oldVersion < 6) {
+            // Version 6 adds the deletion time, every existing tool is live.
+            db.execSQL("ALTER TABLE " + ToolEntry.TABLE_NAME + " ADD COLUMN "
+                    + ToolEntry.COLUMN_TOOL_DELETED + " INTEGER NOT NULL DEFAULT 0");
+        }
+        if (oldVersion < 7) {
+            // Version 7 adds the row version, which the stock triggers now increment as well.
+            db.execSQL("ALTER TABLE " + ToolEntry.TABLE_NAME + " ADD COLUMN "
+                    + ToolEntry.COLUMN_TOOL_VERSION + " INTEGER NOT NULL DEFAULT 1");
+            for (String trigger : STOCK_TRIGGERS) {
+                db.execSQL("DROP TRIGGER IF EXISTS " + trigger);
+            }
+            createStockTriggers(db);
+        }
+        if (oldVersion < 8) {
+            // Version 8 records the rows written since the last backup. There is no backup yet,
+            // so the first one is a full backup and nothing needs to be recorded beforehand.
+            createBackupChangesTable(db);
+            createBackupTriggers(db, LocationEntry.TABLE_NAME, ToolEntry.TABLE_NAME,
+                    StockEntry.TABLE_NAME);
+        }
+        if (oldVersion < 9) {
+            // Version 9 adds the sales rollups. Sales were not recorded before, so they start
+            // empty.
+            createSalesTables(db);
+            createSalesTriggers(db);
+            createBackupTriggers(db, ReportEntry.DAILY_TABLE_NAME, ReportEntry.WEEKLY_TABLE_NAME);
+        }
+        if (oldVersion < 10) {
+            // Version 10 records every sale and the reorder suggestions computed from them,
+            // which start empty as well.
+            createReorderTables(db);
+            createReorderTriggers(db);
+            createBackupTriggers(db, SaleEntry.TABLE_NAME);
+        }
+
+        if (oldVersion < 11) {
+            // Version 11 adds the audit trail, which starts empty.
+            createAuditTable(db);
+            createBackupTriggers(db, AuditEntry.TABLE_NAME);
+        }
+        if (oldVersion < 12) {
+            // Version 12 adds the details of the tools, which start empty.
+            createDetailsTable(db);
+            createDetailsTriggers(db);
+            createBackupTriggers(db, DetailsEntry.TABLE_NAME);
+        }
+        if (oldVersion < 13) {
+            // Version 13 adds the lots. The existing stock is not tracked by lot, so they start
+            // empty.
+            createLotsTable(db);
+            createLotsTriggers(db);
+            createBackupTriggers(db, LotEntry.TABLE_NAME);
+        }
+        if (oldVersion < 14) {
+            // Version 14 adds the categories, every existing tool is not in any category. The
+            // index of the tools by category is deferred.
+            db.execSQL("ALTER TABLE " + ToolEntry.TABLE_NAME + " ADD COLUMN "
+                    + ToolEntry.COLUMN_CATEGORY_ID + " INTEGER");
+            createCategoryTables(db);
+            createCategoryTriggers(db);
+            createBackupTriggers(db, CategoryEntry.TABLE_NAME, CategoryEntry.PATHS_TABLE_NAME);
+        }
+        if (oldVersion < 15) {
+            // Version 15 no longer records the writes to the append-only tables. Their rows
+            // still recorded are the first ones not backed up yet, so the rows before them are
+            // the ones the last backup holds.
+            createBackupMarksTable(db);
+            for (String table : APPENDED_TABLES) {
+                for (String operation : new String[] { "insert", "update", "delete" }) {
+                    db.execSQL("DROP TRIGGER IF EXISTS " + table + "_" + operation + "_backup");
+                }
+                db.execSQL("INSERT INTO " + BACKUP_MARKS_TABLE + " (" + BACKUP_MARKS_TABLE_NAME
+                        + ", " + BACKUP_MARKS_LAST_ROW_ID + ") SELECT '" + table + "', IFNULL("
+                        + "(SELECT MIN(" + BACKUP_CHANGES_ROW_ID + ") - 1 FROM "
+                        + BACKUP_CHANGES_TABLE + " WHERE " + BACKUP_CHANGES_TABLE_NAME + "='"
+                        + table + "'), (SELECT IFNULL(MAX(_id), 0) FROM " + table + "))");
+                db.execSQL("DELETE FROM " + BACKUP_CHANGES_TABLE + " WHERE "
+                        + BACKUP_CHANGES_TABLE_NAME + "='" + table + "'");
+            }
+        }
+    }
+
+    /**
+     * Replace the database with the given file, which must hold a database of the current
+     * version. Every write committed so far is first checkpointed into the database file, so
+     * that its write-ahead log can be deleted safely. The swap itself is a single rename, so
+     * the database is either the old or the new one, even if the process dies meanwhile.
+     * The helper is locked throughout, and the next access opens the new database. The caller
+     * must make sure that no other thread uses the database meanwhile.
+     */
+    synchronized void replaceDatabase(File replacement) throws IOException {
+        Cursor checkpoint = getWritableDatabase().rawQuery("PRAGMA wal_checkpoint(FULL)", null);
+        try {
+            checkpoint.moveToFirst();
+        } finally {
+            checkpoint.close();
+        }
+        close();
+
+        // Cursors still open on the old database keep reading the files they opened, the new
+        // database gets a write-ahead log of its own
+        File database = mContext.getDatabasePath(DATABASE_NAME);
+        new File(database.getPath() + "-wal").delete();
+        new File(database.getPath() + "-shm").delete();
+        if (!replacement.renameTo(database)) {
+            throw new IOException("Could not replace " + database + " with " + replacement);
+        }
+    }
+
+    /**
+     * Create the unique index used to find a tool by its sync ID.
+     */
+    private void createSyncIdIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE UNIQUE INDEX tools_sync_id_index ON " + ToolEntry.TABLE_NAME
+                + " (" + ToolEntry.COLUMN_SYNC_ID + ");");
+    }
+
+    /**
+     * Create the unique index used to look up a tool by its SKU. Tools without SKU are not
+     * affected, since NULL values never conflict in a unique index.
+     */
+    private void createSkuIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE UNIQUE INDEX tools_sku_index ON " + ToolEntry.TABLE_NAME
+                + " (" + ToolEntry.COLUMN_TOOL_SKU + ");");
+    }
+
+    /**
+     * Create the change log table. AUTOINCREMENT guarantees that sequence numbers are never
+     * reused, even after the acknowledged changes are pruned.
+     */
+    private void createChangesTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + ChangeEntry.TABLE_NAME + " ("
+                + ChangeEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ChangeEntry.COLUMN_SYNC_ID + " TEXT NOT NULL, "
+                + ChangeEntry.COLUMN_OPERATION + " TEXT NOT NULL);");
+    }
+
+    /**
+     * Create the locations table with its default location, and the stock table. A tool is held
+     * at most once per location, and the unique index on (tool, location) also answers the
+     * stock of a tool.
+     */
+    private void createStockTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + LocationEntry.TABLE_NAME + " ("
+                + LocationEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + LocationEntry.COLUMN_LOCATION_NAME + " TEXT NOT NULL UNIQUE);");
+        db.execSQL("INSERT INTO " + LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + ", "
+                + LocationEntry.COLUMN_LOCATION_NAME + ") VALUES ("
+                + LocationEntry.DEFAULT_LOCATION_ID + ", 'Main store');");
+
+        db.execSQL("CREATE TABLE " + StockEntry.TABLE_NAME + " ("
+                + StockEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + StockEntry.COLUMN_TOOL_ID + " INTEGER NOT NULL, "
+                + StockEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL, "
+                + StockEntry.COLUMN_QUANTITY + " INTEGER NOT NULL DEFAULT 0 CHECK ("
+                + StockEntry.COLUMN_QUANTITY + " >= 0));");
+        db.execSQL("CREATE UNIQUE INDEX stock_tool_location_index ON " + StockEntry.TABLE_NAME
+                + " (" + StockEntry.COLUMN_TOOL_ID + ", " + StockEntry.COLUMN_LOCATION_ID + ");");
+    }
+
+    /**
+     * Create the indexes that only speed queries up, if they do not exist yet. Building them
+     * reads a whole table, so on upgrade they are built by {@link #runDeferredUpgrades}.
+     * The stock location index answers the stock held at a location. The name index answers
+     * the live tools in alphabetical order, and covers the alphabetical index of the tools.
+     * The category index answers the live tools of each category of a subtree, and covers
+     * their count.
+     */
+    void createDeferredIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS tools_name_index ON " + ToolEntry.TABLE_NAME
+                + " (" + ToolEntry.COLUMN_TOOL_DELETED + ", " + ToolEntry.SORT_BY_NAME + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS tools_category_index ON " + ToolEntry.TABLE_NAME
+                + " (" + ToolEntry.COLUMN_CATEGORY_ID + ", " + ToolEntry.COLUMN_TOOL_DELETED
+                + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS stock_location_index ON " + StockEntry.TABLE_NAME
+                + " (" + StockEntry.COLUMN_LOCATION_ID + ");");
+    }
+
+    /**
+     * Create the table recording the rows written since the last backup. The sequence number
+     * increases with every write, and a row written again replaces its previous entry, so the
+     * rows recorded up to a given sequence number can be cleared once they are backed up
+     * without losing the writes made since.
+     */
+    private void createBackupChangesTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + BACKUP_CHANGES_TABLE + " ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + BACKUP_CHANGES_TABLE_NAME + " TEXT NOT NULL, "
+                + BACKUP_CHANGES_ROW_ID + " INTEGER NOT NULL, "
+                + "UNIQUE (" + BACKUP_CHANGES_TABLE_NAME + ", " + BACKUP_CHANGES_ROW_ID + "));");
+    }
+
+    /**
+     * Create the table holding the last row backed up of each append-only table. A table
+     * without a row in it has not been backed up yet.
+     */
+    private void createBackupMarksTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + BACKUP_MARKS_TABLE + " ("
+                + BACKUP_MARKS_TABLE_NAME + " TEXT PRIMARY KEY, "
+                + BACKUP_MARKS_LAST_ROW_ID + " INTEGER NOT NULL);");
+    }
+
+    /**
+     * Create the triggers recording every row inserted, updated or deleted in the given
+     * tables, including the writes made by the other triggers.
+     */
+    private void createBackupTriggers(SQLiteDatabase db, String... tables) {
+        String[] operations = { "INSERT", "UPDATE", "DELETE" };
+        for (String table : tables) {
+            for (String operation : operations) {
+                String row = operation.equals("DELETE") ? "OLD" : "NEW";
+                db.execSQL("CREATE TRIGGER " + table + "_" + operation.toLowerCase() + "_backup"
+                        + " AFTER " + operation + " ON " + table
+                        + " BEGIN INSERT OR REPLACE INTO " + BACKUP_CHANGES_TABLE + " ("
+                        + BACKUP_CHANGES_TABLE_NAME + ", " + BACKUP_CHANGES_ROW_ID + ") VALUES ('"
+                        + table + "', " + row + "._id); END;");
+            }
+        }
+    }
+
+    /**
+     * Create the tables rolling up the sales of each tool per day and per week. The unique
+     * indexes answer the reports of a single tool, the other indexes the reports of every tool
+     * over a range.
+     */
+    private void createSalesTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + ReportEntry.DAILY_TABLE_NAME + " ("
+                + ReportEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ReportEntry.COLUMN_TOOL_ID + " INTEGER NOT NULL, "
+                + ReportEntry.COLUMN_DAY + " INTEGER NOT NULL, "
+                + ReportEntry.COLUMN_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
+                + ReportEntry.COLUMN_REVENUE + " REAL NOT NULL DEFAULT 0, "
+                + "UNIQUE (" + ReportEntry.COLUMN_TOOL_ID + ", " + ReportEntry.COLUMN_DAY + "));");
+        db.execSQL("CREATE INDEX sales_daily_day_index ON " + ReportEntry.DAILY_TABLE_NAME
+                + " (" + ReportEntry.COLUMN_DAY + ");");
+        db.execSQL("CREATE TABLE " + ReportEntry.WEEKLY_TABLE_NAME + " ("
+                + ReportEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ReportEntry.COLUMN_TOOL_ID + " INTEGER NOT NULL, "
+                + ReportEntry.COLUMN_WEEK + " INTEGER NOT NULL, "
+                + ReportEntry.COLUMN_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
+                + ReportEntry.COLUMN_REVENUE + " REAL NOT NULL DEFAULT 0, "
+                + "UNIQUE (" + ReportEntry.COLUMN_TOOL_ID + ", " + ReportEntry.COLUMN_WEEK + "));");
+        db.execSQL("CREATE INDEX sales_weekly_week_index ON " + ReportEntry.WEEKLY_TABLE_NAME
+                + " (" + ReportEntry.COLUMN_WEEK + ");");
+    }
+
+    /**
+     * Create the triggers that derive the weekly sales from the daily sales, in the same
+     * transaction, by applying the difference made to each day to its week. The tool and the
+     * day of a daily row never change.
+     */
+    private void createSalesTriggers(SQLiteDatabase db) {
+        String daily = ReportEntry.DAILY_TABLE_NAME;
+        String weekly = ReportEntry.WEEKLY_TABLE_NAME;
+        String quantity = ReportEntry.COLUMN_QUANTITY;
+        String revenue = ReportEntry.COLUMN_REVENUE;
+
+        db.execSQL("CREATE TRIGGER sales_daily_insert_weekly AFTER INSERT ON " + daily
+                + " BEGIN INSERT OR IGNORE INTO " + weekly + " (" + ReportEntry.COLUMN_TOOL_ID
+                + ", " + ReportEntry.COLUMN_WEEK + ") VALUES (NEW." + ReportEntry.COLUMN_TOOL_ID
+                + ", " + weekOf("NEW") + "); "
+                + "UPDATE " + weekly + " SET " + quantity + " = " + quantity + " + NEW." + quantity
+                + ", " + revenue + " = " + revenue + " + NEW." + revenue
+                + matchWeek("NEW") + "; END;");
+        db.execSQL("CREATE TRIGGER sales_daily_update_weekly AFTER UPDATE ON " + daily
+                + " BEGIN UPDATE " + weekly + " SET "
+                + quantity + " = " + quantity + " + NEW." + quantity + " - OLD." + quantity + ", "
+                + revenue + " = " + revenue + " + NEW." + revenue + " - OLD." + revenue
+                + matchWeek("NEW") + "; END;");
+        db.execSQL("CREATE TRIGGER sales_daily_delete_weekly AFTER DELETE ON " + daily
+                + " BEGIN UPDATE " + weekly + " SET " + quantity + " = " + quantity + " - OLD."
+                + quantity + ", " + revenue + " = " + revenue + " - OLD." + revenue
+                + matchWeek("OLD") + "; END;");
+    }
+
+    /**
+     * Return the expression of the week of the given daily row, the same as
+     * {@link ReportEntry#getWeek}.
+     */
+    private static String weekOf(String row) {
+        return row + "." + ReportEntry.COLUMN_DAY + " - (" + row + "." + ReportEntry.COLUMN_DAY
+                + " + 3) % 7";
+    }
+
+    /**
+     * Return the clause matching the weekly row of the given daily row.
+     */
+    private static String matchWeek(String row) {
+        return " WHERE " + ReportEntry.COLUMN_TOOL_ID + " = " + row + "."
+                + ReportEntry.COLUMN_TOOL_ID + " AND " + ReportEntry.COLUMN_WEEK + " = "
+                + weekOf(row);
+    }
+
+    /**
+     * Create the table of the sales, whose index answers the sales of a tool since a given
+     * time, and the table of the reorder suggestions computed from them, whose indexes answer
+     * the stale suggestions and the last sale computed. The suggestions are
+     * computed again from the sales, so they are not backed up.
+     */
+    private void createReorderTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SaleEntry.TABLE_NAME + " ("
+                + SaleEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + SaleEntry.COLUMN_TOOL_ID + " INTEGER NOT NULL, "
+                + SaleEntry.COLUMN_QUANTITY + " INTEGER NOT NULL, "
+                + SaleEntry.COLUMN_TIME + " INTEGER NOT NULL);");
+        db.execSQL("CREATE INDEX sales_tool_time_index ON " + SaleEntry.TABLE_NAME + " ("
+                + SaleEntry.COLUMN_TOOL_ID + ", " + SaleEntry.COLUMN_TIME + ");");
+        db.execSQL("CREATE TABLE " + ReorderEntry.TABLE_NAME + " ("
+                + ReorderEntry._ID + " INTEGER PRIMARY KEY, "
+                + ReorderEntry.COLUMN_VELOCITY + " REAL NOT NULL, "
+                + ReorderEntry.COLUMN_REORDER_POINT + " INTEGER NOT NULL, "
+                + ReorderEntry.COLUMN_ORDER_UP_TO + " INTEGER NOT NULL, "
+                + REORDERS_LAST_SALE_ID + " INTEGER NOT NULL, "
+                + REORDERS_EXPIRES + " INTEGER);");
+        db.execSQL("CREATE INDEX reorders_expires_index ON " + ReorderEntry.TABLE_NAME + " ("
+                + REORDERS_EXPIRES + ");");
+        db.execSQL("CREATE INDEX reorders_last_sale_index ON " + ReorderEntry.TABLE_NAME + " ("
+                + REORDERS_LAST_SALE_ID + ");");
+    }
+
+    /**
+     * Create the table of the audit trail, whose index answers the changes made to a tool. The
+     * values are declared without a type, so that they keep the type of the column written.
+     * The entries of a tool are kept once it is purged, as its sales are.
+     */
+    private void createAuditTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + AuditEntry.TABLE_NAME + " ("
+                + AuditEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + AuditEntry.COLUMN_TOOL_ID + " INTEGER NOT NULL, "
+                + AuditEntry.COLUMN_OPERATION + " TEXT NOT NULL, "
+                + AuditEntry.COLUMN_FIELD + " TEXT, "
+                + AuditEntry.COLUMN_OLD_VALUE + ", "
+                + AuditEntry.COLUMN_NEW_VALUE + ", "
+                + AuditEntry.COLUMN_CALLER + " TEXT, "
+                + AuditEntry.COLUMN_TIME + " INTEGER NOT NULL);");
+        db.execSQL("CREATE INDEX audit_log_tool_index ON " + AuditEntry.TABLE_NAME + " ("
+                + AuditEntry.COLUMN_TOOL_ID + ");");
+    }
+
+    /**
+     * Create the table of the details of the tools, whose rows share the ID of their tool.
+     */
+    private void createDetailsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + DetailsEntry.TABLE_NAME + " ("
+                + DetailsEntry._ID + " INTEGER PRIMARY KEY, "
+                + DetailsEntry.COLUMN_DESCRIPTION + " TEXT, "
+                + DetailsEntry.COLUMN_NOTES + " TEXT, "
+                + DetailsEntry.COLUMN_SPECS + " TEXT);");
+    }
+
+    /**
+     * Create the table of the lots. The tool and expiry index answers the lots of a tool, the
+     * first to expire first, since it orders the lots of a same expiry by ID as well. The expiry
+     * index answers the lots of every tool expiring before a given time.
+     */
+    private void createLotsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + LotEntry.TABLE_NAME + " ("
+                + LotEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + LotEntry.COLUMN_TOOL_ID + " INTEGER NOT NULL, "
+                + LotEntry.COLUMN_LOT_NUMBER + " TEXT, "
+                + LotEntry.COLUMN_EXPIRY + " INTEGER NOT NULL, "
+                + LotEntry.COLUMN_QUANTITY + " INTEGER NOT NULL CHECK ("
+                + LotEntry.COLUMN_QUANTITY + " > 0));");
+        db.execSQL("CREATE INDEX lots_tool_expiry_index ON " + LotEntry.TABLE_NAME + " ("
+                + LotEntry.COLUMN_TOOL_ID + ", " + LotEntry.COLUMN_EXPIRY + ");");
+        db.execSQL("CREATE INDEX lots_expiry_index ON " + LotEntry.TABLE_NAME + " ("
+                + LotEntry.COLUMN_EXPIRY + ");");
+    }
+
+    /**
+     * Create the table of the categories, whose index answers the subcategories of a parent in
+     * alphabetical order, and the table of the paths of the tree. The unique index of the
+     * paths answers the subtree of a category, the descendant index the ancestors of a
+     * category. The paths have an ID of their own only so that they are backed up as the
+     * other rows are.
+     */
+    private void createCategoryTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + CategoryEntry.TABLE_NAME + " ("
+                + CategoryEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + CategoryEntry.COLUMN_CATEGORY_NAME + " TEXT NOT NULL, "
+                + CategoryEntry.COLUMN_PARENT_ID + " INTEGER);");
+        db.execSQL("CREATE INDEX categories_parent_index ON " + CategoryEntry.TABLE_NAME + " ("
+                + CategoryEntry.COLUMN_PARENT_ID + ", " + CategoryEntry.SORT_BY_NAME + ");");
+
+        db.execSQL("CREATE TABLE " + CategoryEntry.PATHS_TABLE_NAME + " ("
+                + CategoryEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + CategoryEntry.COLUMN_ANCESTOR_ID + " INTEGER NOT NULL, "
+                + CategoryEntry.COLUMN_DESCENDANT_ID + " INTEGER NOT NULL, "
+                + CategoryEntry.COLUMN_DEPTH + " INTEGER NOT NULL, "
+                + "UNIQUE (" + CategoryEntry.COLUMN_ANCESTOR_ID + ", "
+                + CategoryEntry.COLUMN_DESCENDANT_ID + "));");
+        db.execSQL("CREATE INDEX category_paths_descendant_index ON "
+                + CategoryEntry.PATHS_TABLE_NAME + " (" + CategoryEntry.COLUMN_DESCENDANT_ID
+                + ");");
+    }
+
+    /**
+     * Create the triggers that keep the paths of the tree equal to the parents of the
+     * categories, in the same statement as the write of a category. A new category gets the
+     * paths of its parent, one level deeper, and its own. A moved category takes its subtree
+     * along: the paths from outside the subtree are replaced with the paths of the new parent.
+     * A deleted category hands its subcategories and its tools to its parent, so nothing is
+     * left without a category above it. Moving a category under its own subtree would break
+     * the tree, the provider rejects it.
+     */
+    private void createCategoryTriggers(SQLiteDatabase db) {
+        String paths = CategoryEntry.PATHS_TABLE_NAME;
+        String ancestor = CategoryEntry.COLUMN_ANCESTOR_ID;
+        String descendant = CategoryEntry.COLUMN_DESCENDANT_ID;
+        String depth = CategoryEntry.COLUMN_DEPTH;
+        String parent = CategoryEntry.COLUMN_PARENT_ID;
+        String insertPaths = "INSERT INTO " + paths + " (" + ancestor + ", " + descendant + ", "
+                + depth + ") ";
+        String subtree = "(SELECT " + descendant + " FROM " + paths + " WHERE " + ancestor
+                + " = NEW." + CategoryEntry._ID + ")";
+
+        db.execSQL("CREATE TRIGGER categories_insert_paths AFTER INSERT ON "
+                + CategoryEntry.TABLE_NAME + " BEGIN " + insertPaths
+                + "SELECT " + ancestor + ", NEW." + CategoryEntry._ID + ", " + depth + " + 1"
+                + " FROM " + paths + " WHERE " + descendant + " = NEW." + parent
+                + " UNION ALL SELECT NEW." + CategoryEntry._ID + ", NEW." + CategoryEntry._ID
+                + ", 0; END;");
+        db.execSQL("CREATE TRIGGER categories_move_paths AFTER UPDATE OF " + parent + " ON "
+                + CategoryEntry.TABLE_NAME + " WHEN OLD." + parent + " IS NOT NEW." + parent
+                + " BEGIN DELETE FROM " + paths + " WHERE " + descendant + " IN " + subtree
+                + " AND " + ancestor + " NOT IN " + subtree + "; "
+                + insertPaths + "SELECT above." + ancestor + ", below." + descendant
+                + ", above." + depth + " + below." + depth + " + 1"
+                + " FROM " + paths + " AS above CROSS JOIN " + paths + " AS below"
+                + " WHERE above." + descendant + " = NEW." + parent
+                + " AND below." + ancestor + " = NEW." + CategoryEntry._ID + "; END;");
+        db.execSQL("CREATE TRIGGER categories_delete_paths AFTER DELETE ON "
+                + CategoryEntry.TABLE_NAME + " BEGIN UPDATE " + CategoryEntry.TABLE_NAME
+                + " SET " + parent + " = OLD." + parent + " WHERE " + parent + " = OLD."
+                + CategoryEntry._ID + "; "
+                + "UPDATE " + ToolEntry.TABLE_NAME + " SET " + ToolEntry.COLUMN_CATEGORY_ID
+                + " = OLD." + parent + ", " + ToolEntry.COLUMN_TOOL_VERSION + " = "
+                + ToolEntry.COLUMN_TOOL_VERSION + " + 1 WHERE " + ToolEntry.COLUMN_CATEGORY_ID
+                + " = OLD." + CategoryEntry._ID + "; "
+                + "DELETE FROM " + paths + " WHERE " + descendant + " = OLD."
+                + CategoryEntry._ID + "; END;");
+    }
+
+    /**
+     * Create the trigger deleting the lots of a tool once the tool is purged.
+     */
+    private void createLotsTriggers(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER tools_delete_lots AFTER DELETE ON " + ToolEntry.TABLE_NAME
+                + " BEGIN DELETE FROM " + LotEntry.TABLE_NAME
+                + " WHERE " + LotEntry.COLUMN_TOOL_ID + " = OLD." + ToolEntry._ID + "; END;");
+    }
+
+    /**
+     * Create the trigger deleting the details of a tool once the tool is purged.
+     */
+    private void createDetailsTriggers(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER tools_delete_details AFTER DELETE ON " + ToolEntry.TABLE_NAME
+                + " BEGIN DELETE FROM " + DetailsEntry.TABLE_NAME
+                + " WHERE " + DetailsEntry._ID + " = OLD." + ToolEntry._ID + "; END;");
+    }
+
+    /**
+     * Create the trigger deleting the reorder suggestion of a tool once the tool is purged.
+     * Its sales are kept for the reports.
+     */
+    private void createReorderTriggers(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER tools_delete_reorder AFTER DELETE ON " + ToolEntry.TABLE_NAME
+                + " BEGIN DELETE FROM " + ReorderEntry.TABLE_NAME
+                + " WHERE " + ReorderEntry._ID + " = OLD." + ToolEntry._ID + "; END;");
+    }
+
+    /**
+     * Create the triggers that keep the total quantity of every tool equal to the sum of its
+     * stock. The totals are adjusted by the difference in the same statement as the stock
+     * write, so they are always consistent and the catalog never has to sum them. Since the
+     * tool changes, its version is incremented as well. Deleting a tool or a location removes
+     * the stock held by it.
+     */
+    private void createStockTriggers(SQLiteDatabase db) {
+        String tools = ToolEntry.TABLE_NAME;
+        String adjustTotal = "UPDATE " + tools + " SET "
+                + ToolEntry.COLUMN_TOOL_VERSION + " = " + ToolEntry.COLUMN_TOOL_VERSION + " + 1, "
+                + ToolEntry.COLUMN_TOOL_QUANTITY + " = " + ToolEntry.COLUMN_TOOL_QUANTITY;
+
+        db.execSQL("CREATE TRIGGER stock_insert_total AFTER INSERT ON " + StockEntry.TABLE_NAME
+                + " BEGIN " + adjustTotal + " + NEW." + StockEntry.COLUMN_QUANTITY
+                + " WHERE " + ToolEntry._ID + " = NEW." + StockEntry.COLUMN_TOOL_ID + "; END;");
+        db.execSQL("CREATE TRIGGER stock_update_total AFTER UPDATE ON " + StockEntry.TABLE_NAME
+                + " BEGIN " + adjustTotal + " - OLD." + StockEntry.COLUMN_QUANTITY
+                + " WHERE " + ToolEntry._ID + " = OLD." + StockEntry.COLUMN_TOOL_ID + "; "
+                + adjustTotal + " + NEW." + StockEntry.COLUMN_QUANTITY
+                + " WHERE " + ToolEntry._ID + " = NEW." + StockEntry.COLUMN_TOOL_ID + "; END;");
+        db.execSQL("CREATE TRIGGER stock_delete_total AFTER DELETE ON " + StockEntry.TABLE_NAME
+                + " BEGIN " + adjustTotal + " - OLD." + StockEntry.COLUMN_QUANTITY
+                + " WHERE " + ToolEntry._ID + " = OLD." + StockEntry.COLUMN_TOOL_ID + "; END;");
+
+        db.execSQL("CREATE TRIGGER tools_delete_stock AFTER DELETE ON " + tools
+                + " BEGIN DELETE FROM " + StockEntry.TABLE_NAME
+                + " WHERE " + StockEntry.COLUMN_TOOL_ID + " = OLD." + ToolEntry._ID + "; END;");
+        db.execSQL("CREATE TRIGGER locations_delete_stock AFTER DELETE ON "
+                + LocationEntry.TABLE_NAME + " BEGIN DELETE FROM " + StockEntry.TABLE_NAME
+                + " WHERE " + StockEntry.COLUMN_LOCATION_ID + " = OLD." + LocationEntry._ID
+                + "; END;");
     }
-}
\ No newline at end of file
+}
@@ -1,26 +1,281 @@
 package com.example.android.inventory.data;
 
+import android.content.ComponentCallbacks2;
 import android.content.ContentProvider;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.util.Log;
 
+import com.example.android.inventory.BuildConfig;
+import com.example.android.inventory.StartupMetrics;
+import com.example.android.inventory.data.ToolContract.AuditEntry;
+import com.example.android.inventory.data.ToolContract.CategoryEntry;
+import com.example.android.inventory.data.ToolContract.ChangeEntry;
+import com.example.android.inventory.data.ToolContract.DetailsEntry;
+import com.example.android.inventory.data.ToolContract.IndexEntry;
+import com.example.android.inventory.data.ToolContract.LocationEntry;
+import com.example.android.inventory.data.ToolContract.LotEntry;
+import com.example.android.inventory.data.ToolContract.ReorderEntry;
+import com.example.android.inventory.data.ToolContract.ReportEntry;
+import com.example.android.inventory.data.ToolContract.SaleEntry;
+import com.example.android.inventory.data.ToolContract.StockEntry;
 import com.example.android.inventory.data.ToolContract.ToolEntry;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
 /**
  * {@link ContentProvider} for Inventory app.
  */
 public class ToolProvider extends ContentProvider {
 
+    /** Tag for the log messages */
+    private static final String LOG_TAG = ToolProvider.class.getSimpleName();
+
+    /** Name of the directory, in the app's files directory, where tool photos are stored */
+    private static final String PHOTO_DIRECTORY = "photos";
+
+    /** Maximum number of deleted tools purged in a single transaction */
+    private static final int PURGE_BATCH_SIZE = 500;
+
+    /**
+     * Maximum number of IDs looked up by a single statement of a batch, within the limit of 999
+     * arguments of SQLite
+     */
+    private static final int MAX_BATCH_ARGS = 500;
+
+    /** Selection matching the tools that are not deleted */
+    private static final String LIVE_TOOLS = ToolEntry.TABLE_NAME + "."
+            + ToolEntry.COLUMN_TOOL_DELETED + "=0";
+
+    /** Columns of the tools whose changes are recorded in the audit trail */
+    private static final String[] AUDITED_COLUMNS = { ToolEntry.COLUMN_TOOL_NAME,
+            ToolEntry.COLUMN_TOOL_SKU, ToolEntry.COLUMN_TOOL_PRICE,
+            ToolEntry.COLUMN_TOOL_QUANTITY, ToolEntry.COLUMN_SUPPLIER_NAME,
+            ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER };
+
+    /** Selection matching a single tool by its ID */
+    private static final String TOOL_ID_SELECTION = ToolEntry._ID + "=?";
+
+    /** Statement appending a change to the change log */
+    private static final String SQL_LOG_CHANGE = "INSERT INTO " + ChangeEntry.TABLE_NAME + " ("
+            + ChangeEntry.COLUMN_SYNC_ID + ", " + ChangeEntry.COLUMN_OPERATION + ") VALUES (?, ?)";
+
+    /**
+     * Statement selling a quantity of a tool from the stock held at the default location,
+     * provided that there is enough stock and the tool is not deleted
+     */
+    private static final String SQL_SELL_TOOL = "UPDATE " + StockEntry.TABLE_NAME + " SET "
+            + StockEntry.COLUMN_QUANTITY + "=" + StockEntry.COLUMN_QUANTITY + "-? WHERE "
+            + StockEntry.COLUMN_TOOL_ID + "=? AND "
+            + StockEntry.COLUMN_LOCATION_ID + "=" + LocationEntry.DEFAULT_LOCATION_ID + " AND "
+            + StockEntry.COLUMN_QUANTITY + ">=? AND EXISTS (SELECT 1 FROM " + ToolEntry.TABLE_NAME
+            + " WHERE " + ToolEntry.TABLE_NAME + "." + ToolEntry._ID + "="
+            + StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_TOOL_ID + " AND " + LIVE_TOOLS + ")";
+
+    /** Statement creating the daily sales of a tool, if it has none on that day yet */
+    private static final String SQL_CREATE_DAILY_SALES = "INSERT OR IGNORE INTO "
+            + ReportEntry.DAILY_TABLE_NAME + " (" + ReportEntry.COLUMN_TOOL_ID + ", "
+            + ReportEntry.COLUMN_DAY + ") VALUES (?, ?)";
+
+    /**
+     * Statement adding a quantity of a tool to its daily sales, at its current price. The
+     * weekly sales are adjusted by the database triggers.
+     */
+    private static final String SQL_ADD_DAILY_SALES = "UPDATE " + ReportEntry.DAILY_TABLE_NAME
+            + " SET " + ReportEntry.COLUMN_QUANTITY + "=" + ReportEntry.COLUMN_QUANTITY + "+?, "
+            + ReportEntry.COLUMN_REVENUE + "=" + ReportEntry.COLUMN_REVENUE + "+?*(SELECT "
+            + ToolEntry.COLUMN_TOOL_PRICE + " FROM " + ToolEntry.TABLE_NAME + " WHERE "
+            + TOOL_ID_SELECTION + ") WHERE " + ReportEntry.COLUMN_TOOL_ID + "=? AND "
+            + ReportEntry.COLUMN_DAY + "=?";
+
+    /** Statement recording a single sale */
+    private static final String SQL_RECORD_SALE = "INSERT INTO " + SaleEntry.TABLE_NAME + " ("
+            + SaleEntry.COLUMN_TOOL_ID + ", " + SaleEntry.COLUMN_QUANTITY + ", "
+            + SaleEntry.COLUMN_TIME + ") VALUES (?, ?, ?)";
+
+    /** Query returning the photo of a single tool */
+    private static final String SQL_QUERY_PHOTO = "SELECT " + ToolEntry.COLUMN_TOOL_PHOTO
+            + " FROM " + ToolEntry.TABLE_NAME + " WHERE " + TOOL_ID_SELECTION
+            + " AND " + LIVE_TOOLS;
+
+    /** Query returning the total quantity of a single tool */
+    private static final String SQL_QUERY_QUANTITY = "SELECT " + ToolEntry.COLUMN_TOOL_QUANTITY
+            + " FROM " + ToolEntry.TABLE_NAME + " WHERE " + TOOL_ID_SELECTION;
+
+    /** Query returning 1 if a single tool exists */
+    private static final String SQL_TOOL_EXISTS = "SELECT COUNT(*) FROM " + ToolEntry.TABLE_NAME
+            + " WHERE " + TOOL_ID_SELECTION + " AND " + LIVE_TOOLS;
+
+    /** Stock held at the default location, which the lots are part of */
+    private static final String DEFAULT_STOCK_SELECTION = StockEntry.COLUMN_TOOL_ID + "=? AND "
+            + StockEntry.COLUMN_LOCATION_ID + "=" + LocationEntry.DEFAULT_LOCATION_ID;
+
+    /** Statement creating the empty stock of a tool at the default location, if it has none */
+    private static final String SQL_CREATE_DEFAULT_STOCK = "INSERT OR IGNORE INTO "
+            + StockEntry.TABLE_NAME + " (" + StockEntry.COLUMN_TOOL_ID + ", "
+            + StockEntry.COLUMN_LOCATION_ID + ") VALUES (?, " + LocationEntry.DEFAULT_LOCATION_ID
+            + ")";
+
+    /** Statement adding a quantity, which may be negative, to the stock at the default location */
+    private static final String SQL_ADD_DEFAULT_STOCK = "UPDATE " + StockEntry.TABLE_NAME
+            + " SET " + StockEntry.COLUMN_QUANTITY + "=MAX(" + StockEntry.COLUMN_QUANTITY
+            + "+?, 0) WHERE " + DEFAULT_STOCK_SELECTION;
+
+    /** Order of the lots in which they are consumed, the first to expire first */
+    private static final String LOTS_FIFO_ORDER = LotEntry.TABLE_NAME + "."
+            + LotEntry.COLUMN_EXPIRY + ", " + LotEntry.TABLE_NAME + "." + LotEntry._ID;
+
+    /** Query returning the lots of a tool with their quantity, in the order of consumption */
+    private static final String SQL_QUERY_LOTS_FIFO = "SELECT " + LotEntry._ID + ", "
+            + LotEntry.COLUMN_QUANTITY + " FROM " + LotEntry.TABLE_NAME + " WHERE "
+            + LotEntry.COLUMN_TOOL_ID + "=? ORDER BY " + LOTS_FIFO_ORDER;
+
+    /** Statement taking a quantity from a lot */
+    private static final String SQL_TAKE_FROM_LOT = "UPDATE " + LotEntry.TABLE_NAME + " SET "
+            + LotEntry.COLUMN_QUANTITY + "=" + LotEntry.COLUMN_QUANTITY + "-? WHERE "
+            + LotEntry._ID + "=?";
+
+    /** Statement deleting a lot */
+    private static final String SQL_DELETE_LOT = "DELETE FROM " + LotEntry.TABLE_NAME
+            + " WHERE " + LotEntry._ID + "=?";
+
+    /**
+     * Query returning the tools matching a selection, which is appended to it, with the
+     * quantity of their lots beyond the stock they hold at the default location
+     */
+    private static final String SQL_QUERY_LOTS_EXCESS = "SELECT " + ToolEntry._ID
+            + ", (SELECT IFNULL(SUM(" + LotEntry.TABLE_NAME + "." + LotEntry.COLUMN_QUANTITY
+            + "), 0) FROM " + LotEntry.TABLE_NAME + " WHERE " + LotEntry.TABLE_NAME + "."
+            + LotEntry.COLUMN_TOOL_ID + "=" + ToolEntry.TABLE_NAME + "." + ToolEntry._ID
+            + ") - IFNULL((SELECT " + StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_QUANTITY
+            + " FROM " + StockEntry.TABLE_NAME + " WHERE " + StockEntry.TABLE_NAME + "."
+            + StockEntry.COLUMN_TOOL_ID + "=" + ToolEntry.TABLE_NAME + "." + ToolEntry._ID
+            + " AND " + StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_LOCATION_ID + "="
+            + LocationEntry.DEFAULT_LOCATION_ID + "), 0) FROM " + ToolEntry.TABLE_NAME
+            + " WHERE ";
+
+    /** Query counting the category with a given ID */
+    private static final String SQL_COUNT_CATEGORY = "SELECT COUNT(*) FROM "
+            + CategoryEntry.TABLE_NAME + " WHERE " + CategoryEntry._ID + "=?";
+
+    /** Query counting the paths from a category to another, 1 if the second is under the first */
+    private static final String SQL_COUNT_CATEGORY_PATH = "SELECT COUNT(*) FROM "
+            + CategoryEntry.PATHS_TABLE_NAME + " WHERE " + CategoryEntry.COLUMN_ANCESTOR_ID
+            + "=? AND " + CategoryEntry.COLUMN_DESCENDANT_ID + "=?";
+
+    /** Columns of the details that can be written */
+    private static final Set<String> DETAILS_COLUMNS = new HashSet<>(Arrays.asList(
+            DetailsEntry.COLUMN_DESCRIPTION, DetailsEntry.COLUMN_NOTES,
+            DetailsEntry.COLUMN_SPECS));
+
     /** URI matcher code for the content URI for the tools table */
     private static final int TOOLS = 100;
 
     /** URI matcher code for the content URI for a single tool in the tools table */
     private static final int TOOL_ID = 101;
 
+    /** URI matcher code for the content URI for the photo of a single tool */
+    private static final int TOOL_PHOTO = 102;
+
+    /** URI matcher code for the content URI for a single tool looked up by SKU */
+    private static final int TOOL_SKU = 103;
+
+    /** URI matcher code for the content URI for the stock of a single tool, per location */
+    private static final int TOOL_STOCK = 104;
+
+    /** URI matcher code for the content URI for selling a single tool */
+    private static final int TOOL_SALE = 105;
+
+    /** URI matcher code for the content URI for the alphabetical index of the tools */
+    private static final int TOOLS_INDEX = 106;
+
+    /** URI matcher code for the content URI for the details of a single tool */
+    private static final int TOOL_DETAILS = 107;
+
+    /** URI matcher code for the content URI for the lots of a single tool */
+    private static final int TOOL_LOTS = 108;
+
+    /** URI matcher code for the content URI for the lots expiring soon */
+    private static final int TOOLS_EXPIRING = 109;
+
+    /** URI matcher code for the content URI for the change log */
+    private static final int CHANGES = 200;
+
+    /** URI matcher code for the content URI for the locations table */
+    private static final int LOCATIONS = 300;
+
+    /** URI matcher code for the content URI for a single location in the locations table */
+    private static final int LOCATION_ID = 301;
+
+    /** URI matcher code for the content URI for the stock held at a single location */
+    private static final int LOCATION_STOCK = 302;
+
+    /** URI matcher code for the content URI for the stock table */
+    private static final int STOCK = 400;
+
+    /** URI matcher code for the content URI for the sales per day */
+    private static final int REPORTS_DAILY = 500;
+
+    /** URI matcher code for the content URI for the sales per week */
+    private static final int REPORTS_WEEKLY = 501;
+
+    /** URI matcher code for the content URI for the sales per tool */
+    private static final int REPORTS_TOOLS = 502;
+
+    /** URI matcher code for the content URI for the reorder suggestions */
+    private static final int REORDERS = 600;
+
+    /** URI matcher code for the content URI for the audit trail */
+    private static final int AUDIT = 700;
+
+    /** URI matcher code for the content URI for the lots table */
+    private static final int LOTS = 800;
+
+    /** URI matcher code for the content URI for a single lot in the lots table */
+    private static final int LOT_ID = 801;
+
+    /** URI matcher code for the content URI for the categories table */
+    private static final int CATEGORIES = 900;
+
+    /** URI matcher code for the content URI for a single category */
+    private static final int CATEGORY_ID = 901;
+
+    /** URI matcher code for the content URI for the subcategories of a category */
+    private static final int CATEGORY_CHILDREN = 902;
+
+    /** URI matcher code for the content URI for the tools in the subtree of a category */
+    private static final int CATEGORY_TOOLS = 903;
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -33,11 +288,338 @@ public class ToolProvider extends ContentProvider {
         sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY, ToolContract.PATH_TOOLS, TOOLS);
 
         sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY, ToolContract.PATH_TOOLS + "/#", TOOL_ID);
+
+        sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY,
+                ToolContract.PATH_TOOLS + "/#/" + ToolContract.PATH_PHOTO, TOOL_PHOTO);
+
+        sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY,
+                ToolContract.PATH_TOOLS + "/" + ToolContract.PATH_SKU + "/*", TOOL_SKU);
+
+        sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY,
+                ToolContract.PATH_TOOLS + "/#/" + ToolContract.PATH_STOCK, TOOL_STOCK);
+
+        sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY,
+                ToolContract.PATH_TOOLS + "/#/" + ToolContract.PATH_SALE, TOOL_SALE);
+
+        sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY,
+                ToolContract.PATH_TOOLS + "/" + ToolContract.PATH_INDEX, TOOLS_INDEX);
+
+        sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY,
+                ToolContract.PATH_TOOLS + "/#/" + ToolContract.PATH_DETAILS, TOOL_DETAILS);
+
+        sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY,
+                ToolContract.PATH_TOOLS + "/#/" + ToolContract.PATH_LOTS, TOOL_LOTS);
+
+        sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY,
+                ToolContract.PATH_TOOLS + "/" + ToolContract.PATH_EXPIRING, TOOLS_EXPIRING);
+
+        sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY, ToolContract.PATH_CHANGES, CHANGES);
+
+        sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY, ToolContract.PATH_LOCATIONS, LOCATIONS);
+
+        sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY,
+                ToolContract.PATH_LOCATIONS + "/#", LOCATION_ID);
+
+        sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY,
+                ToolContract.PATH_LOCATIONS + "/#/" + ToolContract.PATH_STOCK, LOCATION_STOCK);
+
+        sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY, ToolContract.PATH_STOCK, STOCK);
+
+        sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY,
+                ToolContract.PATH_REPORTS + "/" + ToolContract.PATH_DAILY, REPORTS_DAILY);
+
+        sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY,
+                ToolContract.PATH_REPORTS + "/" + ToolContract.PATH_WEEKLY, REPORTS_WEEKLY);
+
+        sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY,
+                ToolContract.PATH_REPORTS + "/" + ToolContract.PATH_TOOLS, REPORTS_TOOLS);
+
+        sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY, ToolContract.PATH_REORDERS, REORDERS);
+
+        sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY, ToolContract.PATH_AUDIT, AUDIT);
+
+        sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY, ToolContract.PATH_LOTS, LOTS);
+
+        sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY, ToolContract.PATH_LOTS + "/#", LOT_ID);
+
+        sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY, ToolContract.PATH_CATEGORIES,
+                CATEGORIES);
+
+        sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY, ToolContract.PATH_CATEGORIES + "/#",
+                CATEGORY_ID);
+
+        sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY,
+                ToolContract.PATH_CATEGORIES + "/#/" + ToolContract.PATH_CHILDREN,
+                CATEGORY_CHILDREN);
+
+        sUriMatcher.addURI(ToolContract.CONTENT_AUTHORITY,
+                ToolContract.PATH_CATEGORIES + "/#/" + ToolContract.PATH_TOOLS, CATEGORY_TOOLS);
+    }
+
+    /**
+     * Tables joined when querying the change log, so every change comes with the current
+     * values of its tool. Tools that were deleted since have null values.
+     */
+    private static final String CHANGES_JOIN_TABLES = ChangeEntry.TABLE_NAME
+            + " LEFT OUTER JOIN " + ToolEntry.TABLE_NAME + " ON "
+            + ChangeEntry.TABLE_NAME + "." + ChangeEntry.COLUMN_SYNC_ID + " = "
+            + ToolEntry.TABLE_NAME + "." + ToolEntry.COLUMN_SYNC_ID;
+
+    /** Projection map resolving the columns that both joined tables have in common */
+    private static final HashMap<String, String> sChangesProjectionMap = new HashMap<>();
+
+    static {
+        sChangesProjectionMap.put(ChangeEntry._ID,
+                qualify(ChangeEntry.TABLE_NAME, ChangeEntry._ID));
+        sChangesProjectionMap.put(ChangeEntry.COLUMN_SYNC_ID,
+                qualify(ChangeEntry.TABLE_NAME, ChangeEntry.COLUMN_SYNC_ID));
+        sChangesProjectionMap.put(ChangeEntry.COLUMN_OPERATION,
+                qualify(ChangeEntry.TABLE_NAME, ChangeEntry.COLUMN_OPERATION));
+        sChangesProjectionMap.put(ToolEntry.COLUMN_TOOL_NAME,
+                qualify(ToolEntry.TABLE_NAME, ToolEntry.COLUMN_TOOL_NAME));
+        sChangesProjectionMap.put(ToolEntry.COLUMN_TOOL_PRICE,
+                qualify(ToolEntry.TABLE_NAME, ToolEntry.COLUMN_TOOL_PRICE));
+        sChangesProjectionMap.put(ToolEntry.COLUMN_TOOL_QUANTITY,
+                qualify(ToolEntry.TABLE_NAME, ToolEntry.COLUMN_TOOL_QUANTITY));
+        sChangesProjectionMap.put(ToolEntry.COLUMN_SUPPLIER_NAME,
+                qualify(ToolEntry.TABLE_NAME, ToolEntry.COLUMN_SUPPLIER_NAME));
+        sChangesProjectionMap.put(ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER,
+                qualify(ToolEntry.TABLE_NAME, ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER));
+        sChangesProjectionMap.put(ToolEntry.COLUMN_TOOL_SKU,
+                qualify(ToolEntry.TABLE_NAME, ToolEntry.COLUMN_TOOL_SKU));
+    }
+
+    /**
+     * Tables joined when querying the stock, so every entry comes with the name of its location
+     * and the name and SKU of its tool.
+     */
+    private static final String STOCK_JOIN_TABLES = StockEntry.TABLE_NAME
+            + " INNER JOIN " + LocationEntry.TABLE_NAME + " ON "
+            + StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_LOCATION_ID + " = "
+            + LocationEntry.TABLE_NAME + "." + LocationEntry._ID
+            + " INNER JOIN " + ToolEntry.TABLE_NAME + " ON "
+            + StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_TOOL_ID + " = "
+            + ToolEntry.TABLE_NAME + "." + ToolEntry._ID;
+
+    /** Projection map resolving the columns that the joined stock tables have in common */
+    private static final HashMap<String, String> sStockProjectionMap = new HashMap<>();
+
+    static {
+        sStockProjectionMap.put(StockEntry._ID,
+                qualify(StockEntry.TABLE_NAME, StockEntry._ID));
+        sStockProjectionMap.put(StockEntry.COLUMN_TOOL_ID,
+                qualify(StockEntry.TABLE_NAME, StockEntry.COLUMN_TOOL_ID));
+        sStockProjectionMap.put(StockEntry.COLUMN_LOCATION_ID,
+                qualify(StockEntry.TABLE_NAME, StockEntry.COLUMN_LOCATION_ID));
+        sStockProjectionMap.put(StockEntry.COLUMN_QUANTITY,
+                qualify(StockEntry.TABLE_NAME, StockEntry.COLUMN_QUANTITY));
+        sStockProjectionMap.put(LocationEntry.COLUMN_LOCATION_NAME,
+                qualify(LocationEntry.TABLE_NAME, LocationEntry.COLUMN_LOCATION_NAME));
+        sStockProjectionMap.put(ToolEntry.COLUMN_TOOL_NAME,
+                qualify(ToolEntry.TABLE_NAME, ToolEntry.COLUMN_TOOL_NAME));
+        sStockProjectionMap.put(ToolEntry.COLUMN_TOOL_SKU,
+                qualify(ToolEntry.TABLE_NAME, ToolEntry.COLUMN_TOOL_SKU));
+    }
+
+    /**
+     * Projection maps of the daily and weekly reports, which sum the sales of every tool
+     * selected in each bucket.
+     */
+    private static final HashMap<String, String> sDailyReportProjectionMap = new HashMap<>();
+    private static final HashMap<String, String> sWeeklyReportProjectionMap = new HashMap<>();
+
+    /**
+     * Tables joined for the report per tool, so every tool comes with its name. Tools that
+     * were purged since have a null name.
+     */
+    private static final String REPORT_TOOLS_JOIN_TABLES = ReportEntry.DAILY_TABLE_NAME
+            + " LEFT OUTER JOIN " + ToolEntry.TABLE_NAME + " ON "
+            + ReportEntry.DAILY_TABLE_NAME + "." + ReportEntry.COLUMN_TOOL_ID + " = "
+            + ToolEntry.TABLE_NAME + "." + ToolEntry._ID;
+
+    /** Projection map of the report per tool, which sums the sales of each tool */
+    private static final HashMap<String, String> sToolsReportProjectionMap = new HashMap<>();
+
+    static {
+        sDailyReportProjectionMap.put(ReportEntry.COLUMN_DAY, ReportEntry.COLUMN_DAY);
+        sWeeklyReportProjectionMap.put(ReportEntry.COLUMN_WEEK, ReportEntry.COLUMN_WEEK);
+        for (HashMap<String, String> map : Arrays.asList(sDailyReportProjectionMap,
+                sWeeklyReportProjectionMap, sToolsReportProjectionMap)) {
+            map.put(ReportEntry.COLUMN_QUANTITY, sum(ReportEntry.COLUMN_QUANTITY));
+            map.put(ReportEntry.COLUMN_REVENUE, sum(ReportEntry.COLUMN_REVENUE));
+        }
+        sToolsReportProjectionMap.put(ReportEntry.COLUMN_TOOL_ID,
+                qualify(ReportEntry.DAILY_TABLE_NAME, ReportEntry.COLUMN_TOOL_ID));
+        sToolsReportProjectionMap.put(ToolEntry.COLUMN_TOOL_NAME,
+                qualify(ToolEntry.TABLE_NAME, ToolEntry.COLUMN_TOOL_NAME));
+    }
+
+    /**
+     * Tables joined when querying the reorder suggestions, so every suggestion comes with its
+     * tool and supplier. Only live tools are suggested. The cross join makes SQLite read the
+     * suggestions first and look their tool up by its ID, instead of reading every live tool
+     * from the name index, which does not give the order of the suggestions anyway.
+     */
+    private static final String REORDERS_JOIN_TABLES = ReorderEntry.TABLE_NAME
+            + " CROSS JOIN " + ToolEntry.TABLE_NAME + " ON "
+            + ReorderEntry.TABLE_NAME + "." + ReorderEntry._ID + " = "
+            + ToolEntry.TABLE_NAME + "." + ToolEntry._ID;
+
+    /** Projection map of the reorder suggestions, with the quantity to order */
+    private static final HashMap<String, String> sReordersProjectionMap = new HashMap<>();
+
+    static {
+        sReordersProjectionMap.put(ReorderEntry._ID,
+                qualify(ReorderEntry.TABLE_NAME, ReorderEntry._ID));
+        sReordersProjectionMap.put(ReorderEntry.COLUMN_VELOCITY, ReorderEntry.COLUMN_VELOCITY);
+        sReordersProjectionMap.put(ReorderEntry.COLUMN_REORDER_POINT,
+                ReorderEntry.COLUMN_REORDER_POINT);
+        sReordersProjectionMap.put(ReorderEntry.COLUMN_ORDER_UP_TO,
+                ReorderEntry.COLUMN_ORDER_UP_TO);
+        sReordersProjectionMap.put(ReorderEntry.COLUMN_SUGGESTED_QUANTITY,
+                ReorderEntry.COLUMN_ORDER_UP_TO + " - " + ToolEntry.COLUMN_TOOL_QUANTITY + " AS "
+                        + ReorderEntry.COLUMN_SUGGESTED_QUANTITY);
+        for (String column : new String[] { ToolEntry.COLUMN_TOOL_NAME,
+                ToolEntry.COLUMN_TOOL_SKU, ToolEntry.COLUMN_TOOL_QUANTITY,
+                ToolEntry.COLUMN_SUPPLIER_NAME, ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER }) {
+            sReordersProjectionMap.put(column, qualify(ToolEntry.TABLE_NAME, column));
+        }
+    }
+
+    /**
+     * Projection map of the categories. The number of live tools in the subtree of each
+     * category is counted from the paths of the category, each leading to the tools of a
+     * category through the category index, so it reads no other tool. The paths are read
+     * first whatever the statistics of the planner say, since the name index would read every
+     * live tool instead.
+     */
+    private static final HashMap<String, String> sCategoriesProjectionMap = new HashMap<>();
+
+    static {
+        for (String column : new String[] { CategoryEntry._ID, CategoryEntry.COLUMN_CATEGORY_NAME,
+                CategoryEntry.COLUMN_PARENT_ID }) {
+            sCategoriesProjectionMap.put(column, qualify(CategoryEntry.TABLE_NAME, column));
+        }
+        sCategoriesProjectionMap.put(CategoryEntry.COLUMN_TOOL_COUNT, "(SELECT COUNT(*) FROM "
+                + CategoryEntry.PATHS_TABLE_NAME + " CROSS JOIN " + ToolEntry.TABLE_NAME
+                + " ON " + ToolEntry.TABLE_NAME + "." + ToolEntry.COLUMN_CATEGORY_ID + " = "
+                + CategoryEntry.PATHS_TABLE_NAME + "." + CategoryEntry.COLUMN_DESCENDANT_ID
+                + " WHERE " + CategoryEntry.PATHS_TABLE_NAME + "."
+                + CategoryEntry.COLUMN_ANCESTOR_ID + " = " + CategoryEntry.TABLE_NAME + "."
+                + CategoryEntry._ID + " AND " + LIVE_TOOLS + ") AS "
+                + CategoryEntry.COLUMN_TOOL_COUNT);
+    }
+
+    /**
+     * Tables joined when querying the lots expiring soon, so every lot comes with its tool.
+     * Only the lots of live tools are listed. The cross join makes SQLite read the lots first,
+     * through the expiry index, and look their tool up by its ID; otherwise it may read every
+     * live tool from the name index and look up the lots of each.
+     */
+    private static final String EXPIRING_JOIN_TABLES = LotEntry.TABLE_NAME
+            + " CROSS JOIN " + ToolEntry.TABLE_NAME + " ON "
+            + LotEntry.TABLE_NAME + "." + LotEntry.COLUMN_TOOL_ID + " = "
+            + ToolEntry.TABLE_NAME + "." + ToolEntry._ID;
+
+    /** Projection map of the lots expiring soon, with the name and SKU of their tool */
+    private static final HashMap<String, String> sExpiringProjectionMap = new HashMap<>();
+
+    static {
+        for (String column : new String[] { LotEntry._ID, LotEntry.COLUMN_TOOL_ID,
+                LotEntry.COLUMN_LOT_NUMBER, LotEntry.COLUMN_EXPIRY, LotEntry.COLUMN_QUANTITY }) {
+            sExpiringProjectionMap.put(column, qualify(LotEntry.TABLE_NAME, column));
+        }
+        for (String column : new String[] { ToolEntry.COLUMN_TOOL_NAME,
+                ToolEntry.COLUMN_TOOL_SKU }) {
+            sExpiringProjectionMap.put(column, qualify(ToolEntry.TABLE_NAME, column));
+        }
+    }
+
+    /** Order of the reorder suggestions, grouped by supplier */
+    private static final String REORDERS_SORT_ORDER = ToolEntry.COLUMN_SUPPLIER_NAME + ", "
+            + ToolEntry.SORT_BY_NAME;
+
+    /**
+     * Return the "SUM(column) AS column" expression for a column summed over a bucket.
+     */
+    private static String sum(String column) {
+        return "SUM(" + column + ") AS " + column;
+    }
+
+    /**
+     * Return the "table.column AS column" expression for a column of the joined tables.
+     */
+    private static String qualify(String table, String column) {
+        return table + "." + column + " AS " + column;
     }
 
     /** Database helper that will provide us access to the database */
     private ToolDbHelper mDbHelper;
 
+    /** Compiled statements of the writes repeated for every tool */
+    private StatementCache mStatements;
+
+    /** Check of the plans of the queries and statements, only in debug builds */
+    private QueryPlanChecker mQueryPlans;
+
+    /** Backups of the database */
+    private InventoryBackup mBackup;
+
+    /** Periodic maintenance of the database */
+    private DatabaseMaintenance mMaintenance;
+
+    /** Delay after which the deferred upgrades run, once the app has started */
+    private static final long DEFERRED_UPGRADE_DELAY_MILLIS = 10 * 1000;
+
+    /** Handler of the background thread opening the database and purging the deleted tools */
+    private Handler mBackgroundHandler;
+
+    /** Delay after which the reorder suggestions are computed again after a sale */
+    private static final long REORDER_UPDATE_DELAY_MILLIS = 10 * 1000;
+
+    /** Computation of the reorder suggestions */
+    private ReorderEngine mReorders;
+
+    /** Audit trail of the changes made to the tools, written in the background */
+    private AuditLog mAudit;
+
+    /**
+     * Lock of the database. Every query, write and method of the provider holds its shared
+     * side, and a restore holds its exclusive side, so that the database is never closed and
+     * replaced while it is in use. The cursors returned keep reading the database they were
+     * opened on.
+     */
+    private final ReentrantReadWriteLock mDatabaseLock = new ReentrantReadWriteLock();
+
+    /** Update of the reorder suggestions of the tools sold since the last one */
+    private final Runnable mReorderRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mDatabaseLock.readLock().lock();
+            try {
+                if (mReorders.update() != 0) {
+                    getContext().getContentResolver().notifyChange(ReorderEntry.CONTENT_URI,
+                            null);
+                }
+            } finally {
+                mDatabaseLock.readLock().unlock();
+            }
+        }
+    };
+
+    /** Purge of the deleted tools whose undo window is over */
+    private final Runnable mPurgeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mDatabaseLock.readLock().lock();
+            try {
+                purgeDeletedTools();
+            } finally {
+                mDatabaseLock.readLock().unlock();
+            }
+        }
+    };
+
     /**
      * Initialize the provider and the database helper object.
      */
@@ -45,7 +627,55 @@ public class ToolProvider extends ContentProvider {
     public boolean onCreate() {
         // To access our database, we instantiate our subclass of SQLiteOpenHelper
         // and pass the context, which is the current activity.
-        mDbHelper = new ToolDbHelper(getContext());
+        StartupMetrics.markProviderCreated();
+        if (BuildConfig.DEBUG) {
+            mQueryPlans = new QueryPlanChecker();
+        }
+        mDbHelper = new ToolDbHelper(getContext(), mQueryPlans);
+        mStatements = new StatementCache(mDbHelper, mQueryPlans);
+        mBackup = new InventoryBackup(getContext(), mDbHelper);
+        mMaintenance = new DatabaseMaintenance(getContext(), mDbHelper);
+        mReorders = new ReorderEngine(mDbHelper);
+
+        HandlerThread backgroundThread = new HandlerThread("ToolProvider",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        backgroundThread.start();
+        mBackgroundHandler = new Handler(backgroundThread.getLooper());
+        mAudit = new AuditLog(getContext(), mDbHelper, mBackgroundHandler,
+                mDatabaseLock.readLock());
+
+        // Open the database right away, so that its creation or upgrade overlaps with the
+        // launch of the activity rather than delaying its first query. The helper is
+        // synchronized, so a query made meanwhile waits for this opening instead of repeating it.
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mDbHelper.getWritableDatabase();
+            }
+        });
+        mBackgroundHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                mDatabaseLock.readLock().lock();
+                try {
+                    mDbHelper.runDeferredUpgrades();
+
+                    // Without a job scheduler, the maintenance runs once the app has started
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                        MaintenanceJobService.schedule(getContext());
+                    } else if (mMaintenance.isDue()) {
+                        mMaintenance.run();
+                    }
+                } finally {
+                    mDatabaseLock.readLock().unlock();
+                }
+            }
+        }, DEFERRED_UPGRADE_DELAY_MILLIS);
+
+        // Tools deleted before the process was last stopped may still wait to be purged, and
+        // the suggestions may be stale
+        schedulePurge(ToolEntry.DELETE_UNDO_WINDOW_MILLIS);
+        scheduleReorderUpdate(DEFERRED_UPGRADE_DELAY_MILLIS);
         return true;
     }
 
@@ -55,6 +685,30 @@ public class ToolProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Perform the query for the given URI, which can be canceled through the given signal while
+     * it runs. A canceled query throws {@link android.os.OperationCanceledException}, and stops
+     * reading the database right away, so that a query made stale by a newer one does not hold
+     * its connection for long.
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, CancellationSignal cancellationSignal) {
+        mDatabaseLock.readLock().lock();
+        try {
+            return queryLocked(uri, projection, selection, selectionArgs, sortOrder,
+                    cancellationSignal);
+        } finally {
+            mDatabaseLock.readLock().unlock();
+        }
+    }
+
+    private Cursor queryLocked(Uri uri, String[] projection, String selection,
+                               String[] selectionArgs, String sortOrder,
+                               CancellationSignal cancellationSignal) {
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
@@ -65,8 +719,17 @@ public class ToolProvider extends ContentProvider {
         int match = sUriMatcher.match(uri);
         switch (match) {
             case TOOLS:
-                cursor = database.query(ToolEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                if (uri.getQueryParameter(ToolEntry.PARAM_AFTER) != null) {
+                    cursor = queryChunk(database, uri, projection, selection, selectionArgs,
+                            cancellationSignal);
+                    break;
+                }
+
+                // Deleted tools are hidden from every query until they are purged
+                selection = appendLiveTools(selection);
+                cursor = database.query(false, ToolEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder,
+                        uri.getQueryParameter(ToolContract.PARAM_LIMIT), cancellationSignal);
                 break;
             case TOOL_ID:
                 // For the TOOL_ID code, extract out the ID from the URI.
@@ -77,13 +740,165 @@ public class ToolProvider extends ContentProvider {
                 // For every "?" in the selection, we need to have an element in the selection
                 // arguments that will fill in the "?". Since we have 1 question mark in the
                 // selection, we have 1 String in the selection arguments' String array.
-                selection = ToolContract.ToolEntry._ID + "=?";
+                selection = ToolContract.ToolEntry._ID + "=? AND " + LIVE_TOOLS;
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
 
                 // This will perform a query on the tools table where the _id equals 3 to return a
                 // Cursor containing that row of the table.
-                cursor = database.query(ToolEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = database.query(false, ToolEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder, null, cancellationSignal);
+                break;
+            case TOOL_SKU:
+                // For an URI such as "content://com.example.android.inventory/tools/sku/4006381",
+                // the selection will be "sku=?", which is answered by the unique SKU index.
+                selection = ToolEntry.COLUMN_TOOL_SKU + "=? AND " + LIVE_TOOLS;
+                selectionArgs = new String[] { uri.getLastPathSegment() };
+                cursor = database.query(false, ToolEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder, null, cancellationSignal);
+                break;
+            case TOOL_DETAILS:
+                // For an URI such as "content://com.example.android.inventory/tools/3/details",
+                // the details of tool 3 share its ID
+                selection = DetailsEntry._ID + "=?";
+                selectionArgs = new String[] { uri.getPathSegments().get(1) };
+                cursor = database.query(false, DetailsEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder, null, cancellationSignal);
+                break;
+            case TOOL_LOTS:
+                // For an URI such as "content://com.example.android.inventory/tools/3/lots",
+                // the lots of tool 3 are read in order from the tool and expiry index
+                selection = appendSelection(selection, LotEntry.TABLE_NAME + "."
+                        + LotEntry.COLUMN_TOOL_ID + "="
+                        + Long.parseLong(uri.getPathSegments().get(1)));
+                cursor = database.query(false, LotEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null,
+                        sortOrder != null ? sortOrder : LOTS_FIFO_ORDER, null, cancellationSignal);
+                break;
+            case TOOLS_EXPIRING:
+                cursor = queryExpiring(database, uri, projection, selection, selectionArgs,
+                        sortOrder, cancellationSignal);
+                break;
+            case TOOLS_INDEX:
+                cursor = queryIndex(database, selection, selectionArgs, cancellationSignal);
+
+                // The index changes with every tool, which are notified one by one
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        ToolEntry.CONTENT_URI);
+                return cursor;
+            case CHANGES:
+                // The change log is always read in sequence order, so that a client can resume
+                // from the last sequence number it has processed.
+                SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+                builder.setTables(CHANGES_JOIN_TABLES);
+                builder.setProjectionMap(sChangesProjectionMap);
+                cursor = builder.query(database, projection, selection, selectionArgs, null, null,
+                        ChangeEntry.TABLE_NAME + "." + ChangeEntry._ID + " ASC",
+                        uri.getQueryParameter(ToolContract.PARAM_LIMIT), cancellationSignal);
+                break;
+            case LOCATIONS:
+                cursor = database.query(false, LocationEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder, null, cancellationSignal);
+                break;
+            case LOCATION_ID:
+                selection = LocationEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                cursor = database.query(false, LocationEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder, null, cancellationSignal);
+                break;
+            case STOCK:
+                cursor = queryStock(database, projection, selection, selectionArgs, sortOrder,
+                        cancellationSignal);
+                break;
+            case TOOL_STOCK:
+                // For an URI such as "content://com.example.android.inventory/tools/3/stock",
+                // the stock of tool 3 is found through the unique (tool, location) index.
+                selection = appendSelection(selection,
+                        StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_TOOL_ID + "="
+                                + Long.parseLong(uri.getPathSegments().get(1)));
+                cursor = queryStock(database, projection, selection, selectionArgs, sortOrder,
+                        cancellationSignal);
+                break;
+            case LOCATION_STOCK:
+                selection = appendSelection(selection,
+                        StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_LOCATION_ID + "="
+                                + Long.parseLong(uri.getPathSegments().get(1)));
+                cursor = queryStock(database, projection, selection, selectionArgs, sortOrder,
+                        cancellationSignal);
+                break;
+            case REPORTS_DAILY:
+                cursor = queryReport(database, ReportEntry.DAILY_TABLE_NAME,
+                        sDailyReportProjectionMap, ReportEntry.COLUMN_DAY,
+                        getReportDay(uri, ReportEntry.PARAM_FROM),
+                        getReportDay(uri, ReportEntry.PARAM_TO), ReportEntry.COLUMN_DAY,
+                        projection, selection, selectionArgs, sortOrder, cancellationSignal);
+                break;
+            case REPORTS_WEEKLY:
+                // A week is in the range if any of its days is
+                cursor = queryReport(database, ReportEntry.WEEKLY_TABLE_NAME,
+                        sWeeklyReportProjectionMap, ReportEntry.COLUMN_WEEK,
+                        ReportEntry.getWeek(getReportDay(uri, ReportEntry.PARAM_FROM)),
+                        getReportDay(uri, ReportEntry.PARAM_TO), ReportEntry.COLUMN_WEEK,
+                        projection, selection, selectionArgs, sortOrder, cancellationSignal);
+                break;
+            case REPORTS_TOOLS:
+                cursor = queryReport(database, REPORT_TOOLS_JOIN_TABLES,
+                        sToolsReportProjectionMap,
+                        ReportEntry.DAILY_TABLE_NAME + "." + ReportEntry.COLUMN_DAY,
+                        getReportDay(uri, ReportEntry.PARAM_FROM),
+                        getReportDay(uri, ReportEntry.PARAM_TO),
+                        ReportEntry.DAILY_TABLE_NAME + "." + ReportEntry.COLUMN_TOOL_ID,
+                        projection, selection, selectionArgs,
+                        sortOrder != null ? sortOrder : ReportEntry.COLUMN_REVENUE + " DESC",
+                        cancellationSignal);
+                break;
+            case REORDERS:
+                cursor = queryReorders(database, projection, selection, selectionArgs, sortOrder,
+                        cancellationSignal);
+                break;
+            case AUDIT:
+                cursor = database.query(false, AuditEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null,
+                        sortOrder != null ? sortOrder : AuditEntry._ID + " DESC",
+                        uri.getQueryParameter(ToolContract.PARAM_LIMIT), cancellationSignal);
+                break;
+            case LOTS:
+                cursor = database.query(false, LotEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null,
+                        sortOrder != null ? sortOrder : LOTS_FIFO_ORDER, null, cancellationSignal);
+                break;
+            case LOT_ID:
+                selection = LotEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                cursor = database.query(false, LotEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder, null, cancellationSignal);
+                break;
+            case CATEGORIES:
+                cursor = queryCategories(database, projection, selection, selectionArgs,
+                        sortOrder, cancellationSignal);
+                break;
+            case CATEGORY_ID:
+                selection = CategoryEntry._ID + "=" + ContentUris.parseId(uri);
+                cursor = queryCategories(database, projection, selection, null, sortOrder,
+                        cancellationSignal);
+                break;
+            case CATEGORY_CHILDREN:
+                // For an URI such as "content://com.example.android.inventory/categories/3/
+                // children", the subcategories of category 3 are read in order from the parent
+                // index
+                selection = appendSelection(selection, CategoryEntry.COLUMN_PARENT_ID + "="
+                        + Long.parseLong(uri.getPathSegments().get(1)));
+                cursor = queryCategories(database, projection, selection, selectionArgs,
+                        sortOrder, cancellationSignal);
+                break;
+            case CATEGORY_TOOLS:
+                // The tools of every category in the subtree, found through the paths of the
+                // category, however deep the subtree is
+                selection = appendLiveTools(appendSelection(selection,
+                        CategoryEntry.buildSubtreeSelection(
+                                Long.parseLong(uri.getPathSegments().get(1)))));
+                cursor = database.query(false, ToolEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder,
+                        uri.getQueryParameter(ToolContract.PARAM_LIMIT), cancellationSignal);
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
@@ -94,15 +909,194 @@ public class ToolProvider extends ContentProvider {
         return cursor;
     }
 
+    /**
+     * Return the chunk of tools given by the query parameters of the URI. The chunk starts
+     * after the ID of the previous one, found through the primary key, so that reading every
+     * tool chunk by chunk takes linear time, where an offset would skip every row before it
+     * again. Each chunk is read by a single statement, which sees a single state of the tools.
+     */
+    private static Cursor queryChunk(SQLiteDatabase database, Uri uri, String[] projection,
+                                     String selection, String[] selectionArgs,
+                                     CancellationSignal cancellationSignal) {
+        String range = ToolEntry.TABLE_NAME + "." + ToolEntry._ID + ">"
+                + Long.parseLong(uri.getQueryParameter(ToolEntry.PARAM_AFTER));
+        String until = uri.getQueryParameter(ToolEntry.PARAM_UNTIL);
+        if (until != null) {
+            range += " AND " + ToolEntry.TABLE_NAME + "." + ToolEntry._ID + "<="
+                    + Long.parseLong(until);
+        }
+        String limit = uri.getQueryParameter(ToolContract.PARAM_LIMIT);
+        int size = limit != null ? Math.min(Integer.parseInt(limit), ToolEntry.MAX_CHUNK_SIZE)
+                : ToolEntry.MAX_CHUNK_SIZE;
+        if (size <= 0) {
+            throw new IllegalArgumentException("Chunk requires a positive size");
+        }
+
+        selection = appendLiveTools(appendSelection(selection, range));
+        return database.query(false, ToolEntry.TABLE_NAME, projection, selection, selectionArgs,
+                null, null, ToolEntry._ID + " ASC", String.valueOf(size), cancellationSignal);
+    }
+
+    /**
+     * Return the day given by a query parameter of a report URI.
+     */
+    private static long getReportDay(Uri uri, String parameter) {
+        String day = uri.getQueryParameter(parameter);
+        if (day == null) {
+            throw new IllegalArgumentException("Report requires a range of days " + uri);
+        }
+        return Long.parseLong(day);
+    }
+
+    /**
+     * Query a sales report over the buckets in the given range, inclusive, grouped by the
+     * given column, and in its order unless another one is given. The rollups are read with
+     * the index on their bucket, or on (tool, bucket) when a single tool is selected, so the
+     * time taken depends on the number of buckets in the range rather than on the number of
+     * sales.
+     */
+    private static Cursor queryReport(SQLiteDatabase database, String tables,
+                                      HashMap<String, String> projectionMap, String bucket,
+                                      long fromBucket, long toBucket, String groupBy,
+                                      String[] projection, String selection,
+                                      String[] selectionArgs, String sortOrder,
+                                      CancellationSignal cancellationSignal) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(tables);
+        builder.setProjectionMap(projectionMap);
+        builder.appendWhere(bucket + " BETWEEN " + fromBucket + " AND " + toBucket);
+        return builder.query(database, projection, selection, selectionArgs, groupBy, null,
+                sortOrder != null ? sortOrder : groupBy, null, cancellationSignal);
+    }
+
+    /**
+     * Query the live tools at or below their reorder point, with the quantity to order. The
+     * suggestions are computed in the background, but the quantity is the current one, so a
+     * tool leaves the list as soon as it is restocked.
+     */
+    private static Cursor queryReorders(SQLiteDatabase database, String[] projection,
+                                        String selection, String[] selectionArgs,
+                                        String sortOrder, CancellationSignal cancellationSignal) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(REORDERS_JOIN_TABLES);
+        builder.setProjectionMap(sReordersProjectionMap);
+        builder.appendWhere(LIVE_TOOLS + " AND " + ToolEntry.TABLE_NAME + "."
+                + ToolEntry.COLUMN_TOOL_QUANTITY + " <= " + ReorderEntry.COLUMN_REORDER_POINT
+                + " AND " + ToolEntry.TABLE_NAME + "." + ToolEntry.COLUMN_TOOL_QUANTITY + " < "
+                + ReorderEntry.COLUMN_ORDER_UP_TO);
+        return builder.query(database, projection, selection, selectionArgs, null, null,
+                sortOrder != null ? sortOrder : REORDERS_SORT_ORDER, null, cancellationSignal);
+    }
+
+    /**
+     * Query the categories matching the selection, with the number of live tools in the
+     * subtree of each of them, alphabetically by default.
+     */
+    private static Cursor queryCategories(SQLiteDatabase database, String[] projection,
+                                          String selection, String[] selectionArgs,
+                                          String sortOrder,
+                                          CancellationSignal cancellationSignal) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(CategoryEntry.TABLE_NAME);
+        builder.setProjectionMap(sCategoriesProjectionMap);
+        return builder.query(database, projection, selection, selectionArgs, null, null,
+                sortOrder != null ? sortOrder : CategoryEntry.SORT_BY_NAME, null,
+                cancellationSignal);
+    }
+
+    /**
+     * Query the lots of the live tools expiring within the number of days given by the URI,
+     * including those already expired. The expiry index answers both the range and the order.
+     */
+    private static Cursor queryExpiring(SQLiteDatabase database, Uri uri, String[] projection,
+                                        String selection, String[] selectionArgs,
+                                        String sortOrder,
+                                        CancellationSignal cancellationSignal) {
+        String days = uri.getQueryParameter(LotEntry.PARAM_DAYS);
+        long until = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(
+                days != null ? Integer.parseInt(days) : LotEntry.DEFAULT_EXPIRING_DAYS);
+
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(EXPIRING_JOIN_TABLES);
+        builder.setProjectionMap(sExpiringProjectionMap);
+        builder.appendWhere(LotEntry.TABLE_NAME + "." + LotEntry.COLUMN_EXPIRY + " <= " + until
+                + " AND " + LIVE_TOOLS);
+        return builder.query(database, projection, selection, selectionArgs, null, null,
+                sortOrder != null ? sortOrder : LOTS_FIFO_ORDER, null, cancellationSignal);
+    }
+
+    /**
+     * Query the stock joined with its locations and tools.
+     */
+    private static Cursor queryStock(SQLiteDatabase database, String[] projection,
+                                     String selection, String[] selectionArgs, String sortOrder,
+                                     CancellationSignal cancellationSignal) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(STOCK_JOIN_TABLES);
+        builder.setProjectionMap(sStockProjectionMap);
+        builder.appendWhere(LIVE_TOOLS);
+        return builder.query(database, projection, selection, selectionArgs, null, null,
+                sortOrder, null, cancellationSignal);
+    }
+
+    /**
+     * Return the sections of the alphabetical index of the live tools matching the selection.
+     * The tools are grouped by the first letter of their name, compared with the collation of
+     * {@link ToolEntry#SORT_BY_NAME} so that the sections follow the order of the list. The
+     * names of all the live tools are read from the name index, and only sorted by their first
+     * letter to group them. The offset of each section is the number of tools in the sections
+     * before it.
+     */
+    private static Cursor queryIndex(SQLiteDatabase database, String selection,
+                                     String[] selectionArgs,
+                                     CancellationSignal cancellationSignal) {
+        String firstLetter = "substr(" + ToolEntry.COLUMN_TOOL_NAME + ", 1, 1)";
+        String section = firstLetter + " COLLATE NOCASE";
+        Cursor sections = database.query(false, ToolEntry.TABLE_NAME,
+                new String[] { "upper(" + firstLetter + ")", "COUNT(*)" },
+                appendLiveTools(selection), selectionArgs, section, null, section,
+                null, cancellationSignal);
+        try {
+            MatrixCursor index = new MatrixCursor(new String[] { IndexEntry.COLUMN_SECTION,
+                    IndexEntry.COLUMN_OFFSET, IndexEntry.COLUMN_COUNT }, sections.getCount());
+            int offset = 0;
+            while (sections.moveToNext()) {
+                int count = sections.getInt(1);
+                index.addRow(new Object[] { sections.getString(0), offset, count });
+                offset += count;
+            }
+            return index;
+        } finally {
+            sections.close();
+        }
+    }
+
     /**
      * Insert new data into the provider with the given ContentValues.
      */
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
+        mDatabaseLock.readLock().lock();
+        try {
+            return insertLocked(uri, contentValues);
+        } finally {
+            mDatabaseLock.readLock().unlock();
+        }
+    }
+
+    private Uri insertLocked(Uri uri, ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case TOOLS:
                 return insertTool(uri, contentValues);
+            case LOCATIONS:
+                return insertLocation(uri, contentValues);
+            case STOCK:
+                return insertStock(uri, contentValues);
+            case LOTS:
+                return insertLot(uri, contentValues);
+            case CATEGORIES:
+                return insertCategory(uri, contentValues);
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
@@ -143,17 +1137,76 @@ public class ToolProvider extends ContentProvider {
             throw new IllegalArgumentException("Tool requires a valid supplier phone number");
         }
 
+        String sku = normalizeSku(values);
+
+        // Tools created on this device get a new sync ID, tools pulled from the backend
+        // keep the one they already have
+        String syncId = values.getAsString(ToolEntry.COLUMN_SYNC_ID);
+        if (syncId == null) {
+            syncId = UUID.randomUUID().toString();
+            values.put(ToolEntry.COLUMN_SYNC_ID, syncId);
+        }
+
+        // The total quantity is maintained from the stock, so the tool starts empty and its
+        // quantity is stocked at the default location
+        values.put(ToolEntry.COLUMN_TOOL_QUANTITY, 0);
+
         // Get writable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Insert the new tools with the given values
-        long id = database.insert(ToolEntry.TABLE_NAME, null, values);
+        long id;
+        List<String> purgedPhotos;
+        List<AuditLog.Entry> audit = new ArrayList<>();
+        database.beginTransaction();
+        try {
+            // A deleted tool waiting to be purged must not prevent a new tool from taking its
+            // SKU or sync ID, so it is purged right away
+            String conflicts = ToolEntry.COLUMN_SYNC_ID + "=?";
+            String[] conflictArgs = { syncId };
+            if (sku != null) {
+                conflicts += " OR " + ToolEntry.COLUMN_TOOL_SKU + "=?";
+                conflictArgs = new String[] { syncId, sku };
+            }
+            purgedPhotos = purgeTools(database, "(" + conflicts + ") AND NOT " + LIVE_TOOLS,
+                    conflictArgs);
 
-        // If the ID is -1, then the insertion failed. Log an error and return null.
-        if (id == -1) {
-            return null;
+            // Check that the SKU is not used by another tool. This is done in the transaction,
+            // so no other tool can take the SKU before the insertion.
+            if (sku != null && DatabaseUtils.queryNumEntries(database, ToolEntry.TABLE_NAME,
+                    ToolEntry.COLUMN_TOOL_SKU + "=?", new String[] { sku }) > 0) {
+                throw new IllegalArgumentException("Tool SKU " + sku + " is already used");
+            }
+
+            // The category cannot be deleted before the insertion either
+            checkCategory(values);
+
+            // Insert the new tools with the given values
+            id = database.insert(ToolEntry.TABLE_NAME, null, values);
+
+            // If the ID is -1, then the insertion failed. Log an error and return null.
+            if (id == -1) {
+                return null;
+            }
+
+            if (quantity != null && quantity > 0) {
+                ContentValues stock = new ContentValues();
+                stock.put(StockEntry.COLUMN_TOOL_ID, id);
+                stock.put(StockEntry.COLUMN_LOCATION_ID, LocationEntry.DEFAULT_LOCATION_ID);
+                stock.put(StockEntry.COLUMN_QUANTITY, quantity);
+                database.insertOrThrow(StockEntry.TABLE_NAME, null, stock);
+            }
+
+            if (!isCallerSyncAdapter(uri)) {
+                logChange(syncId, ChangeEntry.OPERATION_INSERT);
+            }
+            auditInsert(audit, id, values, quantity);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
         }
+        mAudit.record(audit);
 
+        deletePhotoFiles(purgedPhotos);
         getContext().getContentResolver().notifyChange(uri, null);
 
         // Return the new URI with the ID (of the newly inserted row) appended at the end
@@ -161,27 +1214,215 @@ public class ToolProvider extends ContentProvider {
     }
 
     /**
-     * Updates the data at the given selection and selection arguments, with the new ContentValues.
+     * Insert a new location. Return the content URI of the new location.
      */
-    @Override
-    public int update(Uri uri, ContentValues contentValues, String selection,
-                      String[] selectionArgs) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
+    private Uri insertLocation(Uri uri, ContentValues values) {
+        checkLocationName(values);
+
+        long id;
+        try {
+            id = mDbHelper.getWritableDatabase().insertOrThrow(LocationEntry.TABLE_NAME, null,
+                    values);
+        } catch (SQLiteConstraintException e) {
+            throw new IllegalArgumentException("Location "
+                    + values.getAsString(LocationEntry.COLUMN_LOCATION_NAME) + " already exists");
+        }
+
+        getContext().getContentResolver().notifyChange(uri, null);
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Stock a tool at a location where it is not held yet. The total quantity of the tool is
+     * adjusted by the database in the same transaction. Return the content URI of the tool's
+     * stock.
+     */
+    private Uri insertStock(Uri uri, ContentValues values) {
+        Long toolId = values.getAsLong(StockEntry.COLUMN_TOOL_ID);
+        if (toolId == null) {
+            throw new IllegalArgumentException("Stock requires a tool");
+        }
+
+        Long locationId = values.getAsLong(StockEntry.COLUMN_LOCATION_ID);
+        if (locationId == null) {
+            throw new IllegalArgumentException("Stock requires a location");
+        }
+
+        Integer quantity = values.getAsInteger(StockEntry.COLUMN_QUANTITY);
+        if (quantity != null && quantity < 0) {
+            throw new IllegalArgumentException("Stock requires valid quantity");
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        String toolSelection = ToolEntry._ID + "=" + toolId;
+
+        List<AuditLog.Entry> audit = new ArrayList<>();
+        database.beginTransaction();
+        try {
+            if (DatabaseUtils.queryNumEntries(database, ToolEntry.TABLE_NAME, toolSelection) == 0) {
+                throw new IllegalArgumentException("No tool " + toolId);
+            }
+            if (DatabaseUtils.queryNumEntries(database, LocationEntry.TABLE_NAME,
+                    LocationEntry._ID + "=" + locationId) == 0) {
+                throw new IllegalArgumentException("No location " + locationId);
+            }
+
+            HashMap<Long, Long> before = queryQuantities(database, toolSelection, null);
+            try {
+                database.insertOrThrow(StockEntry.TABLE_NAME, null, values);
+            } catch (SQLiteConstraintException e) {
+                throw new IllegalArgumentException("Tool " + toolId
+                        + " is already stocked at location " + locationId);
+            }
+            auditQuantities(audit, before, queryQuantities(database, toolSelection, null));
+
+            if (!isCallerSyncAdapter(uri)) {
+                logChanges(ChangeEntry.OPERATION_UPDATE, toolSelection, null);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        mAudit.record(audit);
+
+        notifyStockChange();
+        return StockEntry.buildToolStockUri(toolId);
+    }
+
+    /**
+     * Receive a lot of a live tool. Its quantity is added to the stock held at the default
+     * location, which the lots are part of, in the same transaction. Return the content URI of
+     * the new lot.
+     */
+    private Uri insertLot(Uri uri, ContentValues values) {
+        Long toolId = values.getAsLong(LotEntry.COLUMN_TOOL_ID);
+        if (toolId == null) {
+            throw new IllegalArgumentException("Lot requires a tool");
+        }
+
+        if (values.getAsLong(LotEntry.COLUMN_EXPIRY) == null) {
+            throw new IllegalArgumentException("Lot requires an expiry date");
+        }
+
+        Integer quantity = values.getAsInteger(LotEntry.COLUMN_QUANTITY);
+        if (quantity == null || quantity <= 0) {
+            throw new IllegalArgumentException("Lot requires valid quantity");
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        long id;
+        List<AuditLog.Entry> audit = new ArrayList<>();
+        database.beginTransaction();
+        try {
+            if (!toolExists(toolId)) {
+                throw new IllegalArgumentException("No tool " + toolId);
+            }
+            id = database.insertOrThrow(LotEntry.TABLE_NAME, null, values);
+
+            // The triggers adjust the total quantity and the version of the tool
+            mStatements.executeInsert(SQL_CREATE_DEFAULT_STOCK, toolId);
+            mStatements.executeUpdateDelete(SQL_ADD_DEFAULT_STOCK, quantity, toolId);
+            auditQuantity(audit, toolId, quantity);
+            if (!isCallerSyncAdapter(uri)) {
+                logChanges(ChangeEntry.OPERATION_UPDATE, TOOL_ID_SELECTION,
+                        new String[] { String.valueOf(toolId) });
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        mAudit.record(audit);
+
+        notifyStockChange(ContentUris.withAppendedId(ToolEntry.CONTENT_URI, toolId));
+        return ContentUris.withAppendedId(LotEntry.CONTENT_URI, id);
+    }
+
+    /**
+     * Updates the data at the given selection and selection arguments, with the new ContentValues.
+     */
+    @Override
+    public int update(Uri uri, ContentValues contentValues, String selection,
+                      String[] selectionArgs) {
+        mDatabaseLock.readLock().lock();
+        try {
+            return updateLocked(uri, contentValues, selection, selectionArgs);
+        } finally {
+            mDatabaseLock.readLock().unlock();
+        }
+    }
+
+    private int updateLocked(Uri uri, ContentValues contentValues, String selection,
+                             String[] selectionArgs) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
             case TOOLS:
                 return updateTool(uri, contentValues, selection, selectionArgs);
             case TOOL_ID:
                 // For the TOOL_ID code, extract out the ID from the URI,
                 // so we know which row to update. Selection will be "_id=?" and selection
                 // arguments will be a String array containing the actual ID.
-                selection = ToolEntry._ID + "=?";
+                selection = TOOL_ID_SELECTION;
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
                 return updateTool(uri, contentValues, selection, selectionArgs);
+            case TOOL_SALE:
+                return sellTool(uri, Long.parseLong(uri.getPathSegments().get(1)), contentValues);
+            case TOOL_DETAILS:
+                return updateDetails(uri, Long.parseLong(uri.getPathSegments().get(1)),
+                        contentValues);
+            case LOCATIONS:
+                return updateLocation(uri, contentValues, selection, selectionArgs);
+            case LOCATION_ID:
+                selection = LocationEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                return updateLocation(uri, contentValues, selection, selectionArgs);
+            case STOCK:
+                return updateStock(uri, contentValues, selection, selectionArgs);
+            case CATEGORY_ID:
+                return updateCategory(ContentUris.parseId(uri), contentValues);
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
     }
 
+    /**
+     * Write the given details of the tool with the given ID, creating its row of details if it
+     * has none yet. Return 1 if they were written, or 0 if there is no such live tool.
+     */
+    private int updateDetails(Uri uri, long id, ContentValues values) {
+        for (String key : values.keySet()) {
+            if (!DETAILS_COLUMNS.contains(key)) {
+                throw new IllegalArgumentException("Unknown details column " + key);
+            }
+        }
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        String[] idArgs = new String[] { String.valueOf(id) };
+        database.beginTransaction();
+        try {
+            // The details are written along with their tool, so the tool cannot be purged
+            // meanwhile
+            if (!toolExists(id)) {
+                return 0;
+            }
+            if (database.update(DetailsEntry.TABLE_NAME, values, DetailsEntry._ID + "=?",
+                    idArgs) == 0) {
+                values = new ContentValues(values);
+                values.put(DetailsEntry._ID, id);
+                database.insertOrThrow(DetailsEntry.TABLE_NAME, null, values);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        getContext().getContentResolver().notifyChange(uri, null);
+        return 1;
+    }
+
     /**
      * Update tools in the database with the given content values. Apply the changes to the rows
      * specified in the selection and selection arguments (which could be 0 or 1 or more tools).
@@ -189,16 +1430,21 @@ public class ToolProvider extends ContentProvider {
      */
     private int updateTool(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
 
+        // Only the columns given are written, so a bulk edit can write a single column. Those
+        // given are checked like those of a new tool.
+
         // Check that the name is not null
-        String name = values.getAsString(ToolEntry.COLUMN_TOOL_NAME);
-        if (name == null) {
+        if (values.containsKey(ToolEntry.COLUMN_TOOL_NAME)
+                && values.getAsString(ToolEntry.COLUMN_TOOL_NAME) == null) {
             throw new IllegalArgumentException("Tool requires a name");
         }
 
         // Check that the price is valid
-        Float price = values.getAsFloat(ToolEntry.COLUMN_TOOL_PRICE);
-        if (price != null && price < 0) {
-            throw new IllegalArgumentException("Tool requires valid price");
+        if (values.containsKey(ToolEntry.COLUMN_TOOL_PRICE)) {
+            Float price = values.getAsFloat(ToolEntry.COLUMN_TOOL_PRICE);
+            if (price == null || price < 0) {
+                throw new IllegalArgumentException("Tool requires valid price");
+            }
         }
 
         // Check that the quantity is valid
@@ -208,42 +1454,582 @@ public class ToolProvider extends ContentProvider {
         }
 
         // Check that the supplier name is not null
-        String supplierName = values.getAsString(ToolEntry.COLUMN_SUPPLIER_NAME);
-        if (supplierName == null) {
+        if (values.containsKey(ToolEntry.COLUMN_SUPPLIER_NAME)
+                && values.getAsString(ToolEntry.COLUMN_SUPPLIER_NAME) == null) {
             throw new IllegalArgumentException("Tool requires a valid supplier name");
         }
 
         // Check that the supplier phone number is not null
-        String supplierNumber = values.getAsString(ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
-        if (supplierNumber == null) {
+        if (values.containsKey(ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER)
+                && values.getAsString(ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER) == null) {
             throw new IllegalArgumentException("Tool requires a valid supplier phone number");
         }
 
+        String sku = normalizeSku(values);
+
         if(values.size() == 0) {
             return 0;
         }
 
+        // A selection by ID does not depend on the quantities of the tools
+        boolean selectionById = TOOL_ID_SELECTION.equals(selection);
+
+        // Deleted tools cannot be updated
+        selection = appendSelection(selection, LIVE_TOOLS);
+
         // Get writable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(ToolEntry.TABLE_NAME, values, selection, selectionArgs);
+        int rowsUpdated;
+        List<String> purgedPhotos = new ArrayList<>();
+        List<AuditLog.Entry> audit = new ArrayList<>();
+        database.beginTransaction();
+        try {
+            if (sku != null) {
+                purgedPhotos = purgeTools(database, ToolEntry.COLUMN_TOOL_SKU + "=? AND NOT "
+                        + LIVE_TOOLS, new String[] { sku });
+                checkSkuUpdate(database, sku, selection, selectionArgs);
+            }
+
+            if (quantity != null && !selectionById) {
+                // The stock is adjusted first, which changes the quantities the selection may
+                // depend on, so the tools to update are resolved beforehand
+                selection = selectToolIds(database, selection, selectionArgs);
+                selectionArgs = null;
+            }
+
+            checkCategory(values);
+
+            // Record the change before the update, while the selection still matches the rows
+            if (!isCallerSyncAdapter(uri)) {
+                logChanges(ChangeEntry.OPERATION_UPDATE, selection, selectionArgs);
+            }
+            HashMap<Long, ContentValues> before = queryAudited(database, values, selection,
+                    selectionArgs);
+
+            if (quantity != null) {
+                // The triggers set the total quantity, so it is not written by the update itself
+                setDefaultStock(selection, selectionArgs, quantity);
+                values = new ContentValues(values);
+                values.remove(ToolEntry.COLUMN_TOOL_QUANTITY);
+            }
+
+            // Perform the update on the database and get the number of rows affected
+            rowsUpdated = updateToolRows(values, selection, selectionArgs);
+            auditUpdate(audit, before, values, quantity);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        mAudit.record(audit);
+
+        deletePhotoFiles(purgedPhotos);
 
         // If 1 or more rows were updated, then notify all listeners that the data at the
         // given URI has changed
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (quantity != null) {
+                notifyStockChange(uri);
+            } else {
+                getContext().getContentResolver().notifyChange(uri, null);
+            }
         }
 
         // Return the number of rows updated
         return rowsUpdated;
     }
 
+    /**
+     * Check that the given SKU can be written to the tools matching the selection: it must not
+     * be used by any other tool, and only a single tool can take it. This is done in the
+     * transaction of the update, so no other tool can take the SKU meanwhile.
+     */
+    private static void checkSkuUpdate(SQLiteDatabase database, String sku, String selection,
+                                       String[] selectionArgs) {
+        String[] args = new String[1 + (selectionArgs != null ? selectionArgs.length : 0)];
+        args[0] = sku;
+        if (selectionArgs != null) {
+            System.arraycopy(selectionArgs, 0, args, 1, selectionArgs.length);
+        }
+        if (DatabaseUtils.queryNumEntries(database, ToolEntry.TABLE_NAME,
+                ToolEntry.COLUMN_TOOL_SKU + "=? AND NOT (" + selection + ")", args) > 0) {
+            throw new IllegalArgumentException("Tool SKU " + sku + " is already used");
+        }
+        if (DatabaseUtils.queryNumEntries(database, ToolEntry.TABLE_NAME, selection,
+                selectionArgs) > 1) {
+            throw new IllegalArgumentException("Tool SKU " + sku
+                    + " cannot be given to several tools");
+        }
+    }
+
+    /**
+     * Write the given values to the tools matching the selection and increment their version,
+     * in a single statement. Return the number of rows updated.
+     */
+    private int updateToolRows(ContentValues values, String selection, String[] selectionArgs) {
+        // The columns are written in a fixed order, so the same set of columns always gives
+        // the same statement
+        String[] columns = values.keySet().toArray(new String[values.size()]);
+        Arrays.sort(columns);
+
+        StringBuilder sql = new StringBuilder("UPDATE " + ToolEntry.TABLE_NAME + " SET ");
+        Object[] bindArgs = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(columns[i]).append("=?, ");
+            bindArgs[i] = values.get(columns[i]);
+        }
+        sql.append(ToolEntry.COLUMN_TOOL_VERSION).append('=')
+                .append(ToolEntry.COLUMN_TOOL_VERSION).append("+1");
+        if (selection != null) {
+            sql.append(" WHERE ").append(selection);
+        }
+        return executeUpdateDelete(sql.toString(), concatArgs(bindArgs, selectionArgs));
+    }
+
+    /**
+     * Execute a statement built for the selection of the caller. Such statements vary with
+     * every selection, so they are run directly rather than taking a place in the cache of
+     * statements.
+     */
+    private void execute(String sql, Object[] bindArgs) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        if (mQueryPlans != null) {
+            mQueryPlans.check(database, sql);
+        }
+        database.execSQL(sql, bindArgs);
+    }
+
+    /**
+     * Execute an UPDATE or DELETE statement built for the selection of the caller, without
+     * caching it. Return the number of rows affected.
+     */
+    private int executeUpdateDelete(String sql, Object[] bindArgs) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        if (mQueryPlans != null) {
+            mQueryPlans.check(database, sql);
+        }
+        SQLiteStatement statement = database.compileStatement(sql);
+        try {
+            for (int i = 0; i < bindArgs.length; i++) {
+                DatabaseUtils.bindObjectToProgram(statement, i + 1, bindArgs[i]);
+            }
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Return the given arguments followed by the selection arguments, which may be null.
+     */
+    private static Object[] concatArgs(Object[] args, String[] selectionArgs) {
+        if (selectionArgs == null || selectionArgs.length == 0) {
+            return args;
+        }
+        Object[] bindArgs = new Object[args.length + selectionArgs.length];
+        System.arraycopy(args, 0, bindArgs, 0, args.length);
+        System.arraycopy(selectionArgs, 0, bindArgs, args.length, selectionArgs.length);
+        return bindArgs;
+    }
+
+    /**
+     * Return a selection matching the IDs of the tools currently matching the given selection.
+     */
+    private static String selectToolIds(SQLiteDatabase database, String selection,
+                                        String[] selectionArgs) {
+        StringBuilder ids = new StringBuilder();
+        Cursor cursor = database.query(ToolEntry.TABLE_NAME, new String[] { ToolEntry._ID },
+                selection, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                if (ids.length() > 0) {
+                    ids.append(',');
+                }
+                ids.append(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ToolEntry._ID + " IN (" + ids + ")";
+    }
+
+    /**
+     * Bring the total quantity of the tools matching the selection to the given quantity, by
+     * adjusting the stock they hold at the default location. The stock held at the other
+     * locations is left untouched, so the quantity cannot be lower than it.
+     */
+    private void setDefaultStock(String toolSelection, String[] selectionArgs, int quantity) {
+        String toolIds = "SELECT " + ToolEntry._ID + " FROM " + ToolEntry.TABLE_NAME
+                + " WHERE " + toolSelection;
+        String defaultLocation = StockEntry.COLUMN_LOCATION_ID + " = "
+                + LocationEntry.DEFAULT_LOCATION_ID;
+
+        execute("INSERT OR IGNORE INTO " + StockEntry.TABLE_NAME + " ("
+                + StockEntry.COLUMN_TOOL_ID + ", " + StockEntry.COLUMN_LOCATION_ID + ") "
+                + "SELECT " + ToolEntry._ID + ", " + LocationEntry.DEFAULT_LOCATION_ID
+                + " FROM " + ToolEntry.TABLE_NAME + " WHERE " + toolSelection,
+                concatArgs(new Object[0], selectionArgs));
+        try {
+            execute("UPDATE " + StockEntry.TABLE_NAME + " SET "
+                    + StockEntry.COLUMN_QUANTITY + " = " + StockEntry.COLUMN_QUANTITY + " + ? - "
+                    + "(SELECT " + ToolEntry.COLUMN_TOOL_QUANTITY + " FROM " + ToolEntry.TABLE_NAME
+                    + " WHERE " + ToolEntry.TABLE_NAME + "." + ToolEntry._ID + " = "
+                    + StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_TOOL_ID + ")"
+                    + " WHERE " + defaultLocation
+                    + " AND " + StockEntry.COLUMN_TOOL_ID + " IN (" + toolIds + ")",
+                    concatArgs(new Object[] { quantity }, selectionArgs));
+        } catch (SQLiteConstraintException e) {
+            throw new IllegalArgumentException("Tool quantity " + quantity
+                    + " is lower than the stock held at other locations");
+        }
+        trimLots(toolSelection, selectionArgs);
+    }
+
+    /**
+     * Take the quantity the lots of the tools matching the selection hold beyond the stock at
+     * the default location from their lots, the first to expire first, so the lots never hold
+     * more than the stock they are part of.
+     */
+    private void trimLots(String toolSelection, String[] selectionArgs) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // The excess is read whole before the lots change under the cursor
+        List<long[]> excesses = new ArrayList<>();
+        Cursor cursor = database.rawQuery(SQL_QUERY_LOTS_EXCESS + toolSelection, selectionArgs);
+        try {
+            while (cursor.moveToNext()) {
+                if (cursor.getLong(1) > 0) {
+                    excesses.add(new long[] { cursor.getLong(0), cursor.getLong(1) });
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (long[] excess : excesses) {
+            consumeLots(excess[0], excess[1]);
+        }
+    }
+
+    /**
+     * Take the given quantity from the lots of a tool, the first to expire first, in the
+     * transaction that takes it from the stock. Emptied lots are deleted. The stock not in any
+     * lot covers the rest, if the lots do not hold the whole quantity.
+     */
+    private void consumeLots(long toolId, long quantity) {
+        List<long[]> lots = new ArrayList<>();
+        Cursor cursor = mDbHelper.getWritableDatabase().rawQuery(SQL_QUERY_LOTS_FIFO,
+                new String[] { String.valueOf(toolId) });
+        try {
+            long covered = 0;
+            while (covered < quantity && cursor.moveToNext()) {
+                lots.add(new long[] { cursor.getLong(0), cursor.getLong(1) });
+                covered += cursor.getLong(1);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (long[] lot : lots) {
+            if (lot[1] <= quantity) {
+                mStatements.executeUpdateDelete(SQL_DELETE_LOT, lot[0]);
+            } else {
+                mStatements.executeUpdateDelete(SQL_TAKE_FROM_LOT, quantity, lot[0]);
+            }
+            quantity -= lot[1];
+        }
+    }
+
+    /**
+     * Sell the quantity given in the values of the tool with the given ID, taking it from the
+     * stock held at the default location. Return 1 if the tool was sold, or 0 if it does not
+     * exist or there is not enough stock.
+     */
+    private int sellTool(Uri uri, long id, ContentValues values) {
+        Integer quantity = values.getAsInteger(ToolEntry.COLUMN_TOOL_QUANTITY);
+        if (quantity == null || quantity <= 0) {
+            throw new IllegalArgumentException("Sale requires valid quantity");
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        int rowsUpdated;
+        List<AuditLog.Entry> audit = new ArrayList<>();
+        database.beginTransaction();
+        try {
+            // The triggers adjust the total quantity and the version of the tool
+            rowsUpdated = mStatements.executeUpdateDelete(SQL_SELL_TOOL, quantity, id, quantity);
+            if (rowsUpdated != 0) {
+                consumeLots(id, quantity);
+                recordSale(id, quantity);
+                auditQuantity(audit, id, -quantity);
+                if (!isCallerSyncAdapter(uri)) {
+                    logChanges(ChangeEntry.OPERATION_UPDATE, TOOL_ID_SELECTION,
+                            new String[] { String.valueOf(id) });
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        mAudit.record(audit);
+
+        if (rowsUpdated != 0) {
+            notifyStockChange(ContentUris.withAppendedId(ToolEntry.CONTENT_URI, id));
+            getContext().getContentResolver().notifyChange(ReportEntry.CONTENT_URI, null);
+            scheduleReorderUpdate(REORDER_UPDATE_DELAY_MILLIS);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Add a sale of a tool to its sales of today, in the transaction of the sale.
+     */
+    private void recordSale(long id, int quantity) {
+        long now = System.currentTimeMillis();
+        mStatements.executeInsert(SQL_RECORD_SALE, id, quantity, now);
+
+        long day = ReportEntry.getDay(now);
+        mStatements.executeInsert(SQL_CREATE_DAILY_SALES, id, day);
+        mStatements.executeUpdateDelete(SQL_ADD_DAILY_SALES, quantity, quantity, id, id, day);
+    }
+
+    /**
+     * Rename the locations matching the selection. Return the number of rows updated.
+     */
+    private int updateLocation(Uri uri, ContentValues values, String selection,
+                               String[] selectionArgs) {
+        checkLocationName(values);
+
+        int rowsUpdated;
+        try {
+            rowsUpdated = mDbHelper.getWritableDatabase().update(LocationEntry.TABLE_NAME, values,
+                    selection, selectionArgs);
+        } catch (SQLiteConstraintException e) {
+            throw new IllegalArgumentException("Location "
+                    + values.getAsString(LocationEntry.COLUMN_LOCATION_NAME) + " already exists");
+        }
+
+        if (rowsUpdated != 0) {
+            getContext().getContentResolver().notifyChange(LocationEntry.CONTENT_URI, null);
+            getContext().getContentResolver().notifyChange(StockEntry.CONTENT_URI, null);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Set the quantity of the stock entries matching the selection. The total quantities of
+     * their tools are adjusted by the database in the same transaction. Return the number of
+     * rows updated.
+     */
+    private int updateStock(Uri uri, ContentValues values, String selection,
+                            String[] selectionArgs) {
+        Integer quantity = values.getAsInteger(StockEntry.COLUMN_QUANTITY);
+        if (quantity == null || quantity < 0 || values.size() != 1) {
+            throw new IllegalArgumentException("Stock update requires only a valid quantity");
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        int rowsUpdated;
+        List<AuditLog.Entry> audit = new ArrayList<>();
+        database.beginTransaction();
+        try {
+            // The tools are resolved before the update, whose quantity the selection may match
+            String toolSelection = selectToolIds(database, stockToolSelection(selection),
+                    selectionArgs);
+            if (!isCallerSyncAdapter(uri)) {
+                logChanges(ChangeEntry.OPERATION_UPDATE, toolSelection, null);
+            }
+            HashMap<Long, Long> before = queryQuantities(database, toolSelection, null);
+            rowsUpdated = database.update(StockEntry.TABLE_NAME, values, selection,
+                    selectionArgs);
+            trimLots(toolSelection, null);
+            auditQuantities(audit, before, queryQuantities(database, toolSelection, null));
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        mAudit.record(audit);
+
+        if (rowsUpdated != 0) {
+            notifyStockChange();
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Insert a new category, at the top level or under the parent given by the values. The
+     * database gives it the paths of its parent. Return the content URI of the new category.
+     */
+    private Uri insertCategory(Uri uri, ContentValues values) {
+        checkCategoryName(values);
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        long id;
+        database.beginTransaction();
+        try {
+            checkParentCategory(values);
+            id = database.insertOrThrow(CategoryEntry.TABLE_NAME, null, values);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        getContext().getContentResolver().notifyChange(uri, null);
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Rename the category with the given ID, or move it with its subtree under the parent given
+     * by the values. The database moves the paths of the subtree. Return the number of rows
+     * updated.
+     */
+    private int updateCategory(long id, ContentValues values) {
+        if (values.containsKey(CategoryEntry.COLUMN_CATEGORY_NAME)) {
+            checkCategoryName(values);
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        int rowsUpdated;
+        database.beginTransaction();
+        try {
+            Long parentId = checkParentCategory(values);
+            if (parentId != null
+                    && mStatements.queryForLong(0, SQL_COUNT_CATEGORY_PATH, id, parentId) > 0) {
+                throw new IllegalArgumentException("Category " + id
+                        + " cannot be moved under its own subtree");
+            }
+            rowsUpdated = database.update(CategoryEntry.TABLE_NAME, values,
+                    CategoryEntry._ID + "=" + id, null);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // The tools of a moved subtree move along, which the observers of the categories see
+        if (rowsUpdated != 0) {
+            getContext().getContentResolver().notifyChange(CategoryEntry.CONTENT_URI, null);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Delete the category with the given ID, and record an update of its tools, in a single
+     * transaction. The database hands its subcategories and its tools to its parent. Return
+     * the number of rows deleted.
+     */
+    private int deleteCategory(Uri uri, SQLiteDatabase database, long id) {
+        int rowsDeleted;
+        database.beginTransaction();
+        try {
+            if (!isCallerSyncAdapter(uri)) {
+                logChanges(ChangeEntry.OPERATION_UPDATE, ToolEntry.COLUMN_CATEGORY_ID + "=?",
+                        new String[] { String.valueOf(id) });
+            }
+            rowsDeleted = database.delete(CategoryEntry.TABLE_NAME, CategoryEntry._ID + "=?",
+                    new String[] { String.valueOf(id) });
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Check that the given category values have a name.
+     */
+    private static void checkCategoryName(ContentValues values) {
+        String name = values.getAsString(CategoryEntry.COLUMN_CATEGORY_NAME);
+        if (name == null || name.trim().isEmpty()) {
+            throw new IllegalArgumentException("Category requires a name");
+        }
+        values.put(CategoryEntry.COLUMN_CATEGORY_NAME, name.trim());
+    }
+
+    /**
+     * Check that the parent given by the category values, if any, exists. This must be called
+     * in the transaction of the write. Return the ID of the parent, or null for the top level.
+     */
+    private Long checkParentCategory(ContentValues values) {
+        Long parentId = values.getAsLong(CategoryEntry.COLUMN_PARENT_ID);
+        if (parentId != null && mStatements.queryForLong(0, SQL_COUNT_CATEGORY, parentId) == 0) {
+            throw new IllegalArgumentException("No category " + parentId);
+        }
+        return parentId;
+    }
+
+    /**
+     * Check that the category given by the tool values, if any, exists. This must be called in
+     * the transaction of the write, so the category cannot be deleted before it.
+     */
+    private void checkCategory(ContentValues values) {
+        Long categoryId = values.getAsLong(ToolEntry.COLUMN_CATEGORY_ID);
+        if (categoryId != null
+                && mStatements.queryForLong(0, SQL_COUNT_CATEGORY, categoryId) == 0) {
+            throw new IllegalArgumentException("No category " + categoryId);
+        }
+    }
+
+    /**
+     * Check that the given location values have a name.
+     */
+    private static void checkLocationName(ContentValues values) {
+        String name = values.getAsString(LocationEntry.COLUMN_LOCATION_NAME);
+        if (name == null || name.trim().isEmpty()) {
+            throw new IllegalArgumentException("Location requires a name");
+        }
+        values.put(LocationEntry.COLUMN_LOCATION_NAME, name.trim());
+    }
+
+    /**
+     * Return a selection matching the tools of the stock entries matching the given selection.
+     */
+    private static String stockToolSelection(String stockSelection) {
+        String sql = "SELECT " + StockEntry.COLUMN_TOOL_ID + " FROM " + StockEntry.TABLE_NAME;
+        if (stockSelection != null) {
+            sql += " WHERE " + stockSelection;
+        }
+        return ToolEntry._ID + " IN (" + sql + ")";
+    }
+
+    /**
+     * Notify the observers of everything that depends on the stock: the stock itself, the stock
+     * of every location, the reorder suggestions and the total quantities of the tools.
+     */
+    private void notifyStockChange() {
+        notifyStockChange(ToolEntry.CONTENT_URI);
+    }
+
+    /**
+     * Notify the observers of everything that depends on the stock of the tools at the given
+     * URI, which is either every tool or a single one. Notifying a single tool leaves the
+     * observers of the other tools alone.
+     */
+    private void notifyStockChange(Uri toolsUri) {
+        getContext().getContentResolver().notifyChange(StockEntry.CONTENT_URI, null);
+        getContext().getContentResolver().notifyChange(ReorderEntry.CONTENT_URI, null);
+        getContext().getContentResolver().notifyChange(LocationEntry.CONTENT_URI, null);
+        getContext().getContentResolver().notifyChange(LotEntry.CONTENT_URI, null);
+        getContext().getContentResolver().notifyChange(toolsUri, null);
+    }
+
     /**
      * Delete the data at the given selection and selection arguments.
      */
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        mDatabaseLock.readLock().lock();
+        try {
+            return deleteLocked(uri, selection, selectionArgs);
+        } finally {
+            mDatabaseLock.readLock().unlock();
+        }
+    }
+
+    private int deleteLocked(Uri uri, String selection, String[] selectionArgs) {
         // Get writable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
@@ -255,7 +2041,7 @@ public class ToolProvider extends ContentProvider {
             case TOOLS:
                 // Delete all rows that match the selection and selection args
                 // For case TOOLS:
-                rowsDeleted = database.delete(ToolEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = deleteTools(uri, database, selection, selectionArgs);
 
                 // If 1 or more rows were deleted, then notify all listeners that the data at the
                 // given URI has changed
@@ -268,7 +2054,9 @@ public class ToolProvider extends ContentProvider {
             case TOOL_ID:
                 // For case TOOL_ID:
                 // Delete a single row given by the ID in the URI
-                rowsDeleted = database.delete(ToolEntry.TABLE_NAME, selection, selectionArgs);
+                selection = TOOL_ID_SELECTION;
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                rowsDeleted = deleteTools(uri, database, selection, selectionArgs);
 
                 // If 1 or more rows were deleted, then notify all listeners that the data at the
                 // given URI has changed
@@ -277,9 +2065,873 @@ public class ToolProvider extends ContentProvider {
                 }
                 // Return the number of rows deleted
                 return rowsDeleted;
-            default:
-                throw new IllegalArgumentException("Deletion is not supported for " + uri);
+
+            case CHANGES:
+                // Changes acknowledged by the backend are pruned from the log. Nobody observes
+                // the change log, so there is no need to notify anyone.
+                return database.delete(ChangeEntry.TABLE_NAME, selection, selectionArgs);
+
+            case LOCATION_ID:
+                long locationId = ContentUris.parseId(uri);
+                if (locationId == LocationEntry.DEFAULT_LOCATION_ID) {
+                    throw new IllegalArgumentException("The default location cannot be deleted");
+                }
+                rowsDeleted = deleteStock(uri, database, LocationEntry.TABLE_NAME,
+                        LocationEntry._ID + "=" + locationId, null,
+                        StockEntry.COLUMN_LOCATION_ID + "=" + locationId);
+                if (rowsDeleted != 0) {
+                    notifyStockChange();
+                }
+                return rowsDeleted;
+
+            case STOCK:
+                rowsDeleted = deleteStock(uri, database, StockEntry.TABLE_NAME, selection,
+                        selectionArgs, selection);
+                if (rowsDeleted != 0) {
+                    notifyStockChange();
+                }
+                return rowsDeleted;
+
+            case LOTS:
+                rowsDeleted = deleteLots(uri, database, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    notifyStockChange();
+                }
+                return rowsDeleted;
+
+            case LOT_ID:
+                rowsDeleted = deleteLots(uri, database, LotEntry._ID + "=?",
+                        new String[] { String.valueOf(ContentUris.parseId(uri)) });
+                if (rowsDeleted != 0) {
+                    notifyStockChange();
+                }
+                return rowsDeleted;
+
+            case CATEGORY_ID:
+                rowsDeleted = deleteCategory(uri, database, ContentUris.parseId(uri));
+                if (rowsDeleted != 0) {
+                    getContext().getContentResolver().notifyChange(CategoryEntry.CONTENT_URI,
+                            null);
+                    getContext().getContentResolver().notifyChange(ToolEntry.CONTENT_URI, null);
+                }
+                return rowsDeleted;
+            default:
+                throw new IllegalArgumentException("Deletion is not supported for " + uri);
+        }
+    }
+
+    /**
+     * Delete the tools matching the selection and record the deletions in the change log,
+     * in a single transaction. Return the number of rows deleted.
+     *
+     * The tools are only marked with the deletion time, and purged in the background once the
+     * undo window is over. The mark is not free: it rewrites the name and category indexes,
+     * which are keyed on the deletion time, and each tool marked is backed up, logged and read
+     * for the audit trail. All of it runs in one transaction holding the write lock, so
+     * deleting many tools at once keeps other writes waiting until it is done.
+     */
+    private int deleteTools(Uri uri, SQLiteDatabase database, String selection,
+                            String[] selectionArgs) {
+        selection = appendSelection(selection, LIVE_TOOLS);
+
+        int rowsDeleted;
+        List<AuditLog.Entry> audit = new ArrayList<>();
+        database.beginTransaction();
+        try {
+            if (!isCallerSyncAdapter(uri)) {
+                logChanges(ChangeEntry.OPERATION_DELETE, selection, selectionArgs);
+            }
+            HashMap<Long, ContentValues> before = queryAudited(database, new ContentValues(),
+                    selection, selectionArgs);
+
+            rowsDeleted = executeUpdateDelete("UPDATE " + ToolEntry.TABLE_NAME
+                    + " SET " + ToolEntry.COLUMN_TOOL_DELETED + "=? WHERE " + selection,
+                    concatArgs(new Object[] { System.currentTimeMillis() }, selectionArgs));
+            auditDelete(audit, before.keySet());
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        mAudit.record(audit);
+
+        if (rowsDeleted != 0) {
+            schedulePurge(ToolEntry.DELETE_UNDO_WINDOW_MILLIS);
+            notifyStockChange();
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Write the audit trail still in memory once the app leaves the screen, since its process
+     * may be killed from then on without notice.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            mBackgroundHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mAudit.flush();
+                }
+            });
+        }
+    }
+
+    /**
+     * Write the audit trail still in memory. Android never shuts a provider down, only tests
+     * do, so this does not save the entries of a process being killed.
+     */
+    @Override
+    public void shutdown() {
+        mAudit.flush();
+        super.shutdown();
+    }
+
+    /**
+     * Return the check of the query plans, or null in release builds.
+     */
+    QueryPlanChecker getQueryPlanChecker() {
+        return mQueryPlans;
+    }
+
+    /**
+     * Handle the provider methods that do not map to a URI.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        // Unlike the queries and the writes, the methods are not guarded by the permission of
+        // the provider
+        getContext().enforceCallingOrSelfPermission(ToolContract.PERMISSION_ACCESS_TOOLS, null);
+
+        if (ToolContract.METHOD_RESTORE_BACKUP.equals(method)) {
+            // The writes made while the restored database is built would be lost with the
+            // database they were made to, so they wait for the restore
+            mDatabaseLock.writeLock().lock();
+            try {
+                return restoreBackup();
+            } finally {
+                mDatabaseLock.writeLock().unlock();
+            }
+        }
+        mDatabaseLock.readLock().lock();
+        try {
+            return callLocked(method, arg, extras);
+        } finally {
+            mDatabaseLock.readLock().unlock();
+        }
+    }
+
+    private Bundle callLocked(String method, String arg, Bundle extras) {
+        if (ToolContract.METHOD_GET_TOOLS.equals(method)) {
+            requireExtras(method, extras);
+            return getTools(extras.getLongArray(ToolContract.EXTRA_IDS));
+        }
+        if (ToolContract.METHOD_ADJUST_QUANTITIES.equals(method)) {
+            requireExtras(method, extras);
+            return adjustQuantities(extras.getLongArray(ToolContract.EXTRA_IDS),
+                    extras.getIntArray(ToolContract.EXTRA_QUANTITY_DELTAS));
+        }
+        if (ToolContract.METHOD_UPDATE_TOOL.equals(method)) {
+            requireExtras(method, extras);
+            return updateToolIfVersion(Long.parseLong(arg),
+                    (ContentValues) extras.getParcelable(ToolContract.EXTRA_VALUES),
+                    extras.getLong(ToolContract.EXTRA_VERSION));
+        }
+        if (ToolContract.METHOD_RESTORE_DELETED.equals(method)) {
+            restoreDeletedTools(Long.parseLong(arg));
+            return null;
+        }
+        if (ToolContract.METHOD_BACKUP.equals(method)) {
+            boolean incremental = extras != null
+                    && extras.getBoolean(ToolContract.EXTRA_INCREMENTAL);
+            mAudit.flush();
+            try {
+                return toBundle(mBackup.backup(incremental));
+            } catch (IOException e) {
+                throw new IllegalStateException("Backup failed", e);
+            }
+        }
+        if (ToolContract.METHOD_RUN_MAINTENANCE.equals(method)) {
+            DatabaseMaintenance.Result result = mMaintenance.run();
+            Bundle bundle = new Bundle();
+            bundle.putBoolean(ToolContract.EXTRA_MAINTENANCE_COMPLETED, result.completed);
+            bundle.putLong(ToolContract.EXTRA_BYTES_RECLAIMED, result.getBytesReclaimed());
+            bundle.putLong(ToolContract.EXTRA_MAINTENANCE_MILLIS, result.millis);
+            return bundle;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Check that the caller of the given method passed its extras.
+     */
+    private static void requireExtras(String method, Bundle extras) {
+        if (extras == null) {
+            throw new IllegalArgumentException("Method " + method + " requires extras");
+        }
+    }
+
+    /**
+     * Update the tool with the given ID, provided that its version is still the given one.
+     * The version is part of the selection of the update, so it is checked in its transaction
+     * and no lock is held while the user edits the tool. Return whether the tool was updated,
+     * with its current values, which are read once the update is committed.
+     */
+    private Bundle updateToolIfVersion(long id, ContentValues values, long version) {
+        if (values == null) {
+            throw new IllegalArgumentException("Update requires values");
         }
+
+        Uri uri = ContentUris.withAppendedId(ToolEntry.CONTENT_URI, id);
+        int rowsUpdated = updateTool(uri, values, TOOL_ID_SELECTION + " AND "
+                + ToolEntry.COLUMN_TOOL_VERSION + "=?",
+                new String[] { String.valueOf(id), String.valueOf(version) });
+
+        Bundle bundle = new Bundle();
+        bundle.putBoolean(ToolContract.EXTRA_UPDATED, rowsUpdated != 0);
+        Cursor cursor = mDbHelper.getReadableDatabase().query(ToolEntry.TABLE_NAME, null,
+                TOOL_ID_SELECTION + " AND " + LIVE_TOOLS, new String[] { String.valueOf(id) },
+                null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                bundle.putParcelable(ToolContract.EXTRA_TOOL, toContentValues(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return bundle;
+    }
+
+    /**
+     * Return the tools with the given IDs, in that order, leaving out the unknown and deleted
+     * ones. The IDs are looked up {@link #MAX_BATCH_ARGS} at a time, within the limit of
+     * arguments of a single statement.
+     *
+     * A single statement reads its tools at the same time. When more are needed, they run in a
+     * transaction so that the tools are still read at the same time. Android cannot begin a
+     * read transaction on its own, so that one holds the reserved lock of the database, and the
+     * writes wait for the lookup.
+     */
+    private Bundle getTools(long[] ids) {
+        if (ids == null) {
+            throw new IllegalArgumentException("Batch requires tool IDs");
+        }
+
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        HashMap<Long, ContentValues> tools = new HashMap<>(ids.length);
+        boolean inTransaction = ids.length > MAX_BATCH_ARGS;
+        if (inTransaction) {
+            database.beginTransactionNonExclusive();
+        }
+        try {
+            for (int start = 0; start < ids.length; start += MAX_BATCH_ARGS) {
+                int end = Math.min(ids.length, start + MAX_BATCH_ARGS);
+                String[] args = new String[end - start];
+                StringBuilder selection = new StringBuilder(ToolEntry._ID + " IN (");
+                for (int i = start; i < end; i++) {
+                    selection.append(i == start ? "?" : ",?");
+                    args[i - start] = String.valueOf(ids[i]);
+                }
+                selection.append(") AND ").append(LIVE_TOOLS);
+
+                Cursor cursor = database.query(ToolEntry.TABLE_NAME, null, selection.toString(),
+                        args, null, null, null);
+                try {
+                    int idColumn = cursor.getColumnIndexOrThrow(ToolEntry._ID);
+                    while (cursor.moveToNext()) {
+                        tools.put(cursor.getLong(idColumn), toContentValues(cursor));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            if (inTransaction) {
+                database.setTransactionSuccessful();
+            }
+        } finally {
+            if (inTransaction) {
+                database.endTransaction();
+            }
+        }
+
+        ArrayList<ContentValues> result = new ArrayList<>(tools.size());
+        for (long id : ids) {
+            ContentValues tool = tools.get(id);
+            if (tool != null) {
+                result.add(tool);
+            }
+        }
+        Bundle bundle = new Bundle();
+        bundle.putParcelableArrayList(ToolContract.EXTRA_TOOLS, result);
+        return bundle;
+    }
+
+    /**
+     * Read the current row of the cursor, keeping the type of each value, which
+     * {@link DatabaseUtils#cursorRowToContentValues} turns into strings.
+     */
+    private static ContentValues toContentValues(Cursor cursor) {
+        ContentValues values = new ContentValues(cursor.getColumnCount());
+        for (int i = 0; i < cursor.getColumnCount(); i++) {
+            String column = cursor.getColumnName(i);
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    values.put(column, cursor.getLong(i));
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    values.put(column, cursor.getDouble(i));
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    values.put(column, cursor.getString(i));
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    values.put(column, cursor.getBlob(i));
+                    break;
+                default:
+                    values.putNull(column);
+                    break;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Add the given quantities to the stock of the tools with the given IDs held at the default
+     * location, in a single transaction, and notify the observers once. Return the total
+     * quantity of each tool once adjusted, or -1 for the adjustments not applied.
+     */
+    private Bundle adjustQuantities(long[] ids, int[] deltas) {
+        if (ids == null || deltas == null || ids.length != deltas.length) {
+            throw new IllegalArgumentException("Batch requires a quantity for each tool ID");
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int[] quantities = new int[ids.length];
+        boolean adjusted = false;
+        List<AuditLog.Entry> audit = new ArrayList<>();
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < ids.length; i++) {
+                // A tool created without stock has no stock at the default location yet to
+                // add to
+                if (deltas[i] > 0 && toolExists(ids[i])) {
+                    mStatements.executeInsert(SQL_CREATE_DEFAULT_STOCK, ids[i]);
+                }
+
+                // Taking stock away is the same statement as a sale, without recording one. The
+                // triggers adjust the total quantity and the version of the tool.
+                if (mStatements.executeUpdateDelete(SQL_SELL_TOOL, -deltas[i], ids[i],
+                        -deltas[i]) == 0) {
+                    quantities[i] = -1;
+                    continue;
+                }
+                if (deltas[i] < 0) {
+                    consumeLots(ids[i], -deltas[i]);
+                }
+                quantities[i] = auditQuantity(audit, ids[i], deltas[i]);
+                logChanges(ChangeEntry.OPERATION_UPDATE, TOOL_ID_SELECTION,
+                        new String[] { String.valueOf(ids[i]) });
+                adjusted = true;
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        mAudit.record(audit);
+
+        if (adjusted) {
+            notifyStockChange();
+        }
+        Bundle bundle = new Bundle();
+        bundle.putIntArray(ToolContract.EXTRA_QUANTITIES, quantities);
+        return bundle;
+    }
+
+    /**
+     * Replace the database with the state of the last backup. The statements compiled for the
+     * previous database are released, and every observer is notified since any data may have
+     * changed. The caller holds the exclusive side of the database lock.
+     */
+    private Bundle restoreBackup() {
+        // The entries still in memory are written to the database being replaced, where they
+        // belong
+        mAudit.flush();
+
+        InventoryBackup.Result result;
+        try {
+            result = mBackup.restore();
+        } catch (IOException e) {
+            throw new IllegalStateException("Restore failed", e);
+        } finally {
+            mStatements.clear();
+        }
+
+        getContext().getContentResolver().notifyChange(ChangeEntry.CONTENT_URI, null);
+        getContext().getContentResolver().notifyChange(ReportEntry.CONTENT_URI, null);
+        notifyStockChange();
+
+        // The restored database may hold deleted tools whose undo window is over, and has no
+        // reorder suggestions
+        schedulePurge(ToolEntry.DELETE_UNDO_WINDOW_MILLIS);
+        scheduleReorderUpdate(0);
+        return toBundle(result);
+    }
+
+    private static Bundle toBundle(InventoryBackup.Result result) {
+        Bundle bundle = new Bundle();
+        bundle.putString(ToolContract.EXTRA_BACKUP_FILE, result.file.getPath());
+        bundle.putLong(ToolContract.EXTRA_BACKUP_SIZE, result.size);
+        bundle.putInt(ToolContract.EXTRA_BACKUP_ROWS, result.rows);
+        bundle.putLong(ToolContract.EXTRA_BACKUP_MILLIS, result.millis);
+        bundle.putBoolean(ToolContract.EXTRA_INCREMENTAL, result.incremental);
+        return bundle;
+    }
+
+    /**
+     * Restore the tools deleted since the given time, as long as their undo window is not over.
+     * Their restoration is recorded in the change log as an insertion, since the deletion may
+     * have been pushed already, and in the audit trail as an insertion of the values the tools
+     * come back with.
+     */
+    private void restoreDeletedTools(long since) {
+        long notPurgeable = System.currentTimeMillis() - ToolEntry.DELETE_UNDO_WINDOW_MILLIS;
+        String selection = ToolEntry.COLUMN_TOOL_DELETED + ">=? AND "
+                + ToolEntry.COLUMN_TOOL_DELETED + ">?";
+        String[] selectionArgs = { String.valueOf(since), String.valueOf(notPurgeable) };
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        int rowsRestored;
+        List<AuditLog.Entry> audit = new ArrayList<>();
+        database.beginTransaction();
+        try {
+            logChanges(ChangeEntry.OPERATION_INSERT, selection, selectionArgs);
+            ContentValues audited = new ContentValues();
+            for (String column : AUDITED_COLUMNS) {
+                audited.putNull(column);
+            }
+            HashMap<Long, ContentValues> restored = queryAudited(database, audited, selection,
+                    selectionArgs);
+
+            // The version moves on, so an editor still holding the tool from before its
+            // deletion cannot overwrite it unnoticed
+            ContentValues values = new ContentValues();
+            values.put(ToolEntry.COLUMN_TOOL_DELETED, 0);
+            rowsRestored = updateToolRows(values, selection, selectionArgs);
+            for (Map.Entry<Long, ContentValues> tool : restored.entrySet()) {
+                auditInsert(audit, tool.getKey(), tool.getValue(),
+                        tool.getValue().getAsInteger(ToolEntry.COLUMN_TOOL_QUANTITY));
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        mAudit.record(audit);
+
+        if (rowsRestored != 0) {
+            notifyStockChange();
+        }
+    }
+
+    /**
+     * Schedule a purge of the deleted tools after the given delay, replacing the one that was
+     * scheduled before, if any.
+     */
+    private void schedulePurge(long delayMillis) {
+        mBackgroundHandler.removeCallbacks(mPurgeRunnable);
+        mBackgroundHandler.postDelayed(mPurgeRunnable, delayMillis);
+    }
+
+    /**
+     * Schedule an update of the reorder suggestions after the given delay, replacing the one
+     * that was scheduled before, if any, so that a burst of sales is handled at once.
+     */
+    private void scheduleReorderUpdate(long delayMillis) {
+        mBackgroundHandler.removeCallbacks(mReorderRunnable);
+        mBackgroundHandler.postDelayed(mReorderRunnable, delayMillis);
+    }
+
+    /**
+     * Purge the tools whose undo window is over, on the background thread. They are purged in small
+     * batches, each in its own transaction, so that other writes never wait for long. Readers
+     * are not blocked at all, since the database uses write-ahead logging. The tools are walked
+     * in ID order, so the whole purge reads the table only once.
+     */
+    private void purgeDeletedTools() {
+        long purgeable = System.currentTimeMillis() - ToolEntry.DELETE_UNDO_WINDOW_MILLIS;
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        long lastId = 0;
+        while (true) {
+            StringBuilder ids = new StringBuilder();
+            int count = 0;
+            List<String> photos;
+            database.beginTransaction();
+            try {
+                Cursor cursor = database.query(ToolEntry.TABLE_NAME,
+                        new String[] { ToolEntry._ID }, ToolEntry._ID + ">? AND "
+                                + ToolEntry.COLUMN_TOOL_DELETED + " BETWEEN 1 AND ?",
+                        new String[] { String.valueOf(lastId), String.valueOf(purgeable) },
+                        null, null, ToolEntry._ID, String.valueOf(PURGE_BATCH_SIZE));
+                try {
+                    while (cursor.moveToNext()) {
+                        lastId = cursor.getLong(0);
+                        if (count++ > 0) {
+                            ids.append(',');
+                        }
+                        ids.append(lastId);
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                photos = purgeTools(database, ToolEntry._ID + " IN (" + ids + ")", null);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+
+            deletePhotoFiles(photos);
+            if (count < PURGE_BATCH_SIZE) {
+                break;
+            }
+        }
+
+        // Purge the tools deleted in the meantime once their own undo window is over
+        long nextDeleted = DatabaseUtils.longForQuery(database, "SELECT IFNULL(MIN("
+                + ToolEntry.COLUMN_TOOL_DELETED + "), 0) FROM " + ToolEntry.TABLE_NAME
+                + " WHERE NOT " + LIVE_TOOLS, null);
+        if (nextDeleted != 0) {
+            schedulePurge(Math.max(0, nextDeleted + ToolEntry.DELETE_UNDO_WINDOW_MILLIS
+                    - System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Remove the tools matching the selection from the database for good. Their stock goes
+     * with them. Return the photos of the tools, whose files must be removed once the
+     * transaction is committed.
+     */
+    private static List<String> purgeTools(SQLiteDatabase database, String selection,
+                                           String[] selectionArgs) {
+        List<String> photos = new ArrayList<>();
+        Cursor cursor = database.query(ToolEntry.TABLE_NAME,
+                new String[] { ToolEntry.COLUMN_TOOL_PHOTO },
+                appendSelection(selection, ToolEntry.COLUMN_TOOL_PHOTO + " IS NOT NULL"),
+                selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                photos.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        database.delete(ToolEntry.TABLE_NAME, selection, selectionArgs);
+        return photos;
+    }
+
+    /**
+     * Delete the rows of the given table matching the selection, which removes stock, and record
+     * an update of the tools whose total quantity changes, in a single transaction. Return the
+     * number of rows deleted.
+     */
+    private int deleteStock(Uri uri, SQLiteDatabase database, String table,
+                                   String selection, String[] selectionArgs,
+                                   String stockSelection) {
+        int rowsDeleted;
+        List<AuditLog.Entry> audit = new ArrayList<>();
+        database.beginTransaction();
+        try {
+            String toolSelection = selectToolIds(database, stockToolSelection(stockSelection),
+                    selectionArgs);
+            if (!isCallerSyncAdapter(uri)) {
+                logChanges(ChangeEntry.OPERATION_UPDATE, toolSelection, null);
+            }
+            HashMap<Long, Long> before = queryQuantities(database, toolSelection, null);
+            rowsDeleted = database.delete(table, selection, selectionArgs);
+            trimLots(toolSelection, null);
+            auditQuantities(audit, before, queryQuantities(database, toolSelection, null));
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        mAudit.record(audit);
+        return rowsDeleted;
+    }
+
+    /**
+     * Write off the lots matching the selection, taking their quantity from the stock held at
+     * the default location, and record an update of their tools, in a single transaction.
+     * Return the number of lots deleted.
+     */
+    private int deleteLots(Uri uri, SQLiteDatabase database, String selection,
+                           String[] selectionArgs) {
+        int rowsDeleted;
+        List<AuditLog.Entry> audit = new ArrayList<>();
+        database.beginTransaction();
+        try {
+            List<long[]> lots = new ArrayList<>();
+            Cursor cursor = database.query(LotEntry.TABLE_NAME, new String[] {
+                    LotEntry.COLUMN_TOOL_ID, LotEntry.COLUMN_QUANTITY }, selection,
+                    selectionArgs, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    lots.add(new long[] { cursor.getLong(0), cursor.getLong(1) });
+                }
+            } finally {
+                cursor.close();
+            }
+
+            if (!isCallerSyncAdapter(uri) && !lots.isEmpty()) {
+                long[] toolIds = new long[lots.size()];
+                for (int i = 0; i < toolIds.length; i++) {
+                    toolIds[i] = lots.get(i)[0];
+                }
+                logChanges(ChangeEntry.OPERATION_UPDATE, ToolEntry.buildIdSelection(toolIds),
+                        null);
+            }
+
+            // The triggers adjust the total quantity and the version of the tools
+            for (long[] lot : lots) {
+                mStatements.executeUpdateDelete(SQL_ADD_DEFAULT_STOCK, -lot[1], lot[0]);
+                auditQuantity(audit, lot[0], -lot[1]);
+            }
+            rowsDeleted = database.delete(LotEntry.TABLE_NAME, selection, selectionArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        mAudit.record(audit);
+        return rowsDeleted;
+    }
+
+    /**
+     * Return the conjunction of the given selection, which may be null, and the extra condition.
+     */
+    private static String appendSelection(String selection, String condition) {
+        if (selection == null) {
+            return condition;
+        }
+        return "(" + selection + ") AND " + condition;
+    }
+
+    /**
+     * Append the condition matching the live tools to the selection of a query of the tools.
+     * Nearly every tool is live, so the condition only helps when the query has no other: the
+     * name index then reads the live tools in order. Otherwise a unary plus keeps the condition
+     * out of the indexes, so that SQLite finds the tools through the selection, such as the
+     * category index for the subtree of a category, instead of reading every live tool from the
+     * name index and filtering them.
+     */
+    private static String appendLiveTools(String selection) {
+        if (selection == null) {
+            return LIVE_TOOLS;
+        }
+        return appendSelection(selection, "+" + LIVE_TOOLS);
+    }
+
+    /**
+     * Trim the SKU of the given values, if any. A blank SKU is replaced by null, since it means
+     * that the tool has no SKU. Return the resulting SKU.
+     */
+    private static String normalizeSku(ContentValues values) {
+        if (!values.containsKey(ToolEntry.COLUMN_TOOL_SKU)) {
+            return null;
+        }
+        String sku = values.getAsString(ToolEntry.COLUMN_TOOL_SKU);
+        if (sku != null) {
+            sku = sku.trim();
+        }
+        if (sku == null || sku.isEmpty()) {
+            values.putNull(ToolEntry.COLUMN_TOOL_SKU);
+            return null;
+        }
+        values.put(ToolEntry.COLUMN_TOOL_SKU, sku);
+        return sku;
+    }
+
+    /**
+     * Return true if the write comes from the sync engine, in which case it must not be
+     * recorded in the change log.
+     */
+    private static boolean isCallerSyncAdapter(Uri uri) {
+        return uri.getBooleanQueryParameter(ToolContract.CALLER_IS_SYNC_ADAPTER, false);
+    }
+
+    /**
+     * Append a change of the tool with the given sync ID to the change log.
+     */
+    private void logChange(String syncId, String operation) {
+        mStatements.executeInsert(SQL_LOG_CHANGE, syncId, operation);
+    }
+
+    /**
+     * Return the audited columns among the given values of the tools matching the selection,
+     * by tool ID, before they change. Only the columns written are read, so an update that does
+     * not write an audited column only reads the IDs.
+     */
+    private static HashMap<Long, ContentValues> queryAudited(SQLiteDatabase database,
+                                                             ContentValues values,
+                                                             String selection,
+                                                             String[] selectionArgs) {
+        List<String> columns = new ArrayList<>();
+        columns.add(ToolEntry._ID);
+        for (String column : AUDITED_COLUMNS) {
+            if (values.containsKey(column)) {
+                columns.add(column);
+            }
+        }
+
+        HashMap<Long, ContentValues> tools = new HashMap<>();
+        Cursor cursor = database.query(ToolEntry.TABLE_NAME,
+                columns.toArray(new String[columns.size()]), selection, selectionArgs, null,
+                null, null);
+        try {
+            while (cursor.moveToNext()) {
+                tools.put(cursor.getLong(0), toContentValues(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return tools;
+    }
+
+    /**
+     * Return the total quantity of each of the tools matching the selection, by tool ID.
+     */
+    private static HashMap<Long, Long> queryQuantities(SQLiteDatabase database, String selection,
+                                                       String[] selectionArgs) {
+        HashMap<Long, Long> quantities = new HashMap<>();
+        Cursor cursor = database.query(ToolEntry.TABLE_NAME, new String[] { ToolEntry._ID,
+                ToolEntry.COLUMN_TOOL_QUANTITY }, selection, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                quantities.put(cursor.getLong(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return quantities;
+    }
+
+    /**
+     * Add the changes of the total quantity of tools to the audit entries of a change, from
+     * their quantities read by {@link #queryQuantities} before and after it.
+     */
+    private static void auditQuantities(List<AuditLog.Entry> audit, HashMap<Long, Long> before,
+                                        HashMap<Long, Long> after) {
+        int caller = Binder.getCallingUid();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, Long> tool : before.entrySet()) {
+            Long quantity = after.get(tool.getKey());
+            if (quantity != null && !quantity.equals(tool.getValue())) {
+                audit.add(new AuditLog.Entry(tool.getKey(), ChangeEntry.OPERATION_UPDATE,
+                        ToolEntry.COLUMN_TOOL_QUANTITY, tool.getValue(), quantity, caller, now));
+            }
+        }
+    }
+
+    /**
+     * Add the change of the total quantity of a tool by the given delta, which was just
+     * applied, to the audit entries of a change. Return the quantity of the tool, or -1 if it
+     * does not exist.
+     */
+    private int auditQuantity(List<AuditLog.Entry> audit, long id, long delta) {
+        int quantity = (int) mStatements.queryForLong(-1, SQL_QUERY_QUANTITY, id);
+        if (delta != 0 && quantity != -1) {
+            audit.add(new AuditLog.Entry(id, ChangeEntry.OPERATION_UPDATE,
+                    ToolEntry.COLUMN_TOOL_QUANTITY, quantity - delta, quantity,
+                    Binder.getCallingUid(), System.currentTimeMillis()));
+        }
+        return quantity;
+    }
+
+    /**
+     * Add the audited columns of a new tool to the audit entries of its insertion. The quantity
+     * is the one stocked, since the tool itself starts empty.
+     */
+    private static void auditInsert(List<AuditLog.Entry> audit, long id, ContentValues values,
+                                    Integer quantity) {
+        int caller = Binder.getCallingUid();
+        long now = System.currentTimeMillis();
+        for (String column : AUDITED_COLUMNS) {
+            Object value = ToolEntry.COLUMN_TOOL_QUANTITY.equals(column) ? quantity
+                    : values.get(column);
+            if (value != null) {
+                audit.add(new AuditLog.Entry(id, ChangeEntry.OPERATION_INSERT, column, null,
+                        value, caller, now));
+            }
+        }
+    }
+
+    /**
+     * Add the audited columns changed by an update to its audit entries, from the values read
+     * before by {@link #queryAudited}. The quantity is given apart, since it is not written
+     * with the other values.
+     */
+    private static void auditUpdate(List<AuditLog.Entry> audit,
+                                    HashMap<Long, ContentValues> before, ContentValues values,
+                                    Integer quantity) {
+        int caller = Binder.getCallingUid();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, ContentValues> tool : before.entrySet()) {
+            for (String column : AUDITED_COLUMNS) {
+                if (!tool.getValue().containsKey(column)) {
+                    continue;
+                }
+                Object oldValue = tool.getValue().get(column);
+                Object newValue = ToolEntry.COLUMN_TOOL_QUANTITY.equals(column) ? quantity
+                        : values.get(column);
+                if (!sameValue(oldValue, newValue)) {
+                    audit.add(new AuditLog.Entry(tool.getKey(),
+                            ChangeEntry.OPERATION_UPDATE, column, oldValue, newValue, caller,
+                            now));
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the deletion of the tools with the given IDs to the audit entries of their deletion.
+     */
+    private static void auditDelete(List<AuditLog.Entry> audit, Collection<Long> ids) {
+        int caller = Binder.getCallingUid();
+        long now = System.currentTimeMillis();
+        for (long id : ids) {
+            audit.add(new AuditLog.Entry(id, ChangeEntry.OPERATION_DELETE, null, null, null,
+                    caller, now));
+        }
+    }
+
+    /**
+     * Return true if a value read from the database is the same as a value written. Numbers
+     * are compared as the database stores them, so a float price read back as a double is
+     * still the same.
+     */
+    private static boolean sameValue(Object stored, Object written) {
+        if (stored == null || written == null) {
+            return stored == written;
+        }
+        if (stored instanceof Number && written instanceof Number) {
+            return ((Number) stored).doubleValue() == ((Number) written).doubleValue();
+        }
+        return stored.toString().equals(written.toString());
+    }
+
+    /**
+     * Append a change to the change log for every tool matching the selection.
+     */
+    private void logChanges(String operation, String selection, String[] selectionArgs) {
+        String sql = "INSERT INTO " + ChangeEntry.TABLE_NAME + " ("
+                + ChangeEntry.COLUMN_SYNC_ID + ", " + ChangeEntry.COLUMN_OPERATION + ") "
+                + "SELECT " + ToolEntry.COLUMN_SYNC_ID + ", ? FROM " + ToolEntry.TABLE_NAME;
+        if (selection != null) {
+            sql += " WHERE " + selection;
+        }
+
+        execute(sql, concatArgs(new Object[] { operation }, selectionArgs));
     }
 
     /**
@@ -293,8 +2945,186 @@ public class ToolProvider extends ContentProvider {
                 return ToolEntry.CONTENT_LIST_TYPE;
             case TOOL_ID:
                 return ToolEntry.CONTENT_ITEM_TYPE;
+            case CHANGES:
+                return ChangeEntry.CONTENT_LIST_TYPE;
+            case TOOL_SKU:
+                return ToolEntry.CONTENT_ITEM_TYPE;
+            case TOOL_PHOTO:
+                return ToolEntry.PHOTO_TYPE;
+            case TOOL_SALE:
+                return ToolEntry.CONTENT_ITEM_TYPE;
+            case TOOLS_INDEX:
+                return IndexEntry.CONTENT_LIST_TYPE;
+            case TOOL_DETAILS:
+                return DetailsEntry.CONTENT_ITEM_TYPE;
+            case TOOL_LOTS:
+            case TOOLS_EXPIRING:
+            case LOTS:
+                return LotEntry.CONTENT_LIST_TYPE;
+            case LOT_ID:
+                return LotEntry.CONTENT_ITEM_TYPE;
+            case CATEGORIES:
+            case CATEGORY_CHILDREN:
+                return CategoryEntry.CONTENT_LIST_TYPE;
+            case CATEGORY_ID:
+                return CategoryEntry.CONTENT_ITEM_TYPE;
+            case CATEGORY_TOOLS:
+                return ToolEntry.CONTENT_LIST_TYPE;
+            case TOOL_STOCK:
+            case LOCATION_STOCK:
+            case STOCK:
+                return StockEntry.CONTENT_LIST_TYPE;
+            case LOCATIONS:
+                return LocationEntry.CONTENT_LIST_TYPE;
+            case LOCATION_ID:
+                return LocationEntry.CONTENT_ITEM_TYPE;
+            case REPORTS_DAILY:
+            case REPORTS_WEEKLY:
+            case REPORTS_TOOLS:
+                return ReportEntry.CONTENT_LIST_TYPE;
+            case REORDERS:
+                return ReorderEntry.CONTENT_LIST_TYPE;
+            case AUDIT:
+                return AuditEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
     }
+
+    /**
+     * Open the photo of a tool. Reading opens the current photo file. Writing opens a new file,
+     * which becomes the photo of the tool once it is closed, so a reader never sees a photo
+     * that is only partially written.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        mDatabaseLock.readLock().lock();
+        try {
+            return openFileLocked(uri, mode);
+        } finally {
+            mDatabaseLock.readLock().unlock();
+        }
+    }
+
+    private ParcelFileDescriptor openFileLocked(Uri uri, String mode)
+            throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != TOOL_PHOTO) {
+            throw new FileNotFoundException("No file for " + uri);
+        }
+
+        // For an URI such as "content://com.example.android.inventory/tools/3/photo",
+        // the ID of the tool is the second path segment.
+        final long id = Long.parseLong(uri.getPathSegments().get(1));
+
+        if (!mode.contains("w")) {
+            String photo = queryPhoto(id);
+            if (photo == null) {
+                throw new FileNotFoundException("Tool " + id + " has no photo");
+            }
+            return ParcelFileDescriptor.open(getPhotoFile(photo),
+                    ParcelFileDescriptor.MODE_READ_ONLY);
+        }
+
+        if (!toolExists(id)) {
+            throw new FileNotFoundException("No tool for " + uri);
+        }
+
+        final String photo = "tool_" + id + "_" + System.currentTimeMillis() + ".jpg";
+        File file = getPhotoFile(photo);
+        file.getParentFile().mkdirs();
+        int fileMode = ParcelFileDescriptor.MODE_WRITE_ONLY | ParcelFileDescriptor.MODE_CREATE
+                | ParcelFileDescriptor.MODE_TRUNCATE;
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            // There is no way to know when the writer is done, so switch photos right away
+            setPhoto(id, photo);
+            return ParcelFileDescriptor.open(file, fileMode);
+        }
+
+        // The photo is switched on the background thread, since it reads and writes the
+        // database and deletes the previous file
+        try {
+            return ParcelFileDescriptor.open(file, fileMode, mBackgroundHandler,
+                    new ParcelFileDescriptor.OnCloseListener() {
+                        @Override
+                        public void onClose(IOException e) {
+                            if (e != null) {
+                                deletePhotoFile(photo);
+                                return;
+                            }
+                            mDatabaseLock.readLock().lock();
+                            try {
+                                setPhoto(id, photo);
+                            } finally {
+                                mDatabaseLock.readLock().unlock();
+                            }
+                        }
+                    });
+        } catch (IOException e) {
+            throw new FileNotFoundException("Cannot write photo " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Return the file name of the photo of the given tool, or null if it has none.
+     */
+    private String queryPhoto(long id) {
+        return mStatements.queryForString(SQL_QUERY_PHOTO, id);
+    }
+
+    /**
+     * Return true if a tool with the given ID exists.
+     */
+    private boolean toolExists(long id) {
+        return mStatements.queryForLong(0, SQL_TOOL_EXISTS, id) > 0;
+    }
+
+    /**
+     * Make the given file the photo of the tool, and remove the file of the previous photo.
+     * If the tool has been deleted in the meantime, the new file is removed instead.
+     */
+    private void setPhoto(long id, String photo) {
+        String previous = queryPhoto(id);
+
+        ContentValues values = new ContentValues();
+        values.put(ToolEntry.COLUMN_TOOL_PHOTO, photo);
+        int rowsUpdated = updateToolRows(values, TOOL_ID_SELECTION + " AND " + LIVE_TOOLS,
+                new String[] { String.valueOf(id) });
+
+        if (rowsUpdated == 0) {
+            deletePhotoFile(photo);
+            return;
+        }
+        if (previous != null) {
+            deletePhotoFile(previous);
+        }
+        getContext().getContentResolver().notifyChange(
+                ContentUris.withAppendedId(ToolEntry.CONTENT_URI, id), null);
+    }
+
+    /**
+     * Return the file holding the photo with the given name.
+     */
+    private File getPhotoFile(String photo) {
+        return new File(new File(getContext().getFilesDir(), PHOTO_DIRECTORY), photo);
+    }
+
+    /**
+     * Remove the files holding the photos with the given names.
+     */
+    private void deletePhotoFiles(List<String> photos) {
+        for (String photo : photos) {
+            deletePhotoFile(photo);
+        }
+    }
+
+    /**
+     * Remove the file holding the photo with the given name.
+     */
+    private void deletePhotoFile(String photo) {
+        File file = getPhotoFile(photo);
+        if (file.exists() && !file.delete()) {
+            Log.w(LOG_TAG, "Could not delete photo " + file);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,190 @@
+package com.example.android.inventory.image;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Bounded disk cache of downsampled photos, so a thumbnail only has to be decoded from the
+ * full-size photo once. When the cache grows over its maximum size, the least recently used
+ * thumbnails are removed.
+ *
+ * The cache does disk I/O, so it must only be used on a background thread.
+ */
+class ThumbnailDiskCache {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = ThumbnailDiskCache.class.getSimpleName();
+
+    /** Quality of the JPEG compression of the thumbnails */
+    private static final int JPEG_QUALITY = 85;
+
+    /** Directory holding the thumbnails */
+    private final File mDirectory;
+
+    /** Maximum size of the cache, in bytes */
+    private final long mMaxSize;
+
+    /** Current size of the cache in bytes, or -1 until the directory has been scanned */
+    private long mSize = -1;
+
+    /**
+     * Constructs a new {@link ThumbnailDiskCache}.
+     *
+     * @param directory directory holding the thumbnails
+     * @param maxSize   maximum size of the cache, in bytes
+     */
+    ThumbnailDiskCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Return the thumbnail cached for the given key, or null if there is none.
+     *
+     * Only the bytes of the thumbnail are read under the lock, so a slow decode does not hold
+     * up the other lookups and writes, and a trim that removes the file meanwhile does no harm.
+     */
+    Bitmap get(String key) {
+        byte[] data;
+        synchronized (this) {
+            File file = getFile(key);
+            if (!file.exists()) {
+                return null;
+            }
+
+            // Touch the file, so the thumbnails read recently are the last to be trimmed
+            file.setLastModified(System.currentTimeMillis());
+            try {
+                data = readFile(file);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Could not read thumbnail " + key, e);
+                return null;
+            }
+        }
+        return BitmapFactory.decodeByteArray(data, 0, data.length);
+    }
+
+    /**
+     * Cache the thumbnail for the given key.
+     */
+    synchronized void put(String key, Bitmap bitmap) {
+        ensureSize();
+
+        File file = getFile(key);
+        File tempFile = new File(mDirectory, file.getName() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tempFile);
+            bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            out.close();
+            out = null;
+
+            // Rename the complete file, so a reader never decodes a partial thumbnail
+            long previousLength = file.length();
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Cannot rename " + tempFile);
+            }
+            mSize += file.length() - previousLength;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Could not cache thumbnail " + key, e);
+            tempFile.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                    // Nothing more can be done, the file is already deleted
+                }
+            }
+        }
+
+        if (mSize > mMaxSize) {
+            trim();
+        }
+    }
+
+    /**
+     * Scan the directory to compute the size of the cache, the first time it is needed.
+     */
+    private void ensureSize() {
+        if (mSize >= 0) {
+            return;
+        }
+        mDirectory.mkdirs();
+        mSize = 0;
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                mSize += file.length();
+            }
+        }
+    }
+
+    /**
+     * Remove the least recently used thumbnails until the cache is back to 3/4 of its maximum
+     * size, so it is not trimmed again on the next put.
+     */
+    private void trim() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long lastA = a.lastModified();
+                long lastB = b.lastModified();
+                return lastA < lastB ? -1 : (lastA == lastB ? 0 : 1);
+            }
+        });
+
+        long target = mMaxSize * 3 / 4;
+        for (File file : files) {
+            if (mSize <= target) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                mSize -= length;
+            }
+        }
+    }
+
+    /**
+     * Return the whole content of the given file.
+     */
+    private static byte[] readFile(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            int length = 0;
+            while (length < data.length) {
+                int count = in.read(data, length, data.length - length);
+                if (count < 0) {
+                    throw new EOFException("Truncated thumbnail " + file);
+                }
+                length += count;
+            }
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Return the file caching the thumbnail with the given key.
+     */
+    private File getFile(String key) {
+        // Keys are made of photo names and sizes, but keep the file name safe anyway
+        return new File(mDirectory, key.replaceAll("[^A-Za-z0-9._-]", "_"));
+    }
+}
@@ -0,0 +1,346 @@
+package com.example.android.inventory.image;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.android.inventory.R;
+import com.example.android.inventory.data.ToolContract.ToolEntry;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Loads tool photos into {@link ImageView}s without blocking the main thread.
+ *
+ * Photos are decoded on a small pool of background threads, downsampled to the size of the
+ * target view, and kept in two caches: a bounded in-memory LRU cache of bitmaps and a disk
+ * cache of thumbnails. Loading another photo into a view, for instance when a list row is
+ * recycled, cancels the load still pending for it.
+ *
+ * All the public methods must be called on the main thread.
+ */
+public class ToolImageLoader {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = ToolImageLoader.class.getSimpleName();
+
+    /** Number of threads decoding photos */
+    private static final int THREAD_COUNT = 2;
+
+    /** Maximum size of the disk cache of thumbnails, in bytes */
+    private static final long DISK_CACHE_SIZE = 20 * 1024 * 1024;
+
+    /** Name of the directory, in the app's cache directory, holding the thumbnails */
+    private static final String DISK_CACHE_DIRECTORY = "thumbnails";
+
+    /** Size stored photos are downsampled to, so full-size camera pictures are not kept */
+    private static final int STORED_PHOTO_SIZE = 1280;
+
+    /** Quality of the JPEG compression of the stored photos */
+    private static final int STORED_PHOTO_QUALITY = 90;
+
+    /** Shared instance, created on first use */
+    private static ToolImageLoader sInstance;
+
+    private final ContentResolver mResolver;
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final ThumbnailDiskCache mDiskCache;
+    private final ExecutorService mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Load currently running for each view */
+    private final WeakHashMap<ImageView, LoadTask> mTasks = new WeakHashMap<>();
+
+    /**
+     * Return the shared {@link ToolImageLoader}.
+     */
+    public static ToolImageLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ToolImageLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ToolImageLoader(Context context) {
+        mResolver = context.getContentResolver();
+
+        // Use 1/8th of the available memory for the in-memory cache, counted in kilobytes
+        int maxMemory = (int) (Runtime.getRuntime().maxMemory() / 1024);
+        mMemoryCache = new LruCache<String, Bitmap>(maxMemory / 8) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+        };
+
+        mDiskCache = new ThumbnailDiskCache(
+                new File(context.getCacheDir(), DISK_CACHE_DIRECTORY), DISK_CACHE_SIZE);
+
+        mExecutor = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, LOG_TAG);
+            }
+        });
+    }
+
+    /**
+     * Load the photo of a tool into the given view, downsampled to the given size.
+     *
+     * @param toolId ID of the tool
+     * @param photo  file name of the photo, from {@link ToolEntry#COLUMN_TOOL_PHOTO},
+     *               or null if the tool has no photo
+     * @param view   view displaying the photo
+     * @param size   size of the view, in pixels
+     */
+    public void loadToolPhoto(long toolId, String photo, ImageView view, int size) {
+        if (photo == null) {
+            cancel(view);
+            view.setImageResource(R.drawable.photo_placeholder);
+            return;
+        }
+        load(ToolEntry.buildPhotoUri(toolId), photo + "@" + size, view, size, true);
+    }
+
+    /**
+     * Load the image at the given URI into the given view, downsampled to the given size.
+     * The image is not cached on disk, since it is not part of the inventory.
+     */
+    public void loadImage(Uri uri, ImageView view, int size) {
+        load(uri, uri.toString() + "@" + size, view, size, false);
+    }
+
+    /**
+     * Cancel the load still pending for the given view, if any.
+     */
+    public void cancel(ImageView view) {
+        LoadTask task = mTasks.remove(view);
+        if (task != null) {
+            task.cancel();
+        }
+    }
+
+    /**
+     * Store the photo read from the given file as the photo of a tool, on a background thread.
+     * Photos much larger than {@link #STORED_PHOTO_SIZE} are downsampled first. The file
+     * descriptor is closed once the photo is stored.
+     *
+     * @param toolId ID of the tool
+     * @param source file descriptor of the photo, opened by the caller so that the photo can be
+     *               read even after a temporary permission to access it has been revoked
+     */
+    public void storePhoto(final long toolId, final ParcelFileDescriptor source) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                OutputStream out = null;
+                try {
+                    Bitmap bitmap = decode(source.getFileDescriptor(), STORED_PHOTO_SIZE, null);
+                    if (bitmap == null) {
+                        Log.w(LOG_TAG, "Could not decode photo of tool " + toolId);
+                        return;
+                    }
+                    out = mResolver.openOutputStream(ToolEntry.buildPhotoUri(toolId));
+                    bitmap.compress(Bitmap.CompressFormat.JPEG, STORED_PHOTO_QUALITY, out);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Could not store photo of tool " + toolId, e);
+                } finally {
+                    closeQuietly(out);
+                    closeQuietly(source);
+                }
+            }
+        });
+    }
+
+    /**
+     * Display the image from the memory cache if it is there, otherwise start loading it.
+     */
+    private void load(Uri uri, String key, ImageView view, int size, boolean cacheOnDisk) {
+        LoadTask pending = mTasks.get(view);
+        if (pending != null && pending.mKey.equals(key)) {
+            // The same image is already being loaded into this view
+            return;
+        }
+        cancel(view);
+
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            view.setImageBitmap(bitmap);
+            return;
+        }
+
+        view.setImageResource(R.drawable.photo_placeholder);
+        LoadTask task = new LoadTask(uri, key, view, size, cacheOnDisk);
+        mTasks.put(view, task);
+        task.mFuture = mExecutor.submit(task);
+    }
+
+    /**
+     * Decode the image of the given file descriptor, downsampled so that its width and height
+     * are at least the given size, but no more than twice as large.
+     *
+     * @param options options used to decode, which allow to cancel the decoding,
+     *                or null to use new ones
+     */
+    private static Bitmap decode(FileDescriptor fd, int size, BitmapFactory.Options options) {
+        if (options == null) {
+            options = new BitmapFactory.Options();
+        }
+
+        // First decode the bounds only, to find out how much the image can be downsampled
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFileDescriptor(fd, null, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= size
+                && options.outHeight / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        return BitmapFactory.decodeFileDescriptor(fd, null, options);
+    }
+
+    /**
+     * Scale the bitmap down so that its smallest side matches the given size. Decoding can only
+     * downsample by powers of two, so this saves up to 3/4 of the memory of a thumbnail.
+     */
+    private static Bitmap scaleDown(Bitmap bitmap, int size) {
+        int smallestSide = Math.min(bitmap.getWidth(), bitmap.getHeight());
+        if (smallestSide <= size) {
+            return bitmap;
+        }
+        float scale = (float) size / smallestSide;
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, Math.round(bitmap.getWidth() * scale),
+                Math.round(bitmap.getHeight() * scale), true);
+        if (scaled != bitmap) {
+            bitmap.recycle();
+        }
+        return scaled;
+    }
+
+    /**
+     * Close the given stream or file descriptor, ignoring errors.
+     */
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // Nothing more can be done
+        }
+    }
+
+    /**
+     * Load of a single image into a view, run on a background thread.
+     */
+    private class LoadTask implements Runnable {
+
+        final Uri mUri;
+        final String mKey;
+        final ImageView mView;
+        final int mSize;
+        final boolean mCacheOnDisk;
+
+        /** Options of the decoding, used to cancel it while it is running */
+        final BitmapFactory.Options mOptions = new BitmapFactory.Options();
+
+        /** Future of the task, used to remove it from the queue when cancelled */
+        Future<?> mFuture;
+
+        volatile boolean mCancelled;
+
+        LoadTask(Uri uri, String key, ImageView view, int size, boolean cacheOnDisk) {
+            mUri = uri;
+            mKey = key;
+            mView = view;
+            mSize = size;
+            mCacheOnDisk = cacheOnDisk;
+        }
+
+        @SuppressWarnings("deprecation")
+        void cancel() {
+            mCancelled = true;
+            mOptions.requestCancelDecode();
+            if (mFuture != null) {
+                mFuture.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            Bitmap bitmap = mCacheOnDisk ? mDiskCache.get(mKey) : null;
+            if (bitmap == null && !mCancelled) {
+                bitmap = decodeFromSource();
+                if (bitmap != null) {
+                    bitmap = scaleDown(bitmap, mSize);
+                }
+                if (bitmap != null && mCacheOnDisk && !mCancelled) {
+                    mDiskCache.put(mKey, bitmap);
+                }
+            }
+            if (bitmap == null) {
+                return;
+            }
+
+            final Bitmap result = bitmap;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mMemoryCache.put(mKey, result);
+
+                    // Only display the image if the view has not been given another one since
+                    if (mTasks.get(mView) == LoadTask.this) {
+                        mTasks.remove(mView);
+                        mView.setImageBitmap(result);
+                    }
+                }
+            });
+        }
+
+        private Bitmap decodeFromSource() {
+            ParcelFileDescriptor pfd = null;
+            try {
+                pfd = mResolver.openFileDescriptor(mUri, "r");
+                if (pfd == null) {
+                    return null;
+                }
+                return decode(pfd.getFileDescriptor(), mSize, mOptions);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Could not load image " + mUri, e);
+                return null;
+            } finally {
+                closeQuietly(pfd);
+            }
+        }
+    }
+}
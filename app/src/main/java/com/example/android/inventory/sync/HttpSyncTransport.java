@@ -0,0 +1,112 @@
+package com.example.android.inventory.sync;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * {@link SyncTransport} talking to the sync backend over HTTP.
+ *
+ * A push is a POST of a compressed batch to {@code <base>/push}, answered with the last local
+ * sequence number stored. A pull is a GET of {@code <base>/pull?since=<seq>&limit=<n>},
+ * answered with a compressed batch.
+ */
+public class HttpSyncTransport implements SyncTransport {
+
+    /** Header carrying the ID of the device */
+    public static final String HEADER_DEVICE_ID = "X-Device-Id";
+
+    /** Content type of an encoded batch */
+    public static final String CONTENT_TYPE_BATCH = "application/x-inventory-batch";
+
+    /** Timeout for connecting to and reading from the backend, in milliseconds */
+    private static final int TIMEOUT_MILLIS = 15000;
+
+    /** Base URL of the backend */
+    private final String mBaseUrl;
+
+    /**
+     * Constructs a new {@link HttpSyncTransport}.
+     *
+     * @param baseUrl base URL of the backend, without trailing slash
+     */
+    public HttpSyncTransport(String baseUrl) {
+        mBaseUrl = baseUrl;
+    }
+
+    @Override
+    public long push(String deviceId, SyncBatch batch) throws IOException {
+        HttpURLConnection connection = open(mBaseUrl + "/push", deviceId);
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", CONTENT_TYPE_BATCH);
+            connection.setChunkedStreamingMode(0);
+            OutputStream out = connection.getOutputStream();
+            try {
+                SyncBatchCodec.write(batch, out);
+            } finally {
+                out.close();
+            }
+
+            checkResponse(connection);
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(connection.getInputStream(), "UTF-8"));
+            try {
+                String line = reader.readLine();
+                if (line == null) {
+                    throw new IOException("Empty push response");
+                }
+                return Long.parseLong(line.trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed push response", e);
+            } finally {
+                reader.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public SyncBatch pull(String deviceId, long since, int limit) throws IOException {
+        HttpURLConnection connection =
+                open(mBaseUrl + "/pull?since=" + since + "&limit=" + limit, deviceId);
+        try {
+            checkResponse(connection);
+            InputStream in = connection.getInputStream();
+            try {
+                return SyncBatchCodec.read(in);
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Open a connection to the given URL, identifying the device.
+     */
+    private static HttpURLConnection open(String url, String deviceId) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        connection.setRequestProperty(HEADER_DEVICE_ID, deviceId);
+        return connection;
+    }
+
+    /**
+     * Throw an {@link IOException} if the backend did not answer with a success code.
+     */
+    private static void checkResponse(HttpURLConnection connection) throws IOException {
+        int code = connection.getResponseCode();
+        if (code != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Sync backend answered " + code);
+        }
+    }
+}
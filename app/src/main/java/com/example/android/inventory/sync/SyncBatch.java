@@ -0,0 +1,46 @@
+package com.example.android.inventory.sync;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An ordered batch of changes, pushed to or pulled from the sync backend in one request.
+ */
+public final class SyncBatch {
+
+    /** Changes of the batch, in increasing sequence order */
+    private final List<SyncChange> mChanges;
+
+    /**
+     * Constructs a new {@link SyncBatch}.
+     *
+     * @param changes changes of the batch, in increasing sequence order
+     */
+    public SyncBatch(List<SyncChange> changes) {
+        mChanges = Collections.unmodifiableList(new ArrayList<>(changes));
+    }
+
+    public List<SyncChange> getChanges() {
+        return mChanges;
+    }
+
+    public boolean isEmpty() {
+        return mChanges.isEmpty();
+    }
+
+    public int size() {
+        return mChanges.size();
+    }
+
+    /**
+     * Return the sequence number of the last change of the batch, or the given default value
+     * if the batch is empty.
+     */
+    public long getLastSequence(long defaultValue) {
+        if (mChanges.isEmpty()) {
+            return defaultValue;
+        }
+        return mChanges.get(mChanges.size() - 1).getSequence();
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.android.inventory.sync;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encodes and decodes {@link SyncBatch}es in the compact binary format sent over the wire.
+ * The stream is gzip-compressed, since tools share most of their column names and values.
+ */
+public final class SyncBatchCodec {
+
+    /** Version of the format, written first so that it can evolve */
+    private static final int FORMAT_VERSION = 1;
+
+    // The codec only has static methods, so it must not be instantiated.
+    private SyncBatchCodec() {}
+
+    /**
+     * Write the batch to the given stream. The stream is not closed.
+     */
+    public static void write(SyncBatch batch, OutputStream out) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        DataOutputStream data = new DataOutputStream(gzip);
+        data.writeInt(FORMAT_VERSION);
+        data.writeInt(batch.size());
+        for (SyncChange change : batch.getChanges()) {
+            data.writeLong(change.getSequence());
+            data.writeUTF(change.getOperation());
+            data.writeUTF(change.getSyncId());
+            data.writeInt(change.getValues().size());
+            for (Map.Entry<String, String> entry : change.getValues().entrySet()) {
+                data.writeUTF(entry.getKey());
+                data.writeBoolean(entry.getValue() != null);
+                if (entry.getValue() != null) {
+                    data.writeUTF(entry.getValue());
+                }
+            }
+        }
+        data.flush();
+        gzip.finish();
+    }
+
+    /**
+     * Read a batch from the given stream. The stream is not closed.
+     */
+    public static SyncBatch read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new GZIPInputStream(in));
+        int version = data.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported sync batch format " + version);
+        }
+
+        int count = data.readInt();
+        List<SyncChange> changes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long sequence = data.readLong();
+            String operation = data.readUTF();
+            String syncId = data.readUTF();
+            int valueCount = data.readInt();
+            Map<String, String> values = new LinkedHashMap<>();
+            for (int j = 0; j < valueCount; j++) {
+                String key = data.readUTF();
+                values.put(key, data.readBoolean() ? data.readUTF() : null);
+            }
+            changes.add(new SyncChange(sequence, operation, syncId, values));
+        }
+        return new SyncBatch(changes);
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.android.inventory.sync;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A single change of a tool, as exchanged with the sync backend.
+ */
+public final class SyncChange {
+
+    /** Sequence number of the change, local to the device or to the backend */
+    private final long mSequence;
+
+    /** Kind of write, one of the operations of the change log */
+    private final String mOperation;
+
+    /** Sync ID of the tool that was changed */
+    private final String mSyncId;
+
+    /** Column values of the tool after the change (empty for a deletion) */
+    private final Map<String, String> mValues;
+
+    /**
+     * Constructs a new {@link SyncChange}.
+     *
+     * @param sequence  sequence number of the change
+     * @param operation kind of write
+     * @param syncId    sync ID of the tool
+     * @param values    column values of the tool after the change
+     */
+    public SyncChange(long sequence, String operation, String syncId, Map<String, String> values) {
+        mSequence = sequence;
+        mOperation = operation;
+        mSyncId = syncId;
+        mValues = Collections.unmodifiableMap(new LinkedHashMap<>(values));
+    }
+
+    public long getSequence() {
+        return mSequence;
+    }
+
+    public String getOperation() {
+        return mOperation;
+    }
+
+    public String getSyncId() {
+        return mSyncId;
+    }
+
+    public Map<String, String> getValues() {
+        return mValues;
+    }
+
+    /**
+     * Return a copy of this change with another sequence number.
+     */
+    public SyncChange withSequence(long sequence) {
+        return new SyncChange(sequence, mOperation, mSyncId, mValues);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SyncChange)) {
+            return false;
+        }
+        SyncChange other = (SyncChange) o;
+        return mSequence == other.mSequence && mOperation.equals(other.mOperation)
+                && mSyncId.equals(other.mSyncId) && mValues.equals(other.mValues);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (mSequence ^ (mSequence >>> 32));
+        result = 31 * result + mOperation.hashCode();
+        result = 31 * result + mSyncId.hashCode();
+        return 31 * result + mValues.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "SyncChange{" + mSequence + " " + mOperation + " " + mSyncId + " " + mValues + "}";
+    }
+}
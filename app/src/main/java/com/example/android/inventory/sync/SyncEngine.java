@@ -0,0 +1,222 @@
+package com.example.android.inventory.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.inventory.data.ToolContract;
+import com.example.android.inventory.data.ToolContract.ChangeEntry;
+import com.example.android.inventory.data.ToolContract.ToolEntry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Keeps the local inventory in sync with the backend by exchanging deltas only.
+ *
+ * Local writes are read from the change log after the last sequence number acknowledged by the
+ * backend, collapsed so that each tool is sent once with its current values, and pushed in
+ * batches. Acknowledged changes are then pruned from the log. Changes made by other devices are
+ * pulled after the last backend sequence number applied, and written through the provider as
+ * the sync adapter, so they are not recorded in the change log again.
+ *
+ * {@link #sync()} blocks on the transport, so it must be called on a background thread.
+ */
+public class SyncEngine {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = SyncEngine.class.getSimpleName();
+
+    /** Maximum number of changes sent or received in a single request */
+    public static final int BATCH_SIZE = 200;
+
+    /** Name of the preferences file holding the sync state */
+    private static final String PREFS_NAME = "sync_state";
+
+    /** Preference keys of the sync state */
+    private static final String KEY_DEVICE_ID = "device_id";
+    private static final String KEY_LAST_PUSHED_SEQUENCE = "last_pushed_sequence";
+    private static final String KEY_LAST_PULLED_SEQUENCE = "last_pulled_sequence";
+
+    /** Tool columns exchanged with the backend */
+    private static final String[] TOOL_COLUMNS = {
+            ToolEntry.COLUMN_TOOL_NAME,
+            ToolEntry.COLUMN_TOOL_PRICE,
+            ToolEntry.COLUMN_TOOL_QUANTITY,
+            ToolEntry.COLUMN_SUPPLIER_NAME,
+            ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER,
+            ToolEntry.COLUMN_TOOL_SKU };
+
+    /** Content URI used to apply the changes pulled from the backend */
+    private static final Uri SYNC_ADAPTER_URI = ToolEntry.CONTENT_URI.buildUpon()
+            .appendQueryParameter(ToolContract.CALLER_IS_SYNC_ADAPTER, "true")
+            .build();
+
+    private final ContentResolver mResolver;
+    private final SharedPreferences mPreferences;
+    private final SyncTransport mTransport;
+
+    /**
+     * Constructs a new {@link SyncEngine}.
+     *
+     * @param context   of the app
+     * @param transport used to talk to the backend
+     */
+    public SyncEngine(Context context, SyncTransport transport) {
+        mResolver = context.getContentResolver();
+        mPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mTransport = transport;
+    }
+
+    /**
+     * Push the local changes, then pull the changes made by other devices.
+     */
+    public synchronized void sync() throws IOException {
+        String deviceId = getDeviceId();
+        push(deviceId);
+        pull(deviceId);
+    }
+
+    /**
+     * Push every change recorded after the last acknowledged one, batch by batch.
+     */
+    private void push(String deviceId) throws IOException {
+        long lastPushed = mPreferences.getLong(KEY_LAST_PUSHED_SEQUENCE, 0);
+        while (true) {
+            SyncBatch batch = readChanges(lastPushed);
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            long acknowledged = mTransport.push(deviceId, batch);
+            if (acknowledged <= lastPushed) {
+                throw new IOException("Sync backend did not store any change");
+            }
+
+            // The backend stored everything up to the acknowledged change, so the log
+            // does not need to keep it anymore
+            mResolver.delete(ChangeEntry.CONTENT_URI, ChangeEntry._ID + "<=?",
+                    new String[] { String.valueOf(acknowledged) });
+            lastPushed = acknowledged;
+            mPreferences.edit().putLong(KEY_LAST_PUSHED_SEQUENCE, lastPushed).apply();
+        }
+    }
+
+    /**
+     * Read the next batch of changes recorded after the given sequence number. Several changes
+     * of the same tool are collapsed into the last one, which carries the current values.
+     */
+    private SyncBatch readChanges(long after) {
+        Uri uri = ChangeEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ToolContract.PARAM_LIMIT, String.valueOf(BATCH_SIZE))
+                .build();
+        String[] projection = new String[TOOL_COLUMNS.length + 3];
+        projection[0] = ChangeEntry._ID;
+        projection[1] = ChangeEntry.COLUMN_SYNC_ID;
+        projection[2] = ChangeEntry.COLUMN_OPERATION;
+        System.arraycopy(TOOL_COLUMNS, 0, projection, 3, TOOL_COLUMNS.length);
+
+        LinkedHashMap<String, SyncChange> changes = new LinkedHashMap<>();
+        // The change log is joined with the tools, which have an _id of their own
+        Cursor cursor = mResolver.query(uri, projection,
+                ChangeEntry.TABLE_NAME + "." + ChangeEntry._ID + ">?",
+                new String[] { String.valueOf(after) }, null);
+        if (cursor == null) {
+            return new SyncBatch(new ArrayList<SyncChange>());
+        }
+        try {
+            while (cursor.moveToNext()) {
+                long sequence = cursor.getLong(0);
+                String syncId = cursor.getString(1);
+                String operation = cursor.getString(2);
+
+                // A tool missing from the join has been deleted by a later change,
+                // so it is sent as deleted right away
+                Map<String, String> values = new HashMap<>();
+                if (cursor.isNull(3)) {
+                    operation = ChangeEntry.OPERATION_DELETE;
+                } else if (!ChangeEntry.OPERATION_DELETE.equals(operation)) {
+                    for (int i = 0; i < TOOL_COLUMNS.length; i++) {
+                        values.put(TOOL_COLUMNS[i], cursor.getString(i + 3));
+                    }
+                }
+
+                // Move the tool to the end, so the batch stays in sequence order
+                changes.remove(syncId);
+                changes.put(syncId, new SyncChange(sequence, operation, syncId, values));
+            }
+        } finally {
+            cursor.close();
+        }
+        return new SyncBatch(new ArrayList<>(changes.values()));
+    }
+
+    /**
+     * Pull and apply every change made by other devices since the last one applied.
+     */
+    private void pull(String deviceId) throws IOException {
+        long lastPulled = mPreferences.getLong(KEY_LAST_PULLED_SEQUENCE, 0);
+        while (true) {
+            SyncBatch batch = mTransport.pull(deviceId, lastPulled, BATCH_SIZE);
+            for (SyncChange change : batch.getChanges()) {
+                applyChange(change);
+            }
+            lastPulled = batch.getLastSequence(lastPulled);
+            mPreferences.edit().putLong(KEY_LAST_PULLED_SEQUENCE, lastPulled).apply();
+
+            if (batch.size() < BATCH_SIZE) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Apply a change pulled from the backend to the local tools table.
+     */
+    private void applyChange(SyncChange change) {
+        String selection = ToolEntry.COLUMN_SYNC_ID + "=?";
+        String[] selectionArgs = { change.getSyncId() };
+
+        if (ChangeEntry.OPERATION_DELETE.equals(change.getOperation())) {
+            mResolver.delete(SYNC_ADAPTER_URI, selection, selectionArgs);
+            return;
+        }
+
+        ContentValues values = new ContentValues();
+        for (String column : TOOL_COLUMNS) {
+            values.put(column, change.getValues().get(column));
+        }
+
+        try {
+            // Inserts and updates are both applied as an upsert, since the tool may already
+            // exist if the same change was pulled twice
+            int rowsUpdated = mResolver.update(SYNC_ADAPTER_URI, values, selection, selectionArgs);
+            if (rowsUpdated == 0) {
+                values.put(ToolEntry.COLUMN_SYNC_ID, change.getSyncId());
+                mResolver.insert(SYNC_ADAPTER_URI, values);
+            }
+        } catch (IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Skipping invalid change " + change, e);
+        }
+    }
+
+    /**
+     * Return the ID identifying this device to the backend, generated on first use.
+     */
+    private String getDeviceId() {
+        String deviceId = mPreferences.getString(KEY_DEVICE_ID, null);
+        if (deviceId == null) {
+            deviceId = UUID.randomUUID().toString();
+            mPreferences.edit().putString(KEY_DEVICE_ID, deviceId).apply();
+        }
+        return deviceId;
+    }
+}
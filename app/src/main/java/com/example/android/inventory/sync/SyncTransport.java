@@ -0,0 +1,29 @@
+package com.example.android.inventory.sync;
+
+import java.io.IOException;
+
+/**
+ * Transport used by the {@link SyncEngine} to exchange changes with the sync backend.
+ * Implementations are called on a background thread and may block.
+ */
+public interface SyncTransport {
+
+    /**
+     * Push a batch of local changes to the backend.
+     *
+     * @param deviceId ID of the device pushing the changes
+     * @param batch    changes made on the device, in increasing local sequence order
+     * @return the local sequence number of the last change stored by the backend
+     */
+    long push(String deviceId, SyncBatch batch) throws IOException;
+
+    /**
+     * Pull the changes made by other devices since the given backend sequence number.
+     *
+     * @param deviceId ID of the device pulling the changes, whose own changes are left out
+     * @param since    backend sequence number of the last change already pulled
+     * @param limit    maximum number of changes to return
+     * @return the changes, in increasing backend sequence order
+     */
+    SyncBatch pull(String deviceId, long since, int limit) throws IOException;
+}
@@ -0,0 +1,220 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.inventory.data.ToolContract.AuditEntry;
+import com.example.android.inventory.data.ToolContract.CategoryEntry;
+import com.example.android.inventory.data.ToolContract.IndexEntry;
+import com.example.android.inventory.data.ToolContract.LotEntry;
+import com.example.android.inventory.data.ToolContract.ReportEntry;
+import com.example.android.inventory.data.ToolContract.ToolEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNotNull;
+
+/**
+ * Checks the query plans of the lookups the app repeats for every tool, and of the lists it
+ * shows, so that a query that stops using its index fails here instead of slowing down the app
+ * as the inventory grows.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class QueryPlanCheckerTest {
+
+    private ToolProvider mProvider;
+    private QueryPlanChecker mChecker;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(ToolProvider.class,
+                ToolContract.CONTENT_AUTHORITY);
+
+        // Release builds do not check the plans
+        mChecker = mProvider.getQueryPlanChecker();
+        assumeNotNull(mChecker);
+    }
+
+    @Test
+    public void toolLookups_useIndexes() {
+        long id = ContentUris.parseId(mProvider.insert(ToolEntry.CONTENT_URI, tool("4006381")));
+        mChecker.clear();
+
+        close(mProvider.query(ContentUris.withAppendedId(ToolEntry.CONTENT_URI, id), null, null,
+                null, null));
+        close(mProvider.query(ToolEntry.buildSkuUri("4006381"), null, null, null, null));
+        close(mProvider.query(ToolEntry.buildChunkUri(0, id, ToolEntry.MAX_CHUNK_SIZE), null,
+                null, null, null));
+        close(mProvider.query(AuditEntry.CONTENT_URI, null, AuditEntry.COLUMN_TOOL_ID + "=?",
+                new String[] { String.valueOf(id) }, null));
+
+        ContentValues values = new ContentValues();
+        values.put(ToolEntry.COLUMN_TOOL_PRICE, 12);
+        mProvider.update(ContentUris.withAppendedId(ToolEntry.CONTENT_URI, id), values, null,
+                null);
+
+        assertFalse(mChecker.getPlans().isEmpty());
+        assertEquals(Collections.<String>emptyList(), mChecker.getProblems());
+    }
+
+    @Test
+    public void categoryLookups_useIndexes() {
+        long power = category("Power Tools", null);
+        long drills = category("Drills", power);
+        long cordless = category("Cordless", drills);
+        ContentValues values = tool("4006381");
+        values.put(ToolEntry.COLUMN_CATEGORY_ID, cordless);
+        mProvider.insert(ToolEntry.CONTENT_URI, values);
+        mChecker.clear();
+
+        // The tool is counted at every level above its category
+        Cursor children = mProvider.query(CategoryEntry.CONTENT_URI, null,
+                CategoryEntry.TOP_LEVEL_SELECTION, null, null);
+        assertTrue(children.moveToFirst());
+        assertEquals(1, children.getInt(
+                children.getColumnIndexOrThrow(CategoryEntry.COLUMN_TOOL_COUNT)));
+        close(children);
+
+        close(mProvider.query(CategoryEntry.buildChildrenUri(power), null, null, null, null));
+        Cursor tools = mProvider.query(CategoryEntry.buildToolsUri(power), null, null, null,
+                ToolEntry.SORT_BY_NAME);
+        assertEquals(1, tools.getCount());
+        close(tools);
+
+        // The catalog shows a category through the selection of the list and its index
+        String subtree = CategoryEntry.buildSubtreeSelection(power);
+        close(mProvider.query(ToolEntry.CONTENT_URI, null, subtree, null,
+                ToolEntry.SORT_BY_NAME));
+        close(mProvider.query(IndexEntry.CONTENT_URI, null, subtree, null, null));
+
+        // The subtree is found through its paths, not by filtering every live tool
+        for (QueryPlanChecker.Plan plan : mChecker.getPlans()) {
+            if (plan.sql.contains(CategoryEntry.PATHS_TABLE_NAME)) {
+                assertFalse(plan.sql + " -> " + plan.steps,
+                        plan.steps.toString().contains("tools_name_index"));
+            }
+        }
+        assertFalse(mChecker.getPlans().isEmpty());
+        assertEquals(Collections.<String>emptyList(), mChecker.getProblems());
+    }
+
+    @Test
+    public void listQueries_useIndexes() {
+        long id = ContentUris.parseId(mProvider.insert(ToolEntry.CONTENT_URI, tool("4006381")));
+        ContentValues sale = new ContentValues();
+        sale.put(ToolEntry.COLUMN_TOOL_QUANTITY, 1);
+        mProvider.update(ToolEntry.buildSaleUri(id), sale, null, null);
+        ContentValues lot = new ContentValues();
+        lot.put(LotEntry.COLUMN_TOOL_ID, id);
+        lot.put(LotEntry.COLUMN_EXPIRY, System.currentTimeMillis());
+        lot.put(LotEntry.COLUMN_QUANTITY, 2);
+        mProvider.insert(LotEntry.CONTENT_URI, lot);
+        mChecker.clear();
+
+        // The catalog and its index read every live tool, which the name index gives in order
+        close(mProvider.query(ToolEntry.CONTENT_URI, null, null, null, ToolEntry.SORT_BY_NAME));
+        close(mProvider.query(IndexEntry.CONTENT_URI, null, null, null, null));
+        close(mProvider.query(CategoryEntry.CONTENT_URI, null, CategoryEntry.TOP_LEVEL_SELECTION,
+                null, null));
+
+        long today = ReportEntry.getDay(System.currentTimeMillis());
+        for (Uri report : new Uri[] { ReportEntry.DAILY_URI, ReportEntry.WEEKLY_URI,
+                ReportEntry.TOOLS_URI }) {
+            close(mProvider.query(ReportEntry.buildReportUri(report, today - 30, today), null,
+                    null, null, null));
+        }
+
+        Cursor expiring = mProvider.query(LotEntry.buildExpiringUri(30), null, null, null, null);
+        assertEquals(1, expiring.getCount());
+        close(expiring);
+
+        assertFalse(mChecker.getPlans().isEmpty());
+        assertEquals(Collections.<String>emptyList(), mChecker.getProblems());
+    }
+
+    @Test
+    public void unindexedLookup_isReported() {
+        mChecker.clear();
+        close(mProvider.query(ToolEntry.CONTENT_URI, null,
+                ToolEntry.COLUMN_SUPPLIER_NAME + "=?", new String[] { "Supplier" }, null));
+
+        assertEquals(1, mChecker.getProblems().size());
+    }
+
+    @Test
+    public void findProblems_readsBothPlanFormats() {
+        assertEquals(Collections.singletonList("Full scan of tools"),
+                QueryPlanChecker.findProblems("SELECT * FROM tools WHERE price=?",
+                        Collections.singletonList("SCAN TABLE tools")));
+        assertEquals(Arrays.asList("Full scan of sales", "Sort without index"),
+                QueryPlanChecker.findProblems("SELECT * FROM sales ORDER BY quantity",
+                        Arrays.asList("SCAN sales", "USE TEMP B-TREE FOR ORDER BY")));
+        assertEquals(Collections.<String>emptyList(),
+                QueryPlanChecker.findProblems("SELECT * FROM tools JOIN locations",
+                        Arrays.asList("SEARCH tools USING INTEGER PRIMARY KEY (rowid=?)",
+                                "SCAN locations", "USE TEMP B-TREE FOR ORDER BY")));
+        assertEquals(Collections.<String>emptyList(),
+                QueryPlanChecker.findProblems("SELECT * FROM tools WHERE category_id IN (?, ?)",
+                        Arrays.asList(
+                                "SEARCH tools USING INDEX tools_category_index (category_id=?)",
+                                "USE TEMP B-TREE FOR ORDER BY")));
+    }
+
+    @Test
+    public void findProblems_reportsSearchOfEveryLiveRow() {
+        // Filtering every live tool read through the deleted flag is a full scan in disguise
+        assertEquals(Collections.singletonList("Search of every live row of tools"),
+                QueryPlanChecker.findProblems(
+                        "SELECT * FROM tools WHERE (price=?) AND tools.deleted=0",
+                        Collections.singletonList(
+                                "SEARCH TABLE tools USING INDEX tools_name_index (deleted=?)")));
+
+        // Listing every live tool has to read them all
+        assertEquals(Collections.<String>emptyList(),
+                QueryPlanChecker.findProblems(
+                        "SELECT * FROM tools WHERE tools.deleted=0 ORDER BY name COLLATE NOCASE",
+                        Collections.singletonList(
+                                "SEARCH tools USING INDEX tools_name_index (deleted=?)")));
+        assertEquals(Collections.singletonList("Sort without index"),
+                QueryPlanChecker.findProblems(
+                        "SELECT * FROM tools WHERE tools.deleted=0 ORDER BY price",
+                        Arrays.asList("SEARCH tools USING INDEX tools_name_index (deleted=?)",
+                                "USE TEMP B-TREE FOR ORDER BY")));
+    }
+
+    private static ContentValues tool(String sku) {
+        ContentValues values = new ContentValues();
+        values.put(ToolEntry.COLUMN_TOOL_NAME, "Hammer");
+        values.put(ToolEntry.COLUMN_TOOL_SKU, sku);
+        values.put(ToolEntry.COLUMN_TOOL_PRICE, 10);
+        values.put(ToolEntry.COLUMN_TOOL_QUANTITY, 5);
+        values.put(ToolEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        values.put(ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "555");
+        return values;
+    }
+
+    private long category(String name, Long parentId) {
+        ContentValues values = new ContentValues();
+        values.put(CategoryEntry.COLUMN_CATEGORY_NAME, name);
+        values.put(CategoryEntry.COLUMN_PARENT_ID, parentId);
+        return ContentUris.parseId(mProvider.insert(CategoryEntry.CONTENT_URI, values));
+    }
+
+    private static void close(Cursor cursor) {
+        if (cursor != null) {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.example.android.inventory.data.ToolContract.ToolEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the quantity adjustments of several tools in a single call to {@link ToolProvider}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class ToolProviderBatchTest {
+
+    private ToolProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(ToolProvider.class,
+                ToolContract.CONTENT_AUTHORITY);
+    }
+
+    @Test
+    public void adjustQuantities_restocksToolWithoutStock() {
+        long empty = insertTool(0);
+        long stocked = insertTool(2);
+
+        assertArrayEquals(new int[] { 4, 5 },
+                adjustQuantities(new long[] { empty, stocked }, new int[] { 4, 3 }));
+        assertEquals(4, queryQuantity(empty));
+        assertEquals(5, queryQuantity(stocked));
+    }
+
+    @Test
+    public void adjustQuantities_rejectsNegativeStock() {
+        long low = insertTool(3);
+        long high = insertTool(5);
+
+        // The tool without enough stock is left as is, the other one is adjusted
+        assertArrayEquals(new int[] { -1, 3 },
+                adjustQuantities(new long[] { low, high }, new int[] { -4, -2 }));
+        assertEquals(3, queryQuantity(low));
+        assertEquals(3, queryQuantity(high));
+    }
+
+    @Test
+    public void adjustQuantities_skipsMissingTool() {
+        long deleted = insertTool(0);
+        assertEquals(1, mProvider.delete(ContentUris.withAppendedId(ToolEntry.CONTENT_URI,
+                deleted), null, null));
+
+        assertArrayEquals(new int[] { -1 },
+                adjustQuantities(new long[] { deleted }, new int[] { 4 }));
+    }
+
+    private int[] adjustQuantities(long[] ids, int[] deltas) {
+        Bundle extras = new Bundle();
+        extras.putLongArray(ToolContract.EXTRA_IDS, ids);
+        extras.putIntArray(ToolContract.EXTRA_QUANTITY_DELTAS, deltas);
+        return mProvider.call(ToolContract.METHOD_ADJUST_QUANTITIES, null, extras)
+                .getIntArray(ToolContract.EXTRA_QUANTITIES);
+    }
+
+    private long insertTool(int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ToolEntry.COLUMN_TOOL_NAME, "Chisel");
+        values.put(ToolEntry.COLUMN_TOOL_PRICE, 8);
+        values.put(ToolEntry.COLUMN_TOOL_QUANTITY, quantity);
+        values.put(ToolEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        values.put(ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "555");
+        return ContentUris.parseId(mProvider.insert(ToolEntry.CONTENT_URI, values));
+    }
+
+    private int queryQuantity(long id) {
+        Cursor cursor = mProvider.query(ContentUris.withAppendedId(ToolEntry.CONTENT_URI, id),
+                new String[] { ToolEntry.COLUMN_TOOL_QUANTITY }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
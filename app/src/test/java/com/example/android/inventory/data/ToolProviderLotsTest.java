@@ -0,0 +1,150 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.inventory.data.ToolContract.LotEntry;
+import com.example.android.inventory.data.ToolContract.ToolEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the stock taken from a tool is taken from its lots as well, the first to expire
+ * first, and that its lots never hold more than the stock at the default location.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class ToolProviderLotsTest {
+
+    private ToolProvider mProvider;
+    private long mToolId;
+
+    /** Lots of the tool, in the order they are inserted, not the order they expire */
+    private long mLateLot;
+    private long mEarlyLot;
+    private long mMiddleLot;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(ToolProvider.class,
+                ToolContract.CONTENT_AUTHORITY);
+
+        // 2 units are in no lot, and 12 in lots expiring on days 3, 1 and 2
+        mToolId = ContentUris.parseId(mProvider.insert(ToolEntry.CONTENT_URI, tool(2)));
+        mLateLot = lot(3, 4);
+        mEarlyLot = lot(1, 3);
+        mMiddleLot = lot(2, 5);
+    }
+
+    @Test
+    public void sale_consumesLotsFirstToExpireFirst() {
+        // The lot expiring first is emptied, and the next one only partially
+        assertEquals(1, sell(5));
+        assertEquals(Arrays.asList(pair(mMiddleLot, 3), pair(mLateLot, 4)), queryLots());
+
+        // A sale ending exactly at the end of a lot deletes it
+        assertEquals(1, sell(3));
+        assertEquals(Arrays.asList(pair(mLateLot, 4)), queryLots());
+        assertEquals(6, queryQuantity());
+    }
+
+    @Test
+    public void sale_beyondLots_emptiesThemAll() {
+        // The stock in no lot covers what the lots do not hold
+        assertEquals(1, sell(13));
+        assertEquals(Collections.<List<Long>>emptyList(), queryLots());
+        assertEquals(1, queryQuantity());
+    }
+
+    @Test
+    public void quantityUpdate_trimsLotsToStock() {
+        // The lots hold 12 units, so 7 are taken from them, the first to expire first
+        ContentValues values = new ContentValues();
+        values.put(ToolEntry.COLUMN_TOOL_QUANTITY, 5);
+        assertEquals(1, mProvider.update(ContentUris.withAppendedId(ToolEntry.CONTENT_URI,
+                mToolId), values, null, null));
+
+        assertEquals(Arrays.asList(pair(mMiddleLot, 1), pair(mLateLot, 4)), queryLots());
+        assertEquals(5, queryQuantity());
+    }
+
+    @Test
+    public void quantityUpdate_aboveLots_keepsThem() {
+        ContentValues values = new ContentValues();
+        values.put(ToolEntry.COLUMN_TOOL_QUANTITY, 12);
+        assertEquals(1, mProvider.update(ContentUris.withAppendedId(ToolEntry.CONTENT_URI,
+                mToolId), values, null, null));
+
+        assertEquals(Arrays.asList(pair(mEarlyLot, 3), pair(mMiddleLot, 5), pair(mLateLot, 4)),
+                queryLots());
+    }
+
+    private int sell(int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ToolEntry.COLUMN_TOOL_QUANTITY, quantity);
+        return mProvider.update(ToolEntry.buildSaleUri(mToolId), values, null, null);
+    }
+
+    private long lot(int expiryDay, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(LotEntry.COLUMN_TOOL_ID, mToolId);
+        values.put(LotEntry.COLUMN_EXPIRY, expiryDay * 86400000L);
+        values.put(LotEntry.COLUMN_QUANTITY, quantity);
+        return ContentUris.parseId(mProvider.insert(LotEntry.CONTENT_URI, values));
+    }
+
+    /**
+     * Return the ID and quantity of each lot of the tool, in the order they are consumed.
+     */
+    private List<List<Long>> queryLots() {
+        List<List<Long>> lots = new ArrayList<>();
+        Cursor cursor = mProvider.query(LotEntry.buildToolLotsUri(mToolId),
+                new String[] { LotEntry._ID, LotEntry.COLUMN_QUANTITY }, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                lots.add(Arrays.asList(cursor.getLong(0), cursor.getLong(1)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return lots;
+    }
+
+    private static List<Long> pair(long id, long quantity) {
+        return Arrays.asList(id, quantity);
+    }
+
+    private int queryQuantity() {
+        Cursor cursor = mProvider.query(ContentUris.withAppendedId(ToolEntry.CONTENT_URI,
+                mToolId), new String[] { ToolEntry.COLUMN_TOOL_QUANTITY }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues tool(int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ToolEntry.COLUMN_TOOL_NAME, "Glue");
+        values.put(ToolEntry.COLUMN_TOOL_PRICE, 4);
+        values.put(ToolEntry.COLUMN_TOOL_QUANTITY, quantity);
+        values.put(ToolEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        values.put(ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "555");
+        return values;
+    }
+}
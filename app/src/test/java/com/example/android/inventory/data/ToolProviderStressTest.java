@@ -0,0 +1,292 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.inventory.data.ToolContract.ChangeEntry;
+import com.example.android.inventory.data.ToolContract.StockEntry;
+import com.example.android.inventory.data.ToolContract.ToolEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs mixed workloads against {@link ToolProvider} from many threads at once, then checks
+ * that no write was lost and that the tables are consistent with each other.
+ *
+ * This checks the invariants of the provider under concurrent calls, not its throughput. The
+ * SQLite of Robolectric runs one statement at a time, whatever the thread, so timing the runs
+ * would not tell how the provider scales on a device.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class ToolProviderStressTest {
+
+    /** Number of tools every run starts with, which are sold but never deleted */
+    private static final int SEED_TOOLS = 20;
+
+    /** Quantity every seed tool starts with */
+    private static final int SEED_QUANTITY = 1000;
+
+    /** Number of operations run by each thread */
+    private static final int OPERATIONS_PER_THREAD = 400;
+
+    /** Numbers of threads the workload is run with */
+    private static final int[] THREAD_COUNTS = { 1, 2, 4, 8 };
+
+    private ToolProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(ToolProvider.class,
+                ToolContract.CONTENT_AUTHORITY);
+    }
+
+    @Test
+    public void mixedWorkload_keepsInvariants() throws Exception {
+        for (int threadCount : THREAD_COUNTS) {
+            new Run(threadCount).execute();
+        }
+    }
+
+    /**
+     * A run of the workload with a given number of threads, over its own seed tools. Each
+     * thread sells seed tools, rewrites their price, lists the tools, and inserts then deletes
+     * tools of its own.
+     */
+    private class Run {
+
+        private final int mThreadCount;
+        private final long[] mSeedIds = new long[SEED_TOOLS];
+
+        /** Number of units of each seed tool sold */
+        private final AtomicIntegerArray mSold = new AtomicIntegerArray(SEED_TOOLS);
+
+        /** Tools inserted by the threads, and those claimed for deletion by one of them */
+        private final Set<Long> mInserted = Collections.newSetFromMap(
+                new ConcurrentHashMap<Long, Boolean>());
+        private final Set<Long> mDeleted = Collections.newSetFromMap(
+                new ConcurrentHashMap<Long, Boolean>());
+
+        /** Tools whose deletion has returned, which must never be listed again */
+        private final Set<Long> mDeletionsDone = Collections.newSetFromMap(
+                new ConcurrentHashMap<Long, Boolean>());
+
+        /** Number of writes that must each have been recorded in the change log */
+        private final AtomicInteger mLoggedWrites = new AtomicInteger();
+
+        private final AtomicReference<Throwable> mFailure = new AtomicReference<>();
+
+        Run(int threadCount) {
+            mThreadCount = threadCount;
+        }
+
+        void execute() throws Exception {
+            for (int i = 0; i < SEED_TOOLS; i++) {
+                mSeedIds[i] = ContentUris.parseId(
+                        mProvider.insert(ToolEntry.CONTENT_URI, tool("Seed " + i, SEED_QUANTITY)));
+            }
+            Set<Long> liveBefore = queryToolIds();
+            int changesBefore = countChanges();
+
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < mThreadCount; t++) {
+                final Random random = new Random(t);
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                                runOperation(random);
+                            }
+                        } catch (Throwable e) {
+                            mFailure.compareAndSet(null, e);
+                        }
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            if (mFailure.get() != null) {
+                throw new AssertionError("Operation failed with " + mThreadCount + " threads",
+                        mFailure.get());
+            }
+
+            checkInvariants(liveBefore, changesBefore);
+        }
+
+        /**
+         * Run a random operation, and check what it returns against what is known to be true
+         * whatever the other threads do.
+         */
+        private void runOperation(Random random) {
+            int seed = random.nextInt(SEED_TOOLS);
+            int operation = random.nextInt(10);
+            if (operation < 4) {
+                ContentValues values = new ContentValues();
+                values.put(ToolEntry.COLUMN_TOOL_QUANTITY, 1);
+                if (mProvider.update(ToolEntry.buildSaleUri(mSeedIds[seed]), values,
+                        null, null) == 1) {
+                    mSold.incrementAndGet(seed);
+                    mLoggedWrites.incrementAndGet();
+                }
+            } else if (operation < 6) {
+                ContentValues values = tool("Seed " + seed, null);
+                values.put(ToolEntry.COLUMN_TOOL_PRICE, random.nextInt(100));
+                assertEquals(1, mProvider.update(
+                        ContentUris.withAppendedId(ToolEntry.CONTENT_URI, mSeedIds[seed]),
+                        values, null, null));
+                mLoggedWrites.incrementAndGet();
+            } else if (operation < 8) {
+                checkToolList();
+            } else if (operation < 9 || mInserted.size() == mDeleted.size()) {
+                long id = ContentUris.parseId(
+                        mProvider.insert(ToolEntry.CONTENT_URI, tool("Scratch", 5)));
+                mInserted.add(id);
+                mLoggedWrites.incrementAndGet();
+            } else {
+                // Delete a scratch tool that no other thread is deleting
+                for (Long id : mInserted) {
+                    if (mDeleted.add(id)) {
+                        assertEquals(1, mProvider.delete(
+                                ContentUris.withAppendedId(ToolEntry.CONTENT_URI, id), null, null));
+                        mDeletionsDone.add(id);
+                        mLoggedWrites.incrementAndGet();
+                        break;
+                    }
+                }
+            }
+        }
+
+        /**
+         * List the tools, and check that no deleted tool appears in the list and that no
+         * quantity is negative.
+         */
+        private void checkToolList() {
+            Set<Long> deleted = new HashSet<>(mDeletionsDone);
+            Cursor cursor = mProvider.query(ToolEntry.CONTENT_URI,
+                    new String[] { ToolEntry._ID, ToolEntry.COLUMN_TOOL_QUANTITY },
+                    null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    long id = cursor.getLong(0);
+                    // A tool being deleted may still be listed, but not one already deleted
+                    assertFalse("Deleted tool " + id + " is listed", deleted.contains(id));
+                    assertTrue("Tool " + id + " has a negative quantity", cursor.getInt(1) >= 0);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        /**
+         * Check that every sale was applied, that the totals match the stock, and that the
+         * tools and change log hold exactly the rows written.
+         */
+        private void checkInvariants(Set<Long> liveBefore, int changesBefore) {
+            for (int i = 0; i < SEED_TOOLS; i++) {
+                assertEquals("Lost sale of seed tool " + i, SEED_QUANTITY - mSold.get(i),
+                        queryQuantity(mSeedIds[i]));
+                assertEquals("Total of seed tool " + i + " differs from its stock",
+                        queryQuantity(mSeedIds[i]), sumStock(mSeedIds[i]));
+            }
+
+            Set<Long> expected = new HashSet<>(liveBefore);
+            expected.addAll(mInserted);
+            expected.removeAll(mDeleted);
+            assertEquals(expected, queryToolIds());
+
+            assertEquals(changesBefore + mLoggedWrites.get(), countChanges());
+        }
+    }
+
+    private static ContentValues tool(String name, Integer quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ToolEntry.COLUMN_TOOL_NAME, name);
+        values.put(ToolEntry.COLUMN_TOOL_PRICE, 10);
+        if (quantity != null) {
+            values.put(ToolEntry.COLUMN_TOOL_QUANTITY, quantity);
+        }
+        values.put(ToolEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        values.put(ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "555");
+        return values;
+    }
+
+    private Set<Long> queryToolIds() {
+        Set<Long> ids = new HashSet<>();
+        Cursor cursor = mProvider.query(ToolEntry.CONTENT_URI, new String[] { ToolEntry._ID },
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    private int queryQuantity(long id) {
+        Cursor cursor = mProvider.query(ContentUris.withAppendedId(ToolEntry.CONTENT_URI, id),
+                new String[] { ToolEntry.COLUMN_TOOL_QUANTITY }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int sumStock(long toolId) {
+        Uri stockUri = StockEntry.buildToolStockUri(toolId);
+        Cursor cursor = mProvider.query(stockUri, new String[] { StockEntry.COLUMN_QUANTITY },
+                null, null, null);
+        int sum = 0;
+        try {
+            while (cursor.moveToNext()) {
+                sum += cursor.getInt(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        return sum;
+    }
+
+    private int countChanges() {
+        Cursor cursor = mProvider.query(ChangeEntry.CONTENT_URI,
+                new String[] { ChangeEntry._ID }, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
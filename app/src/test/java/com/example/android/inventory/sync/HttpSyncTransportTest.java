@@ -0,0 +1,95 @@
+package com.example.android.inventory.sync;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exercises {@link HttpSyncTransport} against the in-process {@link MockSyncServer}.
+ */
+public class HttpSyncTransportTest {
+
+    private MockSyncServer mServer;
+    private HttpSyncTransport mTransport;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockSyncServer();
+        mTransport = new HttpSyncTransport(mServer.getBaseUrl());
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    @Test
+    public void push_acknowledgesLastSequence() throws Exception {
+        SyncBatch batch = new SyncBatch(Arrays.asList(
+                tool(3, "a", "Ax"),
+                tool(7, "b", "Saw")));
+
+        assertEquals(7, mTransport.push("device-1", batch));
+        assertEquals(2, mServer.getChanges().size());
+    }
+
+    @Test
+    public void pull_returnsOnlyChangesOfOtherDevices() throws Exception {
+        mTransport.push("device-1", new SyncBatch(Collections.singletonList(tool(1, "a", "Ax"))));
+        mTransport.push("device-2", new SyncBatch(Collections.singletonList(tool(1, "b", "Saw"))));
+
+        SyncBatch pulled = mTransport.pull("device-1", 0, SyncEngine.BATCH_SIZE);
+
+        assertEquals(1, pulled.size());
+        assertEquals("b", pulled.getChanges().get(0).getSyncId());
+        assertEquals("Saw", pulled.getChanges().get(0).getValues().get("name"));
+    }
+
+    @Test
+    public void pull_resumesAfterLastSequence() throws Exception {
+        List<SyncChange> changes = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            changes.add(tool(i, "tool-" + i, "Tool " + i));
+        }
+        mTransport.push("device-1", new SyncBatch(changes));
+
+        SyncBatch first = mTransport.pull("device-2", 0, 3);
+        SyncBatch second = mTransport.pull("device-2", first.getLastSequence(0), 3);
+        SyncBatch third = mTransport.pull("device-2", second.getLastSequence(0), 3);
+
+        assertEquals(3, first.size());
+        assertEquals(2, second.size());
+        assertEquals(5, second.getLastSequence(0));
+        assertTrue(third.isEmpty());
+    }
+
+    @Test
+    public void pull_carriesDeletions() throws Exception {
+        mTransport.push("device-1", new SyncBatch(Collections.singletonList(
+                new SyncChange(4, "delete", "a", new HashMap<String, String>()))));
+
+        SyncChange pulled = mTransport.pull("device-2", 0, 10).getChanges().get(0);
+
+        assertEquals("delete", pulled.getOperation());
+        assertTrue(pulled.getValues().isEmpty());
+    }
+
+    private static SyncChange tool(long sequence, String syncId, String name) {
+        Map<String, String> values = new HashMap<>();
+        values.put("name", name);
+        values.put("price", "9.5");
+        values.put("quantity", "3");
+        values.put("supplier", "Supplier_A");
+        values.put("phone_number", null);
+        return new SyncChange(sequence, "update", syncId, values);
+    }
+}
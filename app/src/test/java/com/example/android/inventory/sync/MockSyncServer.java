@@ -0,0 +1,124 @@
+package com.example.android.inventory.sync;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-process stand-in for the sync backend, speaking the protocol of {@link HttpSyncTransport}.
+ * Every pushed change gets a new backend sequence number and remembers the device it came from.
+ */
+class MockSyncServer {
+
+    private final HttpServer mServer;
+
+    /** Changes stored by the backend, in backend sequence order */
+    private final List<SyncChange> mChanges = new ArrayList<>();
+
+    /** Device that pushed each stored change, by backend sequence number */
+    private final Map<Long, String> mOrigins = new HashMap<>();
+
+    /** Number of push requests received */
+    private int mPushCount;
+
+    MockSyncServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/push", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handlePush(exchange);
+            }
+        });
+        mServer.createContext("/pull", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handlePull(exchange);
+            }
+        });
+        mServer.start();
+    }
+
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort();
+    }
+
+    synchronized int getPushCount() {
+        return mPushCount;
+    }
+
+    synchronized List<SyncChange> getChanges() {
+        return new ArrayList<>(mChanges);
+    }
+
+    void stop() {
+        mServer.stop(0);
+    }
+
+    private void handlePush(HttpExchange exchange) throws IOException {
+        String deviceId = exchange.getRequestHeaders().getFirst(HttpSyncTransport.HEADER_DEVICE_ID);
+        InputStream in = exchange.getRequestBody();
+        SyncBatch batch = SyncBatchCodec.read(in);
+        in.close();
+
+        synchronized (this) {
+            mPushCount++;
+            for (SyncChange change : batch.getChanges()) {
+                long sequence = mChanges.size() + 1;
+                mChanges.add(change.withSequence(sequence));
+                mOrigins.put(sequence, deviceId);
+            }
+        }
+
+        byte[] body = String.valueOf(batch.getLastSequence(0)).getBytes("UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    private void handlePull(HttpExchange exchange) throws IOException {
+        String deviceId = exchange.getRequestHeaders().getFirst(HttpSyncTransport.HEADER_DEVICE_ID);
+        long since = 0;
+        int limit = Integer.MAX_VALUE;
+        for (String parameter : exchange.getRequestURI().getQuery().split("&")) {
+            String[] pair = parameter.split("=");
+            if (pair[0].equals("since")) {
+                since = Long.parseLong(pair[1]);
+            } else if (pair[0].equals("limit")) {
+                limit = Integer.parseInt(pair[1]);
+            }
+        }
+
+        List<SyncChange> changes = new ArrayList<>();
+        synchronized (this) {
+            for (SyncChange change : mChanges) {
+                if (changes.size() == limit) {
+                    break;
+                }
+                if (change.getSequence() > since
+                        && !deviceId.equals(mOrigins.get(change.getSequence()))) {
+                    changes.add(change);
+                }
+            }
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        SyncBatchCodec.write(new SyncBatch(changes), body);
+        exchange.getResponseHeaders().set("Content-Type", HttpSyncTransport.CONTENT_TYPE_BATCH);
+        exchange.sendResponseHeaders(200, body.size());
+        OutputStream out = exchange.getResponseBody();
+        body.writeTo(out);
+        out.close();
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.android.inventory.sync;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link SyncBatchCodec} round-trips batches and compresses them.
+ */
+public class SyncBatchCodecTest {
+
+    @Test
+    public void roundTrip_preservesChanges() throws Exception {
+        Map<String, String> values = new LinkedHashMap<>();
+        values.put("name", "Ax");
+        values.put("phone_number", null);
+        List<SyncChange> changes = new ArrayList<>();
+        changes.add(new SyncChange(1, "insert", "a", values));
+        changes.add(new SyncChange(2, "delete", "b", new LinkedHashMap<String, String>()));
+
+        SyncBatch decoded = roundTrip(new SyncBatch(changes));
+
+        assertEquals(changes, decoded.getChanges());
+        assertNull(decoded.getChanges().get(0).getValues().get("phone_number"));
+    }
+
+    @Test
+    public void encode_compressesRepetitiveBatches() throws Exception {
+        List<SyncChange> changes = new ArrayList<>();
+        for (int i = 0; i < SyncEngine.BATCH_SIZE; i++) {
+            Map<String, String> values = new LinkedHashMap<>();
+            values.put("name", "Hammer");
+            values.put("supplier", "Supplier_A");
+            changes.add(new SyncChange(i, "update", "tool-" + i, values));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SyncBatchCodec.write(new SyncBatch(changes), out);
+
+        // Each change is about 70 bytes uncompressed
+        assertTrue(out.size() < SyncEngine.BATCH_SIZE * 20);
+    }
+
+    private static SyncBatch roundTrip(SyncBatch batch) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SyncBatchCodec.write(batch, out);
+        return SyncBatchCodec.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+}
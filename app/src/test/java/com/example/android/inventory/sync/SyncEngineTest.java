@@ -0,0 +1,174 @@
+package com.example.android.inventory.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.inventory.data.ToolContract;
+import com.example.android.inventory.data.ToolContract.ChangeEntry;
+import com.example.android.inventory.data.ToolContract.ToolEntry;
+import com.example.android.inventory.data.ToolProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Syncs the real {@link ToolProvider} with the in-process {@link MockSyncServer}, through
+ * {@link SyncEngine} and {@link HttpSyncTransport}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class SyncEngineTest {
+
+    private MockSyncServer mServer;
+    private ContentResolver mResolver;
+    private SyncEngine mEngine;
+
+    /** Transport of another device sharing the backend */
+    private HttpSyncTransport mOtherDevice;
+
+    @Before
+    public void setUp() throws Exception {
+        Robolectric.setupContentProvider(ToolProvider.class, ToolContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mServer = new MockSyncServer();
+        mEngine = new SyncEngine(RuntimeEnvironment.application,
+                new HttpSyncTransport(mServer.getBaseUrl()));
+        mOtherDevice = new HttpSyncTransport(mServer.getBaseUrl());
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    @Test
+    public void push_sendsEachToolOnceWithItsCurrentValues() throws Exception {
+        Uri ax = mResolver.insert(ToolEntry.CONTENT_URI, tool("Ax"));
+        mResolver.insert(ToolEntry.CONTENT_URI, tool("Saw"));
+        ContentValues values = new ContentValues();
+        values.put(ToolEntry.COLUMN_TOOL_NAME, "Broad ax");
+        assertEquals(1, mResolver.update(ax, values, null, null));
+
+        mEngine.sync();
+
+        // The edited tool moves after the other one, with the values it has now
+        List<SyncChange> pushed = mServer.getChanges();
+        assertEquals(2, pushed.size());
+        assertEquals("Saw", pushed.get(0).getValues().get(ToolEntry.COLUMN_TOOL_NAME));
+        assertEquals("Broad ax", pushed.get(1).getValues().get(ToolEntry.COLUMN_TOOL_NAME));
+        assertEquals(querySyncId(ContentUris.parseId(ax)), pushed.get(1).getSyncId());
+        assertEquals(1, mServer.getPushCount());
+    }
+
+    @Test
+    public void push_prunesAcknowledgedChanges() throws Exception {
+        Uri ax = mResolver.insert(ToolEntry.CONTENT_URI, tool("Ax"));
+        mEngine.sync();
+        assertEquals(0, countChanges());
+
+        // Only the changes made since are pushed, and nothing when there are none
+        assertEquals(1, mResolver.delete(ax, null, null));
+        mEngine.sync();
+        mEngine.sync();
+
+        assertEquals(0, countChanges());
+        assertEquals(2, mServer.getPushCount());
+        List<SyncChange> pushed = mServer.getChanges();
+        assertEquals(2, pushed.size());
+        assertEquals(ChangeEntry.OPERATION_DELETE, pushed.get(1).getOperation());
+    }
+
+    @Test
+    public void pull_appliesChangesOfOtherDevices() throws Exception {
+        Map<String, String> values = new HashMap<>();
+        values.put(ToolEntry.COLUMN_TOOL_NAME, "Plane");
+        values.put(ToolEntry.COLUMN_TOOL_PRICE, "12.5");
+        values.put(ToolEntry.COLUMN_TOOL_QUANTITY, "4");
+        values.put(ToolEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        values.put(ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "555");
+        mOtherDevice.push("other-device", new SyncBatch(Collections.singletonList(
+                new SyncChange(1, ChangeEntry.OPERATION_INSERT, "remote-1", values))));
+
+        mEngine.sync();
+
+        Cursor cursor = queryBySyncId("remote-1");
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Plane", cursor.getString(
+                    cursor.getColumnIndexOrThrow(ToolEntry.COLUMN_TOOL_NAME)));
+            assertEquals(4, cursor.getInt(
+                    cursor.getColumnIndexOrThrow(ToolEntry.COLUMN_TOOL_QUANTITY)));
+        } finally {
+            cursor.close();
+        }
+
+        // The change applied is not logged, so it is not pushed back
+        assertEquals(0, countChanges());
+        mEngine.sync();
+        assertEquals(0, mServer.getPushCount());
+
+        mOtherDevice.push("other-device", new SyncBatch(Collections.singletonList(
+                new SyncChange(2, ChangeEntry.OPERATION_DELETE, "remote-1",
+                        new HashMap<String, String>()))));
+        mEngine.sync();
+
+        cursor = queryBySyncId("remote-1");
+        try {
+            assertEquals(0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private String querySyncId(long id) {
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(ToolEntry.CONTENT_URI, id),
+                new String[] { ToolEntry.COLUMN_SYNC_ID }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Cursor queryBySyncId(String syncId) {
+        return mResolver.query(ToolEntry.CONTENT_URI, null, ToolEntry.COLUMN_SYNC_ID + "=?",
+                new String[] { syncId }, null);
+    }
+
+    private int countChanges() {
+        Cursor cursor = mResolver.query(ChangeEntry.CONTENT_URI,
+                new String[] { ChangeEntry._ID }, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues tool(String name) {
+        ContentValues values = new ContentValues();
+        values.put(ToolEntry.COLUMN_TOOL_NAME, name);
+        values.put(ToolEntry.COLUMN_TOOL_PRICE, 10);
+        values.put(ToolEntry.COLUMN_TOOL_QUANTITY, 5);
+        values.put(ToolEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        values.put(ToolEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "555");
+        return values;
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.android.inventory.client;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Client of the inventory app for the other apps signed with the same key, such as the point
+ * of sale. It reads and adjusts many tools per call to the inventory app's provider, instead of
+ * one call per tool, which costs a round trip between the processes each.
+ *
+ * The methods make blocking calls to another process, so they must not be called on the main
+ * thread. They throw {@link IllegalArgumentException} if the inventory app is not installed, and
+ * {@link SecurityException} if this app is not signed with the same key.
+ */
+public class InventoryClient {
+
+    /** Authority of the provider, which must match the inventory app's contract */
+    private static final String AUTHORITY = "com.example.android.inventory";
+
+    private static final Uri BASE_URI = Uri.parse("content://" + AUTHORITY);
+
+    private static final Uri TOOLS_URI = Uri.withAppendedPath(BASE_URI, "tools");
+
+    /** Query parameters reading the tools in chunks, which must match the contract */
+    private static final String PARAM_AFTER = "after";
+    private static final String PARAM_UNTIL = "until";
+    private static final String PARAM_LIMIT = "limit";
+
+    /** Number of tools read per chunk, which the provider caps as well */
+    private static final int CHUNK_SIZE = 256;
+
+    /** Receives the tools read by {@link #readTools} */
+    public interface ToolCallback {
+
+        /**
+         * Called with each tool, by increasing ID.
+         */
+        void onTool(Tool tool);
+    }
+
+    /** Provider methods and their extras, which must match the inventory app's contract */
+    private static final String METHOD_GET_TOOLS = "get_tools";
+    private static final String METHOD_ADJUST_QUANTITIES = "adjust_quantities";
+    private static final String EXTRA_IDS = "ids";
+    private static final String EXTRA_TOOLS = "tools";
+    private static final String EXTRA_QUANTITY_DELTAS = "quantity_deltas";
+    private static final String EXTRA_QUANTITIES = "quantities";
+
+    /**
+     * Maximum number of tools sent in a single call, which keeps the tools returned well below
+     * the limit of a transaction between processes
+     */
+    private static final int MAX_BATCH_SIZE = 500;
+
+    private final ContentResolver mResolver;
+
+    public InventoryClient(Context context) {
+        mResolver = context.getContentResolver();
+    }
+
+    /**
+     * Return the tools with the given IDs, in that order. The unknown and deleted tools are
+     * left out.
+     */
+    public List<Tool> getTools(long... ids) {
+        List<Tool> tools = new ArrayList<>(ids.length);
+        for (int start = 0; start < ids.length; start += MAX_BATCH_SIZE) {
+            Bundle extras = new Bundle();
+            extras.putLongArray(EXTRA_IDS, Arrays.copyOfRange(ids, start,
+                    Math.min(ids.length, start + MAX_BATCH_SIZE)));
+            Bundle result = mResolver.call(BASE_URI, METHOD_GET_TOOLS, null, extras);
+            ArrayList<ContentValues> values = result.getParcelableArrayList(EXTRA_TOOLS);
+            for (ContentValues tool : values) {
+                tools.add(Tool.fromValues(tool));
+            }
+        }
+        return tools;
+    }
+
+    /**
+     * Read every tool of the catalog, by increasing ID, in chunks of {@link #CHUNK_SIZE} tools
+     * so that no single transfer between the processes grows with the catalog. Each chunk
+     * resumes after the last ID of the previous one, so reading the catalog takes linear time.
+     * Return the number of tools read.
+     *
+     * The tools read are those that existed when the reading started: the tools inserted
+     * meanwhile are left out, and those deleted meanwhile may be missing. Each chunk is read at
+     * once, but a tool updated after its chunk was read is not read again; its version tells
+     * whether it changed since.
+     */
+    public int readTools(ToolCallback callback) {
+        long lastId = getLastToolId();
+        long afterId = 0;
+        int count = 0;
+        while (afterId < lastId) {
+            Uri chunkUri = TOOLS_URI.buildUpon()
+                    .appendQueryParameter(PARAM_AFTER, String.valueOf(afterId))
+                    .appendQueryParameter(PARAM_UNTIL, String.valueOf(lastId))
+                    .appendQueryParameter(PARAM_LIMIT, String.valueOf(CHUNK_SIZE))
+                    .build();
+            Cursor cursor = mResolver.query(chunkUri, Tool.PROJECTION, null, null, null);
+            if (cursor == null) {
+                throw new IllegalArgumentException("Inventory app is not installed");
+            }
+            try {
+                if (!cursor.moveToFirst()) {
+                    break;
+                }
+                do {
+                    Tool tool = Tool.fromCursor(cursor);
+                    callback.onTool(tool);
+                    afterId = tool.getId();
+                    count++;
+                } while (cursor.moveToNext());
+            } finally {
+                cursor.close();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return the highest ID of the tools, or 0 if there is none.
+     */
+    private long getLastToolId() {
+        Uri uri = TOOLS_URI.buildUpon().appendQueryParameter(PARAM_LIMIT, "1").build();
+        Cursor cursor = mResolver.query(uri, new String[] { Tool.COLUMN_ID }, null, null,
+                Tool.COLUMN_ID + " DESC");
+        if (cursor == null) {
+            throw new IllegalArgumentException("Inventory app is not installed");
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Add the given quantities to the stock of the tools with the given IDs, negative to take
+     * it away. An adjustment that would leave a negative stock is not applied. Return the total
+     * quantity of each tool once adjusted, or -1 for the adjustments not applied.
+     *
+     * Each call of the provider adjusts up to {@link #MAX_BATCH_SIZE} tools in a single
+     * transaction, so a larger batch is not applied atomically.
+     */
+    public int[] adjustQuantities(long[] ids, int[] deltas) {
+        if (ids.length != deltas.length) {
+            throw new IllegalArgumentException("Batch requires a quantity for each tool ID");
+        }
+
+        int[] quantities = new int[ids.length];
+        for (int start = 0; start < ids.length; start += MAX_BATCH_SIZE) {
+            int end = Math.min(ids.length, start + MAX_BATCH_SIZE);
+            Bundle extras = new Bundle();
+            extras.putLongArray(EXTRA_IDS, Arrays.copyOfRange(ids, start, end));
+            extras.putIntArray(EXTRA_QUANTITY_DELTAS, Arrays.copyOfRange(deltas, start, end));
+            Bundle result = mResolver.call(BASE_URI, METHOD_ADJUST_QUANTITIES, null, extras);
+            System.arraycopy(result.getIntArray(EXTRA_QUANTITIES), 0, quantities, start,
+                    end - start);
+        }
+        return quantities;
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.android.inventory.client;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+/**
+ * Snapshot of a tool as it was returned by the inventory app. Its version tells whether the
+ * tool has changed since.
+ */
+public class Tool {
+
+    /** Columns of the tools, which must match those of the inventory app's contract */
+    static final String COLUMN_ID = "_id";
+    static final String COLUMN_VERSION = "version";
+    static final String COLUMN_NAME = "name";
+    static final String COLUMN_SKU = "sku";
+    static final String COLUMN_PRICE = "price";
+    static final String COLUMN_QUANTITY = "quantity";
+    static final String COLUMN_SUPPLIER_NAME = "supplier";
+    static final String COLUMN_SUPPLIER_PHONE_NUMBER = "phone_number";
+
+    /** Columns needed to read a tool with {@link #fromCursor} */
+    static final String[] PROJECTION = { COLUMN_ID, COLUMN_VERSION, COLUMN_NAME, COLUMN_SKU,
+            COLUMN_PRICE, COLUMN_QUANTITY, COLUMN_SUPPLIER_NAME, COLUMN_SUPPLIER_PHONE_NUMBER };
+
+    private final long mId;
+    private final long mVersion;
+    private final String mName;
+    private final String mSku;
+    private final float mPrice;
+    private final int mQuantity;
+    private final String mSupplierName;
+    private final String mSupplierPhoneNumber;
+
+    private Tool(long id, long version, String name, String sku, float price, int quantity,
+                 String supplierName, String supplierPhoneNumber) {
+        mId = id;
+        mVersion = version;
+        mName = name;
+        mSku = sku;
+        mPrice = price;
+        mQuantity = quantity;
+        mSupplierName = supplierName;
+        mSupplierPhoneNumber = supplierPhoneNumber;
+    }
+
+    /**
+     * Read a tool from the values returned by the inventory app.
+     */
+    static Tool fromValues(ContentValues values) {
+        Float price = values.getAsFloat(COLUMN_PRICE);
+        Integer quantity = values.getAsInteger(COLUMN_QUANTITY);
+        return new Tool(
+                values.getAsLong(COLUMN_ID),
+                values.getAsLong(COLUMN_VERSION),
+                values.getAsString(COLUMN_NAME),
+                values.getAsString(COLUMN_SKU),
+                price != null ? price : 0,
+                quantity != null ? quantity : 0,
+                values.getAsString(COLUMN_SUPPLIER_NAME),
+                values.getAsString(COLUMN_SUPPLIER_PHONE_NUMBER));
+    }
+
+    /**
+     * Read the tool at the current position of a cursor queried with {@link #PROJECTION}.
+     */
+    static Tool fromCursor(Cursor cursor) {
+        return new Tool(cursor.getLong(0), cursor.getLong(1), cursor.getString(2),
+                cursor.getString(3), cursor.getFloat(4), cursor.getInt(5), cursor.getString(6),
+                cursor.getString(7));
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public String getSku() {
+        return mSku;
+    }
+
+    public float getPrice() {
+        return mPrice;
+    }
+
+    public int getQuantity() {
+        return mQuantity;
+    }
+
+    public String getSupplierName() {
+        return mSupplierName;
+    }
+
+    public String getSupplierPhoneNumber() {
+        return mSupplierPhoneNumber;
+    }
+}